@@ -0,0 +1,252 @@
+package it.viborg.capacitor.video.recorder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Fixtures for the benchmarks: files of random bytes, and synthetic MP4 files laid out the way
+ * camera apps write them. The MP4s have a 30 fps video track with a keyframe every second and
+ * an AAC-sized audio track, interleaved in half second chunks with moov at the end. Sample
+ * payloads are random, only the structure is realistic.
+ */
+class BenchmarkMedia {
+
+    static final int VIDEO_TIMESCALE = 30000;
+    static final int FRAME_DURATION = 1000;
+    static final int FRAMES_PER_SECOND = 30;
+    static final int AUDIO_TIMESCALE = 48000;
+    static final int AUDIO_FRAME_DURATION = 1024;
+
+    private static final int KEYFRAME_SIZE = 24 * 1024;
+    private static final int FRAME_SIZE = 3 * 1024;
+    private static final int AUDIO_FRAME_SIZE = 384;
+
+    private BenchmarkMedia() {}
+
+    static File createTempDirectory() throws IOException {
+        File directory = File.createTempFile("video-recorder-bench", "");
+        if (!directory.delete() || !directory.mkdir()) {
+            throw new IOException("Unable to create " + directory);
+        }
+        return directory;
+    }
+
+    static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Writes size bytes of seeded random data.
+     */
+    static File createRandomFile(File directory, String name, long size) throws IOException {
+        File file = new File(directory, name);
+        Random random = new Random(size);
+        byte[] block = new byte[1024 * 1024];
+        try (FileChannel out = new FileOutputStream(file).getChannel()) {
+            long written = 0;
+            while (written < size) {
+                random.nextBytes(block);
+                ByteBuffer buffer = ByteBuffer.wrap(block, 0, (int) Math.min(block.length, size - written));
+                written += buffer.remaining();
+                Mp4File.writeFully(out, buffer);
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Writes an MP4 of the given length with moov after the media data.
+     */
+    static File createMp4(File directory, String name, int seconds) throws IOException {
+        Mp4SampleTable.Builder video = new Mp4SampleTable.Builder();
+        Mp4SampleTable.Builder audio = new Mp4SampleTable.Builder();
+        // Chunk sizes in mdat order, alternating video and audio
+        List<long[]> chunks = new ArrayList<>();
+
+        int frames = seconds * FRAMES_PER_SECOND;
+        long audioTime = 0;
+        for (int first = 0; first < frames; first += FRAMES_PER_SECOND / 2) {
+            video.startChunk(1);
+            long size = 0;
+            for (int frame = first; frame < Math.min(frames, first + FRAMES_PER_SECOND / 2); frame++) {
+                boolean sync = frame % FRAMES_PER_SECOND == 0;
+                int frameSize = sync ? KEYFRAME_SIZE : FRAME_SIZE;
+                video.addSample(frameSize, FRAME_DURATION, 0, sync);
+                size += frameSize;
+            }
+            chunks.add(new long[] { 0, size });
+
+            audio.startChunk(1);
+            size = 0;
+            long chunkEnd = (long) Math.min(frames, first + FRAMES_PER_SECOND / 2) * FRAME_DURATION * AUDIO_TIMESCALE / VIDEO_TIMESCALE;
+            while (audioTime < chunkEnd) {
+                audio.addSample(AUDIO_FRAME_SIZE, AUDIO_FRAME_DURATION, 0, true);
+                audioTime += AUDIO_FRAME_DURATION;
+                size += AUDIO_FRAME_SIZE;
+            }
+            chunks.add(new long[] { 1, size });
+        }
+
+        Mp4Box ftyp = new Mp4Box(
+                "ftyp",
+                ByteBuffer.allocate(24).put(ascii("isom")).putInt(0x200).put(ascii("isomiso2avc1mp41")).array()
+        );
+        long mdatStart = ftyp.getSize();
+        long[] videoOffsets = new long[video.getChunkCount()];
+        long[] audioOffsets = new long[audio.getChunkCount()];
+        long position = mdatStart + 8;
+        int videoChunk = 0;
+        int audioChunk = 0;
+        for (long[] chunk : chunks) {
+            if (chunk[0] == 0) {
+                videoOffsets[videoChunk++] = position;
+            } else {
+                audioOffsets[audioChunk++] = position;
+            }
+            position += chunk[1];
+        }
+        long mdatSize = position - mdatStart;
+
+        long durationMs = (long) frames * FRAME_DURATION * 1000 / VIDEO_TIMESCALE;
+        Mp4Box moov = new Mp4Box(
+                "moov",
+                new ArrayList<>(
+                        Arrays.asList(
+                                new Mp4Box("mvhd", movieHeader(durationMs)),
+                                track(1, "vide", VIDEO_TIMESCALE, video, videoOffsets, durationMs),
+                                track(2, "soun", AUDIO_TIMESCALE, audio, audioOffsets, durationMs)
+                        )
+                )
+        );
+
+        File file = new File(directory, name);
+        Random random = new Random(seconds);
+        byte[] block = new byte[KEYFRAME_SIZE * FRAMES_PER_SECOND];
+        random.nextBytes(block);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel out = raf.getChannel()) {
+            raf.setLength(0);
+            Mp4File.writeFully(out, ftyp.toBuffer());
+            Mp4File.writeFully(out, ByteBuffer.allocate(8).putInt((int) mdatSize).put(ascii("mdat")).flip());
+            for (long[] chunk : chunks) {
+                Mp4File.writeFully(out, ByteBuffer.wrap(block, 0, (int) chunk[1]));
+            }
+            Mp4File.writeFully(out, moov.toBuffer());
+        }
+        return file;
+    }
+
+    private static Mp4Box track(int id, String handler, int timescale, Mp4SampleTable.Builder samples, long[] chunkOffsets, long durationMs) {
+        boolean isVideo = "vide".equals(handler);
+        Mp4Box stbl = new Mp4Box(
+                "stbl",
+                new ArrayList<>(Arrays.asList(new Mp4Box("stsd", isVideo ? videoDescription() : audioDescription())))
+        );
+        samples.write(stbl, chunkOffsets, false);
+
+        Mp4Box dref = new Mp4Box(
+                "dref",
+                ByteBuffer.allocate(20).putInt(0).putInt(1).putInt(12).put(ascii("url ")).putInt(1).array()
+        );
+        Mp4Box minf = new Mp4Box(
+                "minf",
+                new ArrayList<>(
+                        Arrays.asList(
+                                isVideo ? new Mp4Box("vmhd", ByteBuffer.allocate(12).putInt(1).array()) : new Mp4Box("smhd", new byte[8]),
+                                new Mp4Box("dinf", new ArrayList<>(Arrays.asList(dref))),
+                                stbl
+                        )
+                )
+        );
+        Mp4Box mdia = new Mp4Box(
+                "mdia",
+                new ArrayList<>(
+                        Arrays.asList(
+                                new Mp4Box("mdhd", mediaHeader(timescale, samples.getDuration())),
+                                new Mp4Box("hdlr", ByteBuffer.allocate(25).putInt(0).putInt(0).put(ascii(handler)).array()),
+                                minf
+                        )
+                )
+        );
+        return new Mp4Box("trak", new ArrayList<>(Arrays.asList(new Mp4Box("tkhd", trackHeader(id, isVideo, durationMs)), mdia)));
+    }
+
+    private static byte[] movieHeader(long durationMs) {
+        ByteBuffer buffer = ByteBuffer.allocate(100);
+        buffer.putInt(0).putInt(0).putInt(0).putInt(1000).putInt((int) durationMs);
+        buffer.putInt(0x00010000).putShort((short) 0x0100);
+        buffer.position(buffer.position() + 10);
+        putMatrix(buffer);
+        buffer.position(buffer.position() + 24);
+        buffer.putInt(3);
+        return buffer.array();
+    }
+
+    private static byte[] trackHeader(int id, boolean isVideo, long durationMs) {
+        ByteBuffer buffer = ByteBuffer.allocate(84);
+        buffer.putInt(3).putInt(0).putInt(0).putInt(id).putInt(0).putInt((int) durationMs);
+        buffer.position(buffer.position() + 12);
+        buffer.putShort(isVideo ? 0 : (short) 0x0100).putShort((short) 0);
+        putMatrix(buffer);
+        buffer.putInt(isVideo ? 1920 << 16 : 0).putInt(isVideo ? 1080 << 16 : 0);
+        return buffer.array();
+    }
+
+    private static byte[] mediaHeader(int timescale, long duration) {
+        // Language "und"
+        return ByteBuffer.allocate(24).putInt(0).putInt(0).putInt(0).putInt(timescale).putInt((int) duration).putShort((short) 0x55c4).array();
+    }
+
+    private static byte[] videoDescription() {
+        ByteBuffer entry = ByteBuffer.allocate(86);
+        entry.putInt(86).put(ascii("avc1"));
+        entry.position(entry.position() + 6);
+        entry.putShort((short) 1);
+        entry.position(entry.position() + 16);
+        entry.putShort((short) 1920).putShort((short) 1080).putInt(0x00480000).putInt(0x00480000).putInt(0).putShort((short) 1);
+        entry.position(entry.position() + 32);
+        entry.putShort((short) 0x18).putShort((short) -1);
+        return description(entry.array());
+    }
+
+    private static byte[] audioDescription() {
+        ByteBuffer entry = ByteBuffer.allocate(36);
+        entry.putInt(36).put(ascii("mp4a"));
+        entry.position(entry.position() + 6);
+        entry.putShort((short) 1);
+        entry.position(entry.position() + 8);
+        entry.putShort((short) 1).putShort((short) 16).putInt(0).putInt(AUDIO_TIMESCALE << 16);
+        return description(entry.array());
+    }
+
+    private static byte[] description(byte[] entry) {
+        return ByteBuffer.allocate(8 + entry.length).putInt(0).putInt(1).put(entry).array();
+    }
+
+    private static void putMatrix(ByteBuffer buffer) {
+        buffer.putInt(0x00010000).putInt(0).putInt(0);
+        buffer.putInt(0).putInt(0x00010000).putInt(0);
+        buffer.putInt(0).putInt(0).putInt(0x40000000);
+    }
+
+    private static byte[] ascii(String value) {
+        byte[] bytes = new byte[value.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) value.charAt(i);
+        }
+        return bytes;
+    }
+}
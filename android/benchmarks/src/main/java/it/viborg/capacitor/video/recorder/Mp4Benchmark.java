@@ -0,0 +1,79 @@
+package it.viborg.capacitor.video.recorder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MP4 box parsing and the lossless rewrites: reading every track's sample table, moving moov to
+ * the front, and trimming ten seconds out of the middle.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Benchmark)
+public class Mp4Benchmark {
+
+    @Param({ "60", "600" })
+    public int seconds;
+
+    private File directory;
+    private FileChannel moovAtEnd;
+    private FileChannel fastStart;
+    private RandomAccessFile output;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = BenchmarkMedia.createTempDirectory();
+        File recorded = BenchmarkMedia.createMp4(directory, "recorded.mp4", seconds);
+        File copy = BenchmarkMedia.createMp4(directory, "faststart.mp4", seconds);
+        Mp4FastStart.process(copy);
+        moovAtEnd = new FileInputStream(recorded).getChannel();
+        fastStart = new FileInputStream(copy).getChannel();
+        output = new RandomAccessFile(new File(directory, "output.mp4"), "rw");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        moovAtEnd.close();
+        fastStart.close();
+        output.close();
+        BenchmarkMedia.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public List<Mp4Track> readTracks() throws IOException {
+        return Mp4Track.readAll(Mp4File.scan(moovAtEnd).readMoov(moovAtEnd));
+    }
+
+    @Benchmark
+    public boolean fastStart() throws IOException {
+        output.setLength(0);
+        return Mp4FastStart.process(moovAtEnd, output.getChannel());
+    }
+
+    @Benchmark
+    public Mp4Trimmer.Result trim() throws IOException {
+        output.setLength(0);
+        return Mp4Trimmer.trim(fastStart, output.getChannel(), seconds * 500L, seconds * 500L + 10000);
+    }
+}
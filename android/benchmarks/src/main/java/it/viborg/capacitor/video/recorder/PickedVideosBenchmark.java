@@ -0,0 +1,145 @@
+package it.viborg.capacitor.video.recorder;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The batch side of processPickedVideos: fanning picked URIs out over the worker pool, building
+ * a result object per video and serializing the combined result or the streamed events, as the
+ * bridge does before handing them to the web view. Uses org.json, which Capacitor's JSObject
+ * extends; URIs are strings in the form the media picker returns.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Benchmark)
+public class PickedVideosBenchmark {
+
+    private static final String LOCAL_URL = "https://localhost";
+    private static final String CONTENT_PREFIX = "content://";
+
+    @Param({ "1", "20", "200" })
+    public int count;
+
+    private ExecutorService pool;
+    private List<String> uris;
+
+    @Setup
+    public void setUp() {
+        pool = VideoWorkerPool.newPool("PickedVideosBenchmark", VideoWorkerPool.defaultSize());
+        uris = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            uris.add("content://media/external/video/media/" + (100000 + i));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Benchmark
+    public String processInOrder() throws Exception {
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<String> result = new AtomicReference<>();
+        VideoBatchProcessor.processInOrder(
+                pool,
+                uris,
+                PickedVideosBenchmark::toResult,
+                new VideoBatchProcessor.Listener<JSONObject>() {
+                    @Override
+                    public void onComplete(List<JSONObject> results) {
+                        JSONObject ret = new JSONObject();
+                        JSONArray videos = new JSONArray();
+                        for (JSONObject video : results) {
+                            if (!video.optString("error").isEmpty()) {
+                                result.set(video.optString("error"));
+                                done.countDown();
+                                return;
+                            }
+                            videos.put(video);
+                        }
+                        try {
+                            ret.put("videos", videos);
+                        } catch (JSONException ex) {
+                            throw new IllegalStateException(ex);
+                        }
+                        result.set(ret.toString());
+                        done.countDown();
+                    }
+
+                    @Override
+                    public void onError(Exception ex) {
+                        done.countDown();
+                    }
+                }
+        );
+        done.await();
+        return result.get();
+    }
+
+    @Benchmark
+    public int processAsCompleted() throws Exception {
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<Integer> length = new AtomicReference<>(0);
+        VideoBatchProcessor.processAsCompleted(
+                pool,
+                uris,
+                PickedVideosBenchmark::toResult,
+                new VideoBatchProcessor.ItemListener<JSONObject>() {
+                    @Override
+                    public void onItem(int index, JSONObject video, Exception error) {
+                        try {
+                            JSONObject event = new JSONObject();
+                            event.put("batchId", "benchmark");
+                            event.put("index", index);
+                            event.put("video", video);
+                            String serialized = event.toString();
+                            synchronized (length) {
+                                length.set(length.get() + serialized.length());
+                            }
+                        } catch (JSONException ex) {
+                            throw new IllegalStateException(ex);
+                        }
+                    }
+
+                    @Override
+                    public void onComplete(int count, int failed) {
+                        done.countDown();
+                    }
+                }
+        );
+        done.await();
+        return length.get();
+    }
+
+    private static JSONObject toResult(String uri) throws JSONException {
+        JSONObject ret = new JSONObject();
+        ret.put("path", uri);
+        // What FileUtils.getPortablePath makes of a content URI
+        ret.put("webPath", LOCAL_URL + "/_capacitor_content_/" + uri.substring(CONTENT_PREFIX.length()));
+        return ret;
+    }
+}
@@ -0,0 +1,62 @@
+package it.viborg.capacitor.video.recorder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * readChunk streaming a file front to back, one chunk per call, with channels and buffers reused
+ * between calls.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Benchmark)
+public class VideoChunkReaderBenchmark {
+
+    private static final long FILE_SIZE = 64L * 1024 * 1024;
+
+    @Param({ "65536", "1048576" })
+    public int chunkSize;
+
+    private File directory;
+    private String path;
+    private VideoChunkReader reader;
+    private long offset;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = BenchmarkMedia.createTempDirectory();
+        path = BenchmarkMedia.createRandomFile(directory, "video.mp4", FILE_SIZE).getAbsolutePath();
+        reader = new VideoChunkReader(file -> new FileInputStream(file).getChannel(), chunkSize, 4);
+    }
+
+    @TearDown
+    public void tearDown() {
+        reader.close();
+        BenchmarkMedia.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public byte[] read() throws IOException {
+        byte[] data = reader.read(path, offset, chunkSize);
+        offset = (offset + chunkSize) % FILE_SIZE;
+        return data;
+    }
+}
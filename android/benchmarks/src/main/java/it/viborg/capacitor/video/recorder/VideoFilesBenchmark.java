@@ -0,0 +1,72 @@
+package it.viborg.capacitor.video.recorder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creating the file a capture or import is written to, and the channel copy used to import
+ * picked videos into app storage.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Benchmark)
+public class VideoFilesBenchmark {
+
+    private static final long COPY_SIZE = 64L * 1024 * 1024;
+
+    private File directory;
+    private File captures;
+    private FileChannel source;
+    private RandomAccessFile target;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = BenchmarkMedia.createTempDirectory();
+        captures = new File(directory, "captures");
+        if (!captures.mkdir()) {
+            throw new IOException("Unable to create " + captures);
+        }
+        source = new FileInputStream(BenchmarkMedia.createRandomFile(directory, "picked.mp4", COPY_SIZE)).getChannel();
+        target = new RandomAccessFile(new File(directory, "imported.mp4"), "rw");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        source.close();
+        target.close();
+        BenchmarkMedia.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public File createVideoFile() throws IOException {
+        File file = VideoFiles.createVideoFile(captures, ".mp4");
+        // Keep the directory small, a growing directory would make later creates slower
+        file.delete();
+        return file;
+    }
+
+    @Benchmark
+    public long copy() throws IOException {
+        target.setLength(0);
+        return VideoFiles.copy(source, target.getChannel(), COPY_SIZE, (bytes, total) -> {});
+    }
+}
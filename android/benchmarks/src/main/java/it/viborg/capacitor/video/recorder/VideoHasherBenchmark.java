@@ -0,0 +1,66 @@
+package it.viborg.capacitor.video.recorder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Content hashing of a video, sequential and spread over the worker pool. The file is read
+ * from the page cache after the first iteration, so this measures hashing rather than storage.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Benchmark)
+public class VideoHasherBenchmark {
+
+    @Param({ "64" })
+    public int megabytes;
+
+    @Param({ "1", "4" })
+    public int parallelism;
+
+    private File directory;
+    private FileChannel channel;
+    private ExecutorService pool;
+    private VideoHasher hasher;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = BenchmarkMedia.createTempDirectory();
+        File file = BenchmarkMedia.createRandomFile(directory, "video.mp4", megabytes * 1024L * 1024L);
+        channel = new FileInputStream(file).getChannel();
+        pool = VideoWorkerPool.newPool("VideoHasherBenchmark", parallelism);
+        hasher = new VideoHasher(pool, parallelism, VideoHasher.DEFAULT_CHUNK_SIZE);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        pool.shutdownNow();
+        channel.close();
+        BenchmarkMedia.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public String hash() throws IOException {
+        return hasher.hash(channel);
+    }
+}
@@ -0,0 +1,42 @@
+package it.viborg.capacitor.video.recorder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the instrumentation wrapped around every stage, from four threads at once so
+ * contention on the shared counters shows up.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class VideoMetricsBenchmark {
+
+    private final VideoMetrics metrics = new VideoMetrics(VideoMetrics.NO_TRACER);
+
+    @Benchmark
+    public void increment() {
+        metrics.increment("metadata.cacheHits");
+    }
+
+    @Benchmark
+    public void time() {
+        try (VideoMetrics.Timer ignored = metrics.time("metadata")) {
+            // Empty stage, only the timer itself is measured
+        }
+    }
+}
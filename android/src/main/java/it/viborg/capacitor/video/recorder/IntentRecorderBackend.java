@@ -0,0 +1,114 @@
+package it.viborg.capacitor.video.recorder;
+
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.provider.MediaStore;
+
+import androidx.activity.result.ActivityResult;
+import androidx.core.content.FileProvider;
+
+import com.getcapacitor.PluginCall;
+
+import java.io.File;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Records through the device's camera app with {@link MediaStore#ACTION_VIDEO_CAPTURE}.
+ */
+class IntentRecorderBackend implements RecorderBackend {
+
+    interface Launcher {
+        /**
+         * Starts the capture activity for the call, routing its result back to
+         * {@link #onActivityResult(PluginCall, ActivityResult)}.
+         */
+        void launch(PluginCall call, Intent intent);
+    }
+
+    private static class PendingCapture {
+        final Uri output;
+        final Callback callback;
+
+        PendingCapture(Uri output, Callback callback) {
+            this.output = output;
+            this.callback = callback;
+        }
+    }
+
+    private final Context context;
+    private final String authority;
+    private final Launcher launcher;
+    private final VideoDeviceCapabilities capabilities;
+    private final ConcurrentHashMap<String, PendingCapture> pending = new ConcurrentHashMap<>();
+
+    IntentRecorderBackend(Context context, String authority, Launcher launcher, VideoDeviceCapabilities capabilities) {
+        this.context = context;
+        this.authority = authority;
+        this.launcher = launcher;
+        this.capabilities = capabilities;
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return capabilities.get().canCapture;
+    }
+
+    @Override
+    public void start(PluginCall call, Uri output, VideoRecorderSettings settings, Callback callback) {
+        Intent captureVideoIntent = new Intent(MediaStore.ACTION_VIDEO_CAPTURE);
+        Uri outputUri = output;
+        File file = VideoRecorderUtils.toFile(output);
+        if (file != null) {
+            if (!capabilities.get().hasFileProvider) {
+                callback.onError("No FileProvider declared for " + authority, null);
+                return;
+            }
+            try {
+                outputUri = FileProvider.getUriForFile(context, authority, file);
+            } catch (IllegalArgumentException ex) {
+                callback.onError("Unable to create video on disk", ex);
+                return;
+            }
+        }
+        captureVideoIntent.putExtra(MediaStore.EXTRA_OUTPUT, outputUri);
+        captureVideoIntent.putExtra(MediaStore.EXTRA_VIDEO_QUALITY, settings.getQuality());
+        if (settings.getMaxSizeBytes() > 0) {
+            captureVideoIntent.putExtra(MediaStore.EXTRA_SIZE_LIMIT, settings.getMaxSizeBytes());
+        }
+        if (settings.getMaxDurationSeconds() > 0) {
+            captureVideoIntent.putExtra(MediaStore.EXTRA_DURATION_LIMIT, settings.getMaxDurationSeconds());
+        }
+
+        pending.put(call.getCallbackId(), new PendingCapture(output, callback));
+        launcher.launch(call, captureVideoIntent);
+    }
+
+    /**
+     * Completes the capture started for the call. Returns false if this backend has no record
+     * of it, which happens when the app process was recreated while the camera app was open.
+     */
+    boolean onActivityResult(PluginCall call, ActivityResult result) {
+        PendingCapture capture = pending.remove(call.getCallbackId());
+        if (capture == null) {
+            return false;
+        }
+        // The output is created before the camera app opens, so a cancelled capture leaves it empty
+        if (VideoRecorderUtils.getLength(context, capture.output) == 0) {
+            capture.callback.onCancelled();
+        } else {
+            capture.callback.onRecorded(capture.output);
+        }
+        return true;
+    }
+
+    @Override
+    public void stop() {
+        // The camera app decides when the recording ends
+    }
+
+    @Override
+    public void release() {
+        pending.clear();
+    }
+}
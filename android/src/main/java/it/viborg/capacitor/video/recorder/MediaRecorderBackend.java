@@ -0,0 +1,359 @@
+package it.viborg.capacitor.video.recorder;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CaptureRequest;
+import android.media.CamcorderProfile;
+import android.media.MediaRecorder;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.ParcelFileDescriptor;
+import android.view.Surface;
+
+import androidx.annotation.NonNull;
+
+import com.getcapacitor.Logger;
+import com.getcapacitor.PluginCall;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Collections;
+
+/**
+ * Records inside the app process with Camera2 and {@link MediaRecorder}, without leaving the
+ * app for a camera activity. The camera device stays open between recordings so the next one
+ * starts without reopening it. The recording runs until {@link #stop()} is called or one of
+ * the configured limits is reached.
+ */
+class MediaRecorderBackend implements RecorderBackend {
+    private static final String LOG_TAG = "MediaRecorderBackend";
+
+    interface AudioPolicy {
+        boolean canRecordAudio();
+    }
+
+    private final Context context;
+    private final AudioPolicy audioPolicy;
+    private final CameraManager cameraManager;
+
+    private HandlerThread thread;
+    private Handler handler;
+    private String cameraId;
+    private CameraDevice camera;
+    private MediaRecorder recorder;
+    private CameraCaptureSession session;
+    private Uri output;
+    // Kept open while MediaRecorder writes into a content:// output
+    private ParcelFileDescriptor outputDescriptor;
+    private Callback callback;
+
+    MediaRecorderBackend(Context context, AudioPolicy audioPolicy) {
+        this.context = context;
+        this.audioPolicy = audioPolicy;
+        this.cameraManager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+    }
+
+    @Override
+    public boolean isAvailable() {
+        try {
+            return cameraManager != null && findBackCamera() != null;
+        } catch (CameraAccessException ex) {
+            return false;
+        }
+    }
+
+    @Override
+    public synchronized void start(PluginCall call, final Uri output, final VideoRecorderSettings settings, final Callback callback) {
+        if (this.callback != null) {
+            callback.onError("A recording is already in progress", null);
+            return;
+        }
+        this.output = output;
+        this.callback = callback;
+        ensureThread();
+        handler.post(() -> openCamera(() -> startRecording(settings)));
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (handler != null) {
+            handler.post(this::stopRecording);
+        }
+    }
+
+    /**
+     * Opens the camera ahead of the first recording.
+     */
+    synchronized void warmUp() {
+        ensureThread();
+        handler.post(() -> openCamera(null));
+    }
+
+    @Override
+    public synchronized void release() {
+        if (handler == null) {
+            return;
+        }
+        final HandlerThread releasedThread = thread;
+        handler.post(
+                () -> {
+                    if (callback != null) {
+                        fail("Recorder released", null);
+                    }
+                    closeCamera();
+                    releasedThread.quitSafely();
+                }
+        );
+        thread = null;
+        handler = null;
+    }
+
+    private void ensureThread() {
+        if (thread == null) {
+            thread = new HandlerThread("VideoRecorderCamera");
+            thread.start();
+            handler = new Handler(thread.getLooper());
+        }
+    }
+
+    /**
+     * Runs onOpened once the camera device is open, opening it first if needed. Must be called
+     * on the camera thread.
+     */
+    @SuppressLint("MissingPermission")
+    private void openCamera(final Runnable onOpened) {
+        if (camera != null) {
+            if (onOpened != null) {
+                onOpened.run();
+            }
+            return;
+        }
+        try {
+            cameraId = findBackCamera();
+            if (cameraId == null) {
+                fail("Device doesn't have a camera available", null);
+                return;
+            }
+            cameraManager.openCamera(
+                    cameraId,
+                    new CameraDevice.StateCallback() {
+                        @Override
+                        public void onOpened(@NonNull CameraDevice device) {
+                            camera = device;
+                            if (onOpened != null) {
+                                onOpened.run();
+                            }
+                        }
+
+                        @Override
+                        public void onDisconnected(@NonNull CameraDevice device) {
+                            device.close();
+                            camera = null;
+                            fail("Camera disconnected", null);
+                        }
+
+                        @Override
+                        public void onError(@NonNull CameraDevice device, int error) {
+                            device.close();
+                            camera = null;
+                            fail("Camera error " + error, null);
+                        }
+                    },
+                    handler
+            );
+        } catch (CameraAccessException | SecurityException ex) {
+            fail("Unable to open camera", ex);
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private void startRecording(VideoRecorderSettings settings) {
+        if (callback == null) {
+            return;
+        }
+        try {
+            recorder = createRecorder(settings);
+            final Surface surface = recorder.getSurface();
+            camera.createCaptureSession(
+                    Collections.singletonList(surface),
+                    new CameraCaptureSession.StateCallback() {
+                        @Override
+                        public void onConfigured(@NonNull CameraCaptureSession captureSession) {
+                            session = captureSession;
+                            try {
+                                CaptureRequest.Builder request = camera.createCaptureRequest(CameraDevice.TEMPLATE_RECORD);
+                                request.addTarget(surface);
+                                session.setRepeatingRequest(request.build(), null, handler);
+                                recorder.start();
+                            } catch (CameraAccessException | IllegalStateException ex) {
+                                fail("Unable to start recording", ex);
+                            }
+                        }
+
+                        @Override
+                        public void onConfigureFailed(@NonNull CameraCaptureSession captureSession) {
+                            fail("Unable to configure camera", null);
+                        }
+                    },
+                    handler
+            );
+        } catch (CameraAccessException | IOException | IllegalStateException ex) {
+            fail("Unable to start recording", ex);
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private MediaRecorder createRecorder(VideoRecorderSettings settings) throws IOException, CameraAccessException {
+        MediaRecorder mediaRecorder = Build.VERSION.SDK_INT >= Build.VERSION_CODES.S ? new MediaRecorder(context) : new MediaRecorder();
+        boolean audio = audioPolicy.canRecordAudio();
+        CamcorderProfile profile = getProfile(settings.getQuality());
+
+        if (audio) {
+            mediaRecorder.setAudioSource(MediaRecorder.AudioSource.CAMCORDER);
+        }
+        mediaRecorder.setVideoSource(MediaRecorder.VideoSource.SURFACE);
+        mediaRecorder.setOutputFormat(MediaRecorder.OutputFormat.MPEG_4);
+        File file = VideoRecorderUtils.toFile(output);
+        if (file != null) {
+            mediaRecorder.setOutputFile(file.getAbsolutePath());
+        } else {
+            outputDescriptor = context.getContentResolver().openFileDescriptor(output, "rw");
+            if (outputDescriptor == null) {
+                throw new FileNotFoundException(output.toString());
+            }
+            mediaRecorder.setOutputFile(outputDescriptor.getFileDescriptor());
+        }
+        mediaRecorder.setVideoEncodingBitRate(profile.videoBitRate);
+        mediaRecorder.setVideoFrameRate(profile.videoFrameRate);
+        mediaRecorder.setVideoSize(profile.videoFrameWidth, profile.videoFrameHeight);
+        mediaRecorder.setVideoEncoder(profile.videoCodec);
+        if (audio) {
+            mediaRecorder.setAudioEncodingBitRate(profile.audioBitRate);
+            mediaRecorder.setAudioChannels(profile.audioChannels);
+            mediaRecorder.setAudioSamplingRate(profile.audioSampleRate);
+            mediaRecorder.setAudioEncoder(profile.audioCodec);
+        }
+        Integer sensorOrientation = cameraManager.getCameraCharacteristics(cameraId).get(CameraCharacteristics.SENSOR_ORIENTATION);
+        if (sensorOrientation != null) {
+            mediaRecorder.setOrientationHint(sensorOrientation);
+        }
+        if (settings.getMaxDurationSeconds() > 0) {
+            mediaRecorder.setMaxDuration(settings.getMaxDurationSeconds() * 1000);
+        }
+        if (settings.getMaxSizeBytes() > 0) {
+            mediaRecorder.setMaxFileSize(settings.getMaxSizeBytes());
+        }
+        mediaRecorder.setOnInfoListener(
+                (mr, what, extra) -> {
+                    if (what == MediaRecorder.MEDIA_RECORDER_INFO_MAX_DURATION_REACHED || what == MediaRecorder.MEDIA_RECORDER_INFO_MAX_FILESIZE_REACHED) {
+                        handler.post(this::stopRecording);
+                    }
+                }
+        );
+        mediaRecorder.prepare();
+        return mediaRecorder;
+    }
+
+    @SuppressWarnings("deprecation")
+    private CamcorderProfile getProfile(int quality) {
+        int profileQuality = quality == VideoRecorderSettings.QUALITY_HIGH ? CamcorderProfile.QUALITY_HIGH : CamcorderProfile.QUALITY_LOW;
+        try {
+            return CamcorderProfile.get(Integer.parseInt(cameraId), profileQuality);
+        } catch (NumberFormatException ex) {
+            return CamcorderProfile.get(profileQuality);
+        }
+    }
+
+    private void stopRecording() {
+        Callback finished;
+        Uri recorded;
+        synchronized (this) {
+            if (callback == null || recorder == null) {
+                return;
+            }
+            finished = callback;
+            recorded = output;
+            callback = null;
+            output = null;
+        }
+        boolean success = true;
+        try {
+            recorder.stop();
+        } catch (RuntimeException ex) {
+            // Thrown when stop is called before any frame was recorded
+            Logger.debug(LOG_TAG, "Recording stopped without data");
+            success = false;
+        }
+        closeSession();
+        if (success && VideoRecorderUtils.getLength(context, recorded) > 0) {
+            finished.onRecorded(recorded);
+        } else {
+            finished.onCancelled();
+        }
+    }
+
+    private void fail(String message, Exception ex) {
+        Callback failed;
+        synchronized (this) {
+            failed = callback;
+            callback = null;
+            output = null;
+        }
+        closeSession();
+        if (failed != null) {
+            failed.onError(message, ex);
+        } else if (ex != null) {
+            Logger.error(LOG_TAG, message, ex);
+        }
+    }
+
+    private void closeSession() {
+        if (session != null) {
+            session.close();
+            session = null;
+        }
+        if (recorder != null) {
+            recorder.reset();
+            recorder.release();
+            recorder = null;
+        }
+        if (outputDescriptor != null) {
+            try {
+                outputDescriptor.close();
+            } catch (IOException ex) {
+                Logger.error(LOG_TAG, "Unable to close the recording output", ex);
+            }
+            outputDescriptor = null;
+        }
+    }
+
+    private void closeCamera() {
+        closeSession();
+        if (camera != null) {
+            camera.close();
+            camera = null;
+        }
+    }
+
+    private String findBackCamera() throws CameraAccessException {
+        String fallback = null;
+        for (String id : cameraManager.getCameraIdList()) {
+            Integer facing = cameraManager.getCameraCharacteristics(id).get(CameraCharacteristics.LENS_FACING);
+            if (facing != null && facing == CameraCharacteristics.LENS_FACING_BACK) {
+                return id;
+            }
+            if (fallback == null) {
+                fallback = id;
+            }
+        }
+        return fallback;
+    }
+}
@@ -0,0 +1,136 @@
+package it.viborg.capacitor.video.recorder;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.provider.MediaStore;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads device videos from {@link MediaStore.Video.Media} for {@link VideoGalleryPager}, one page
+ * per query with a minimal projection.
+ */
+class MediaStoreVideoSource implements VideoGalleryPager.Source {
+
+    private static final String[] PROJECTION = {
+            MediaStore.Video.Media._ID,
+            MediaStore.Video.Media.DISPLAY_NAME,
+            MediaStore.Video.Media.MIME_TYPE,
+            MediaStore.Video.Media.SIZE,
+            MediaStore.Video.Media.DURATION,
+            MediaStore.Video.Media.WIDTH,
+            MediaStore.Video.Media.HEIGHT,
+            MediaStore.Video.Media.DATE_ADDED,
+            MediaStore.Video.Media.DATE_MODIFIED
+    };
+
+    private final ContentResolver resolver;
+
+    MediaStoreVideoSource(ContentResolver resolver) {
+        this.resolver = resolver;
+    }
+
+    static Uri getCollectionUri() {
+        return MediaStore.Video.Media.EXTERNAL_CONTENT_URI;
+    }
+
+    @Override
+    public List<VideoGalleryPager.Item> query(VideoGalleryPager.Query query, VideoGalleryPager.Item after, int offset, int limit) {
+        String column = getSortColumn(query.sortBy);
+        StringBuilder selection = new StringBuilder();
+        List<String> args = new ArrayList<>();
+        if (query.since > 0) {
+            selection.append(MediaStore.Video.Media.DATE_ADDED).append(" >= ?");
+            // MediaStore stores seconds
+            args.add(Long.toString(query.since / 1000));
+        }
+        if (after != null) {
+            if (selection.length() > 0) {
+                selection.append(" AND ");
+            }
+            selection
+                    .append("(")
+                    .append(column)
+                    .append(" < ? OR (")
+                    .append(column)
+                    .append(" = ? AND ")
+                    .append(MediaStore.Video.Media._ID)
+                    .append(" < ?))");
+            args.add(Long.toString(after.sortValue));
+            args.add(Long.toString(after.sortValue));
+            args.add(Long.toString(after.id));
+        }
+        String sortOrder = column + " DESC, " + MediaStore.Video.Media._ID + " DESC";
+        String where = selection.length() > 0 ? selection.toString() : null;
+        String[] selectionArgs = args.toArray(new String[0]);
+
+        Cursor cursor;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            Bundle queryArgs = new Bundle();
+            queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SELECTION, where);
+            queryArgs.putStringArray(ContentResolver.QUERY_ARG_SQL_SELECTION_ARGS, selectionArgs);
+            queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SORT_ORDER, sortOrder);
+            queryArgs.putInt(ContentResolver.QUERY_ARG_LIMIT, limit);
+            queryArgs.putInt(ContentResolver.QUERY_ARG_OFFSET, offset);
+            cursor = resolver.query(getCollectionUri(), PROJECTION, queryArgs, null);
+        } else {
+            // Older media providers take the limit as part of the sort order
+            cursor = resolver.query(
+                    getCollectionUri(),
+                    PROJECTION,
+                    where,
+                    selectionArgs,
+                    sortOrder + " LIMIT " + limit + " OFFSET " + offset
+            );
+        }
+
+        List<VideoGalleryPager.Item> items = new ArrayList<>(limit);
+        if (cursor == null) {
+            return items;
+        }
+        try {
+            int idIndex = cursor.getColumnIndexOrThrow(MediaStore.Video.Media._ID);
+            int nameIndex = cursor.getColumnIndexOrThrow(MediaStore.Video.Media.DISPLAY_NAME);
+            int mimeTypeIndex = cursor.getColumnIndexOrThrow(MediaStore.Video.Media.MIME_TYPE);
+            int sizeIndex = cursor.getColumnIndexOrThrow(MediaStore.Video.Media.SIZE);
+            int durationIndex = cursor.getColumnIndexOrThrow(MediaStore.Video.Media.DURATION);
+            int widthIndex = cursor.getColumnIndexOrThrow(MediaStore.Video.Media.WIDTH);
+            int heightIndex = cursor.getColumnIndexOrThrow(MediaStore.Video.Media.HEIGHT);
+            int dateAddedIndex = cursor.getColumnIndexOrThrow(MediaStore.Video.Media.DATE_ADDED);
+            int dateModifiedIndex = cursor.getColumnIndexOrThrow(MediaStore.Video.Media.DATE_MODIFIED);
+            int sortIndex = cursor.getColumnIndexOrThrow(column);
+            while (items.size() < limit && cursor.moveToNext()) {
+                items.add(
+                        new VideoGalleryPager.Item(
+                                cursor.getLong(idIndex),
+                                cursor.getLong(sortIndex),
+                                cursor.getString(nameIndex),
+                                cursor.getString(mimeTypeIndex),
+                                cursor.getLong(sizeIndex),
+                                cursor.getLong(durationIndex),
+                                cursor.getInt(widthIndex),
+                                cursor.getInt(heightIndex),
+                                cursor.getLong(dateAddedIndex) * 1000,
+                                cursor.getLong(dateModifiedIndex) * 1000
+                        )
+                );
+            }
+        } finally {
+            cursor.close();
+        }
+        return items;
+    }
+
+    private static String getSortColumn(String sortBy) {
+        if (VideoGalleryPager.SORT_DATE_MODIFIED.equals(sortBy)) {
+            return MediaStore.Video.Media.DATE_MODIFIED;
+        } else if (VideoGalleryPager.SORT_SIZE.equals(sortBy)) {
+            return MediaStore.Video.Media.SIZE;
+        }
+        return MediaStore.Video.Media.DATE_ADDED;
+    }
+}
@@ -0,0 +1,220 @@
+package it.viborg.capacitor.video.recorder;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * In-memory ISO-BMFF (MP4) box. Container boxes hold their children, every other box keeps
+ * its payload as raw bytes. Only used for metadata boxes such as moov; media data is never
+ * loaded into memory.
+ */
+class Mp4Box {
+    private static final Set<String> CONTAINERS = new HashSet<>(
+            Arrays.asList("moov", "trak", "mdia", "minf", "stbl", "edts", "dinf", "mvex", "moof", "traf", "mfra")
+    );
+
+    private final String type;
+    private byte[] data;
+    private final List<Mp4Box> children;
+
+    Mp4Box(String type, byte[] data) {
+        this.type = type;
+        this.data = data;
+        this.children = null;
+    }
+
+    Mp4Box(String type, List<Mp4Box> children) {
+        this.type = type;
+        this.data = null;
+        this.children = children;
+    }
+
+    static boolean isContainer(String type) {
+        return CONTAINERS.contains(type);
+    }
+
+    /**
+     * Parses the box starting at the buffer's position and advances past it.
+     */
+    static Mp4Box parse(ByteBuffer buffer) throws Mp4Exception {
+        int start = buffer.position();
+        if (buffer.remaining() < 8) {
+            throw new Mp4Exception("Truncated box header");
+        }
+        long size = buffer.getInt() & 0xffffffffL;
+        String type = readType(buffer);
+        if (size == 1) {
+            size = buffer.getLong();
+        } else if (size == 0) {
+            size = buffer.limit() - start;
+        }
+        int headerSize = buffer.position() - start;
+        if (size < headerSize || start + size > buffer.limit()) {
+            throw new Mp4Exception("Invalid size of " + type + " box");
+        }
+        int end = (int) (start + size);
+
+        Mp4Box box;
+        if (isContainer(type)) {
+            List<Mp4Box> children = new ArrayList<>();
+            ByteBuffer slice = buffer.duplicate();
+            slice.limit(end);
+            while (slice.remaining() >= 8) {
+                children.add(parse(slice));
+            }
+            box = new Mp4Box(type, children);
+        } else {
+            byte[] payload = new byte[end - buffer.position()];
+            buffer.get(payload);
+            box = new Mp4Box(type, payload);
+        }
+        buffer.position(end);
+        return box;
+    }
+
+    static String readType(ByteBuffer buffer) {
+        byte[] type = new byte[4];
+        buffer.get(type);
+        return new String(type, StandardCharsets.ISO_8859_1);
+    }
+
+    String getType() {
+        return type;
+    }
+
+    boolean isContainer() {
+        return children != null;
+    }
+
+    List<Mp4Box> getChildren() {
+        return children;
+    }
+
+    /**
+     * Payload of a leaf box, starting with version and flags for full boxes.
+     */
+    byte[] getData() {
+        return data;
+    }
+
+    void setData(byte[] data) {
+        this.data = data;
+    }
+
+    /**
+     * A big-endian view of the payload.
+     */
+    ByteBuffer buffer() {
+        return ByteBuffer.wrap(data);
+    }
+
+    /**
+     * Follows a path of box types below this box, returning the first match or null.
+     */
+    Mp4Box find(String... path) {
+        Mp4Box box = this;
+        for (String type : path) {
+            Mp4Box next = null;
+            if (box.children != null) {
+                for (Mp4Box child : box.children) {
+                    if (child.type.equals(type)) {
+                        next = child;
+                        break;
+                    }
+                }
+            }
+            if (next == null) {
+                return null;
+            }
+            box = next;
+        }
+        return box;
+    }
+
+    /**
+     * All direct children of the given type.
+     */
+    List<Mp4Box> findAll(String type) {
+        List<Mp4Box> ret = new ArrayList<>();
+        if (children != null) {
+            for (Mp4Box child : children) {
+                if (child.type.equals(type)) {
+                    ret.add(child);
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Replaces the first child of the same type, or appends the box if there is none.
+     */
+    void replaceChild(Mp4Box box) {
+        for (int i = 0; i < children.size(); i++) {
+            if (children.get(i).type.equals(box.type)) {
+                children.set(i, box);
+                return;
+            }
+        }
+        children.add(box);
+    }
+
+    void removeChildren(String type) {
+        for (int i = children.size() - 1; i >= 0; i--) {
+            if (children.get(i).type.equals(type)) {
+                children.remove(i);
+            }
+        }
+    }
+
+    long getSize() {
+        long size = 8;
+        if (children != null) {
+            for (Mp4Box child : children) {
+                size += child.getSize();
+            }
+        } else {
+            size += data.length;
+        }
+        return size;
+    }
+
+    void write(ByteBuffer out) {
+        long size = getSize();
+        if (size > 0xffffffffL) {
+            throw new IllegalStateException(type + " box too large");
+        }
+        out.putInt((int) size);
+        out.put(type.getBytes(StandardCharsets.ISO_8859_1));
+        if (children != null) {
+            for (Mp4Box child : children) {
+                child.write(out);
+            }
+        } else {
+            out.put(data);
+        }
+    }
+
+    ByteBuffer toBuffer() {
+        ByteBuffer buffer = ByteBuffer.allocate((int) getSize());
+        write(buffer);
+        buffer.flip();
+        return buffer;
+    }
+
+    Mp4Box copy() {
+        if (children == null) {
+            return new Mp4Box(type, data.clone());
+        }
+        List<Mp4Box> copies = new ArrayList<>();
+        for (Mp4Box child : children) {
+            copies.add(child.copy());
+        }
+        return new Mp4Box(type, copies);
+    }
+}
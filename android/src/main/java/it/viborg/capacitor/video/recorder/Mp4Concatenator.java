@@ -0,0 +1,226 @@
+package it.viborg.capacitor.video.recorder;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Joins MP4 clips recorded with the same codec parameters into one file without re-encoding.
+ * The sample tables of the clips are appended track by track and their sample data is copied
+ * with transferTo, so joining runs at disk speed and holds no media data in memory.
+ *
+ * <p>{@link #read} checks every clip before anything is written: all clips need the same
+ * tracks, with identical sample descriptions, timescales and orientation.
+ */
+class Mp4Concatenator {
+
+    /**
+     * Thrown when the clips cannot be joined without re-encoding. The message says why.
+     */
+    static class IncompatibleException extends Mp4Exception {
+        private static final long serialVersionUID = 1L;
+
+        IncompatibleException(String message) {
+            super(message);
+        }
+    }
+
+    private static class Clip {
+
+        final FileChannel channel;
+        final List<Mp4Track> tracks;
+
+        Clip(FileChannel channel, List<Mp4Track> tracks) {
+            this.channel = channel;
+            this.tracks = tracks;
+        }
+    }
+
+    private static class PendingChunk {
+
+        final FileChannel source;
+        final int track;
+        final int index;
+        final long offset;
+        final long size;
+
+        PendingChunk(FileChannel source, int track, int index, long offset, long size) {
+            this.source = source;
+            this.track = track;
+            this.index = index;
+            this.offset = offset;
+            this.size = size;
+        }
+    }
+
+    private final Mp4Box ftyp;
+    private final Mp4Box moov;
+    private final List<Clip> clips;
+
+    private Mp4Concatenator(Mp4Box ftyp, Mp4Box moov, List<Clip> clips) {
+        this.ftyp = ftyp;
+        this.moov = moov;
+        this.clips = clips;
+    }
+
+    /**
+     * Reads the clips in the order they are joined and checks that they fit together.
+     */
+    static Mp4Concatenator read(List<FileChannel> inputs) throws IOException {
+        if (inputs.isEmpty()) {
+            throw new IncompatibleException("No clips to join");
+        }
+        Mp4Box ftyp = null;
+        Mp4Box moov = null;
+        List<Clip> clips = new ArrayList<>();
+        for (FileChannel input : inputs) {
+            Mp4File mp4 = Mp4File.scan(input);
+            if (mp4.first("moof") != null) {
+                throw new Mp4Exception("Fragmented MP4 files are not supported");
+            }
+            Mp4Box clipMoov = mp4.readMoov(input);
+            Clip clip = new Clip(input, Mp4Track.readAll(clipMoov));
+            if (clips.isEmpty()) {
+                ftyp = Mp4File.read(input, mp4.first("ftyp"));
+                moov = clipMoov;
+                if (moov.find("mvhd") == null) {
+                    throw new Mp4Exception("Missing mvhd box");
+                }
+            } else {
+                checkCompatible(clips.get(0), clip, clips.size() + 1);
+            }
+            clips.add(clip);
+        }
+        Mp4Trimmer.findReference(clips.get(0).tracks);
+        return new Mp4Concatenator(ftyp, moov, clips);
+    }
+
+    private static void checkCompatible(Clip first, Clip clip, int number) throws IncompatibleException {
+        if (clip.tracks.size() != first.tracks.size()) {
+            throw new IncompatibleException(
+                    "Clip " + number + " has " + clip.tracks.size() + " tracks, clip 1 has " + first.tracks.size()
+            );
+        }
+        for (int i = 0; i < first.tracks.size(); i++) {
+            Mp4Track expected = first.tracks.get(i);
+            Mp4Track track = clip.tracks.get(i);
+            String name = "Track " + (i + 1) + " of clip " + number;
+            if (!expected.getHandler().equals(track.getHandler())) {
+                throw new IncompatibleException(name + " is " + track.getHandler() + ", expected " + expected.getHandler());
+            }
+            if (expected.getTimescale() != track.getTimescale()) {
+                throw new IncompatibleException(name + " has timescale " + track.getTimescale() + ", expected " + expected.getTimescale());
+            }
+            Mp4Box expectedStsd = expected.getSampleTable().find("stsd");
+            Mp4Box stsd = track.getSampleTable().find("stsd");
+            if (expectedStsd == null || stsd == null || !Arrays.equals(expectedStsd.getData(), stsd.getData())) {
+                throw new IncompatibleException(name + " uses different codec parameters");
+            }
+            if (expected.isVideo() && !Arrays.equals(readMatrix(expected), readMatrix(track))) {
+                throw new IncompatibleException(name + " has a different orientation");
+            }
+        }
+    }
+
+    /**
+     * The transformation matrix of a track header, which holds the rotation.
+     */
+    private static byte[] readMatrix(Mp4Track track) {
+        Mp4Box tkhd = track.getTrak().find("tkhd");
+        if (tkhd == null) {
+            return new byte[0];
+        }
+        byte[] data = tkhd.getData();
+        int position = data[0] == 1 ? 52 : 40;
+        return data.length >= position + 36 ? Arrays.copyOfRange(data, position, position + 36) : new byte[0];
+    }
+
+    /**
+     * Writes the joined video and returns its duration in milliseconds. Each clip starts where
+     * the reference track of the previous one ends; other tracks are stretched or shortened
+     * by their last sample before a clip boundary so they stay in sync.
+     */
+    long write(FileChannel out) throws IOException {
+        Mp4Box mvhd = moov.find("mvhd");
+        long movieTimescale = Mp4Track.readTimescale(mvhd);
+        List<Mp4Track> firstTracks = clips.get(0).tracks;
+        Mp4Track firstReference = Mp4Trimmer.findReference(firstTracks);
+        int referenceIndex = firstTracks.indexOf(firstReference);
+        long referenceTimescale = firstReference.getTimescale();
+
+        List<Mp4SampleTable.Builder> builders = new ArrayList<>();
+        for (int t = 0; t < firstTracks.size(); t++) {
+            builders.add(new Mp4SampleTable.Builder());
+        }
+        List<PendingChunk> pending = new ArrayList<>();
+        Mp4Writer writer = new Mp4Writer();
+        // Where the current clip starts, in the timescale of the reference track
+        long clipStart = 0;
+        for (Clip clip : clips) {
+            List<PendingChunk> clipChunks = new ArrayList<>();
+            for (int t = 0; t < clip.tracks.size(); t++) {
+                Mp4Track track = clip.tracks.get(t);
+                Mp4SampleTable.Builder builder = builders.get(t);
+                if (builder.getSampleCount() > 0) {
+                    long target = Mp4Trimmer.convert(clipStart, referenceTimescale, track.getTimescale());
+                    builder.adjustLastDuration(target - builder.getDuration());
+                }
+                for (int chunk = 0; chunk < track.getChunkCount(); chunk++) {
+                    int from = track.getChunkFirstSample(chunk);
+                    int to = track.getChunkFirstSample(chunk + 1);
+                    if (from >= to) {
+                        continue;
+                    }
+                    int index = builder.startChunk(track.getChunkDescription(chunk));
+                    long size = 0;
+                    for (int sample = from; sample < to; sample++) {
+                        builder.addSample(
+                                track.getSampleSize(sample),
+                                track.getSampleDuration(sample),
+                                track.getCompositionOffset(sample),
+                                track.isSync(sample)
+                        );
+                        size += track.getSampleSize(sample);
+                    }
+                    clipChunks.add(new PendingChunk(clip.channel, t, index, track.getSampleOffset(from), size));
+                }
+            }
+            // Keep the interleaving of the tracks within each clip
+            Collections.sort(
+                    clipChunks,
+                    new Comparator<PendingChunk>() {
+                        @Override
+                        public int compare(PendingChunk a, PendingChunk b) {
+                            return Long.compare(a.offset, b.offset);
+                        }
+                    }
+            );
+            pending.addAll(clipChunks);
+            clipStart += clip.tracks.get(referenceIndex).getDuration();
+        }
+
+        List<Mp4Box> traks = moov.findAll("trak");
+        long movieDuration = 0;
+        for (int t = 0; t < firstTracks.size(); t++) {
+            Mp4Track track = firstTracks.get(t);
+            Mp4SampleTable.Builder builder = builders.get(t);
+            writer.addTrack(builder, traks.get(t).find("mdia", "minf", "stbl"));
+            // The edit list of the first clip carries over, later clips were recorded the same way
+            long mediaTime = Math.min(track.getEditMediaTime(), builder.getDuration());
+            long segmentDuration = Mp4Trimmer.convert(builder.getDuration() - mediaTime, track.getTimescale(), movieTimescale);
+            Mp4Trimmer.writeDurations(traks.get(t), builder.getDuration(), segmentDuration, mediaTime);
+            movieDuration = Math.max(movieDuration, segmentDuration);
+        }
+        Mp4Track.writeDuration(mvhd, movieDuration);
+
+        for (PendingChunk chunk : pending) {
+            writer.addChunk(chunk.track, chunk.index, chunk.source, chunk.offset, chunk.size);
+        }
+        writer.write(out, ftyp, moov);
+        return movieDuration * 1000 / movieTimescale;
+    }
+}
@@ -0,0 +1,14 @@
+package it.viborg.capacitor.video.recorder;
+
+import java.io.IOException;
+
+/**
+ * Thrown when an MP4 file is malformed or uses a layout the pure-Java MP4 tools don't support.
+ */
+class Mp4Exception extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    Mp4Exception(String message) {
+        super(message);
+    }
+}
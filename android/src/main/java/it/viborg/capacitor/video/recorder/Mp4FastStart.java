@@ -0,0 +1,173 @@
+package it.viborg.capacitor.video.recorder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Moves the moov box of an MP4 file in front of the media data so players can start playback
+ * before the whole file has been downloaded. Media data is copied channel to channel; only the
+ * moov box is held in memory while its chunk offsets are rewritten.
+ */
+class Mp4FastStart {
+
+    private Mp4FastStart() {}
+
+    /**
+     * Rewrites the file in place. Returns false if it already was laid out for fast start.
+     */
+    static boolean process(File file) throws IOException {
+        File tmp = new File(file.getParentFile(), file.getName() + ".faststart.tmp");
+        try {
+            try (
+                    FileChannel in = new FileInputStream(file).getChannel();
+                    FileChannel out = new FileOutputStream(tmp).getChannel()
+            ) {
+                if (!process(in, out)) {
+                    return false;
+                }
+                out.force(false);
+            }
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Unable to replace " + file);
+            }
+            return true;
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    /**
+     * Writes the fast start layout of {@code in} to {@code out}. Returns false without writing
+     * anything if moov already precedes the media data.
+     */
+    static boolean process(FileChannel in, FileChannel out) throws IOException {
+        Mp4File mp4 = Mp4File.scan(in);
+        List<Mp4File.Entry> entries = mp4.getEntries();
+        Mp4File.Entry moovEntry = mp4.first("moov");
+        Mp4File.Entry mdatEntry = mp4.first("mdat");
+        if (moovEntry == null) {
+            throw new Mp4Exception("Missing moov box");
+        }
+        if (mdatEntry == null || moovEntry.offset < mdatEntry.offset) {
+            return false;
+        }
+        if (mp4.first("moof") != null) {
+            // Fragmented files keep their moov in front already; fragments carry their own offsets
+            return false;
+        }
+
+        // Everything before the first mdat stays in place, moov follows, then the rest in order
+        List<Mp4File.Entry> layout = new ArrayList<>();
+        for (Mp4File.Entry entry : entries) {
+            if (entry.offset < mdatEntry.offset && entry != moovEntry) {
+                layout.add(entry);
+            }
+        }
+        int moovIndex = layout.size();
+        layout.add(moovEntry);
+        for (Mp4File.Entry entry : entries) {
+            if (entry.offset >= mdatEntry.offset && entry != moovEntry) {
+                layout.add(entry);
+            }
+        }
+
+        Mp4Box moov = Mp4File.read(in, moovEntry);
+        List<long[]> offsets = new ArrayList<>();
+        List<Mp4Box> tables = new ArrayList<>();
+        for (Mp4Box trak : moov.findAll("trak")) {
+            Mp4Box stbl = trak.find("mdia", "minf", "stbl");
+            Mp4Box table = stbl == null ? null : stbl.find("stco");
+            if (table == null && stbl != null) {
+                table = stbl.find("co64");
+            }
+            if (table == null) {
+                continue;
+            }
+            offsets.add(Mp4SampleTable.readChunkOffsets(table));
+            tables.add(stbl);
+        }
+
+        // The moov size feeds back into the offsets; switching to co64 grows it, so iterate
+        long[] newStarts = new long[layout.size()];
+        boolean[] wide = new boolean[tables.size()];
+        for (int attempt = 0; ; attempt++) {
+            long moovSize = moov.getSize();
+            long position = 0;
+            for (int i = 0; i < layout.size(); i++) {
+                newStarts[i] = position;
+                position += i == moovIndex ? moovSize : layout.get(i).size;
+            }
+            boolean changed = false;
+            for (int t = 0; t < tables.size(); t++) {
+                long[] relocated = relocate(offsets.get(t), layout, newStarts);
+                boolean needsWide = wide[t] || max(relocated) > 0xffffffffL;
+                if (needsWide != wide[t]) {
+                    changed = true;
+                }
+                wide[t] = needsWide;
+                Mp4SampleTable.writeChunkOffsets(tables.get(t), relocated, needsWide);
+            }
+            if (!changed && moov.getSize() == moovSize) {
+                break;
+            }
+            if (attempt > 2) {
+                throw new Mp4Exception("Unable to lay out moov box");
+            }
+        }
+
+        for (int i = 0; i < layout.size(); i++) {
+            if (i == moovIndex) {
+                Mp4File.writeFully(out, moov.toBuffer());
+            } else {
+                Mp4File.Entry entry = layout.get(i);
+                Mp4File.transfer(in, entry.offset, entry.size, out);
+            }
+        }
+        return true;
+    }
+
+    private static long[] relocate(long[] offsets, List<Mp4File.Entry> layout, long[] newStarts) throws Mp4Exception {
+        long[] ret = new long[offsets.length];
+        int hint = 0;
+        for (int i = 0; i < offsets.length; i++) {
+            long offset = offsets[i];
+            int index = indexOf(layout, offset, hint);
+            if (index < 0) {
+                throw new Mp4Exception("Chunk offset outside of file");
+            }
+            hint = index;
+            Mp4File.Entry entry = layout.get(index);
+            ret[i] = offset - entry.offset + newStarts[index];
+        }
+        return ret;
+    }
+
+    private static int indexOf(List<Mp4File.Entry> layout, long offset, int hint) {
+        // Chunks are usually sorted and live in one mdat, so check the last hit first
+        Mp4File.Entry entry = layout.get(hint);
+        if (offset >= entry.offset && offset < entry.getEnd()) {
+            return hint;
+        }
+        for (int i = 0; i < layout.size(); i++) {
+            entry = layout.get(i);
+            if (offset >= entry.offset && offset < entry.getEnd()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static long max(long[] values) {
+        long max = 0;
+        for (long value : values) {
+            max = Math.max(max, value);
+        }
+        return max;
+    }
+}
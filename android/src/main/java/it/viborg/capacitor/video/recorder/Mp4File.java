@@ -0,0 +1,142 @@
+package it.viborg.capacitor.video.recorder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Top-level layout of an MP4 file. Scans box headers only, so large files are indexed without
+ * reading media data; the moov box is read into memory on demand.
+ */
+class Mp4File {
+
+    /**
+     * Upper bound for metadata boxes loaded into memory.
+     */
+    static final long MAX_METADATA_SIZE = 64L * 1024 * 1024;
+
+    static class Entry {
+
+        final String type;
+        final long offset;
+        final long size;
+        final int headerSize;
+
+        Entry(String type, long offset, long size, int headerSize) {
+            this.type = type;
+            this.offset = offset;
+            this.size = size;
+            this.headerSize = headerSize;
+        }
+
+        long getEnd() {
+            return offset + size;
+        }
+    }
+
+    private final List<Entry> entries;
+
+    private Mp4File(List<Entry> entries) {
+        this.entries = entries;
+    }
+
+    static Mp4File scan(FileChannel channel) throws IOException {
+        long length = channel.size();
+        List<Entry> entries = new ArrayList<>();
+        ByteBuffer header = ByteBuffer.allocate(16);
+        long offset = 0;
+        while (offset + 8 <= length) {
+            header.clear();
+            readFully(channel, header, offset, (int) Math.min(16, length - offset));
+            header.flip();
+            long size = header.getInt() & 0xffffffffL;
+            String type = Mp4Box.readType(header);
+            int headerSize = 8;
+            if (size == 1) {
+                if (header.remaining() < 8) {
+                    throw new Mp4Exception("Truncated " + type + " box header");
+                }
+                size = header.getLong();
+                headerSize = 16;
+            } else if (size == 0) {
+                size = length - offset;
+            }
+            if (size < headerSize || offset + size > length) {
+                throw new Mp4Exception("Invalid size of top-level " + type + " box");
+            }
+            entries.add(new Entry(type, offset, size, headerSize));
+            offset += size;
+        }
+        if (entries.isEmpty() || !"ftyp".equals(entries.get(0).type)) {
+            throw new Mp4Exception("Not an MP4 file");
+        }
+        return new Mp4File(entries);
+    }
+
+    List<Entry> getEntries() {
+        return entries;
+    }
+
+    Entry first(String type) {
+        for (Entry entry : entries) {
+            if (entry.type.equals(type)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads and parses the moov box.
+     */
+    Mp4Box readMoov(FileChannel channel) throws IOException {
+        Entry moov = first("moov");
+        if (moov == null) {
+            throw new Mp4Exception("Missing moov box");
+        }
+        return read(channel, moov);
+    }
+
+    static Mp4Box read(FileChannel channel, Entry entry) throws IOException {
+        if (entry.size > MAX_METADATA_SIZE) {
+            throw new Mp4Exception(entry.type + " box too large");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) entry.size);
+        readFully(channel, buffer, entry.offset, buffer.capacity());
+        buffer.flip();
+        return Mp4Box.parse(buffer);
+    }
+
+    static void readFully(FileChannel channel, ByteBuffer buffer, long position, int length) throws IOException {
+        buffer.limit(buffer.position() + length);
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new Mp4Exception("Unexpected end of file");
+            }
+            position += read;
+        }
+    }
+
+    /**
+     * Copies a byte range between channels without going through the Java heap.
+     */
+    static void transfer(FileChannel in, long position, long count, FileChannel out) throws IOException {
+        while (count > 0) {
+            long n = in.transferTo(position, count, out);
+            if (n <= 0) {
+                throw new Mp4Exception("Unexpected end of file");
+            }
+            position += n;
+            count -= n;
+        }
+    }
+
+    static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package it.viborg.capacitor.video.recorder;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Readers and writers for the sample table (stbl) boxes of an MP4 track.
+ */
+class Mp4SampleTable {
+
+    /**
+     * Boxes indexed by sample or chunk that {@link Builder} doesn't rebuild. They are dropped
+     * from rewritten tables rather than left pointing at the wrong samples.
+     */
+    private static final Set<String> SAMPLE_INDEXED = new HashSet<>(
+            Arrays.asList("stz2", "sdtp", "stps", "sbgp", "sgpd", "subs", "saiz", "saio", "stsh", "padb", "stdp", "cslg")
+    );
+
+    private Mp4SampleTable() {}
+
+    /**
+     * Collects samples grouped into chunks and writes them as the tables of a stbl box. Chunk
+     * offsets are supplied at write time, once the caller has laid out the media data.
+     */
+    static class Builder {
+
+        private final IntArray sizes = new IntArray();
+        private final IntArray durations = new IntArray();
+        private final IntArray compositionOffsets = new IntArray();
+        private final IntArray syncSamples = new IntArray();
+        private final IntArray chunkSamples = new IntArray();
+        private final IntArray chunkDescriptions = new IntArray();
+        private boolean hasCompositionOffsets;
+        private long duration;
+
+        /**
+         * Starts a new chunk using the given 1-based sample description and returns its index.
+         */
+        int startChunk(int descriptionIndex) {
+            chunkSamples.add(0);
+            chunkDescriptions.add(descriptionIndex);
+            return chunkSamples.size() - 1;
+        }
+
+        /**
+         * Appends a sample to the current chunk.
+         */
+        void addSample(int size, int duration, int compositionOffset, boolean sync) {
+            if (chunkSamples.size() == 0) {
+                throw new IllegalStateException("No chunk started");
+            }
+            if (sync) {
+                syncSamples.add(sizes.size());
+            }
+            sizes.add(size);
+            durations.add(duration);
+            compositionOffsets.add(compositionOffset);
+            hasCompositionOffsets |= compositionOffset != 0;
+            chunkSamples.set(chunkSamples.size() - 1, chunkSamples.get(chunkSamples.size() - 1) + 1);
+            this.duration += duration & 0xffffffffL;
+        }
+
+        /**
+         * Lengthens or shortens the last sample, keeping a duration of at least 1.
+         */
+        void adjustLastDuration(long delta) {
+            if (durations.size() == 0 || delta == 0) {
+                return;
+            }
+            int last = durations.size() - 1;
+            long current = durations.get(last) & 0xffffffffL;
+            long adjusted = Math.max(1, Math.min(0xffffffffL, current + delta));
+            durations.set(last, (int) adjusted);
+            duration += adjusted - current;
+        }
+
+        int getSampleCount() {
+            return sizes.size();
+        }
+
+        int getChunkCount() {
+            return chunkSamples.size();
+        }
+
+        /**
+         * Sum of the sample durations in the media timescale.
+         */
+        long getDuration() {
+            return duration;
+        }
+
+        /**
+         * Replaces the sample tables of {@code stbl}, keeping its sample descriptions.
+         */
+        void write(Mp4Box stbl, long[] chunkOffsets, boolean wide) {
+            if (chunkOffsets.length != chunkSamples.size()) {
+                throw new IllegalArgumentException("Expected " + chunkSamples.size() + " chunk offsets");
+            }
+            List<Mp4Box> children = new ArrayList<>();
+            List<Mp4Box> others = new ArrayList<>();
+            for (Mp4Box child : stbl.getChildren()) {
+                String type = child.getType();
+                if ("stsd".equals(type)) {
+                    children.add(child);
+                } else if (!SAMPLE_INDEXED.contains(type) && !isTable(type)) {
+                    others.add(child);
+                }
+            }
+            children.add(buildTimeToSample());
+            if (hasCompositionOffsets) {
+                children.add(buildCompositionOffsets());
+            }
+            if (syncSamples.size() < sizes.size()) {
+                children.add(buildSyncSamples());
+            }
+            children.add(buildSampleToChunk());
+            children.add(buildSampleSizes());
+            stbl.getChildren().clear();
+            stbl.getChildren().addAll(children);
+            stbl.getChildren().addAll(others);
+            writeChunkOffsets(stbl, chunkOffsets, wide);
+        }
+
+        private static boolean isTable(String type) {
+            return "stts".equals(type) || "ctts".equals(type) || "stss".equals(type) || "stsc".equals(type)
+                    || "stsz".equals(type) || "stco".equals(type) || "co64".equals(type);
+        }
+
+        private Mp4Box buildTimeToSample() {
+            return new Mp4Box("stts", runLength(durations, 0));
+        }
+
+        private Mp4Box buildCompositionOffsets() {
+            // Version 1 allows negative offsets
+            boolean negative = false;
+            for (int i = 0; i < compositionOffsets.size(); i++) {
+                negative |= compositionOffsets.get(i) < 0;
+            }
+            return new Mp4Box("ctts", runLength(compositionOffsets, negative ? 1 : 0));
+        }
+
+        private static byte[] runLength(IntArray values, int version) {
+            IntArray counts = new IntArray();
+            IntArray runs = new IntArray();
+            for (int i = 0; i < values.size(); i++) {
+                int value = values.get(i);
+                if (runs.size() > 0 && runs.get(runs.size() - 1) == value) {
+                    counts.set(counts.size() - 1, counts.get(counts.size() - 1) + 1);
+                } else {
+                    counts.add(1);
+                    runs.add(value);
+                }
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(8 + runs.size() * 8);
+            buffer.putInt(version << 24);
+            buffer.putInt(runs.size());
+            for (int i = 0; i < runs.size(); i++) {
+                buffer.putInt(counts.get(i));
+                buffer.putInt(runs.get(i));
+            }
+            return buffer.array();
+        }
+
+        private Mp4Box buildSyncSamples() {
+            ByteBuffer buffer = ByteBuffer.allocate(8 + syncSamples.size() * 4);
+            buffer.putInt(0);
+            buffer.putInt(syncSamples.size());
+            for (int i = 0; i < syncSamples.size(); i++) {
+                buffer.putInt(syncSamples.get(i) + 1);
+            }
+            return new Mp4Box("stss", buffer.array());
+        }
+
+        private Mp4Box buildSampleToChunk() {
+            IntArray entries = new IntArray();
+            for (int i = 0; i < chunkSamples.size(); i++) {
+                int n = entries.size();
+                if (n > 0 && entries.get(n - 2) == chunkSamples.get(i) && entries.get(n - 1) == chunkDescriptions.get(i)) {
+                    continue;
+                }
+                entries.add(i + 1);
+                entries.add(chunkSamples.get(i));
+                entries.add(chunkDescriptions.get(i));
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(8 + entries.size() * 4);
+            buffer.putInt(0);
+            buffer.putInt(entries.size() / 3);
+            for (int i = 0; i < entries.size(); i++) {
+                buffer.putInt(entries.get(i));
+            }
+            return new Mp4Box("stsc", buffer.array());
+        }
+
+        private Mp4Box buildSampleSizes() {
+            // Some demuxers take a constant size for raw audio, so a lone sample keeps its entry
+            boolean uniform = sizes.size() > 1;
+            for (int i = 1; i < sizes.size() && uniform; i++) {
+                uniform = sizes.get(i) == sizes.get(0);
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(12 + (uniform ? 0 : sizes.size() * 4));
+            buffer.putInt(0);
+            buffer.putInt(uniform ? sizes.get(0) : 0);
+            buffer.putInt(sizes.size());
+            if (!uniform) {
+                for (int i = 0; i < sizes.size(); i++) {
+                    buffer.putInt(sizes.get(i));
+                }
+            }
+            return new Mp4Box("stsz", buffer.array());
+        }
+    }
+
+    /**
+     * Growable int array, sample tables easily hold hundreds of thousands of entries.
+     */
+    private static class IntArray {
+
+        private int[] values = new int[64];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int get(int index) {
+            return values[index];
+        }
+
+        void set(int index, int value) {
+            values[index] = value;
+        }
+
+        int size() {
+            return size;
+        }
+    }
+
+    /**
+     * Chunk offsets from the stco or co64 box of a sample table, or from the box itself.
+     */
+    static long[] readChunkOffsets(Mp4Box box) throws Mp4Exception {
+        if (box.isContainer()) {
+            Mp4Box table = box.find("stco");
+            box = table != null ? table : box.find("co64");
+            if (box == null) {
+                throw new Mp4Exception("Missing chunk offset box");
+            }
+        }
+        boolean wide = "co64".equals(box.getType());
+        ByteBuffer buffer = box.buffer();
+        buffer.getInt(); // version and flags
+        int count = readCount(buffer, wide ? 8 : 4);
+        long[] offsets = new long[count];
+        for (int i = 0; i < count; i++) {
+            offsets[i] = wide ? buffer.getLong() : buffer.getInt() & 0xffffffffL;
+        }
+        return offsets;
+    }
+
+    /**
+     * Replaces the chunk offset box of a sample table, as co64 if {@code wide} is set.
+     */
+    static void writeChunkOffsets(Mp4Box stbl, long[] offsets, boolean wide) {
+        ByteBuffer buffer = ByteBuffer.allocate(8 + offsets.length * (wide ? 8 : 4));
+        buffer.putInt(0);
+        buffer.putInt(offsets.length);
+        for (long offset : offsets) {
+            if (wide) {
+                buffer.putLong(offset);
+            } else {
+                buffer.putInt((int) offset);
+            }
+        }
+        Mp4Box box = new Mp4Box(wide ? "co64" : "stco", buffer.array());
+        // Keep the table at its original position among the stbl children
+        for (int i = 0; i < stbl.getChildren().size(); i++) {
+            String type = stbl.getChildren().get(i).getType();
+            if ("stco".equals(type) || "co64".equals(type)) {
+                stbl.getChildren().set(i, box);
+                return;
+            }
+        }
+        stbl.getChildren().add(box);
+    }
+
+    /**
+     * Reads an entry count and checks it against the bytes left in the table.
+     */
+    static int readCount(ByteBuffer buffer, int entrySize) throws Mp4Exception {
+        long count = buffer.getInt() & 0xffffffffL;
+        if (count * entrySize > buffer.remaining()) {
+            throw new Mp4Exception("Truncated sample table");
+        }
+        return (int) count;
+    }
+}
@@ -0,0 +1,99 @@
+package it.viborg.capacitor.video.recorder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Presentation times and file offsets of the keyframes of an MP4's first video track, read from
+ * its stss, stts and ctts tables. A player seeking to one of these times can start decoding
+ * right there instead of at the previous keyframe.
+ */
+class Mp4SeekIndex {
+
+    private final double[] times;
+    private final long[] offsets;
+    private final double duration;
+
+    private Mp4SeekIndex(double[] times, long[] offsets, double duration) {
+        this.times = times;
+        this.offsets = offsets;
+        this.duration = duration;
+    }
+
+    static Mp4SeekIndex read(FileChannel channel) throws IOException {
+        Mp4File mp4 = Mp4File.scan(channel);
+        if (mp4.first("moof") != null) {
+            throw new Mp4Exception("Fragmented MP4 files are not supported");
+        }
+        Mp4Track video = null;
+        for (Mp4Track track : Mp4Track.readAll(mp4.readMoov(channel))) {
+            if (track.isVideo()) {
+                video = track;
+                break;
+            }
+        }
+        if (video == null) {
+            throw new Mp4Exception("No video track");
+        }
+
+        int[] syncSamples = video.getSyncSamples();
+        int count = syncSamples != null ? syncSamples.length : video.getSampleCount();
+        double[] times = new double[count];
+        long[] offsets = new long[count];
+        double timescale = video.getTimescale();
+        for (int i = 0; i < count; i++) {
+            int sample = syncSamples != null ? syncSamples[i] : i;
+            // A keyframe before the start of the edit is shown at time 0
+            times[i] = Math.max(0, video.getPresentationTime(sample)) / timescale;
+            offsets[i] = video.getSampleOffset(sample);
+        }
+        return new Mp4SeekIndex(times, offsets, Math.max(0, video.getDuration() - video.getEditMediaTime()) / timescale);
+    }
+
+    int getCount() {
+        return times.length;
+    }
+
+    /**
+     * Keyframe presentation time in seconds.
+     */
+    double getTime(int index) {
+        return times[index];
+    }
+
+    long getOffset(int index) {
+        return offsets[index];
+    }
+
+    /**
+     * Duration of the video track in seconds.
+     */
+    double getDuration() {
+        return duration;
+    }
+
+    /**
+     * The keyframe times as little-endian doubles, the memory layout of a JavaScript
+     * Float64Array.
+     */
+    byte[] getTimesBytes() {
+        ByteBuffer buffer = ByteBuffer.allocate(times.length * 8).order(ByteOrder.LITTLE_ENDIAN);
+        for (double time : times) {
+            buffer.putDouble(time);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * The keyframe offsets as little-endian doubles, which hold any offset below 2^53 exactly.
+     */
+    byte[] getOffsetsBytes() {
+        ByteBuffer buffer = ByteBuffer.allocate(offsets.length * 8).order(ByteOrder.LITTLE_ENDIAN);
+        for (long offset : offsets) {
+            buffer.putDouble(offset);
+        }
+        return buffer.array();
+    }
+}
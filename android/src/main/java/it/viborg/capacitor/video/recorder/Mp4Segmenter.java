@@ -0,0 +1,295 @@
+package it.viborg.capacitor.video.recorder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits an MP4 file at video sync samples without re-encoding. Segments are either standalone
+ * MP4 files that each play on their own, cut by {@link Mp4Trimmer}, or the media segments of a
+ * fragmented MP4: one moof and mdat pair each, after an init segment holding ftyp and moov.
+ * Sample data is copied with transferTo and only the tables of one segment are built at a
+ * time, so memory use does not grow with the length of the video.
+ */
+class Mp4Segmenter {
+
+    static final String FORMAT_MP4 = "mp4";
+    static final String FORMAT_FMP4 = "fmp4";
+
+    interface Outputs {
+        /**
+         * Opens the file the segment with the given index is written to. Index -1 is the init
+         * segment of a fragmented MP4. The channel is closed once the segment is written.
+         */
+        FileChannel open(int index) throws IOException;
+    }
+
+    // sample_flags of trun: sample_depends_on 2 for sync samples, 1 plus is_non_sync otherwise
+    private static final int SYNC_SAMPLE_FLAGS = 0x02000000;
+    private static final int NON_SYNC_SAMPLE_FLAGS = 0x01010000;
+    // tfhd: sample-description-index-present and default-base-is-moof
+    private static final int TFHD_FLAGS = 0x000002 | 0x020000;
+    // trun: data-offset, sample-duration, sample-size and sample-flags present
+    private static final int TRUN_FLAGS = 0x000001 | 0x000100 | 0x000200 | 0x000400;
+    private static final int TRUN_COMPOSITION_OFFSETS = 0x000800;
+
+    private Mp4Segmenter() {}
+
+    /**
+     * Writes the segments of {@code in} and returns where each starts and ends, in
+     * milliseconds. A segment runs from one cut to the next, where every cut is the first
+     * video sync sample at least {@code segmentMs} after the previous one.
+     */
+    static List<Mp4Trimmer.Result> split(FileChannel in, long segmentMs, String format, Outputs outputs) throws IOException {
+        Mp4File mp4 = Mp4File.scan(in);
+        if (mp4.first("moof") != null) {
+            throw new Mp4Exception("Fragmented MP4 files are not supported");
+        }
+        Mp4Box ftyp = Mp4File.read(in, mp4.first("ftyp"));
+        Mp4Box moov = mp4.readMoov(in);
+        List<Mp4Track> tracks = Mp4Track.readAll(moov);
+        Mp4Track reference = Mp4Trimmer.findReference(tracks);
+        int[] cuts = findCuts(reference, Math.max(1, segmentMs * reference.getTimescale() / 1000));
+
+        List<Mp4Trimmer.Result> results = new ArrayList<>();
+        if (FORMAT_FMP4.equals(format)) {
+            long[] trackIds = writeInit(ftyp, moov.copy(), outputs);
+            int[] from = new int[tracks.size()];
+            for (int i = 0; i < cuts.length; i++) {
+                long end = i + 1 < cuts.length ? reference.getPresentationTime(cuts[i + 1]) : Long.MAX_VALUE;
+                int[] to = new int[tracks.size()];
+                for (int t = 0; t < tracks.size(); t++) {
+                    Mp4Track track = tracks.get(t);
+                    if (track == reference) {
+                        to[t] = i + 1 < cuts.length ? cuts[i + 1] : track.getSampleCount();
+                    } else {
+                        to[t] = findFirstSampleAt(track, end, reference.getTimescale());
+                    }
+                }
+                try (FileChannel out = outputs.open(i)) {
+                    writeFragment(in, out, i + 1, tracks, trackIds, from, to);
+                }
+                results.add(toResult(reference, cuts, i));
+                from = to;
+            }
+        } else {
+            for (int i = 0; i < cuts.length; i++) {
+                int first = cuts[i];
+                int last = i + 1 < cuts.length ? cuts[i + 1] : reference.getSampleCount();
+                long start = Math.max(0, reference.getPresentationTime(first));
+                long end = last < reference.getSampleCount() ? Math.max(start + 1, reference.getPresentationTime(last)) : Long.MAX_VALUE;
+                try (FileChannel out = outputs.open(i)) {
+                    results.add(Mp4Trimmer.cut(in, out, ftyp, moov.copy(), tracks, reference, first, last, start, end));
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * The reference samples segments start at. The first segment starts at the first sample.
+     */
+    private static int[] findCuts(Mp4Track reference, long segmentDuration) {
+        List<Integer> cuts = new ArrayList<>();
+        cuts.add(0);
+        long next = Math.max(0, reference.getPresentationTime(0)) + segmentDuration;
+        int[] syncSamples = reference.getSyncSamples();
+        int count = syncSamples != null ? syncSamples.length : reference.getSampleCount();
+        for (int i = 0; i < count; i++) {
+            int sample = syncSamples != null ? syncSamples[i] : i;
+            long time = reference.getPresentationTime(sample);
+            if (sample > 0 && time >= next) {
+                cuts.add(sample);
+                next = time + segmentDuration;
+            }
+        }
+        int[] ret = new int[cuts.size()];
+        for (int i = 0; i < ret.length; i++) {
+            ret[i] = cuts.get(i);
+        }
+        return ret;
+    }
+
+    private static Mp4Trimmer.Result toResult(Mp4Track reference, int[] cuts, int index) {
+        long timescale = reference.getTimescale();
+        long start = Math.max(0, reference.getPresentationTime(cuts[index]));
+        long end = index + 1 < cuts.length
+                ? reference.getPresentationTime(cuts[index + 1])
+                : reference.getDuration() - reference.getEditMediaTime();
+        return new Mp4Trimmer.Result(start * 1000 / timescale, Math.max(start, end) * 1000 / timescale);
+    }
+
+    /**
+     * The first sample of a track decoded at or after a presentation time of the reference
+     * track, so consecutive fragments split the samples between them without overlap.
+     */
+    private static int findFirstSampleAt(Mp4Track track, long time, long timescale) {
+        if (time == Long.MAX_VALUE) {
+            return track.getSampleCount();
+        }
+        long trackTime = Mp4Trimmer.convert(Math.max(0, time), timescale, track.getTimescale()) + track.getEditMediaTime();
+        int sample = track.findSample(trackTime);
+        if (track.getDecodeTime(sample) < trackTime) {
+            sample++;
+        }
+        return Math.min(sample, track.getSampleCount());
+    }
+
+    /**
+     * Writes ftyp and a moov without samples that announces fragments, and returns the track
+     * IDs.
+     */
+    private static long[] writeInit(Mp4Box ftyp, Mp4Box moov, Outputs outputs) throws IOException {
+        Mp4Box mvhd = moov.find("mvhd");
+        if (mvhd == null) {
+            throw new Mp4Exception("Missing mvhd box");
+        }
+        Mp4Track.writeDuration(mvhd, 0);
+        List<Mp4Box> traks = moov.findAll("trak");
+        long[] trackIds = new long[traks.size()];
+        List<Mp4Box> trexes = new ArrayList<>();
+        for (int i = 0; i < traks.size(); i++) {
+            Mp4Box trak = traks.get(i);
+            Mp4Box tkhd = trak.find("tkhd");
+            Mp4Box mdhd = trak.find("mdia", "mdhd");
+            Mp4Box stbl = trak.find("mdia", "minf", "stbl");
+            if (tkhd == null || mdhd == null || stbl == null) {
+                throw new Mp4Exception("Incomplete trak box");
+            }
+            trackIds[i] = Mp4Track.readTrackId(tkhd);
+            Mp4Track.writeDuration(tkhd, 0);
+            Mp4Track.writeDuration(mdhd, 0);
+            new Mp4SampleTable.Builder().write(stbl, new long[0], false);
+
+            ByteBuffer trex = ByteBuffer.allocate(24);
+            trex.putInt(0);
+            trex.putInt((int) trackIds[i]);
+            // Default sample description index, every fragment sets its own in tfhd
+            trex.putInt(1);
+            trexes.add(new Mp4Box("trex", trex.array()));
+        }
+        moov.removeChildren("mvex");
+        moov.getChildren().add(new Mp4Box("mvex", trexes));
+
+        try (FileChannel out = outputs.open(-1)) {
+            Mp4File.writeFully(out, ftyp.toBuffer());
+            Mp4File.writeFully(out, moov.toBuffer());
+        }
+        return trackIds;
+    }
+
+    private static void writeFragment(
+            FileChannel in,
+            FileChannel out,
+            int sequence,
+            List<Mp4Track> tracks,
+            long[] trackIds,
+            int[] from,
+            int[] to
+    ) throws IOException {
+        List<Mp4Box> moofChildren = new ArrayList<>();
+        ByteBuffer mfhd = ByteBuffer.allocate(8);
+        mfhd.putInt(0);
+        mfhd.putInt(sequence);
+        moofChildren.add(new Mp4Box("mfhd", mfhd.array()));
+
+        List<Mp4Box> truns = new ArrayList<>();
+        List<Long> trackDataSizes = new ArrayList<>();
+        long dataSize = 0;
+        for (int t = 0; t < tracks.size(); t++) {
+            Mp4Track track = tracks.get(t);
+            if (from[t] >= to[t]) {
+                continue;
+            }
+            int description = track.getChunkDescription(track.getChunk(from[t]));
+            for (int chunk = track.getChunk(from[t]) + 1; chunk <= track.getChunk(to[t] - 1); chunk++) {
+                if (track.getChunkDescription(chunk) != description) {
+                    throw new Mp4Exception("Sample description changes within a segment");
+                }
+            }
+
+            ByteBuffer tfhd = ByteBuffer.allocate(12);
+            tfhd.putInt(TFHD_FLAGS);
+            tfhd.putInt((int) trackIds[t]);
+            tfhd.putInt(description);
+            ByteBuffer tfdt = ByteBuffer.allocate(12);
+            tfdt.putInt(1 << 24);
+            tfdt.putLong(track.getDecodeTime(from[t]));
+
+            int count = to[t] - from[t];
+            boolean compositionOffsets = false;
+            boolean negative = false;
+            for (int sample = from[t]; sample < to[t]; sample++) {
+                compositionOffsets |= track.getCompositionOffset(sample) != 0;
+                negative |= track.getCompositionOffset(sample) < 0;
+            }
+            ByteBuffer trun = ByteBuffer.allocate(12 + count * (compositionOffsets ? 16 : 12));
+            trun.putInt((negative ? 1 << 24 : 0) | TRUN_FLAGS | (compositionOffsets ? TRUN_COMPOSITION_OFFSETS : 0));
+            trun.putInt(count);
+            // Data offset, filled in once the moof size is known
+            trun.putInt(0);
+            long size = 0;
+            for (int sample = from[t]; sample < to[t]; sample++) {
+                trun.putInt(track.getSampleDuration(sample));
+                trun.putInt(track.getSampleSize(sample));
+                trun.putInt(track.isSync(sample) ? SYNC_SAMPLE_FLAGS : NON_SYNC_SAMPLE_FLAGS);
+                if (compositionOffsets) {
+                    trun.putInt(track.getCompositionOffset(sample));
+                }
+                size += track.getSampleSize(sample);
+            }
+
+            List<Mp4Box> trafChildren = new ArrayList<>();
+            trafChildren.add(new Mp4Box("tfhd", tfhd.array()));
+            trafChildren.add(new Mp4Box("tfdt", tfdt.array()));
+            Mp4Box trunBox = new Mp4Box("trun", trun.array());
+            trafChildren.add(trunBox);
+            moofChildren.add(new Mp4Box("traf", trafChildren));
+            truns.add(trunBox);
+            trackDataSizes.add(size);
+            dataSize += size;
+        }
+
+        Mp4Box moof = new Mp4Box("moof", moofChildren);
+        int mdatHeaderSize = dataSize + 8 > 0xffffffffL ? 16 : 8;
+        long dataOffset = moof.getSize() + mdatHeaderSize;
+        for (int i = 0; i < truns.size(); i++) {
+            if (dataOffset > Integer.MAX_VALUE) {
+                throw new Mp4Exception("Segment too large");
+            }
+            truns.get(i).buffer().putInt(8, (int) dataOffset);
+            dataOffset += trackDataSizes.get(i);
+        }
+
+        Mp4File.writeFully(out, moof.toBuffer());
+        ByteBuffer header = ByteBuffer.allocate(mdatHeaderSize);
+        if (mdatHeaderSize == 16) {
+            header.putInt(1);
+            header.put(new byte[] { 'm', 'd', 'a', 't' });
+            header.putLong(dataSize + 16);
+        } else {
+            header.putInt((int) (dataSize + 8));
+            header.put(new byte[] { 'm', 'd', 'a', 't' });
+        }
+        header.flip();
+        Mp4File.writeFully(out, header);
+
+        // The samples of each track in order, copying runs that are adjacent in the source at once
+        for (int t = 0; t < tracks.size(); t++) {
+            Mp4Track track = tracks.get(t);
+            int sample = from[t];
+            while (sample < to[t]) {
+                long start = track.getSampleOffset(sample);
+                long end = start + track.getSampleSize(sample);
+                sample++;
+                while (sample < to[t] && track.getSampleOffset(sample) == end) {
+                    end += track.getSampleSize(sample);
+                    sample++;
+                }
+                Mp4File.transfer(in, start, end - start, out);
+            }
+        }
+    }
+}
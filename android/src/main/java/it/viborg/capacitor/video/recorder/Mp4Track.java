@@ -0,0 +1,441 @@
+package it.viborg.capacitor.video.recorder;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A track of an MP4 movie with its sample table decoded into flat per-sample arrays, so samples
+ * can be looked up by index or time without walking the run-length encoded boxes.
+ */
+class Mp4Track {
+
+    private final Mp4Box trak;
+    private final Mp4Box stbl;
+    private final String handler;
+    private final long timescale;
+    private final int sampleCount;
+    private final int[] sizes;
+    private final long[] offsets;
+    private final long[] times;
+    private final int[] compositionOffsets;
+    private final int[] syncSamples;
+    private final int[] chunkFirstSample;
+    private final int[] chunkDescriptions;
+    private final long editMediaTime;
+
+    private Mp4Track(Mp4Box trak) throws Mp4Exception {
+        this.trak = trak;
+        Mp4Box mdia = require(trak, "mdia");
+        stbl = require(mdia, "minf", "stbl");
+        handler = readHandler(require(mdia, "hdlr"));
+        timescale = readTimescale(require(mdia, "mdhd"));
+        if (stbl.find("stz2") != null) {
+            throw new Mp4Exception("Compact sample sizes are not supported");
+        }
+
+        sizes = readSizes(require(stbl, "stsz"));
+        sampleCount = sizes.length;
+        times = readTimes(require(stbl, "stts"), sampleCount);
+        Mp4Box ctts = stbl.find("ctts");
+        compositionOffsets = ctts == null ? null : readCompositionOffsets(ctts, sampleCount);
+        Mp4Box stss = stbl.find("stss");
+        syncSamples = stss == null ? null : readSyncSamples(stss, sampleCount);
+
+        long[] chunkOffsets = Mp4SampleTable.readChunkOffsets(stbl);
+        chunkFirstSample = new int[chunkOffsets.length + 1];
+        chunkDescriptions = new int[chunkOffsets.length];
+        readChunks(require(stbl, "stsc"), chunkOffsets.length, sampleCount, chunkFirstSample, chunkDescriptions);
+        offsets = new long[sampleCount];
+        for (int chunk = 0; chunk < chunkOffsets.length; chunk++) {
+            long offset = chunkOffsets[chunk];
+            for (int i = chunkFirstSample[chunk]; i < chunkFirstSample[chunk + 1]; i++) {
+                offsets[i] = offset;
+                offset += sizes[i];
+            }
+        }
+        editMediaTime = readEditMediaTime(trak.find("edts", "elst"));
+    }
+
+    static Mp4Track read(Mp4Box trak) throws Mp4Exception {
+        try {
+            return new Mp4Track(trak);
+        } catch (RuntimeException ex) {
+            // Buffer underflows and bad indices from truncated tables
+            throw new Mp4Exception("Invalid sample table: " + ex);
+        }
+    }
+
+    Mp4Box getTrak() {
+        return trak;
+    }
+
+    Mp4Box getSampleTable() {
+        return stbl;
+    }
+
+    /**
+     * Handler type, "vide" or "soun" for video and audio tracks.
+     */
+    String getHandler() {
+        return handler;
+    }
+
+    boolean isVideo() {
+        return "vide".equals(handler);
+    }
+
+    long getTimescale() {
+        return timescale;
+    }
+
+    int getSampleCount() {
+        return sampleCount;
+    }
+
+    int getSampleSize(int sample) {
+        return sizes[sample];
+    }
+
+    long getSampleOffset(int sample) {
+        return offsets[sample];
+    }
+
+    /**
+     * Decode time of a sample in the track timescale. {@code getDecodeTime(getSampleCount())}
+     * is the end of the last sample.
+     */
+    long getDecodeTime(int sample) {
+        return times[sample];
+    }
+
+    int getSampleDuration(int sample) {
+        return (int) (times[sample + 1] - times[sample]);
+    }
+
+    long getDuration() {
+        return times[sampleCount];
+    }
+
+    boolean hasCompositionOffsets() {
+        return compositionOffsets != null;
+    }
+
+    int getCompositionOffset(int sample) {
+        return compositionOffsets == null ? 0 : compositionOffsets[sample];
+    }
+
+    /**
+     * Presentation time of a sample in the track timescale, with the edit list offset applied.
+     */
+    long getPresentationTime(int sample) {
+        return times[sample] + getCompositionOffset(sample) - editMediaTime;
+    }
+
+    boolean isSync(int sample) {
+        return syncSamples == null || Arrays.binarySearch(syncSamples, sample) >= 0;
+    }
+
+    /**
+     * Indices of the sync samples, or null if every sample is a sync sample.
+     */
+    int[] getSyncSamples() {
+        return syncSamples;
+    }
+
+    int getChunkCount() {
+        return chunkDescriptions.length;
+    }
+
+    int getChunkFirstSample(int chunk) {
+        return chunkFirstSample[chunk];
+    }
+
+    /**
+     * Index of the chunk holding a sample.
+     */
+    int getChunk(int sample) {
+        int index = Arrays.binarySearch(chunkFirstSample, sample);
+        if (index < 0) {
+            return -index - 2;
+        }
+        // Empty chunks share their first sample with the next one
+        while (index + 1 < chunkFirstSample.length && chunkFirstSample[index + 1] == sample) {
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * 1-based index of the sample description (stsd entry) used by a chunk.
+     */
+    int getChunkDescription(int chunk) {
+        return chunkDescriptions[chunk];
+    }
+
+    /**
+     * Media time at which presentation starts, from the first non-empty edit.
+     */
+    long getEditMediaTime() {
+        return editMediaTime;
+    }
+
+    /**
+     * The last sample that starts at or before the given decode time, or 0.
+     */
+    int findSample(long time) {
+        int index = Arrays.binarySearch(times, 0, sampleCount, time);
+        if (index < 0) {
+            index = -index - 2;
+        }
+        // Zero duration samples share a time, use the first of them
+        while (index > 0 && times[index - 1] == time) {
+            index--;
+        }
+        return Math.max(0, index);
+    }
+
+    /**
+     * The last sync sample at or before the given sample.
+     */
+    int findSyncSample(int sample) {
+        if (syncSamples == null) {
+            return sample;
+        }
+        int index = Arrays.binarySearch(syncSamples, sample);
+        if (index >= 0) {
+            return syncSamples[index];
+        }
+        index = -index - 2;
+        return index < 0 ? (syncSamples.length > 0 ? syncSamples[0] : 0) : syncSamples[index];
+    }
+
+    static List<Mp4Track> readAll(Mp4Box moov) throws Mp4Exception {
+        List<Mp4Track> tracks = new ArrayList<>();
+        for (Mp4Box trak : moov.findAll("trak")) {
+            tracks.add(read(trak));
+        }
+        return tracks;
+    }
+
+    private static Mp4Box require(Mp4Box box, String... path) throws Mp4Exception {
+        Mp4Box child = box.find(path);
+        if (child == null) {
+            throw new Mp4Exception("Missing " + path[path.length - 1] + " box");
+        }
+        return child;
+    }
+
+    private static String readHandler(Mp4Box hdlr) {
+        ByteBuffer buffer = hdlr.buffer();
+        buffer.position(8);
+        return Mp4Box.readType(buffer);
+    }
+
+    /**
+     * Timescale of a mvhd or mdhd box.
+     */
+    static long readTimescale(Mp4Box header) {
+        ByteBuffer buffer = header.buffer();
+        int version = buffer.get(0);
+        return buffer.getInt(version == 1 ? 20 : 12) & 0xffffffffL;
+    }
+
+    /**
+     * Duration of a mvhd, mdhd or tkhd box.
+     */
+    static long readDuration(Mp4Box header) {
+        ByteBuffer buffer = header.buffer();
+        int position = durationPosition(header.getType(), buffer.get(0));
+        return buffer.get(0) == 1 ? buffer.getLong(position) : buffer.getInt(position) & 0xffffffffL;
+    }
+
+    /**
+     * Track ID of a tkhd box.
+     */
+    static long readTrackId(Mp4Box tkhd) {
+        ByteBuffer buffer = tkhd.buffer();
+        return buffer.getInt(buffer.get(0) == 1 ? 20 : 12) & 0xffffffffL;
+    }
+
+    /**
+     * Sets the duration of a mvhd, mdhd or tkhd box, upgrading it to version 1 if the value
+     * does not fit in 32 bits.
+     */
+    static void writeDuration(Mp4Box header, long duration) {
+        ByteBuffer buffer = header.buffer();
+        int version = buffer.get(0);
+        if (version == 0 && duration > 0xffffffffL) {
+            header.setData(toVersion1(header.getType(), header.getData()));
+            buffer = header.buffer();
+            version = 1;
+        }
+        int position = durationPosition(header.getType(), version);
+        if (version == 1) {
+            buffer.putLong(position, duration);
+        } else {
+            buffer.putInt(position, (int) duration);
+        }
+    }
+
+    private static int durationPosition(String type, int version) {
+        if ("tkhd".equals(type)) {
+            return version == 1 ? 28 : 20;
+        }
+        return version == 1 ? 24 : 16;
+    }
+
+    /**
+     * Widens the creation time, modification time and duration fields of a header box.
+     */
+    private static byte[] toVersion1(String type, byte[] data) {
+        ByteBuffer in = ByteBuffer.wrap(data);
+        ByteBuffer out = ByteBuffer.allocate(data.length + 12);
+        out.putInt((1 << 24) | (in.getInt() & 0xffffff));
+        out.putLong(in.getInt() & 0xffffffffL);
+        out.putLong(in.getInt() & 0xffffffffL);
+        // tkhd has track_ID and a reserved field before the duration, mvhd and mdhd the timescale
+        int between = "tkhd".equals(type) ? 8 : 4;
+        for (int i = 0; i < between; i++) {
+            out.put(in.get());
+        }
+        out.putLong(in.getInt() & 0xffffffffL);
+        out.put(in);
+        return out.array();
+    }
+
+    private static int[] readSizes(Mp4Box stsz) throws Mp4Exception {
+        ByteBuffer buffer = stsz.buffer();
+        buffer.getInt();
+        int size = buffer.getInt();
+        long count = buffer.getInt() & 0xffffffffL;
+        if (size != 0) {
+            if (count > Integer.MAX_VALUE / 4) {
+                throw new Mp4Exception("Too many samples");
+            }
+            int[] sizes = new int[(int) count];
+            Arrays.fill(sizes, size);
+            return sizes;
+        }
+        if (count * 4 > buffer.remaining()) {
+            throw new Mp4Exception("Truncated sample table");
+        }
+        int[] sizes = new int[(int) count];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = buffer.getInt();
+        }
+        return sizes;
+    }
+
+    private static long[] readTimes(Mp4Box stts, int sampleCount) throws Mp4Exception {
+        ByteBuffer buffer = stts.buffer();
+        buffer.getInt();
+        int entries = Mp4SampleTable.readCount(buffer, 8);
+        long[] times = new long[sampleCount + 1];
+        int sample = 0;
+        long time = 0;
+        for (int i = 0; i < entries; i++) {
+            long count = buffer.getInt() & 0xffffffffL;
+            long delta = buffer.getInt() & 0xffffffffL;
+            for (long j = 0; j < count && sample < sampleCount; j++) {
+                times[sample++] = time;
+                time += delta;
+            }
+        }
+        if (sample < sampleCount) {
+            throw new Mp4Exception("Sample durations don't cover all samples");
+        }
+        times[sampleCount] = time;
+        return times;
+    }
+
+    private static int[] readCompositionOffsets(Mp4Box ctts, int sampleCount) throws Mp4Exception {
+        ByteBuffer buffer = ctts.buffer();
+        buffer.getInt();
+        int entries = Mp4SampleTable.readCount(buffer, 8);
+        int[] offsets = new int[sampleCount];
+        int sample = 0;
+        for (int i = 0; i < entries; i++) {
+            long count = buffer.getInt() & 0xffffffffL;
+            // Version 0 offsets are unsigned but never large enough for that to matter
+            int offset = buffer.getInt();
+            for (long j = 0; j < count && sample < sampleCount; j++) {
+                offsets[sample++] = offset;
+            }
+        }
+        return offsets;
+    }
+
+    private static int[] readSyncSamples(Mp4Box stss, int sampleCount) throws Mp4Exception {
+        ByteBuffer buffer = stss.buffer();
+        buffer.getInt();
+        int count = Mp4SampleTable.readCount(buffer, 4);
+        int[] samples = new int[count];
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            long sample = (buffer.getInt() & 0xffffffffL) - 1;
+            if (sample >= 0 && sample < sampleCount && (n == 0 || sample > samples[n - 1])) {
+                samples[n++] = (int) sample;
+            }
+        }
+        return n == count ? samples : Arrays.copyOf(samples, n);
+    }
+
+    private static void readChunks(Mp4Box stsc, int chunkCount, int sampleCount, int[] chunkFirstSample, int[] descriptions)
+            throws Mp4Exception {
+        ByteBuffer buffer = stsc.buffer();
+        buffer.getInt();
+        int entries = Mp4SampleTable.readCount(buffer, 12);
+        long[] firstChunks = new long[entries];
+        long[] samplesPerChunk = new long[entries];
+        int[] descriptionIndices = new int[entries];
+        for (int i = 0; i < entries; i++) {
+            firstChunks[i] = (buffer.getInt() & 0xffffffffL) - 1;
+            samplesPerChunk[i] = buffer.getInt() & 0xffffffffL;
+            descriptionIndices[i] = buffer.getInt();
+        }
+        long sample = 0;
+        int entry = -1;
+        for (int chunk = 0; chunk < chunkCount; chunk++) {
+            while (entry + 1 < entries && firstChunks[entry + 1] <= chunk) {
+                entry++;
+            }
+            if (entry < 0) {
+                throw new Mp4Exception("Invalid sample to chunk table");
+            }
+            chunkFirstSample[chunk] = (int) Math.min(sample, sampleCount);
+            descriptions[chunk] = descriptionIndices[entry];
+            sample += samplesPerChunk[entry];
+        }
+        if (sample < sampleCount) {
+            throw new Mp4Exception("Chunks don't cover all samples");
+        }
+        chunkFirstSample[chunkCount] = sampleCount;
+    }
+
+    private static long readEditMediaTime(Mp4Box elst) {
+        if (elst == null) {
+            return 0;
+        }
+        ByteBuffer buffer = elst.buffer();
+        int version = buffer.get(0);
+        buffer.position(4);
+        long count = buffer.getInt() & 0xffffffffL;
+        for (long i = 0; i < count && buffer.remaining() >= (version == 1 ? 20 : 12); i++) {
+            long mediaTime;
+            if (version == 1) {
+                buffer.getLong();
+                mediaTime = buffer.getLong();
+            } else {
+                buffer.getInt();
+                mediaTime = buffer.getInt();
+            }
+            buffer.getInt();
+            if (mediaTime >= 0) {
+                return mediaTime;
+            }
+        }
+        return 0;
+    }
+}
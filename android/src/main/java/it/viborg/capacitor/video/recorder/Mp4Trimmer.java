@@ -0,0 +1,249 @@
+package it.viborg.capacitor.video.recorder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Cuts an MP4 file without re-encoding. The start moves back to the nearest video sync sample
+ * so the first frame decodes on its own. Only the sample tables are rewritten; the kept sample
+ * data is copied with transferTo, so a trim runs at disk speed.
+ */
+class Mp4Trimmer {
+
+    static class Result {
+
+        /**
+         * Where the trimmed video starts and ends in the original, in milliseconds.
+         */
+        final long startMs;
+        final long endMs;
+
+        Result(long startMs, long endMs) {
+            this.startMs = startMs;
+            this.endMs = endMs;
+        }
+    }
+
+    private static class PendingChunk {
+
+        final int track;
+        final int index;
+        final long offset;
+        final long size;
+
+        PendingChunk(int track, int index, long offset, long size) {
+            this.track = track;
+            this.index = index;
+            this.offset = offset;
+            this.size = size;
+        }
+    }
+
+    private Mp4Trimmer() {}
+
+    /**
+     * Writes the part of {@code in} between {@code startMs} and {@code endMs} to {@code out}.
+     * An {@code endMs} of 0 or past the end keeps everything after the start.
+     */
+    static Result trim(FileChannel in, FileChannel out, long startMs, long endMs) throws IOException {
+        Mp4File mp4 = Mp4File.scan(in);
+        if (mp4.first("moof") != null) {
+            throw new Mp4Exception("Fragmented MP4 files are not supported");
+        }
+        Mp4Box ftyp = Mp4File.read(in, mp4.first("ftyp"));
+        Mp4Box moov = mp4.readMoov(in);
+        List<Mp4Track> tracks = Mp4Track.readAll(moov);
+        Mp4Track reference = findReference(tracks);
+
+        // Cut points in the presentation timeline of the reference track
+        long timescale = reference.getTimescale();
+        if (startMs * timescale / 1000 >= reference.getDuration() - reference.getEditMediaTime()) {
+            throw new Mp4Exception("Start is past the end of the video");
+        }
+        int first = reference.findSyncSample(reference.findSample(startMs * timescale / 1000 + reference.getEditMediaTime()));
+        int[] syncSamples = reference.getSyncSamples();
+        while (syncSamples != null && reference.getPresentationTime(first) > startMs * timescale / 1000) {
+            // With composition offsets the sync sample may be presented after the requested start
+            int index = Arrays.binarySearch(syncSamples, first);
+            if (index <= 0) {
+                break;
+            }
+            first = syncSamples[index - 1];
+        }
+        long start = Math.max(0, reference.getPresentationTime(first));
+        long end = endMs > 0 ? Math.max(start + 1, (endMs * timescale + 999) / 1000) : Long.MAX_VALUE;
+        return cut(in, out, ftyp, moov, tracks, reference, first, -1, start, end);
+    }
+
+    /**
+     * The track cuts are aligned to: the first video track with samples, or else the first
+     * track with samples.
+     */
+    static Mp4Track findReference(List<Mp4Track> tracks) throws Mp4Exception {
+        Mp4Track reference = null;
+        for (Mp4Track track : tracks) {
+            if (track.getSampleCount() > 0 && (reference == null || (track.isVideo() && !reference.isVideo()))) {
+                reference = track;
+            }
+        }
+        if (reference == null) {
+            throw new Mp4Exception("No samples to trim");
+        }
+        return reference;
+    }
+
+    /**
+     * Writes the samples of every track presented from {@code start} up to {@code end}, both in
+     * the timescale of the reference track. The reference track keeps its samples from
+     * {@code first} up to {@code last}, or up to {@code end} if {@code last} is -1. The tables
+     * of the traks in {@code moov} are rewritten, so it may be a copy of the box the tracks
+     * were read from.
+     */
+    static Result cut(
+            FileChannel in,
+            FileChannel out,
+            Mp4Box ftyp,
+            Mp4Box moov,
+            List<Mp4Track> tracks,
+            Mp4Track reference,
+            int first,
+            int last,
+            long start,
+            long end
+    ) throws IOException {
+        Mp4Box mvhd = moov.find("mvhd");
+        if (mvhd == null) {
+            throw new Mp4Exception("Missing mvhd box");
+        }
+        long movieTimescale = Mp4Track.readTimescale(mvhd);
+        long timescale = reference.getTimescale();
+        List<Mp4Box> traks = moov.findAll("trak");
+
+        Mp4Writer writer = new Mp4Writer();
+        List<PendingChunk> pending = new ArrayList<>();
+        long movieDuration = 0;
+        for (Mp4Track track : tracks) {
+            long trackStart = convert(start, timescale, track.getTimescale()) + track.getEditMediaTime();
+            long trackEnd = end == Long.MAX_VALUE ? Long.MAX_VALUE : convert(end, timescale, track.getTimescale()) + track.getEditMediaTime();
+            int from = track == reference ? first : track.findSample(trackStart);
+            if (track != reference && track.isVideo()) {
+                from = track.findSyncSample(from);
+            }
+            int to = from;
+            if (track == reference && last >= 0) {
+                to = last;
+            } else {
+                while (to < track.getSampleCount() && track.getDecodeTime(to) < trackEnd) {
+                    to++;
+                }
+                if (track.getSampleCount() == 0 || track.getDecodeTime(from) >= trackEnd) {
+                    to = from;
+                }
+            }
+
+            Mp4SampleTable.Builder builder = new Mp4SampleTable.Builder();
+            int trackIndex = tracks.indexOf(track);
+            Mp4Box trak = traks.get(trackIndex);
+            if (from < to) {
+                for (int chunk = track.getChunk(from); chunk <= track.getChunk(to - 1); chunk++) {
+                    int chunkFrom = Math.max(from, track.getChunkFirstSample(chunk));
+                    int chunkTo = Math.min(to, track.getChunkFirstSample(chunk + 1));
+                    if (chunkFrom >= chunkTo) {
+                        continue;
+                    }
+                    int index = builder.startChunk(track.getChunkDescription(chunk));
+                    long size = 0;
+                    for (int sample = chunkFrom; sample < chunkTo; sample++) {
+                        builder.addSample(
+                                track.getSampleSize(sample),
+                                track.getSampleDuration(sample),
+                                track.getCompositionOffset(sample),
+                                track.isSync(sample)
+                        );
+                        size += track.getSampleSize(sample);
+                    }
+                    pending.add(new PendingChunk(trackIndex, index, track.getSampleOffset(chunkFrom), size));
+                }
+            }
+            writer.addTrack(builder, trak.find("mdia", "minf", "stbl"));
+
+            // The edit starts presentation at the cut point, which for tracks other than the
+            // reference may fall inside their first sample
+            long mediaTime = from < to ? Math.max(0, trackStart - track.getDecodeTime(from)) : 0;
+            long mediaDuration = builder.getDuration();
+            long presented = Math.max(0, mediaDuration - mediaTime);
+            if (trackEnd != Long.MAX_VALUE) {
+                presented = Math.min(presented, trackEnd - trackStart);
+            }
+            long segmentDuration = convert(presented, track.getTimescale(), movieTimescale);
+            writeDurations(trak, mediaDuration, segmentDuration, mediaTime);
+            movieDuration = Math.max(movieDuration, segmentDuration);
+        }
+        Mp4Track.writeDuration(mvhd, movieDuration);
+
+        // Keep the original interleaving of the tracks
+        Collections.sort(
+                pending,
+                new Comparator<PendingChunk>() {
+                    @Override
+                    public int compare(PendingChunk a, PendingChunk b) {
+                        return Long.compare(a.offset, b.offset);
+                    }
+                }
+        );
+        for (PendingChunk chunk : pending) {
+            writer.addChunk(chunk.track, chunk.index, in, chunk.offset, chunk.size);
+        }
+        writer.write(out, ftyp, moov);
+
+        long startResult = start * 1000 / timescale;
+        return new Result(startResult, startResult + movieDuration * 1000 / movieTimescale);
+    }
+
+    /**
+     * Sets the durations of a trak and replaces its edit list with a single edit that starts
+     * presentation at {@code mediaTime}.
+     */
+    static void writeDurations(Mp4Box trak, long mediaDuration, long segmentDuration, long mediaTime) {
+        Mp4Track.writeDuration(trak.find("mdia", "mdhd"), mediaDuration);
+        Mp4Box tkhd = trak.find("tkhd");
+        if (tkhd != null) {
+            Mp4Track.writeDuration(tkhd, segmentDuration);
+        }
+        trak.removeChildren("edts");
+        if (mediaDuration == 0) {
+            return;
+        }
+
+        boolean wide = segmentDuration > 0xffffffffL || mediaTime > Integer.MAX_VALUE;
+        ByteBuffer elst = ByteBuffer.allocate(8 + (wide ? 20 : 12));
+        elst.putInt(wide ? 1 << 24 : 0);
+        elst.putInt(1);
+        if (wide) {
+            elst.putLong(segmentDuration);
+            elst.putLong(mediaTime);
+        } else {
+            elst.putInt((int) segmentDuration);
+            elst.putInt((int) mediaTime);
+        }
+        elst.putInt(0x00010000);
+        List<Mp4Box> edts = new ArrayList<>();
+        edts.add(new Mp4Box("elst", elst.array()));
+        // The edit list sits right after the track header
+        int index = tkhd == null ? 0 : trak.getChildren().indexOf(tkhd) + 1;
+        trak.getChildren().add(index, new Mp4Box("edts", edts));
+    }
+
+    static long convert(long time, long from, long to) {
+        if (from == to) {
+            return time;
+        }
+        return time / from * to + time % from * to / from;
+    }
+}
@@ -0,0 +1,127 @@
+package it.viborg.capacitor.video.recorder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes a new MP4 file laid out for fast start: ftyp, moov, then a single mdat holding the
+ * chunks in the order they were added. Chunk data is copied from the source channels with
+ * transferTo, and the chunk offsets of every track are filled in once the moov size is known.
+ */
+class Mp4Writer {
+
+    private static class Track {
+
+        final Mp4SampleTable.Builder builder;
+        final Mp4Box stbl;
+        final long[] chunkOffsets;
+
+        Track(Mp4SampleTable.Builder builder, Mp4Box stbl) {
+            this.builder = builder;
+            this.stbl = stbl;
+            this.chunkOffsets = new long[builder.getChunkCount()];
+        }
+    }
+
+    private static class Chunk {
+
+        final Track track;
+        final int index;
+        final FileChannel source;
+        final long offset;
+        final long size;
+
+        Chunk(Track track, int index, FileChannel source, long offset, long size) {
+            this.track = track;
+            this.index = index;
+            this.source = source;
+            this.offset = offset;
+            this.size = size;
+        }
+    }
+
+    private final List<Track> tracks = new ArrayList<>();
+    private final List<Chunk> chunks = new ArrayList<>();
+
+    /**
+     * Adds a track whose samples have all been added to {@code builder}. Its tables replace
+     * those of {@code stbl} when the file is written. Returns the track index for
+     * {@link #addChunk}.
+     */
+    int addTrack(Mp4SampleTable.Builder builder, Mp4Box stbl) {
+        tracks.add(new Track(builder, stbl));
+        return tracks.size() - 1;
+    }
+
+    /**
+     * Appends the data of a chunk to the media data, read from {@code source}.
+     */
+    void addChunk(int track, int chunk, FileChannel source, long offset, long size) {
+        chunks.add(new Chunk(tracks.get(track), chunk, source, offset, size));
+    }
+
+    void write(FileChannel out, Mp4Box ftyp, Mp4Box moov) throws IOException {
+        long dataSize = 0;
+        for (Chunk chunk : chunks) {
+            dataSize += chunk.size;
+        }
+        int mdatHeaderSize = dataSize + 8 > 0xffffffffL ? 16 : 8;
+
+        // Offsets depend on the moov size, which grows if a track needs co64
+        long moovSize = -1;
+        for (int attempt = 0; moov.getSize() != moovSize; attempt++) {
+            if (attempt > 3) {
+                throw new Mp4Exception("Unable to lay out moov box");
+            }
+            moovSize = moov.getSize();
+            long position = ftyp.getSize() + moovSize + mdatHeaderSize;
+            for (Chunk chunk : chunks) {
+                chunk.track.chunkOffsets[chunk.index] = position;
+                position += chunk.size;
+            }
+            for (Track track : tracks) {
+                boolean wide = max(track.chunkOffsets) > 0xffffffffL;
+                track.builder.write(track.stbl, track.chunkOffsets, wide);
+            }
+        }
+
+        Mp4File.writeFully(out, ftyp.toBuffer());
+        Mp4File.writeFully(out, moov.toBuffer());
+        ByteBuffer header = ByteBuffer.allocate(mdatHeaderSize);
+        if (mdatHeaderSize == 16) {
+            header.putInt(1);
+            header.put(new byte[] { 'm', 'd', 'a', 't' });
+            header.putLong(dataSize + 16);
+        } else {
+            header.putInt((int) (dataSize + 8));
+            header.put(new byte[] { 'm', 'd', 'a', 't' });
+        }
+        header.flip();
+        Mp4File.writeFully(out, header);
+
+        // Neighbouring chunks are usually adjacent in the source too, copy those in one go
+        int i = 0;
+        while (i < chunks.size()) {
+            Chunk first = chunks.get(i);
+            long end = first.offset + first.size;
+            int j = i + 1;
+            while (j < chunks.size() && chunks.get(j).source == first.source && chunks.get(j).offset == end) {
+                end += chunks.get(j).size;
+                j++;
+            }
+            Mp4File.transfer(first.source, first.offset, end - first.offset, out);
+            i = j;
+        }
+    }
+
+    private static long max(long[] values) {
+        long max = 0;
+        for (long value : values) {
+            max = Math.max(max, value);
+        }
+        return max;
+    }
+}
@@ -0,0 +1,41 @@
+package it.viborg.capacitor.video.recorder;
+
+import android.net.Uri;
+
+import com.getcapacitor.PluginCall;
+
+/**
+ * A way of recording a video into a file or a gallery entry. openCamera picks a backend from
+ * the call options; the backend reports back through exactly one of the callback methods.
+ */
+interface RecorderBackend {
+
+    interface Callback {
+        void onRecorded(Uri output);
+
+        void onCancelled();
+
+        void onError(String message, Exception ex);
+    }
+
+    /**
+     * Whether the backend can record on this device.
+     */
+    boolean isAvailable();
+
+    /**
+     * Starts recording into output, a file:// URI or a writable content:// URI. The settings
+     * carry the effective quality, size and duration limits after admission control.
+     */
+    void start(PluginCall call, Uri output, VideoRecorderSettings settings, Callback callback);
+
+    /**
+     * Finishes the current recording, if the backend controls when it ends.
+     */
+    void stop();
+
+    /**
+     * Releases everything the backend holds on to between recordings.
+     */
+    void release();
+}
@@ -0,0 +1,121 @@
+package it.viborg.capacitor.video.recorder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fans a list of items out over an executor and reports the results, either as one list in
+ * the original order or item by item as they finish. Nothing blocks while waiting: the task
+ * that finishes last delivers the batch.
+ */
+class VideoBatchProcessor {
+
+    interface Task<T, R> {
+        R process(T item) throws Exception;
+    }
+
+    interface Listener<R> {
+        void onComplete(List<R> results);
+
+        void onError(Exception ex);
+    }
+
+    interface ItemListener<R> {
+        /**
+         * Called once per item as soon as it is processed; exactly one of result and error is set.
+         */
+        void onItem(int index, R result, Exception error);
+
+        void onComplete(int count, int failed);
+    }
+
+    private VideoBatchProcessor() {}
+
+    static <T, R> void processInOrder(Executor executor, final List<T> items, final Task<T, R> task, final Listener<R> listener) {
+        final int count = items.size();
+        if (count == 0) {
+            listener.onComplete(new ArrayList<>());
+            return;
+        }
+
+        final Object[] results = new Object[count];
+        final AtomicInteger remaining = new AtomicInteger(count);
+        final AtomicBoolean failed = new AtomicBoolean(false);
+
+        for (int i = 0; i < count; i++) {
+            final int index = i;
+            Runnable runnable = () -> {
+                if (failed.get()) {
+                    return;
+                }
+                try {
+                    results[index] = task.process(items.get(index));
+                } catch (Exception ex) {
+                    if (failed.compareAndSet(false, true)) {
+                        listener.onError(ex);
+                    }
+                    return;
+                }
+                if (remaining.decrementAndGet() == 0) {
+                    listener.onComplete(toList(results));
+                }
+            };
+            try {
+                executor.execute(runnable);
+            } catch (RejectedExecutionException ex) {
+                if (failed.compareAndSet(false, true)) {
+                    listener.onError(ex);
+                }
+                return;
+            }
+        }
+    }
+
+    static <T, R> void processAsCompleted(Executor executor, final List<T> items, final Task<T, R> task, final ItemListener<R> listener) {
+        final int count = items.size();
+        if (count == 0) {
+            listener.onComplete(0, 0);
+            return;
+        }
+
+        final AtomicInteger remaining = new AtomicInteger(count);
+        final AtomicInteger failed = new AtomicInteger();
+
+        for (int i = 0; i < count; i++) {
+            final int index = i;
+            Runnable runnable = () -> {
+                try {
+                    listener.onItem(index, task.process(items.get(index)), null);
+                } catch (Exception ex) {
+                    failed.incrementAndGet();
+                    listener.onItem(index, null, ex);
+                }
+                if (remaining.decrementAndGet() == 0) {
+                    listener.onComplete(count, failed.get());
+                }
+            };
+            try {
+                executor.execute(runnable);
+            } catch (RejectedExecutionException ex) {
+                failed.addAndGet(count - index);
+                for (int j = index; j < count; j++) {
+                    listener.onItem(j, null, ex);
+                }
+                if (remaining.addAndGet(index - count) == 0) {
+                    listener.onComplete(count, failed.get());
+                }
+                return;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <R> List<R> toList(Object[] results) {
+        return (List<R>) Arrays.asList(results);
+    }
+}
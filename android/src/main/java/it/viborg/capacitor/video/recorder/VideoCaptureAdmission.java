@@ -0,0 +1,63 @@
+package it.viborg.capacitor.video.recorder;
+
+/**
+ * Decides before the camera opens whether a capture fits in the free space of the target
+ * volume. The required space is estimated from the bitrate of the requested quality; if the
+ * capture does not fit in high quality it is moved down to low quality, and if it does not
+ * fit at all it is rejected.
+ */
+class VideoCaptureAdmission {
+
+    // Space left free for the rest of the app and the system
+    static final long RESERVED_BYTES = 64L * 1024 * 1024;
+    // Shortest capture that is worth starting when no duration limit is set
+    static final int MIN_CAPTURE_SECONDS = 10;
+
+    static class Decision {
+        final boolean admitted;
+        final int quality;
+        final long sizeLimit;
+
+        Decision(boolean admitted, int quality, long sizeLimit) {
+            this.admitted = admitted;
+            this.quality = quality;
+            this.sizeLimit = sizeLimit;
+        }
+    }
+
+    private VideoCaptureAdmission() {}
+
+    /**
+     * @param freeBytes available bytes on the volume the capture is written to
+     * @param highBitrate bits per second of a high quality capture, audio included
+     * @param lowBitrate bits per second of a low quality capture, audio included
+     */
+    static Decision check(VideoRecorderSettings settings, long freeBytes, long highBitrate, long lowBitrate) {
+        long usable = freeBytes - RESERVED_BYTES;
+        if (usable <= 0) {
+            return new Decision(false, settings.getQuality(), 0);
+        }
+
+        // The size limit keeps an unbounded capture from running the disk full
+        long sizeLimit = settings.getMaxSizeBytes() > 0 ? Math.min(settings.getMaxSizeBytes(), usable) : usable;
+        int seconds = settings.getMaxDurationSeconds() > 0 ? settings.getMaxDurationSeconds() : MIN_CAPTURE_SECONDS;
+
+        int quality = settings.getQuality();
+        if (quality == VideoRecorderSettings.QUALITY_HIGH && required(settings, seconds, highBitrate) > usable) {
+            quality = VideoRecorderSettings.QUALITY_LOW;
+        }
+        long bitrate = quality == VideoRecorderSettings.QUALITY_HIGH ? highBitrate : lowBitrate;
+        if (required(settings, seconds, bitrate) > usable) {
+            return new Decision(false, quality, sizeLimit);
+        }
+        return new Decision(true, quality, sizeLimit);
+    }
+
+    private static long required(VideoRecorderSettings settings, int seconds, long bitrate) {
+        long estimate = bitrate / 8 * seconds;
+        if (settings.getMaxSizeBytes() > 0) {
+            return Math.min(settings.getMaxSizeBytes(), estimate);
+        }
+        return estimate;
+    }
+}
@@ -0,0 +1,132 @@
+package it.viborg.capacitor.video.recorder;
+
+import android.net.Uri;
+
+import com.getcapacitor.PluginCall;
+
+import java.util.ArrayDeque;
+
+/**
+ * Runs captures one at a time. A capture asked for while another one is recording waits in
+ * line and starts once the recording before it has ended, whatever its outcome.
+ */
+class VideoCaptureQueue {
+
+    interface Delegate {
+        /**
+         * Gets a capture ready to record. Returns null if it can't start, after ending the call.
+         */
+        Capture prepare(PluginCall call);
+
+        void onRecorded(PluginCall call, Uri output);
+
+        void onCancelled(PluginCall call);
+
+        void onError(PluginCall call, String message, Exception ex);
+
+        /**
+         * Hands a waiting capture back once the camera is free; it is submitted again from
+         * there, so it goes through the same checks as a new one.
+         */
+        void resume(PluginCall call);
+    }
+
+    static class Capture {
+
+        final RecorderBackend backend;
+        final Uri output;
+        final VideoRecorderSettings settings;
+
+        Capture(RecorderBackend backend, Uri output, VideoRecorderSettings settings) {
+            this.backend = backend;
+            this.output = output;
+            this.settings = settings;
+        }
+    }
+
+    private final Delegate delegate;
+    private final ArrayDeque<PluginCall> waiting = new ArrayDeque<>();
+    private String recordingCallbackId;
+
+    VideoCaptureQueue(Delegate delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Starts the capture right away if the camera is free, otherwise queues it.
+     */
+    void submit(final PluginCall call) {
+        synchronized (this) {
+            if (recordingCallbackId != null) {
+                waiting.add(call);
+                return;
+            }
+            recordingCallbackId = call.getCallbackId();
+        }
+        Capture capture = delegate.prepare(call);
+        if (capture == null) {
+            finish(call);
+            return;
+        }
+        capture.backend.start(
+                call,
+                capture.output,
+                capture.settings,
+                new RecorderBackend.Callback() {
+                    @Override
+                    public void onRecorded(Uri output) {
+                        delegate.onRecorded(call, output);
+                        // Post-processing runs in the background, the next capture can start now
+                        finish(call);
+                    }
+
+                    @Override
+                    public void onCancelled() {
+                        delegate.onCancelled(call);
+                        finish(call);
+                    }
+
+                    @Override
+                    public void onError(String message, Exception ex) {
+                        delegate.onError(call, message, ex);
+                        finish(call);
+                    }
+                }
+        );
+    }
+
+    /**
+     * Frees the camera once the call's recording has ended and resumes the next waiting
+     * capture. Does nothing if the call isn't the one recording, so it is safe to call for a
+     * capture whose end was already handled.
+     */
+    void finish(PluginCall call) {
+        final PluginCall next;
+        synchronized (this) {
+            if (!call.getCallbackId().equals(recordingCallbackId)) {
+                return;
+            }
+            recordingCallbackId = null;
+            next = waiting.poll();
+        }
+        if (next != null) {
+            delegate.resume(next);
+        }
+    }
+
+    synchronized boolean isRecording() {
+        return recordingCallbackId != null;
+    }
+
+    synchronized int getWaitingCount() {
+        return waiting.size();
+    }
+
+    /**
+     * Forgets the recording and every waiting capture, used when the plugin is destroyed.
+     */
+    synchronized void clear() {
+        waiting.clear();
+        recordingCallbackId = null;
+    }
+}
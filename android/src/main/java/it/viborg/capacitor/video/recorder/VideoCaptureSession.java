@@ -0,0 +1,103 @@
+package it.viborg.capacitor.video.recorder;
+
+import android.os.Bundle;
+
+/**
+ * State of a single getVideo or pickVideos call, from the prompt through recording or picking
+ * to the post-processing of the result. Every call gets its own session, so overlapping calls
+ * never see each other's settings or files.
+ */
+class VideoCaptureSession {
+
+    private static final String KEY_SOURCE = "source";
+    private static final String KEY_MAX_DURATION_SECONDS = "maxDurationSeconds";
+    private static final String KEY_MAX_SIZE_BYTES = "maxSizeBytes";
+    private static final String KEY_QUALITY = "quality";
+    private static final String KEY_BACKEND = "backend";
+    private static final String KEY_FAST_START = "fastStart";
+    private static final String KEY_DETECT_DUPLICATES = "detectDuplicates";
+    private static final String KEY_SAVE_TO_GALLERY = "saveToGallery";
+    private static final String KEY_OUTPUT_PATH = "outputPath";
+    private static final String KEY_PICKED_URI = "pickedUri";
+
+    private final String callbackId;
+    private final VideoRecorderSettings settings;
+    // File or gallery entry the capture is recorded into, until it is handed to the caller or deleted
+    private volatile String outputPath;
+    private volatile String pickedUri;
+
+    VideoCaptureSession(String callbackId, VideoRecorderSettings settings) {
+        this.callbackId = callbackId;
+        this.settings = settings;
+    }
+
+    String getCallbackId() {
+        return callbackId;
+    }
+
+    VideoRecorderSettings getSettings() {
+        return settings;
+    }
+
+    String getOutputPath() {
+        return outputPath;
+    }
+
+    void setOutputPath(String outputPath) {
+        this.outputPath = outputPath;
+    }
+
+    String getPickedUri() {
+        return pickedUri;
+    }
+
+    void setPickedUri(String pickedUri) {
+        this.pickedUri = pickedUri;
+    }
+
+    /**
+     * The same session under another call, for a call that was restored with a new id.
+     */
+    VideoCaptureSession withCallbackId(String callbackId) {
+        VideoCaptureSession session = new VideoCaptureSession(callbackId, settings);
+        session.outputPath = outputPath;
+        session.pickedUri = pickedUri;
+        return session;
+    }
+
+    Bundle toBundle() {
+        Bundle bundle = new Bundle();
+        bundle.putString(KEY_SOURCE, settings.getSource().getSource());
+        bundle.putInt(KEY_MAX_DURATION_SECONDS, settings.getMaxDurationSeconds());
+        bundle.putLong(KEY_MAX_SIZE_BYTES, settings.getMaxSizeBytes());
+        bundle.putInt(KEY_QUALITY, settings.getQuality());
+        bundle.putInt(KEY_BACKEND, settings.getBackend());
+        bundle.putBoolean(KEY_FAST_START, settings.isFastStart());
+        bundle.putBoolean(KEY_DETECT_DUPLICATES, settings.isDetectDuplicates());
+        bundle.putBoolean(KEY_SAVE_TO_GALLERY, settings.isSaveToGallery());
+        bundle.putString(KEY_OUTPUT_PATH, outputPath);
+        bundle.putString(KEY_PICKED_URI, pickedUri);
+        return bundle;
+    }
+
+    static VideoCaptureSession fromBundle(String callbackId, Bundle bundle) {
+        VideoRecorderSettings settings = new VideoRecorderSettings();
+        try {
+            settings.setSource(VideoSource.valueOf(bundle.getString(KEY_SOURCE)));
+        } catch (IllegalArgumentException | NullPointerException ex) {
+            settings.setSource(VideoSource.PROMPT);
+        }
+        settings.setMaxDurationSeconds(bundle.getInt(KEY_MAX_DURATION_SECONDS));
+        settings.setMaxSizeBytes(bundle.getLong(KEY_MAX_SIZE_BYTES));
+        settings.setQuality(bundle.getInt(KEY_QUALITY));
+        settings.setBackend(bundle.getInt(KEY_BACKEND));
+        settings.setFastStart(bundle.getBoolean(KEY_FAST_START));
+        settings.setDetectDuplicates(bundle.getBoolean(KEY_DETECT_DUPLICATES));
+        settings.setSaveToGallery(bundle.getBoolean(KEY_SAVE_TO_GALLERY));
+
+        VideoCaptureSession session = new VideoCaptureSession(callbackId, settings);
+        session.outputPath = bundle.getString(KEY_OUTPUT_PATH);
+        session.pickedUri = bundle.getString(KEY_PICKED_URI);
+        return session;
+    }
+}
@@ -0,0 +1,114 @@
+package it.viborg.capacitor.video.recorder;
+
+import android.os.Bundle;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The in-flight {@link VideoCaptureSession}s, keyed by the callback id of their plugin call.
+ *
+ * <p>All sessions are saved with the plugin's instance state. After the process is recreated
+ * Capacitor only hands back the call that last started an activity, and under a new callback
+ * id, so the session that launched the last activity is remembered and adopted by that call.
+ */
+class VideoCaptureSessions {
+
+    private static final String KEY_SESSIONS = "sessions";
+    private static final String KEY_ACTIVITY_SESSION = "activitySession";
+
+    private final ConcurrentHashMap<String, VideoCaptureSession> sessions = new ConcurrentHashMap<>();
+    private volatile String activitySessionId;
+
+    /**
+     * Starts a session for a call, replacing any earlier session of the same call.
+     */
+    VideoCaptureSession start(String callbackId, VideoRecorderSettings settings) {
+        VideoCaptureSession session = new VideoCaptureSession(callbackId, settings);
+        sessions.put(callbackId, session);
+        return session;
+    }
+
+    VideoCaptureSession get(String callbackId) {
+        return sessions.get(callbackId);
+    }
+
+    /**
+     * Whether a session is recording into the file, which means its result is still expected.
+     */
+    boolean hasOutputPath(String path) {
+        for (VideoCaptureSession session : sessions.values()) {
+            if (path.equals(session.getOutputPath())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Records that the session's call is about to start an activity for a result.
+     */
+    void onActivityStarted(String callbackId) {
+        activitySessionId = callbackId;
+    }
+
+    /**
+     * The session an activity result belongs to. Falls back to the session that launched the
+     * last activity when the call was restored after the process was recreated. Returns null
+     * if neither is known.
+     */
+    VideoCaptureSession getForActivityResult(String callbackId) {
+        VideoCaptureSession session = sessions.get(callbackId);
+        if (session != null) {
+            return session;
+        }
+        String restoredId = activitySessionId;
+        if (restoredId == null) {
+            return null;
+        }
+        session = sessions.remove(restoredId);
+        if (session == null) {
+            return null;
+        }
+        VideoCaptureSession adopted = session.withCallbackId(callbackId);
+        sessions.put(callbackId, adopted);
+        activitySessionId = callbackId;
+        return adopted;
+    }
+
+    /**
+     * Ends the session of a call. Returns it, or null if the call had none.
+     */
+    VideoCaptureSession remove(String callbackId) {
+        if (callbackId.equals(activitySessionId)) {
+            activitySessionId = null;
+        }
+        return sessions.remove(callbackId);
+    }
+
+    Bundle save() {
+        Bundle bundle = new Bundle();
+        Bundle saved = new Bundle();
+        for (Map.Entry<String, VideoCaptureSession> entry : sessions.entrySet()) {
+            saved.putBundle(entry.getKey(), entry.getValue().toBundle());
+        }
+        bundle.putBundle(KEY_SESSIONS, saved);
+        bundle.putString(KEY_ACTIVITY_SESSION, activitySessionId);
+        return bundle;
+    }
+
+    void restore(Bundle bundle) {
+        Bundle saved = bundle.getBundle(KEY_SESSIONS);
+        if (saved != null) {
+            for (String callbackId : saved.keySet()) {
+                Bundle session = saved.getBundle(callbackId);
+                if (session != null && !sessions.containsKey(callbackId)) {
+                    sessions.put(callbackId, VideoCaptureSession.fromBundle(callbackId, session));
+                }
+            }
+        }
+        if (activitySessionId == null) {
+            activitySessionId = bundle.getString(KEY_ACTIVITY_SESSION);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package it.viborg.capacitor.video.recorder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Reads byte ranges of videos with positional channel reads. Channels of recently read files
+ * stay open so streaming a file chunk by chunk does not reopen it every time, and reads go
+ * through a small pool of reusable direct buffers so memory stays flat. An open channel keeps
+ * reading the file it was opened on, so whoever deletes or replaces a file must {@link #close(String)}
+ * its path.
+ */
+class VideoChunkReader {
+
+    interface ChannelSource {
+        FileChannel open(String path) throws IOException;
+    }
+
+    private static final int MAX_OPEN_CHANNELS = 4;
+
+    private final ChannelSource source;
+    private final int maxChunkSize;
+    private final ArrayBlockingQueue<ByteBuffer> buffers;
+    private final LinkedHashMap<String, FileChannel> channels = new LinkedHashMap<String, FileChannel>(MAX_OPEN_CHANNELS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, FileChannel> eldest) {
+            if (size() > MAX_OPEN_CHANNELS) {
+                closeQuietly(eldest.getValue());
+                return true;
+            }
+            return false;
+        }
+    };
+
+    VideoChunkReader(ChannelSource source, int maxChunkSize, int bufferCount) {
+        this.source = source;
+        this.maxChunkSize = maxChunkSize;
+        this.buffers = new ArrayBlockingQueue<>(bufferCount);
+    }
+
+    int getMaxChunkSize() {
+        return maxChunkSize;
+    }
+
+    long size(String path) throws IOException {
+        try {
+            return channel(path).size();
+        } catch (ClosedChannelException ex) {
+            // Evicted by another reader in the meantime
+            return reopen(path).size();
+        }
+    }
+
+    /**
+     * Reads up to length bytes starting at offset. Fewer bytes are returned at the end of the
+     * file, and an empty array past it.
+     */
+    byte[] read(String path, long offset, int length) throws IOException {
+        if (offset < 0 || length < 0 || length > maxChunkSize) {
+            throw new IllegalArgumentException("Invalid range " + offset + "+" + length);
+        }
+        ByteBuffer buffer = acquire();
+        try {
+            buffer.clear();
+            buffer.limit(length);
+            try {
+                readFully(channel(path), buffer, offset);
+            } catch (ClosedChannelException ex) {
+                buffer.clear();
+                buffer.limit(length);
+                readFully(reopen(path), buffer, offset);
+            }
+            buffer.flip();
+            byte[] data = new byte[buffer.remaining()];
+            buffer.get(data);
+            return data;
+        } finally {
+            release(buffer);
+        }
+    }
+
+    synchronized void close() {
+        for (FileChannel channel : channels.values()) {
+            closeQuietly(channel);
+        }
+        channels.clear();
+    }
+
+    synchronized void close(String path) {
+        FileChannel channel = channels.remove(path);
+        if (channel != null) {
+            closeQuietly(channel);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long offset) throws IOException {
+        long position = offset;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                break;
+            }
+            position += read;
+        }
+    }
+
+    private synchronized FileChannel channel(String path) throws IOException {
+        FileChannel channel = channels.get(path);
+        if (channel == null || !channel.isOpen()) {
+            channel = source.open(path);
+            channels.put(path, channel);
+        }
+        return channel;
+    }
+
+    private synchronized FileChannel reopen(String path) throws IOException {
+        close(path);
+        return channel(path);
+    }
+
+    private ByteBuffer acquire() {
+        ByteBuffer buffer = buffers.poll();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(maxChunkSize);
+        }
+        return buffer;
+    }
+
+    private void release(ByteBuffer buffer) {
+        // Buffers beyond the pool size are left to the garbage collector
+        buffers.offer(buffer);
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {}
+    }
+}
@@ -0,0 +1,146 @@
+package it.viborg.capacitor.video.recorder;
+
+import android.Manifest;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageManager;
+import android.os.Environment;
+import android.provider.MediaStore;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Caches what the device and the app can do for a capture or a pick, so getVideo and
+ * pickVideos don't query the package manager on the UI thread every time. The probe runs once
+ * in the background when the plugin loads and again whenever an app is installed, removed or
+ * changed, since that can add or remove the camera app or gallery the intents resolve to.
+ */
+class VideoDeviceCapabilities {
+
+    static class Snapshot {
+        final boolean hasCamera;
+        // A camera app handles ACTION_VIDEO_CAPTURE
+        final boolean canCapture;
+        // A gallery handles ACTION_PICK for videos
+        final boolean canPick;
+        // The app declares the FileProvider captures are handed to the camera app through
+        final boolean hasFileProvider;
+        // Permissions requested in the app's manifest; undeclared ones are never asked for
+        final boolean cameraPermissionDeclared;
+        final boolean audioPermissionDeclared;
+        // Where recordings are created, null if external storage is not available
+        final File storageDir;
+
+        Snapshot(
+                boolean hasCamera,
+                boolean canCapture,
+                boolean canPick,
+                boolean hasFileProvider,
+                boolean cameraPermissionDeclared,
+                boolean audioPermissionDeclared,
+                File storageDir
+        ) {
+            this.hasCamera = hasCamera;
+            this.canCapture = canCapture;
+            this.canPick = canPick;
+            this.hasFileProvider = hasFileProvider;
+            this.cameraPermissionDeclared = cameraPermissionDeclared;
+            this.audioPermissionDeclared = audioPermissionDeclared;
+            this.storageDir = storageDir;
+        }
+    }
+
+    private final Context context;
+    private final String fileProviderAuthority;
+    private final Executor executor;
+    private volatile Snapshot snapshot;
+    private BroadcastReceiver packageReceiver;
+
+    VideoDeviceCapabilities(Context context, String fileProviderAuthority, Executor executor) {
+        this.context = context;
+        this.fileProviderAuthority = fileProviderAuthority;
+        this.executor = executor;
+    }
+
+    /**
+     * The cached capabilities, probed on the calling thread if the background probe hasn't
+     * finished yet or the cache was invalidated.
+     */
+    Snapshot get() {
+        Snapshot current = snapshot;
+        if (current == null) {
+            current = probe();
+            snapshot = current;
+        }
+        return current;
+    }
+
+    /**
+     * Probes the capabilities again in the background.
+     */
+    void refresh() {
+        executor.execute(() -> snapshot = probe());
+    }
+
+    void invalidate() {
+        snapshot = null;
+    }
+
+    /**
+     * Starts refreshing the cache whenever the installed packages change.
+     */
+    void start() {
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addDataScheme("package");
+        packageReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                invalidate();
+                refresh();
+            }
+        };
+        context.registerReceiver(packageReceiver, filter);
+        refresh();
+    }
+
+    void stop() {
+        if (packageReceiver != null) {
+            context.unregisterReceiver(packageReceiver);
+            packageReceiver = null;
+        }
+    }
+
+    private Snapshot probe() {
+        PackageManager packageManager = context.getPackageManager();
+        List<String> requested = getRequestedPermissions(packageManager);
+        return new Snapshot(
+                packageManager.hasSystemFeature(PackageManager.FEATURE_CAMERA_ANY),
+                new Intent(MediaStore.ACTION_VIDEO_CAPTURE).resolveActivity(packageManager) != null,
+                new Intent(Intent.ACTION_PICK).setType("video/*").resolveActivity(packageManager) != null,
+                packageManager.resolveContentProvider(fileProviderAuthority, 0) != null,
+                requested.contains(Manifest.permission.CAMERA),
+                requested.contains(Manifest.permission.RECORD_AUDIO),
+                context.getExternalFilesDir(Environment.DIRECTORY_PICTURES)
+        );
+    }
+
+    @SuppressWarnings("deprecation")
+    private List<String> getRequestedPermissions(PackageManager packageManager) {
+        try {
+            String[] requested = packageManager.getPackageInfo(context.getPackageName(), PackageManager.GET_PERMISSIONS).requestedPermissions;
+            return requested != null ? Arrays.asList(requested) : Collections.<String>emptyList();
+        } catch (PackageManager.NameNotFoundException ex) {
+            return Collections.emptyList();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package it.viborg.capacitor.video.recorder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * File creation and copying for captured and imported videos. Kept free of Android types, so it
+ * can be benchmarked on the JVM.
+ */
+class VideoFiles {
+
+    interface ProgressListener {
+        void onProgress(long bytes, long total);
+    }
+
+    // Bytes transferred between two progress reports
+    private static final long CHUNK_SIZE = 8 * 1024 * 1024;
+
+    private VideoFiles() {}
+
+    /**
+     * Creates a new, empty video file with a timestamped name in storageDir.
+     */
+    static File createVideoFile(File storageDir, String extension) throws IOException {
+        // Create an image file name
+        String timeStamp = new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date());
+        String videoFileName = "VIDEO_" + timeStamp + "_";
+
+        return File.createTempFile(videoFileName, /* prefix */extension, /* suffix */storageDir/* directory */);
+    }
+
+    /**
+     * Transfers the whole source channel. When the size is unknown (pipes and some providers)
+     * the source is drained with transferFrom until it reports end of stream.
+     */
+    static long copy(FileChannel in, FileChannel out, long size, ProgressListener listener) throws IOException {
+        long position = 0;
+        if (size >= 0) {
+            while (position < size) {
+                long transferred = in.transferTo(position, Math.min(CHUNK_SIZE, size - position), out);
+                if (transferred <= 0) {
+                    break;
+                }
+                position += transferred;
+                listener.onProgress(position, size);
+            }
+        } else {
+            while (true) {
+                long transferred = out.transferFrom(in, position, CHUNK_SIZE);
+                if (transferred <= 0) {
+                    break;
+                }
+                position += transferred;
+                listener.onProgress(position, -1);
+            }
+        }
+        return position;
+    }
+}
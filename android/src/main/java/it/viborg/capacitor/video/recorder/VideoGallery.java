@@ -0,0 +1,118 @@
+package it.viborg.capacitor.video.recorder;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Environment;
+import android.provider.MediaStore;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Puts recordings into the shared Movies collection. From Android 10 a recording is written
+ * straight into a MediaStore entry that stays pending, and hidden from other apps, until it is
+ * published. Older versions can't write into MediaStore this way and get a copy of the
+ * finished file instead.
+ */
+class VideoGallery {
+
+    private static final String MIME_TYPE = "video/mp4";
+
+    private final Context context;
+
+    VideoGallery(Context context) {
+        this.context = context;
+    }
+
+    /**
+     * Whether recordings can be written into a pending MediaStore entry on this device.
+     */
+    static boolean canRecordInto() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q;
+    }
+
+    /**
+     * Whether the path is a MediaStore entry rather than a file of the plugin.
+     */
+    static boolean isGalleryPath(String path) {
+        return path != null && path.startsWith(ContentResolver.SCHEME_CONTENT + ":");
+    }
+
+    /**
+     * Creates an empty pending video to record into. Requires {@link #canRecordInto()}.
+     */
+    Uri createPending() throws IOException {
+        ContentValues values = new ContentValues();
+        // MediaStore makes the name unique if a video with the same name exists
+        values.put(MediaStore.MediaColumns.DISPLAY_NAME, "VIDEO_" + new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date()) + ".mp4");
+        values.put(MediaStore.MediaColumns.MIME_TYPE, MIME_TYPE);
+        values.put(MediaStore.MediaColumns.RELATIVE_PATH, Environment.DIRECTORY_MOVIES);
+        values.put(MediaStore.MediaColumns.IS_PENDING, 1);
+        Uri uri = context.getContentResolver().insert(MediaStore.Video.Media.getContentUri(MediaStore.VOLUME_EXTERNAL_PRIMARY), values);
+        if (uri == null) {
+            throw new IOException("Unable to create a gallery entry");
+        }
+        return uri;
+    }
+
+    /**
+     * Makes a finished pending video visible to other apps.
+     */
+    void publish(Uri uri) throws IOException {
+        ContentValues values = new ContentValues();
+        values.put(MediaStore.MediaColumns.IS_PENDING, 0);
+        if (context.getContentResolver().update(uri, values, null, null) == 0) {
+            throw new IOException("Unable to publish " + uri);
+        }
+    }
+
+    boolean delete(Uri uri) {
+        try {
+            return context.getContentResolver().delete(uri, null, null) > 0;
+        } catch (SecurityException | IllegalArgumentException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Copies a finished recording into the public Movies directory and adds it to MediaStore,
+     * for versions that can't record into MediaStore. Needs the storage permission.
+     */
+    @SuppressWarnings("deprecation")
+    Uri copy(File file) throws IOException {
+        File dir = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_MOVIES);
+        if (dir == null || (!dir.isDirectory() && !dir.mkdirs())) {
+            throw new IOException("Movies directory is not available");
+        }
+        File target = VideoFiles.createVideoFile(dir, ".mp4");
+        try {
+            try (
+                    FileChannel in = new FileInputStream(file).getChannel();
+                    FileChannel out = new FileOutputStream(target).getChannel()
+            ) {
+                VideoFiles.copy(in, out, in.size(), (copied, total) -> {});
+            }
+            ContentValues values = new ContentValues();
+            values.put(MediaStore.MediaColumns.DATA, target.getAbsolutePath());
+            values.put(MediaStore.MediaColumns.DISPLAY_NAME, target.getName());
+            values.put(MediaStore.MediaColumns.MIME_TYPE, MIME_TYPE);
+            values.put(MediaStore.MediaColumns.SIZE, target.length());
+            Uri uri = context.getContentResolver().insert(MediaStore.Video.Media.EXTERNAL_CONTENT_URI, values);
+            if (uri == null) {
+                throw new IOException("Unable to add " + target + " to the gallery");
+            }
+            return uri;
+        } catch (IOException | RuntimeException ex) {
+            target.delete();
+            throw ex;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package it.viborg.capacitor.video.recorder;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Offset based paging over a large, sorted list of gallery videos, backed by fixed size pages
+ * that are cached in memory. A page following a cached one is loaded with a keyset query that
+ * continues after the last video of that page, so scrolling never makes the source skip over
+ * rows; only a jump to an uncached position falls back to an offset query. Every page is loaded
+ * with one row of lookahead, so the last page is known without asking for the one after it.
+ */
+class VideoGalleryPager {
+
+    static final int PAGE_SIZE = 100;
+    private static final int MAX_PAGES = 50;
+
+    static final String SORT_DATE_ADDED = "dateAdded";
+    static final String SORT_DATE_MODIFIED = "dateModified";
+    static final String SORT_SIZE = "size";
+
+    static class Query {
+
+        final String sortBy;
+        /**
+         * Only videos added at or after this time, in epoch milliseconds, or 0 for all.
+         */
+        final long since;
+
+        Query(String sortBy, long since) {
+            this.sortBy = sortBy;
+            this.since = since;
+        }
+
+        String key() {
+            return sortBy + "|" + since;
+        }
+    }
+
+    static class Item {
+
+        final long id;
+        /**
+         * Value of the sort column, videos are ordered by it and then by id, both descending.
+         */
+        final long sortValue;
+        final String name;
+        final String mimeType;
+        final long size;
+        final long duration;
+        final int width;
+        final int height;
+        final long dateAdded;
+        final long dateModified;
+
+        Item(
+                long id,
+                long sortValue,
+                String name,
+                String mimeType,
+                long size,
+                long duration,
+                int width,
+                int height,
+                long dateAdded,
+                long dateModified
+        ) {
+            this.id = id;
+            this.sortValue = sortValue;
+            this.name = name;
+            this.mimeType = mimeType;
+            this.size = size;
+            this.duration = duration;
+            this.width = width;
+            this.height = height;
+            this.dateAdded = dateAdded;
+            this.dateModified = dateModified;
+        }
+    }
+
+    interface Source {
+        /**
+         * Loads up to {@code limit} videos in sort order. If {@code after} is set the result
+         * starts right after that video and {@code offset} is 0, otherwise it starts at
+         * {@code offset}.
+         */
+        List<Item> query(Query query, Item after, int offset, int limit) throws Exception;
+    }
+
+    static class Result {
+
+        final List<Item> items;
+        final boolean hasMore;
+
+        Result(List<Item> items, boolean hasMore) {
+            this.items = items;
+            this.hasMore = hasMore;
+        }
+    }
+
+    private static class Page {
+
+        final List<Item> items;
+        // Whether the source had a row after this page
+        final boolean hasNext;
+
+        Page(List<Item> items, boolean hasNext) {
+            this.items = items;
+            this.hasNext = hasNext;
+        }
+    }
+
+    private final Source source;
+    private final Map<String, Page> pages = new LinkedHashMap<String, Page>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Page> eldest) {
+            return size() > MAX_PAGES;
+        }
+    };
+    // Bumped on every invalidation, so a page loaded across one is not cached
+    private long generation = 0;
+
+    VideoGalleryPager(Source source) {
+        this.source = source;
+    }
+
+    Result list(Query query, int offset, int limit) throws Exception {
+        List<Item> items = new ArrayList<>(limit);
+        int index = offset / PAGE_SIZE;
+        int skip = offset % PAGE_SIZE;
+        while (true) {
+            Page page = getPage(query, index);
+            int i = skip;
+            while (i < page.items.size() && items.size() < limit) {
+                items.add(page.items.get(i++));
+            }
+            if (items.size() == limit || !page.hasNext) {
+                return new Result(items, i < page.items.size() || page.hasNext);
+            }
+            skip = 0;
+            index++;
+        }
+    }
+
+    /**
+     * Drops every cached page, called when the gallery changes.
+     */
+    synchronized void invalidate() {
+        pages.clear();
+        generation++;
+    }
+
+    private Page getPage(Query query, int index) throws Exception {
+        String key = query.key() + "#" + index;
+        Page previous;
+        long loadGeneration;
+        synchronized (this) {
+            Page page = pages.get(key);
+            if (page != null) {
+                return page;
+            }
+            previous = index > 0 ? pages.get(query.key() + "#" + (index - 1)) : null;
+            loadGeneration = generation;
+        }
+
+        List<Item> rows;
+        if (index == 0) {
+            rows = source.query(query, null, 0, PAGE_SIZE + 1);
+        } else if (previous != null && previous.hasNext) {
+            rows = source.query(query, previous.items.get(PAGE_SIZE - 1), 0, PAGE_SIZE + 1);
+        } else {
+            rows = source.query(query, null, index * PAGE_SIZE, PAGE_SIZE + 1);
+        }
+        boolean hasNext = rows.size() > PAGE_SIZE;
+        Page page = new Page(hasNext ? new ArrayList<>(rows.subList(0, PAGE_SIZE)) : rows, hasNext);
+
+        synchronized (this) {
+            if (loadGeneration == generation) {
+                pages.put(key, page);
+            }
+        }
+        return page;
+    }
+}
@@ -0,0 +1,159 @@
+package it.viborg.capacitor.video.recorder;
+
+import com.getcapacitor.Logger;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Persistent index of content hashes. Maps each hash to the first path a video with that content
+ * was seen at, so picking or recording the same video again is recognized as a duplicate, and
+ * remembers the hash of each source so unchanged files are not hashed twice.
+ */
+class VideoHashIndex {
+    private static final String LOG_TAG = "VideoHashIndex";
+    private static final String HASH_PREFIX = "hash.";
+    private static final String SOURCE_PREFIX = "source.";
+    // Sources are only a shortcut to skip hashing, so old ones are simply forgotten
+    private static final int MAX_SOURCES = 2000;
+
+    private final File indexFile;
+    private final Map<String, String> paths = new HashMap<>();
+    private final Map<String, String> sources = new LinkedHashMap<String, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_SOURCES;
+        }
+    };
+    private boolean loaded = false;
+
+    VideoHashIndex(File indexFile) {
+        this.indexFile = indexFile;
+    }
+
+    /**
+     * Key identifying a version of a source, the hash is only reused while size and
+     * modification time are unchanged. Null when neither is known, such a source is hashed
+     * every time.
+     */
+    static String sourceKey(String uri, long size, long lastModified) {
+        return VideoMetadataCache.key(uri, size, lastModified);
+    }
+
+    synchronized String getSourceHash(String sourceKey) {
+        ensureLoaded();
+        return sources.get(sourceKey);
+    }
+
+    synchronized void putSourceHash(String sourceKey, String hash) {
+        if (sourceKey == null) {
+            throw new IllegalArgumentException("Source without size or modification time");
+        }
+        ensureLoaded();
+        sources.put(sourceKey, hash);
+        save();
+    }
+
+    /**
+     * Path of the first video seen with this hash, or null.
+     */
+    synchronized String getPath(String hash) {
+        ensureLoaded();
+        return paths.get(hash);
+    }
+
+    /**
+     * Records the path for a hash if it's the first one seen. Returns the path of the earlier
+     * video with the same hash, or null.
+     */
+    synchronized String add(String hash, String path) {
+        ensureLoaded();
+        String existing = paths.get(hash);
+        if (existing == null) {
+            paths.put(hash, path);
+            save();
+        }
+        return existing;
+    }
+
+    /**
+     * Points a hash at a new path, used when the earlier video is gone.
+     */
+    synchronized void replace(String hash, String path) {
+        ensureLoaded();
+        paths.put(hash, path);
+        save();
+    }
+
+    /**
+     * Forgets the hashes that point at a path, used when the video there is deleted.
+     */
+    synchronized void removePath(String path) {
+        ensureLoaded();
+        if (paths.values().removeAll(Collections.singleton(path))) {
+            save();
+        }
+    }
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!indexFile.exists()) {
+            return;
+        }
+        Properties properties = new Properties();
+        try {
+            InputStream in = new FileInputStream(indexFile);
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException ex) {
+            Logger.error(LOG_TAG, "Unable to read hash index", ex);
+            return;
+        }
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith(HASH_PREFIX)) {
+                paths.put(key.substring(HASH_PREFIX.length()), properties.getProperty(key));
+            } else if (key.startsWith(SOURCE_PREFIX)) {
+                sources.put(key.substring(SOURCE_PREFIX.length()), properties.getProperty(key));
+            }
+        }
+    }
+
+    private void save() {
+        Properties properties = new Properties();
+        for (Map.Entry<String, String> entry : paths.entrySet()) {
+            properties.setProperty(HASH_PREFIX + entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<String, String> entry : sources.entrySet()) {
+            properties.setProperty(SOURCE_PREFIX + entry.getKey(), entry.getValue());
+        }
+        File tmp = new File(indexFile.getPath() + ".tmp");
+        try {
+            OutputStream out = new FileOutputStream(tmp);
+            try {
+                properties.store(out, null);
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(indexFile)) {
+                throw new IOException("Unable to replace " + indexFile);
+            }
+        } catch (IOException ex) {
+            Logger.error(LOG_TAG, "Unable to write hash index", ex);
+        }
+    }
+}
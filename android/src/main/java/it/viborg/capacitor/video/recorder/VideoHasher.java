@@ -0,0 +1,122 @@
+package it.viborg.capacitor.video.recorder;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Content hash of a video file, computed as a two level SHA-256 tree: every chunk is hashed on
+ * its own and the root hashes the file size followed by the chunk digests. Chunks are hashed in
+ * parallel with positional reads, so large files hash at disk speed instead of single core speed.
+ *
+ * <p>The calling thread hashes chunks itself and only borrows idle threads of the executor, so
+ * it is safe to call from a task running on that same executor.
+ */
+class VideoHasher {
+
+    static final int DEFAULT_CHUNK_SIZE = 4 * 1024 * 1024;
+    private static final int READ_BUFFER_SIZE = 256 * 1024;
+
+    private final Executor executor;
+    private final int parallelism;
+    private final int chunkSize;
+
+    VideoHasher(Executor executor, int parallelism, int chunkSize) {
+        this.executor = executor;
+        this.parallelism = Math.max(1, parallelism);
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Hashes the whole channel and returns the lowercase hex digest.
+     */
+    String hash(final FileChannel channel) throws IOException {
+        final long size = channel.size();
+        final int chunkCount = (int) Math.max(1, (size + chunkSize - 1) / chunkSize);
+        final byte[][] digests = new byte[chunkCount][];
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicReference<Exception> error = new AtomicReference<>();
+        final CountDownLatch done = new CountDownLatch(chunkCount);
+
+        Runnable worker = () -> {
+            ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+            int chunk;
+            while ((chunk = next.getAndIncrement()) < chunkCount) {
+                try {
+                    if (error.get() == null) {
+                        digests[chunk] = hashChunk(channel, buffer, (long) chunk * chunkSize, size);
+                    }
+                } catch (Exception ex) {
+                    error.compareAndSet(null, ex);
+                } finally {
+                    done.countDown();
+                }
+            }
+        };
+        int helpers = Math.min(parallelism, chunkCount) - 1;
+        for (int i = 0; i < helpers; i++) {
+            try {
+                executor.execute(worker);
+            } catch (RejectedExecutionException ex) {
+                break;
+            }
+        }
+        worker.run();
+        try {
+            // Only chunks already claimed by helpers can still be running
+            done.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while hashing", ex);
+        }
+
+        Exception ex = error.get();
+        if (ex instanceof IOException) {
+            throw (IOException) ex;
+        } else if (ex != null) {
+            throw new IOException(ex);
+        }
+        MessageDigest root = newDigest();
+        root.update(ByteBuffer.allocate(8).putLong(0, size).array());
+        for (byte[] digest : digests) {
+            root.update(digest);
+        }
+        return String.format("%064x", new BigInteger(1, root.digest()));
+    }
+
+    private byte[] hashChunk(FileChannel channel, ByteBuffer buffer, long offset, long size) throws IOException {
+        MessageDigest digest = newDigest();
+        long end = Math.min(size, offset + chunkSize);
+        long position = offset;
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("File shrank while hashing");
+            }
+            buffer.flip();
+            digest.update(buffer);
+            position += read;
+        }
+        return digest.digest();
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            // Every Java and Android runtime is required to provide SHA-256
+            throw new IllegalStateException(ex);
+        }
+    }
+}
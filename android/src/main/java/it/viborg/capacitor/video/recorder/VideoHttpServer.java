@@ -0,0 +1,409 @@
+package it.viborg.capacitor.video.recorder;
+
+import com.getcapacitor.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Minimal HTTP/1.1 server on the loopback interface that lets the WebView play videos straight
+ * from disk instead of through the bridge. It answers GET and HEAD with a single byte range or
+ * the whole file, and sends bodies with {@link FileChannel#transferTo} so the kernel copies the
+ * file to the socket. Connections stay open between requests, so a player seeking around
+ * reuses its socket.
+ *
+ * <p>Only files handed out through {@link #getUrl(File)} can be read. Their URLs carry a token
+ * drawn when the server starts, which other apps on the device cannot guess. Cross-origin reads
+ * are only allowed for the WebView's own origin.
+ */
+class VideoHttpServer {
+    private static final String LOG_TAG = "VideoHttpServer";
+
+    private static final int MAX_HEADER_BYTES = 16 * 1024;
+    // Idle keep-alive connections are closed after this, so sockets a player keeps around don't
+    // hold on to connection threads
+    private static final int IDLE_TIMEOUT_MS = 5000;
+    // Largest transferTo call, so a closed connection is noticed between slices
+    private static final long TRANSFER_SLICE = 1024 * 1024;
+    private static final long[] UNSATISFIABLE = new long[0];
+
+    private final int maxConnections;
+    private final String allowedOrigin;
+    private final String token;
+    // Registered files by id, and ids by absolute path
+    private final ConcurrentHashMap<String, File> files = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, String> ids = new ConcurrentHashMap<>();
+    private final Set<SocketChannel> connections = Collections.newSetFromMap(new ConcurrentHashMap<SocketChannel, Boolean>());
+    // Guarded by this
+    private ServerSocketChannel server;
+    private ExecutorService connectionPool;
+    private int port;
+
+    /**
+     * @param allowedOrigin origin of the WebView, such as {@code https://localhost}, which may
+     *                      read responses from scripts
+     */
+    VideoHttpServer(int maxConnections, String allowedOrigin) {
+        this.maxConnections = maxConnections;
+        this.allowedOrigin = allowedOrigin;
+        byte[] random = new byte[16];
+        new SecureRandom().nextBytes(random);
+        this.token = VideoRecorderUtils.toHex(random);
+    }
+
+    synchronized void start() throws IOException {
+        if (server != null) {
+            return;
+        }
+        server = ServerSocketChannel.open();
+        server.socket().bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+        port = server.socket().getLocalPort();
+        connectionPool = VideoWorkerPool.newHandoffPool("VideoHttpServer", maxConnections);
+        final ServerSocketChannel accepting = server;
+        Thread acceptThread = new Thread(() -> accept(accepting), "VideoHttpServer-accept");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    synchronized void stop() {
+        if (server == null) {
+            return;
+        }
+        closeQuietly(server);
+        server = null;
+        for (SocketChannel connection : connections) {
+            closeQuietly(connection);
+        }
+        connectionPool.shutdownNow();
+        connectionPool = null;
+        files.clear();
+        ids.clear();
+    }
+
+    /**
+     * The URL the file is served at. A file keeps its URL until the server stops.
+     */
+    synchronized String getUrl(File file) {
+        String path = file.getAbsolutePath();
+        String id = ids.get(path);
+        if (id == null) {
+            id = UUID.randomUUID().toString().replace("-", "");
+            files.put(id, file);
+            ids.put(path, id);
+        }
+        String name;
+        try {
+            name = URLEncoder.encode(file.getName(), "UTF-8").replace("+", "%20");
+        } catch (UnsupportedEncodingException ex) {
+            name = "video";
+        }
+        return "http://127.0.0.1:" + port + "/" + token + "/" + id + "/" + name;
+    }
+
+    /**
+     * Stops serving a file, its URL answers 404 from now on.
+     */
+    synchronized void remove(File file) {
+        String id = ids.remove(file.getAbsolutePath());
+        if (id != null) {
+            files.remove(id);
+        }
+    }
+
+    private void accept(ServerSocketChannel accepting) {
+        while (true) {
+            final SocketChannel channel;
+            try {
+                channel = accepting.accept();
+            } catch (IOException ex) {
+                // Closed by stop()
+                return;
+            }
+            try {
+                synchronized (this) {
+                    if (connectionPool == null) {
+                        closeQuietly(channel);
+                        return;
+                    }
+                    connectionPool.execute(() -> serve(channel));
+                }
+            } catch (RejectedExecutionException ex) {
+                Logger.debug(LOG_TAG, "Too many connections, closing a new one");
+                closeQuietly(channel);
+            }
+        }
+    }
+
+    private void serve(SocketChannel channel) {
+        connections.add(channel);
+        try {
+            Socket socket = channel.socket();
+            socket.setSoTimeout(IDLE_TIMEOUT_MS);
+            socket.setTcpNoDelay(true);
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            while (handle(channel, in)) {
+                // Next request on the same connection
+            }
+        } catch (IOException ex) {
+            // The player went away, or the connection sat idle for too long
+        } finally {
+            connections.remove(channel);
+            closeQuietly(channel);
+        }
+    }
+
+    /**
+     * Answers one request and returns whether the connection stays open for another.
+     */
+    private boolean handle(SocketChannel channel, InputStream in) throws IOException {
+        int[] budget = { MAX_HEADER_BYTES };
+        String requestLine = readLine(in, budget);
+        if (requestLine == null) {
+            return false;
+        }
+        if (requestLine.isEmpty()) {
+            // Stray line break between requests
+            return true;
+        }
+        Map<String, String> headers = new HashMap<>();
+        String line;
+        while ((line = readLine(in, budget)) != null && !line.isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ROOT), line.substring(colon + 1).trim());
+            }
+        }
+        if (line == null) {
+            return false;
+        }
+
+        String[] parts = requestLine.split(" ");
+        if (parts.length != 3) {
+            sendStatus(channel, 400, "Bad Request", false, null);
+            return false;
+        }
+        String connection = headers.get("connection");
+        boolean keepAlive = "HTTP/1.1".equals(parts[2])
+                ? !"close".equalsIgnoreCase(connection)
+                : "keep-alive".equalsIgnoreCase(connection);
+        String contentLength = headers.get("content-length");
+        if (headers.containsKey("transfer-encoding") || (contentLength != null && !"0".equals(contentLength))) {
+            // Request bodies are not read, so the connection cannot be reused
+            keepAlive = false;
+        }
+        boolean head = "HEAD".equals(parts[0]);
+        if (!head && !"GET".equals(parts[0])) {
+            sendStatus(channel, 405, "Method Not Allowed", keepAlive, "Allow: GET, HEAD\r\n");
+            return keepAlive;
+        }
+
+        File file = resolve(parts[1]);
+        if (file == null) {
+            sendStatus(channel, 404, "Not Found", keepAlive, null);
+            return keepAlive;
+        }
+        FileChannel body;
+        try {
+            body = new FileInputStream(file).getChannel();
+        } catch (FileNotFoundException ex) {
+            sendStatus(channel, 404, "Not Found", keepAlive, null);
+            return keepAlive;
+        }
+        try {
+            long size = body.size();
+            long start = 0;
+            long end = size - 1;
+            String status = "200 OK";
+            StringBuilder extra = new StringBuilder();
+            String rangeHeader = headers.get("range");
+            long[] range = rangeHeader != null ? parseRange(rangeHeader, size) : null;
+            if (range == UNSATISFIABLE) {
+                sendStatus(channel, 416, "Range Not Satisfiable", keepAlive, "Content-Range: bytes */" + size + "\r\n");
+                return keepAlive;
+            }
+            if (range != null) {
+                start = range[0];
+                end = range[1];
+                status = "206 Partial Content";
+                extra.append("Content-Range: bytes ").append(start).append('-').append(end).append('/').append(size).append("\r\n");
+            }
+            String origin = headers.get("origin");
+            if (origin != null && origin.equals(allowedOrigin)) {
+                extra.append("Access-Control-Allow-Origin: ").append(origin).append("\r\n");
+            }
+            long length = end - start + 1;
+            writeHeader(
+                    channel,
+                    "HTTP/1.1 " + status + "\r\n" +
+                    "Content-Type: " + getContentType(file.getName()) + "\r\n" +
+                    "Content-Length: " + length + "\r\n" +
+                    "Accept-Ranges: bytes\r\n" +
+                    extra +
+                    "Vary: Origin\r\n" +
+                    "Connection: " + (keepAlive ? "keep-alive" : "close") + "\r\n\r\n"
+            );
+            if (!head) {
+                transfer(body, start, length, channel);
+            }
+            return keepAlive;
+        } finally {
+            body.close();
+        }
+    }
+
+    private File resolve(String target) {
+        int query = target.indexOf('?');
+        if (query >= 0) {
+            target = target.substring(0, query);
+        }
+        String[] segments = target.split("/");
+        // "", token, id and an optional name
+        if (segments.length < 3) {
+            return null;
+        }
+        if (!MessageDigest.isEqual(token.getBytes(StandardCharsets.US_ASCII), segments[1].getBytes(StandardCharsets.US_ASCII))) {
+            return null;
+        }
+        return files.get(segments[2]);
+    }
+
+    /**
+     * Parses a Range header against a file of the given size. Returns the first and last byte
+     * of a single range, {@link #UNSATISFIABLE} for a range past the end, or null for headers
+     * that are ignored in favour of sending the whole file, which includes multiple ranges.
+     */
+    static long[] parseRange(String value, long size) {
+        if (!value.startsWith("bytes=") || value.indexOf(',') >= 0) {
+            return null;
+        }
+        String spec = value.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        String first = spec.substring(0, dash).trim();
+        String last = spec.substring(dash + 1).trim();
+        try {
+            if (first.isEmpty()) {
+                // The last n bytes
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0 || size == 0) {
+                    return UNSATISFIABLE;
+                }
+                return new long[] { Math.max(0, size - suffix), size - 1 };
+            }
+            long start = Long.parseLong(first);
+            long end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+            if (start < 0 || end < start) {
+                return null;
+            }
+            if (start >= size) {
+                return UNSATISFIABLE;
+            }
+            return new long[] { start, Math.min(end, size - 1) };
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    private static void transfer(FileChannel body, long position, long count, SocketChannel channel) throws IOException {
+        while (count > 0) {
+            long sent = body.transferTo(position, Math.min(count, TRANSFER_SLICE), channel);
+            if (sent <= 0) {
+                throw new IOException("File shrank while it was being sent");
+            }
+            position += sent;
+            count -= sent;
+        }
+    }
+
+    private static void sendStatus(SocketChannel channel, int code, String reason, boolean keepAlive, String extraHeaders) throws IOException {
+        writeHeader(
+                channel,
+                "HTTP/1.1 " + code + " " + reason + "\r\n" +
+                "Content-Length: 0\r\n" +
+                (extraHeaders != null ? extraHeaders : "") +
+                "Connection: " + (keepAlive ? "keep-alive" : "close") + "\r\n\r\n"
+        );
+    }
+
+    private static void writeHeader(SocketChannel channel, String header) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(header.getBytes(StandardCharsets.US_ASCII));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Reads a line up to CRLF or LF, or returns null at the end of the stream. Fails once the
+     * request head exceeds its budget.
+     */
+    private static String readLine(InputStream in, int[] budget) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        int b;
+        while ((b = in.read()) != -1) {
+            if (--budget[0] < 0) {
+                throw new IOException("Request header too large");
+            }
+            if (b == '\n') {
+                byte[] bytes = line.toByteArray();
+                int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+                return new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+            }
+            line.write(b);
+        }
+        return null;
+    }
+
+    private static String getContentType(String name) {
+        String lower = name.toLowerCase(Locale.ROOT);
+        if (lower.endsWith(".mp4") || lower.endsWith(".m4v")) {
+            return "video/mp4";
+        }
+        if (lower.endsWith(".3gp")) {
+            return "video/3gpp";
+        }
+        if (lower.endsWith(".webm")) {
+            return "video/webm";
+        }
+        if (lower.endsWith(".mov")) {
+            return "video/quicktime";
+        }
+        return "application/octet-stream";
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ex) {
+            // Nothing left to do
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package it.viborg.capacitor.video.recorder;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Copies picked videos into app storage with channel transfers, so the bytes move between file
+ * descriptors in the kernel instead of through heap buffers.
+ */
+class VideoImporter {
+
+    private VideoImporter() {}
+
+    /**
+     * Copies the video behind uri into directory and returns the new file. The copy is
+     * verified against the source size and removed again if anything goes wrong.
+     */
+    static File importVideo(Context context, Uri uri, File directory, VideoFiles.ProgressListener listener) throws IOException {
+        if (!directory.exists() && !directory.mkdirs() && !directory.exists()) {
+            throw new IOException("Unable to create " + directory);
+        }
+        ParcelFileDescriptor pfd = context.getContentResolver().openFileDescriptor(uri, "r");
+        if (pfd == null) {
+            throw new IOException("Unable to open " + uri);
+        }
+
+        File output = VideoFiles.createVideoFile(directory, getExtension(uri));
+        boolean success = false;
+        try {
+            FileInputStream in = new FileInputStream(pfd.getFileDescriptor());
+            FileOutputStream out = new FileOutputStream(output);
+            try {
+                long expected = pfd.getStatSize();
+                long copied = VideoFiles.copy(in.getChannel(), out.getChannel(), expected, listener);
+                if (expected >= 0 && copied != expected) {
+                    throw new IOException("Imported " + copied + " of " + expected + " bytes");
+                }
+                if (out.getChannel().size() != copied) {
+                    throw new IOException("Imported file size does not match the copied byte count");
+                }
+            } finally {
+                out.close();
+                in.close();
+            }
+            success = true;
+            return output;
+        } finally {
+            pfd.close();
+            if (!success) {
+                output.delete();
+            }
+        }
+    }
+
+    private static String getExtension(Uri uri) {
+        String name = uri.getLastPathSegment();
+        if (name != null) {
+            int dot = name.lastIndexOf('.');
+            if (dot > 0 && dot >= name.length() - 5 && name.indexOf('/', dot) == -1) {
+                return name.substring(dot);
+            }
+        }
+        return ".mp4";
+    }
+}
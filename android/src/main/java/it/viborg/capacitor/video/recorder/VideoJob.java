@@ -0,0 +1,181 @@
+package it.viborg.capacitor.video.recorder;
+
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+
+/**
+ * A long running operation tracked by {@link VideoJobScheduler}. Cancellation is cooperative:
+ * the work calls {@link #throwIfCancelled()} between steps and from its progress callbacks.
+ * The job running on the current thread is available through {@link #current()}, so code deep
+ * in an operation can report progress without the job being passed down to it.
+ */
+class VideoJob {
+
+    enum State {
+        QUEUED,
+        RUNNING,
+        SUCCEEDED,
+        FAILED,
+        CANCELLED
+    }
+
+    interface Work {
+        void run(VideoJob job) throws Exception;
+    }
+
+    static final int PRIORITY_LOW = -10;
+    static final int PRIORITY_NORMAL = 0;
+    // Work a caller is waiting on before anything shows up on screen
+    static final int PRIORITY_HIGH = 10;
+
+    private static final ThreadLocal<VideoJob> CURRENT = new ThreadLocal<>();
+
+    private final VideoJobScheduler scheduler;
+    private final String id = UUID.randomUUID().toString();
+    private final String type;
+    private final String group;
+    private volatile String label;
+    private final int priority;
+    private final long sequence;
+    private final long createdAt = System.currentTimeMillis();
+    private final Work work;
+
+    private volatile State state = State.QUEUED;
+    private volatile boolean cancelled = false;
+    private volatile long bytes = 0;
+    private volatile long total = -1;
+    private volatile Exception error;
+    // Guarded by this
+    private boolean progressReported = false;
+    private long lastProgressNanos;
+
+    VideoJob(VideoJobScheduler scheduler, String type, String group, String label, int priority, long sequence, Work work) {
+        this.scheduler = scheduler;
+        this.type = type;
+        this.group = group;
+        this.label = label;
+        this.priority = priority;
+        this.sequence = sequence;
+        this.work = work;
+    }
+
+    /**
+     * The job running on this thread, or null outside of a job.
+     */
+    static VideoJob current() {
+        return CURRENT.get();
+    }
+
+    String getId() {
+        return id;
+    }
+
+    String getType() {
+        return type;
+    }
+
+    /**
+     * Jobs started by the same plugin call share a group, for example all videos of one pick.
+     */
+    String getGroup() {
+        return group;
+    }
+
+    /**
+     * What the job works on, usually a path.
+     */
+    String getLabel() {
+        return label;
+    }
+
+    void setLabel(String label) {
+        this.label = label;
+    }
+
+    int getPriority() {
+        return priority;
+    }
+
+    long getSequence() {
+        return sequence;
+    }
+
+    long getCreatedAt() {
+        return createdAt;
+    }
+
+    State getState() {
+        return state;
+    }
+
+    long getBytes() {
+        return bytes;
+    }
+
+    long getTotal() {
+        return total;
+    }
+
+    Exception getError() {
+        return error;
+    }
+
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    void throwIfCancelled() {
+        if (cancelled) {
+            throw new CancellationException("Job " + id + " cancelled");
+        }
+    }
+
+    /**
+     * Records progress. The scheduler's listener hears about it at most once per progress
+     * interval, and always once the total is reached.
+     */
+    void setProgress(long bytes, long total) {
+        this.bytes = bytes;
+        this.total = total;
+        synchronized (this) {
+            long now = System.nanoTime();
+            boolean done = total >= 0 && bytes >= total;
+            if (progressReported && !done && now - lastProgressNanos < scheduler.getProgressIntervalNanos()) {
+                return;
+            }
+            progressReported = true;
+            lastProgressNanos = now;
+        }
+        scheduler.onProgress(this);
+    }
+
+    void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Ends a job that could not be started.
+     */
+    void fail(Exception ex) {
+        error = ex;
+        state = cancelled ? State.CANCELLED : State.FAILED;
+    }
+
+    /**
+     * Runs the work on the calling thread and returns the final state.
+     */
+    State run() {
+        state = State.RUNNING;
+        CURRENT.set(this);
+        try {
+            work.run(this);
+            state = cancelled ? State.CANCELLED : State.SUCCEEDED;
+        } catch (Exception ex) {
+            error = ex;
+            state = cancelled || ex instanceof CancellationException ? State.CANCELLED : State.FAILED;
+        } finally {
+            CURRENT.remove();
+        }
+        return state;
+    }
+}
@@ -0,0 +1,190 @@
+package it.viborg.capacitor.video.recorder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs {@link VideoJob}s on a shared executor. Queued jobs start in priority order, then in
+ * the order they were submitted, as long as fewer than maxRunning jobs run in total and fewer
+ * than the limit of the job's type run of that type. A type without a limit is only bound by
+ * maxRunning.
+ */
+class VideoJobScheduler {
+
+    interface Listener {
+        /**
+         * Throttled progress of a running job.
+         */
+        void onProgress(VideoJob job);
+
+        /**
+         * Called once per job after it succeeded, failed or was cancelled.
+         */
+        void onFinished(VideoJob job);
+    }
+
+    private static final Comparator<VideoJob> ORDER = (a, b) -> {
+        if (a.getPriority() != b.getPriority()) {
+            return a.getPriority() > b.getPriority() ? -1 : 1;
+        }
+        return Long.compare(a.getSequence(), b.getSequence());
+    };
+
+    private final Executor executor;
+    private final int maxRunning;
+    private final long progressIntervalNanos;
+    private final Listener listener;
+    private final Map<String, Integer> limits = new HashMap<>();
+    // All guarded by this
+    private final TreeSet<VideoJob> queue = new TreeSet<>(ORDER);
+    private final Map<String, VideoJob> jobs = new HashMap<>();
+    private final Map<String, Integer> runningByType = new HashMap<>();
+    private int running = 0;
+    private long nextSequence = 0;
+
+    VideoJobScheduler(Executor executor, int maxRunning, long progressIntervalMs, Listener listener) {
+        this.executor = executor;
+        this.maxRunning = Math.max(1, maxRunning);
+        this.progressIntervalNanos = TimeUnit.MILLISECONDS.toNanos(progressIntervalMs);
+        this.listener = listener;
+    }
+
+    /**
+     * Limits how many jobs of a type run at the same time.
+     */
+    synchronized void setConcurrency(String type, int limit) {
+        limits.put(type, Math.max(1, limit));
+    }
+
+    long getProgressIntervalNanos() {
+        return progressIntervalNanos;
+    }
+
+    VideoJob submit(String type, String group, String label, int priority, VideoJob.Work work) {
+        VideoJob job;
+        synchronized (this) {
+            job = new VideoJob(this, type, group, label, priority, nextSequence++, work);
+            jobs.put(job.getId(), job);
+            queue.add(job);
+        }
+        dispatch();
+        return job;
+    }
+
+    /**
+     * An executor that runs every task as a job of its own, for code that fans out over an
+     * {@link Executor}. Such jobs only end as failed if the task throws, so tasks that handle
+     * their own errors end as succeeded or cancelled.
+     */
+    Executor executor(final String type, final String group, final int priority) {
+        return command -> submit(type, group, null, priority, job -> command.run());
+    }
+
+    /**
+     * Cancels a job. A queued job is started right away so its work can notice the
+     * cancellation and report it to whoever is waiting on it. Returns false if there is no
+     * unfinished job with that id.
+     */
+    boolean cancel(String id) {
+        VideoJob job;
+        synchronized (this) {
+            job = jobs.get(id);
+            if (job == null) {
+                return false;
+            }
+            job.cancel();
+            if (!queue.remove(job)) {
+                return true;
+            }
+            markRunning(job);
+        }
+        start(job);
+        return true;
+    }
+
+    void cancelAll() {
+        List<VideoJob> active;
+        synchronized (this) {
+            active = new ArrayList<>(jobs.values());
+        }
+        for (VideoJob job : active) {
+            cancel(job.getId());
+        }
+    }
+
+    /**
+     * The jobs that have not finished yet, in the order they run.
+     */
+    synchronized List<VideoJob> list() {
+        List<VideoJob> list = new ArrayList<>(jobs.values());
+        Collections.sort(list, ORDER);
+        return list;
+    }
+
+    void onProgress(VideoJob job) {
+        listener.onProgress(job);
+    }
+
+    private void dispatch() {
+        List<VideoJob> ready = new ArrayList<>();
+        synchronized (this) {
+            Iterator<VideoJob> iterator = queue.iterator();
+            while (running < maxRunning && iterator.hasNext()) {
+                VideoJob job = iterator.next();
+                Integer limit = limits.get(job.getType());
+                if (limit != null && getRunning(job.getType()) >= limit) {
+                    continue;
+                }
+                iterator.remove();
+                markRunning(job);
+                ready.add(job);
+            }
+        }
+        for (VideoJob job : ready) {
+            start(job);
+        }
+    }
+
+    private void start(final VideoJob job) {
+        try {
+            executor.execute(
+                    () -> {
+                        job.run();
+                        finish(job);
+                    }
+            );
+        } catch (RejectedExecutionException ex) {
+            job.fail(ex);
+            finish(job);
+        }
+    }
+
+    private void finish(VideoJob job) {
+        synchronized (this) {
+            jobs.remove(job.getId());
+            runningByType.put(job.getType(), getRunning(job.getType()) - 1);
+            running--;
+        }
+        listener.onFinished(job);
+        dispatch();
+    }
+
+    private void markRunning(VideoJob job) {
+        runningByType.put(job.getType(), getRunning(job.getType()) + 1);
+        running++;
+    }
+
+    private int getRunning(String type) {
+        Integer count = runningByType.get(type);
+        return count != null ? count : 0;
+    }
+}
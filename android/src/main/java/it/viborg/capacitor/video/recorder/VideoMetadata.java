@@ -0,0 +1,125 @@
+package it.viborg.capacitor.video.recorder;
+
+import android.content.Context;
+import android.media.MediaMetadataRetriever;
+import android.net.Uri;
+
+import com.getcapacitor.JSObject;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+
+/**
+ * Technical metadata of a single video, as returned by getVideoMetadata.
+ */
+public class VideoMetadata {
+    private final long duration;
+    private final int width;
+    private final int height;
+    private final int rotation;
+    private final long bitrate;
+    private final long size;
+    private final String mimeType;
+
+    VideoMetadata(long duration, int width, int height, int rotation, long bitrate, long size, String mimeType) {
+        this.duration = duration;
+        this.width = width;
+        this.height = height;
+        this.rotation = rotation;
+        this.bitrate = bitrate;
+        this.size = size;
+        this.mimeType = mimeType;
+    }
+
+    /**
+     * Reads the metadata of a video with {@link MediaMetadataRetriever}. Only the container
+     * headers are parsed, no frames are decoded.
+     */
+    static VideoMetadata extract(Context context, Uri uri, long size) throws IOException {
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            retriever.setDataSource(context, uri);
+            return new VideoMetadata(
+                    parseLong(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION)),
+                    (int) parseLong(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_WIDTH)),
+                    (int) parseLong(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_HEIGHT)),
+                    (int) parseLong(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_ROTATION)),
+                    parseLong(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_BITRATE)),
+                    size,
+                    retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_MIMETYPE)
+            );
+        } catch (RuntimeException ex) {
+            // setDataSource throws IllegalArgumentException for unreadable or non-video sources
+            throw new IOException("Unable to read video metadata", ex);
+        } finally {
+            retriever.release();
+        }
+    }
+
+    private static long parseLong(String value) {
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException ex) {
+            return 0;
+        }
+    }
+
+    public long getDuration() {
+        return duration;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getRotation() {
+        return rotation;
+    }
+
+    public long getBitrate() {
+        return bitrate;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    JSObject toJSObject() {
+        JSObject ret = new JSObject();
+        ret.put("duration", duration);
+        ret.put("width", width);
+        ret.put("height", height);
+        ret.put("rotation", rotation);
+        ret.put("bitrate", bitrate);
+        ret.put("size", size);
+        if (mimeType != null) {
+            ret.put("mimeType", mimeType);
+        }
+        return ret;
+    }
+
+    static VideoMetadata fromJSON(JSONObject json) throws JSONException {
+        return new VideoMetadata(
+                json.getLong("duration"),
+                json.getInt("width"),
+                json.getInt("height"),
+                json.getInt("rotation"),
+                json.getLong("bitrate"),
+                json.getLong("size"),
+                json.has("mimeType") ? json.getString("mimeType") : null
+        );
+    }
+}
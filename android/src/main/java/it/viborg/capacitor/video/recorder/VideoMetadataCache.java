@@ -0,0 +1,147 @@
+package it.viborg.capacitor.video.recorder;
+
+import com.getcapacitor.Logger;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size-bounded LRU cache of {@link VideoMetadata}, persisted as JSON in the app cache directory.
+ * Entries are keyed by URI, size and last-modified time so a changed file is never served stale.
+ */
+class VideoMetadataCache {
+    private static final int VERSION = 1;
+
+    private final File file;
+    private final LinkedHashMap<String, VideoMetadata> entries;
+    private boolean loaded = false;
+    private boolean dirty = false;
+
+    VideoMetadataCache(File file, final int maxEntries) {
+        this.file = file;
+        this.entries = new LinkedHashMap<String, VideoMetadata>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, VideoMetadata> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * The cache key of a video, or null when neither its size nor its last-modified time is
+     * known. Such a video could change without its key changing, so it is not cached.
+     */
+    static String key(String uri, long size, long lastModified) {
+        if (size < 0 && lastModified <= 0) {
+            return null;
+        }
+        return uri + "|" + size + "|" + lastModified;
+    }
+
+    synchronized VideoMetadata get(String key) {
+        load();
+        return entries.get(key);
+    }
+
+    synchronized void put(String key, VideoMetadata metadata) {
+        load();
+        entries.put(key, metadata);
+        dirty = true;
+    }
+
+    synchronized void clear() {
+        entries.clear();
+        loaded = true;
+        dirty = false;
+        file.delete();
+    }
+
+    /**
+     * Writes the cache to disk if it changed since it was loaded or last saved. Entries are
+     * written least recently used first so the order survives a reload.
+     */
+    synchronized void save() {
+        if (!dirty) {
+            return;
+        }
+        try {
+            JSONArray items = new JSONArray();
+            for (Map.Entry<String, VideoMetadata> entry : entries.entrySet()) {
+                JSONObject item = entry.getValue().toJSObject();
+                item.put("key", entry.getKey());
+                items.put(item);
+            }
+            JSONObject json = new JSONObject();
+            json.put("version", VERSION);
+            json.put("entries", items);
+
+            File tmp = new File(file.getPath() + ".tmp");
+            OutputStream out = new FileOutputStream(tmp);
+            try {
+                out.write(json.toString().getBytes(StandardCharsets.UTF_8));
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Unable to replace " + file);
+            }
+            dirty = false;
+        } catch (IOException | JSONException ex) {
+            Logger.error("VideoMetadataCache", "Unable to persist video metadata cache", ex);
+        }
+    }
+
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!file.exists()) {
+            return;
+        }
+        try {
+            JSONObject json = new JSONObject(readFile(file));
+            if (json.optInt("version") != VERSION) {
+                return;
+            }
+            JSONArray items = json.getJSONArray("entries");
+            for (int i = 0; i < items.length(); i++) {
+                JSONObject item = items.getJSONObject(i);
+                entries.put(item.getString("key"), VideoMetadata.fromJSON(item));
+            }
+        } catch (IOException | JSONException ex) {
+            Logger.error("VideoMetadataCache", "Discarding unreadable video metadata cache", ex);
+            entries.clear();
+            file.delete();
+        }
+    }
+
+    private static String readFile(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] data = new byte[(int) file.length()];
+            int read = 0;
+            while (read < data.length) {
+                int n = in.read(data, read, data.length - read);
+                if (n < 0) {
+                    break;
+                }
+                read += n;
+            }
+            return new String(data, 0, read, StandardCharsets.UTF_8);
+        } finally {
+            in.close();
+        }
+    }
+}
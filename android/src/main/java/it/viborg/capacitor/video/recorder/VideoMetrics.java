@@ -0,0 +1,222 @@
+package it.viborg.capacitor.video.recorder;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free counters and latency histograms per stage. Recording is a handful of atomic
+ * operations, so the plugin can time every call without measurably slowing it down.
+ *
+ * <p>Stages can be timed synchronously with {@link #time(String)}, or as spans that start and
+ * end on different threads or callbacks, keyed by an id such as the plugin call's callback id.
+ */
+class VideoMetrics {
+
+    /**
+     * Receives the start and end of every timed stage, to mirror them as system trace sections.
+     */
+    interface Tracer {
+        void begin(String name);
+
+        void end();
+
+        void beginAsync(String name, int cookie);
+
+        void endAsync(String name, int cookie);
+    }
+
+    static final Tracer NO_TRACER = new Tracer() {
+        @Override
+        public void begin(String name) {}
+
+        @Override
+        public void end() {}
+
+        @Override
+        public void beginAsync(String name, int cookie) {}
+
+        @Override
+        public void endAsync(String name, int cookie) {}
+    };
+
+    /**
+     * Times a synchronous stage, meant for try-with-resources on the thread doing the work.
+     */
+    class Timer implements AutoCloseable {
+
+        private final String stage;
+        private final long start = System.nanoTime();
+
+        private Timer(String stage) {
+            this.stage = stage;
+            tracer.begin(stage);
+        }
+
+        @Override
+        public void close() {
+            record(stage, System.nanoTime() - start);
+            tracer.end();
+        }
+    }
+
+    /**
+     * Latency histogram with power of two microsecond buckets, bucket i counts durations in
+     * [2^i, 2^(i+1)) microseconds.
+     */
+    static class Histogram {
+
+        private static final int BUCKETS = 40;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        void record(long nanos) {
+            nanos = Math.max(0, nanos);
+            long micros = Math.max(1, nanos / 1000);
+            int bucket = Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(micros));
+            buckets.incrementAndGet(bucket);
+            count.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            long max;
+            while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)) {
+                // Retry until the larger value is stored
+            }
+        }
+
+        long getCount() {
+            return count.get();
+        }
+
+        double getTotalMs() {
+            return totalNanos.get() / 1e6;
+        }
+
+        double getMaxMs() {
+            return maxNanos.get() / 1e6;
+        }
+
+        /**
+         * Estimates a percentile by interpolating linearly inside the bucket that holds it, with
+         * the bucket clipped to the largest recorded value.
+         */
+        double getPercentileMs(double percentile) {
+            long total = 0;
+            long[] counts = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets.get(i);
+                total += counts[i];
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(percentile * total);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                if (seen + counts[i] >= rank) {
+                    double maxMicros = maxNanos.get() / 1000.0;
+                    double lower = Math.min(i == 0 ? 0 : (1L << i), maxMicros);
+                    double upper = Math.min(1L << (i + 1), maxMicros);
+                    return (lower + (upper - lower) * (rank - seen) / counts[i]) / 1000.0;
+                }
+                seen += counts[i];
+            }
+            return getMaxMs();
+        }
+    }
+
+    private final Tracer tracer;
+    private final ConcurrentHashMap<String, AtomicLong> counters = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Long> spans = new ConcurrentHashMap<>();
+    private volatile long since = System.currentTimeMillis();
+
+    VideoMetrics(Tracer tracer) {
+        this.tracer = tracer;
+    }
+
+    void increment(String counter) {
+        add(counter, 1);
+    }
+
+    void add(String counter, long value) {
+        AtomicLong existing = counters.get(counter);
+        if (existing == null) {
+            AtomicLong created = new AtomicLong();
+            existing = counters.putIfAbsent(counter, created);
+            if (existing == null) {
+                existing = created;
+            }
+        }
+        existing.addAndGet(value);
+    }
+
+    void record(String stage, long nanos) {
+        Histogram histogram = histograms.get(stage);
+        if (histogram == null) {
+            Histogram created = new Histogram();
+            histogram = histograms.putIfAbsent(stage, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        histogram.record(nanos);
+    }
+
+    Timer time(String stage) {
+        return new Timer(stage);
+    }
+
+    /**
+     * Starts a stage that ends in {@link #endSpan}, possibly on another thread.
+     */
+    void beginSpan(String stage, String id) {
+        spans.put(stage + "|" + id, System.nanoTime());
+        tracer.beginAsync(stage, id.hashCode());
+    }
+
+    /**
+     * Ends a span and records its duration. Does nothing if the span was not started, so every
+     * exit path can call it.
+     */
+    void endSpan(String stage, String id) {
+        Long start = spans.remove(stage + "|" + id);
+        if (start != null) {
+            record(stage, System.nanoTime() - start);
+            tracer.endAsync(stage, id.hashCode());
+        }
+    }
+
+    /**
+     * Epoch milliseconds of the last reset.
+     */
+    long getSince() {
+        return since;
+    }
+
+    Map<String, Long> getCounters() {
+        Map<String, Long> ret = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> entry : counters.entrySet()) {
+            ret.put(entry.getKey(), entry.getValue().get());
+        }
+        return ret;
+    }
+
+    Map<String, Histogram> getHistograms() {
+        return new TreeMap<>(histograms);
+    }
+
+    /**
+     * Clears all counters and histograms. Spans in flight keep running and are recorded into
+     * the fresh histograms.
+     */
+    void reset() {
+        counters.clear();
+        histograms.clear();
+        since = System.currentTimeMillis();
+    }
+}
@@ -4,18 +4,23 @@ package it.viborg.capacitor.video.recorder;
 
 import android.Manifest;
 import android.content.ActivityNotFoundException;
+import android.content.ContentUris;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
+import android.database.ContentObserver;
+import android.graphics.Bitmap;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Environment;
 import android.os.Parcelable;
 import android.provider.MediaStore;
+import android.util.Base64;
 
 import androidx.activity.result.ActivityResult;
 import androidx.annotation.NonNull;
-import androidx.core.content.FileProvider;
+import androidx.annotation.VisibleForTesting;
 
 import com.getcapacitor.FileUtils;
 import com.getcapacitor.JSArray;
@@ -30,13 +35,26 @@ import com.getcapacitor.annotation.CapacitorPlugin;
 import com.getcapacitor.annotation.Permission;
 import com.getcapacitor.annotation.PermissionCallback;
 
+import org.json.JSONArray;
 import org.json.JSONException;
+import org.json.JSONObject;
 
 import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
 @CapacitorPlugin(
         name = "VideoRecorder",
@@ -74,25 +92,287 @@ public class VideoRecorderPlugin extends Plugin {
     private static final String UNABLE_TO_PROCESS_VIDEO = "Unable to process video";
     private static final String VIDEO_EDIT_ERROR = "Unable to edit video";
     private static final String VIDE_GALLERY_SAVE_ERROR = "Unable to save the video in the gallery";
+    private static final String INSUFFICIENT_STORAGE_ERROR = "Not enough free space to record a video";
+    private static final String VIDEO_IMPORT_ERROR = "Unable to import video into app storage";
+    private static final String MISSING_PATH_ERROR = "Must provide a path";
+    private static final String INVALID_CHUNK_ERROR = "Invalid offset, length or encoding";
+    private static final String UNABLE_TO_READ_FILE = "Unable to read file";
+    private static final String MISSING_UPLOAD_URL_ERROR = "Must provide a path and url, or the uploadId of an upload to resume";
+    private static final String UPLOAD_NOT_FOUND_ERROR = "No upload found with that uploadId";
+    private static final String UPLOAD_IN_PROGRESS_ERROR = "Upload is already in progress";
+    private static final String UPLOAD_ERROR = "Unable to upload video";
+    private static final String UPLOAD_CANCELLED_ERROR = "Upload cancelled";
+    private static final String MISSING_PATHS_ERROR = "Must provide an array of paths";
+    private static final String UNABLE_TO_READ_METADATA = "Unable to read video metadata";
+    private static final String UNABLE_TO_CREATE_THUMBNAIL = "Unable to create thumbnail";
+    private static final String INVALID_THUMBNAIL_OPTIONS_ERROR = "Invalid thumbnail options";
+    private static final String INVALID_TRIM_RANGE_ERROR = "Invalid startMs or endMs";
+    private static final String UNABLE_TO_TRIM_VIDEO = "Unable to trim video";
+    private static final String INVALID_LIST_OPTIONS_ERROR = "Invalid offset, limit or sortBy";
+    private static final String UNABLE_TO_LIST_VIDEOS = "Unable to list videos";
+    private static final String JOB_NOT_FOUND_ERROR = "No unfinished job found with that jobId";
+    private static final String JOB_CANCELLED_ERROR = "Job cancelled";
+    private static final String RECORDING_INTERRUPTED_ERROR = "Recording was interrupted";
+    private static final String UNABLE_TO_READ_SEEK_INDEX = "Unable to read seek index";
+    private static final String INVALID_SEGMENT_OPTIONS_ERROR = "Invalid segmentSeconds or format";
+    private static final String UNABLE_TO_SEGMENT_VIDEO = "Unable to segment video";
+    private static final String INCOMPATIBLE_VIDEOS_ERROR = "Videos can't be joined without re-encoding";
+    private static final String UNABLE_TO_CONCAT_VIDEOS = "Unable to join videos";
 
-    private String videoFileSavePath;
-    private String videoEditedFileSavePath;
-    private Uri videoFileUri;
-    private Uri videoPickedContentUri;
-    private boolean isEdited = false;
-    private boolean isFirstRequest = true;
-    private boolean isSaved = false;
+    // Event constants
+    static final String EVENT_VIDEO_PICKED = "videoPicked";
+    static final String EVENT_VIDEO_PICK_FINISHED = "videoPickFinished";
+    static final String EVENT_IMPORT_PROGRESS = "importProgress";
+    static final String EVENT_UPLOAD_PROGRESS = "uploadProgress";
+    static final String EVENT_JOB_PROGRESS = "jobProgress";
+    static final String EVENT_JOB_FINISHED = "jobFinished";
+    static final String EVENT_VIDEO_RECOVERED = "videoRecovered";
+
+    // Job types, each with its own concurrency limit
+    private static final String JOB_TYPE_PROCESS_CAPTURE = "processCapture";
+    private static final String JOB_TYPE_IMPORT = "import";
+    private static final String JOB_TYPE_TRIM = "trim";
+    private static final String JOB_TYPE_SEGMENT = "segment";
+    private static final String JOB_TYPE_CONCAT = "concat";
+    // Copies from the same storage only slow each other down beyond this
+    private static final int IMPORT_JOB_CONCURRENCY = 2;
+    private static final long JOB_PROGRESS_INTERVAL_MS = 250;
+
+    // Directory below the app files directory that imported videos are copied into
+    static final String IMPORT_DIRECTORY = "videos";
+    // Directory below the app files directory that upload state is persisted in
+    static final String UPLOAD_DIRECTORY = "video-uploads";
+
+    // Config constants
+    private static final String CONFIG_WORKER_POOL_SIZE = "workerPoolSize";
+    private static final String CONFIG_METADATA_CACHE_SIZE = "metadataCacheSize";
+    private static final int DEFAULT_METADATA_CACHE_SIZE = 500;
+    private static final String CONFIG_THUMBNAIL_CACHE_SIZE = "thumbnailCacheSize";
+    private static final int DEFAULT_THUMBNAIL_CACHE_SIZE = 50 * 1024 * 1024;
+    private static final String CONFIG_MAX_CHUNK_SIZE = "maxChunkSize";
+    private static final int DEFAULT_MAX_CHUNK_SIZE = 4 * 1024 * 1024;
+    private static final int CHUNK_BUFFER_COUNT = 4;
+    private static final String CONFIG_UPLOAD_CONCURRENCY = "uploadConcurrency";
+    private static final int DEFAULT_UPLOAD_CONCURRENCY = 4;
+    private static final String CONFIG_UPLOAD_MAX_RETRIES = "uploadMaxRetries";
+    private static final int DEFAULT_UPLOAD_MAX_RETRIES = 5;
+    private static final long UPLOAD_INITIAL_BACKOFF_MS = 1000;
+    private static final int DEFAULT_UPLOAD_PART_SIZE = 8 * 1024 * 1024;
+    private static final int MIN_UPLOAD_PART_SIZE = 256 * 1024;
+    private static final String CONFIG_MAX_STORAGE_MB = "maxStorageMegabytes";
+    private static final String CONFIG_MAX_RECORDING_AGE_DAYS = "maxRecordingAgeDays";
+    private static final int DEFAULT_LIST_LIMIT = 50;
+    private static final int MAX_LIST_LIMIT = 500;
+    private static final double DEFAULT_SEGMENT_SECONDS = 6;
+    private static final String CONFIG_LOCAL_SERVER = "localServer";
+    // The WebView opens up to six connections per host, on top of that seeks can briefly
+    // overlap a connection the player is about to drop
+    private static final int LOCAL_SERVER_MAX_CONNECTIONS = 16;
+    // Seek indexes kept in memory, a few kilobytes each
+    private static final int SEEK_INDEX_CACHE_SIZE = 20;
+
+    // Metric stage names, also used as system trace section names
+    private static final String STAGE_CAPTURE = "capture";
+    private static final String STAGE_FAST_START = "fastStart";
+    private static final String STAGE_PICKER = "picker";
+    private static final String STAGE_PROCESS_PICKED = "processPicked";
+    private static final String STAGE_IMPORT = "import";
+    private static final String STAGE_HASH = "hash";
+    private static final String STAGE_METADATA = "metadata";
+    private static final String STAGE_THUMBNAIL = "thumbnail";
+    private static final String STAGE_READ_CHUNK = "readChunk";
+    private static final String STAGE_UPLOAD = "upload";
+    private static final String STAGE_LIST_VIDEOS = "listVideos";
+    private static final String STAGE_TRIM = "trim";
+    private static final String STAGE_SEEK_INDEX = "seekIndex";
+    private static final String STAGE_SEGMENT = "segment";
+    private static final String STAGE_CONCAT = "concat";
+    private static final String STAGE_SAVE_TO_GALLERY = "saveToGallery";
+
+    private final VideoCaptureSessions sessions = new VideoCaptureSessions();
+    private final VideoCaptureQueue captureQueue = new VideoCaptureQueue(new CaptureDelegate());
+
+    private ExecutorService workerPool;
+    private VideoJobScheduler jobScheduler;
+    private VideoWorkJournal journal;
+    private boolean workRecovered = false;
+    private VideoMetadataCache metadataCache;
+    private VideoThumbnailCache thumbnailCache;
+    private final Map<String, Mp4SeekIndex> seekIndexCache = Collections.synchronizedMap(
+            new LinkedHashMap<String, Mp4SeekIndex>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Mp4SeekIndex> eldest) {
+                    return size() > SEEK_INDEX_CACHE_SIZE;
+                }
+            }
+    );
+    private VideoChunkReader chunkReader;
+    private VideoHasher hasher;
+    private VideoHashIndex hashIndex;
+    private ExecutorService uploadPool;
+    private VideoUploader uploader;
+    private final ConcurrentHashMap<String, VideoUpload> activeUploads = new ConcurrentHashMap<>();
+    private VideoStorageManager storageManager;
+    private VideoDeviceCapabilities capabilities;
+    private IntentRecorderBackend intentRecorderBackend;
+    private RecorderBackend inProcessRecorderBackend;
+    // Reused between prompts, a new one is only created while the previous one is still showing
+    private VideoRecorderBottomSheetDialogFragment promptFragment;
+    private VideoGallery gallery;
+    private VideoGalleryPager galleryPager;
+    private volatile VideoHttpServer localServer;
+    private ContentObserver galleryObserver;
+    private final VideoMetrics metrics = new VideoMetrics(new VideoSystemTracer());
+
+    @Override
+    public void load() {
+        int workerPoolSize = getConfig().getInt(CONFIG_WORKER_POOL_SIZE, VideoWorkerPool.defaultSize());
+        workerPool = VideoWorkerPool.newPool("VideoRecorderWorker", workerPoolSize);
+        jobScheduler = new VideoJobScheduler(
+                workerPool,
+                workerPoolSize,
+                JOB_PROGRESS_INTERVAL_MS,
+                new VideoJobScheduler.Listener() {
+                    @Override
+                    public void onProgress(VideoJob job) {
+                        notifyListeners(EVENT_JOB_PROGRESS, toJobObject(job));
+                    }
+
+                    @Override
+                    public void onFinished(VideoJob job) {
+                        metrics.increment("jobs." + job.getState().name().toLowerCase(Locale.ROOT));
+                        notifyListeners(EVENT_JOB_FINISHED, toJobObject(job));
+                    }
+                }
+        );
+        jobScheduler.setConcurrency(JOB_TYPE_PROCESS_CAPTURE, 1);
+        jobScheduler.setConcurrency(JOB_TYPE_IMPORT, IMPORT_JOB_CONCURRENCY);
+        jobScheduler.setConcurrency(JOB_TYPE_TRIM, 1);
+        jobScheduler.setConcurrency(JOB_TYPE_SEGMENT, 1);
+        jobScheduler.setConcurrency(JOB_TYPE_CONCAT, 1);
+        metadataCache = new VideoMetadataCache(
+                new File(getContext().getCacheDir(), "video-metadata.json"),
+                getConfig().getInt(CONFIG_METADATA_CACHE_SIZE, DEFAULT_METADATA_CACHE_SIZE)
+        );
+        thumbnailCache = new VideoThumbnailCache(
+                new File(getContext().getCacheDir(), "video-thumbnails"),
+                getConfig().getInt(CONFIG_THUMBNAIL_CACHE_SIZE, DEFAULT_THUMBNAIL_CACHE_SIZE)
+        );
+        chunkReader = new VideoChunkReader(
+                path -> VideoRecorderUtils.openReadChannel(getContext(), path),
+                getConfig().getInt(CONFIG_MAX_CHUNK_SIZE, DEFAULT_MAX_CHUNK_SIZE),
+                CHUNK_BUFFER_COUNT
+        );
+        hasher = new VideoHasher(workerPool, workerPoolSize, VideoHasher.DEFAULT_CHUNK_SIZE);
+        hashIndex = new VideoHashIndex(new File(getContext().getFilesDir(), "video-hashes.properties"));
+        uploadPool = VideoWorkerPool.newPool("VideoRecorderUpload", getConfig().getInt(CONFIG_UPLOAD_CONCURRENCY, DEFAULT_UPLOAD_CONCURRENCY));
+        uploader = new VideoUploader(uploadPool, getConfig().getInt(CONFIG_UPLOAD_MAX_RETRIES, DEFAULT_UPLOAD_MAX_RETRIES), UPLOAD_INITIAL_BACKOFF_MS);
+        storageManager = new VideoStorageManager(
+                new File(getContext().getFilesDir(), "video-recordings.properties"),
+                getConfig().getInt(CONFIG_MAX_STORAGE_MB, 0) * 1024L * 1024L,
+                TimeUnit.DAYS.toMillis(getConfig().getInt(CONFIG_MAX_RECORDING_AGE_DAYS, 0)),
+                this::onVideoFileChanged
+        );
+        storageManager.start();
+        journal = new VideoWorkJournal(new File(getContext().getFilesDir(), "video-work-journal.jsonl"));
+        String fileProviderAuthority = getAppId() + ".fileprovider";
+        capabilities = new VideoDeviceCapabilities(getContext(), fileProviderAuthority, workerPool);
+        capabilities.start();
+        gallery = new VideoGallery(getContext());
+        intentRecorderBackend = new IntentRecorderBackend(
+                getContext(),
+                fileProviderAuthority,
+                (call, intent) -> {
+                    sessions.onActivityStarted(call.getCallbackId());
+                    startActivityForResult(call, intent, "processCameraVideo");
+                },
+                capabilities
+        );
+        inProcessRecorderBackend = new MediaRecorderBackend(
+                getContext(),
+                () -> capabilities.get().audioPermissionDeclared && getPermissionState(AUDIO) == PermissionState.GRANTED
+        );
+        galleryPager = new VideoGalleryPager(new MediaStoreVideoSource(getContext().getContentResolver()));
+        galleryObserver = new ContentObserver(null) {
+            @Override
+            public void onChange(boolean selfChange) {
+                galleryPager.invalidate();
+            }
+        };
+        getContext().getContentResolver().registerContentObserver(MediaStoreVideoSource.getCollectionUri(), true, galleryObserver);
+        if (getConfig().getBoolean(CONFIG_LOCAL_SERVER, false)) {
+            Uri localUrl = Uri.parse(bridge.getLocalUrl());
+            localServer = new VideoHttpServer(LOCAL_SERVER_MAX_CONNECTIONS, localUrl.getScheme() + "://" + localUrl.getAuthority());
+            try {
+                localServer.start();
+            } catch (IOException ex) {
+                Logger.error(getLogTag(), "Unable to start local server, falling back to the bridge", ex);
+                localServer = null;
+            }
+        }
+    }
+
+    @Override
+    protected void handleOnResume() {
+        super.handleOnResume();
+        if (!workRecovered) {
+            // Activity results for captures restored with the saved state are delivered before
+            // the first resume, so only captures nothing is waiting for are recovered here
+            workRecovered = true;
+            workerPool.execute(this::recoverWork);
+        }
+    }
+
+    @Override
+    protected void handleOnDestroy() {
+        // Stop whatever hands work to the pools before shutting them down
+        if (capabilities != null) {
+            capabilities.stop();
+        }
+        if (galleryObserver != null) {
+            getContext().getContentResolver().unregisterContentObserver(galleryObserver);
+            galleryObserver = null;
+        }
+        if (storageManager != null) {
+            storageManager.stop();
+        }
+        if (jobScheduler != null) {
+            jobScheduler.cancelAll();
+        }
+        if (workerPool != null) {
+            workerPool.shutdownNow();
+            workerPool = null;
+        }
+        if (chunkReader != null) {
+            chunkReader.close();
+        }
+        for (VideoUpload upload : activeUploads.values()) {
+            upload.cancel();
+        }
+        if (uploadPool != null) {
+            uploadPool.shutdownNow();
+            uploadPool = null;
+        }
+        if (intentRecorderBackend != null) {
+            intentRecorderBackend.release();
+        }
+        if (inProcessRecorderBackend != null) {
+            inProcessRecorderBackend.release();
+        }
+        if (localServer != null) {
+            localServer.stop();
+            localServer = null;
+        }
+        captureQueue.clear();
+    }
 
-    private VideoRecorderSettings settings = new VideoRecorderSettings();
     @PluginMethod
     public void getVideo(PluginCall call) {
-        isEdited = false;
-        settings = getSettings(call);
-        doShow(call);
+        doShow(call, sessions.start(call.getCallbackId(), getSettings(call)));
     }
 
-    private void doShow(PluginCall call) {
-        switch (settings.getSource()) {
+    private void doShow(PluginCall call, VideoCaptureSession session) {
+        switch (session.getSettings().getSource()) {
             case CAMERA:
                 showCamera(call);
                 break;
@@ -100,31 +380,37 @@ public class VideoRecorderPlugin extends Plugin {
                 showVideos(call);
                 break;
             default:
-                showPrompt(call);
+                showPrompt(call, session);
                 break;
         }
     }
 
-    private void showPrompt(final PluginCall call) {
+    private void showPrompt(final PluginCall call, final VideoCaptureSession session) {
         // We have all necessary permissions, open the camera
         List<String> options = new ArrayList<>();
         options.add(call.getString("promptLabelVideos", "From Videos"));
         options.add(call.getString("promptLabelVideo", "Take Video"));
 
-        final VideoRecorderBottomSheetDialogFragment fragment = new VideoRecorderBottomSheetDialogFragment();
+        if (promptFragment == null || promptFragment.isAdded()) {
+            promptFragment = new VideoRecorderBottomSheetDialogFragment();
+        }
+        final VideoRecorderBottomSheetDialogFragment fragment = promptFragment;
         fragment.setTitle(call.getString("promptLabelHeader", "Video"));
         fragment.setOptions(
                 options,
                 index -> {
                     if (index == 0) {
-                        settings.setSource(VideoSource.VIDEOS);
+                        session.getSettings().setSource(VideoSource.VIDEOS);
                         openVideos(call);
                     } else if (index == 1) {
-                        settings.setSource(VideoSource.CAMERA);
+                        session.getSettings().setSource(VideoSource.CAMERA);
                         openCamera(call);
                     }
                 },
-                () -> call.reject("User cancelled videos app")
+                () -> {
+                    sessions.remove(call.getCallbackId());
+                    call.reject("User cancelled videos app");
+                }
         );
         fragment.show(getActivity().getSupportFragmentManager(), "capacitorModalsActionSheet");
     }
@@ -134,7 +420,8 @@ public class VideoRecorderPlugin extends Plugin {
     }
 
     private void showCamera(final PluginCall call) {
-        if (!getContext().getPackageManager().hasSystemFeature(PackageManager.FEATURE_CAMERA_ANY)) {
+        if (!capabilities.get().hasCamera) {
+            sessions.remove(call.getCallbackId());
             call.reject(NO_CAMERA_ERROR);
             return;
         }
@@ -143,13 +430,849 @@ public class VideoRecorderPlugin extends Plugin {
 
     @PluginMethod
     public void pickVideos(PluginCall call) {
-        settings = getSettings(call);
+        sessions.start(call.getCallbackId(), getSettings(call));
         openVideos(call, true, false);
     }
 
+    @PluginMethod
+    public void getVideoMetadata(PluginCall call) {
+        List<String> paths = getPaths(call);
+        if (paths == null) {
+            return;
+        }
+        VideoBatchProcessor.processInOrder(
+                workerPool,
+                paths,
+                this::getVideoMetadata,
+                new VideoBatchProcessor.Listener<JSObject>() {
+                    @Override
+                    public void onComplete(List<JSObject> results) {
+                        metadataCache.save();
+                        JSObject ret = new JSObject();
+                        JSArray videos = new JSArray();
+                        for (JSObject video : results) {
+                            videos.put(video);
+                        }
+                        ret.put("videos", videos);
+                        call.resolve(ret);
+                    }
+
+                    @Override
+                    public void onError(Exception ex) {
+                        call.reject(UNABLE_TO_READ_METADATA, ex);
+                    }
+                }
+        );
+    }
+
+    /**
+     * Returns the metadata of a single video, from the cache when the file is unchanged. Videos
+     * that cannot be read get an error entry instead of failing the whole batch.
+     */
+    private JSObject getVideoMetadata(String path) {
+        JSObject ret;
+        try (VideoMetrics.Timer ignored = metrics.time(STAGE_METADATA)) {
+            Uri uri = VideoRecorderUtils.toUri(path);
+            VideoRecorderUtils.FileStat stat = VideoRecorderUtils.stat(getContext(), uri);
+            String key = VideoMetadataCache.key(uri.toString(), stat.size, stat.lastModified);
+            VideoMetadata metadata = key != null ? metadataCache.get(key) : null;
+            if (metadata == null) {
+                metrics.increment("metadata.cacheMisses");
+                metadata = VideoMetadata.extract(getContext(), uri, stat.size);
+                if (key != null) {
+                    metadataCache.put(key, metadata);
+                }
+            } else {
+                metrics.increment("metadata.cacheHits");
+            }
+            ret = metadata.toJSObject();
+        } catch (IOException | SecurityException ex) {
+            Logger.debug(getLogTag(), "Unable to read metadata of " + path + ": " + ex.getMessage());
+            ret = new JSObject();
+            ret.put("error", UNABLE_TO_READ_METADATA);
+        }
+        ret.put("path", path);
+        return ret;
+    }
+
+    @PluginMethod
+    public void getThumbnails(PluginCall call) {
+        List<String> paths = getPaths(call);
+        if (paths == null) {
+            return;
+        }
+        final int maxSize = call.getInt("maxSize", 320);
+        final int quality = call.getInt("quality", 80);
+        final long timeMs = call.getLong("timeMs", 0L);
+        final String format = call.getString("format", "jpeg");
+        if (maxSize <= 0 || quality < 0 || quality > 100 || !("jpeg".equals(format) || "webp".equals(format))) {
+            call.reject(INVALID_THUMBNAIL_OPTIONS_ERROR);
+            return;
+        }
+
+        VideoBatchProcessor.processInOrder(
+                workerPool,
+                paths,
+                path -> getThumbnail(path, timeMs, maxSize, format, quality),
+                new VideoBatchProcessor.Listener<JSObject>() {
+                    @Override
+                    public void onComplete(List<JSObject> results) {
+                        JSObject ret = new JSObject();
+                        JSArray thumbnails = new JSArray();
+                        for (JSObject thumbnail : results) {
+                            thumbnails.put(thumbnail);
+                        }
+                        ret.put("thumbnails", thumbnails);
+                        call.resolve(ret);
+                    }
+
+                    @Override
+                    public void onError(Exception ex) {
+                        call.reject(UNABLE_TO_CREATE_THUMBNAIL, ex);
+                    }
+                }
+        );
+    }
+
+    private JSObject getThumbnail(String path, long timeMs, int maxSize, String format, int quality) {
+        JSObject ret = new JSObject();
+        ret.put("path", path);
+        try (VideoMetrics.Timer ignored = metrics.time(STAGE_THUMBNAIL)) {
+            final Uri uri = VideoRecorderUtils.toUri(path);
+            VideoRecorderUtils.FileStat stat = VideoRecorderUtils.stat(getContext(), uri);
+            final Bitmap.CompressFormat compressFormat = getCompressFormat(format);
+            String name = VideoRecorderUtils.sha1Hex(
+                    uri + "|" + stat.size + "|" + stat.lastModified + "|" + timeMs + "|" + maxSize + "|" + quality
+            ) + "." + format;
+            File thumbnail = thumbnailCache.get(
+                    name,
+                    output -> VideoRecorderUtils.createThumbnail(getContext(), uri, timeMs, maxSize, compressFormat, quality, output)
+            );
+            Uri thumbnailUri = Uri.fromFile(thumbnail);
+            ret.put("thumbnailPath", thumbnailUri.toString());
+            ret.put("webPath", FileUtils.getPortablePath(getContext(), bridge.getLocalUrl(), thumbnailUri));
+        } catch (Exception ex) {
+            Logger.debug(getLogTag(), "Unable to create thumbnail of " + path + ": " + ex.getMessage());
+            ret.put("error", UNABLE_TO_CREATE_THUMBNAIL);
+        }
+        return ret;
+    }
+
+    @SuppressWarnings("deprecation")
+    private Bitmap.CompressFormat getCompressFormat(String format) {
+        if ("webp".equals(format)) {
+            return Build.VERSION.SDK_INT >= Build.VERSION_CODES.R ? Bitmap.CompressFormat.WEBP_LOSSY : Bitmap.CompressFormat.WEBP;
+        }
+        return Bitmap.CompressFormat.JPEG;
+    }
+
+    @PluginMethod
+    public void readChunk(PluginCall call) {
+        final String path = call.getString("path");
+        if (path == null) {
+            call.reject(MISSING_PATH_ERROR);
+            return;
+        }
+        final long offset = call.getLong("offset", 0L);
+        final int length = call.getInt("length", chunkReader.getMaxChunkSize());
+        final String encoding = call.getString("encoding", "base64");
+        if (offset < 0 || length < 0 || length > chunkReader.getMaxChunkSize() || !("base64".equals(encoding) || "hex".equals(encoding))) {
+            call.reject(INVALID_CHUNK_ERROR);
+            return;
+        }
+
+        // Channels are cached by URI, so a file is found whichever way its path was written
+        final String source = VideoRecorderUtils.toUri(path).toString();
+        workerPool.execute(
+                () -> {
+                    try (VideoMetrics.Timer ignored = metrics.time(STAGE_READ_CHUNK)) {
+                        byte[] data = chunkReader.read(source, offset, length);
+                        metrics.add("readChunk.bytes", data.length);
+                        JSObject ret = new JSObject();
+                        ret.put("offset", offset);
+                        ret.put("length", data.length);
+                        ret.put("eof", offset + data.length >= chunkReader.size(source));
+                        ret.put("data", "hex".equals(encoding) ? VideoRecorderUtils.toHex(data) : Base64.encodeToString(data, Base64.NO_WRAP));
+                        call.resolve(ret);
+                    } catch (IOException | SecurityException ex) {
+                        call.reject(UNABLE_TO_READ_FILE, ex);
+                    }
+                }
+        );
+    }
+
+    @PluginMethod
+    public void getFileSize(PluginCall call) {
+        final String path = call.getString("path");
+        if (path == null) {
+            call.reject(MISSING_PATH_ERROR);
+            return;
+        }
+        workerPool.execute(
+                () -> {
+                    try {
+                        JSObject ret = new JSObject();
+                        ret.put("size", chunkReader.size(VideoRecorderUtils.toUri(path).toString()));
+                        call.resolve(ret);
+                    } catch (IOException | SecurityException ex) {
+                        call.reject(UNABLE_TO_READ_FILE, ex);
+                    }
+                }
+        );
+    }
+
+    /**
+     * Starts a multipart upload, or resumes a persisted one when an uploadId is given. The call
+     * resolves once every part has been accepted by the server.
+     */
+    @PluginMethod
+    public void uploadVideo(PluginCall call) {
+        final String uploadId = call.getString("uploadId");
+        final String path = call.getString("path");
+        final String url = call.getString("url");
+        if (uploadId == null && (path == null || url == null)) {
+            call.reject(MISSING_UPLOAD_URL_ERROR);
+            return;
+        }
+        final Map<String, String> headers = getHeaders(call);
+
+        workerPool.execute(
+                () -> {
+                    VideoUpload upload = null;
+                    FileChannel channel;
+                    try {
+                        File directory = new File(getContext().getFilesDir(), UPLOAD_DIRECTORY);
+                        if (uploadId != null) {
+                            upload = VideoUpload.load(directory, uploadId);
+                            if (upload == null) {
+                                call.reject(UPLOAD_NOT_FOUND_ERROR);
+                                return;
+                            }
+                            // Headers are not persisted, the caller passes them again
+                            upload.setHeaders(headers);
+                        } else {
+                            long partSize = Math.max(MIN_UPLOAD_PART_SIZE, call.getLong("partSize", (long) DEFAULT_UPLOAD_PART_SIZE));
+                            Uri source = VideoRecorderUtils.toUri(path);
+                            upload = VideoUpload.create(
+                                    directory,
+                                    path,
+                                    url,
+                                    call.getString("method", "PUT"),
+                                    call.getString("completeUrl"),
+                                    chunkReader.size(source.toString()),
+                                    VideoRecorderUtils.stat(getContext(), source).lastModified,
+                                    partSize,
+                                    headers
+                            );
+                        }
+                        if (activeUploads.putIfAbsent(upload.getId(), upload) != null) {
+                            call.reject(UPLOAD_IN_PROGRESS_ERROR);
+                            return;
+                        }
+                        if (uploadId != null) {
+                            Uri source = VideoRecorderUtils.toUri(upload.getPath());
+                            long lastModified = VideoRecorderUtils.stat(getContext(), source).lastModified;
+                            if (upload.restartIfChanged(VideoRecorderUtils.getLength(getContext(), source), lastModified)) {
+                                Logger.debug(getLogTag(), "Upload " + uploadId + " changed on disk, sending it again from the start");
+                            }
+                        }
+                        channel = VideoRecorderUtils.openReadChannel(getContext(), upload.getPath());
+                    } catch (IOException | SecurityException ex) {
+                        if (upload != null) {
+                            activeUploads.remove(upload.getId(), upload);
+                        }
+                        call.reject(UPLOAD_ERROR, ex);
+                        return;
+                    }
+
+                    final VideoUpload started = upload;
+                    metrics.beginSpan(STAGE_UPLOAD, started.getId());
+                    uploader.upload(
+                            started,
+                            channel,
+                            new VideoUploader.Listener() {
+                                @Override
+                                public void onProgress(VideoUpload upload, long bytes, long total) {
+                                    JSObject event = new JSObject();
+                                    event.put("uploadId", upload.getId());
+                                    event.put("bytes", bytes);
+                                    event.put("total", total);
+                                    notifyListeners(EVENT_UPLOAD_PROGRESS, event);
+                                }
+
+                                @Override
+                                public void onComplete(VideoUpload upload) {
+                                    activeUploads.remove(upload.getId());
+                                    metrics.endSpan(STAGE_UPLOAD, upload.getId());
+                                    metrics.add("upload.bytes", upload.getSize());
+                                    JSObject ret = new JSObject();
+                                    ret.put("uploadId", upload.getId());
+                                    ret.put("size", upload.getSize());
+                                    ret.put("parts", upload.getPartCount());
+                                    call.resolve(ret);
+                                }
+
+                                @Override
+                                public void onError(VideoUpload upload, Exception ex) {
+                                    activeUploads.remove(upload.getId());
+                                    metrics.endSpan(STAGE_UPLOAD, upload.getId());
+                                    metrics.increment(ex instanceof CancellationException ? "upload.cancelled" : "upload.failed");
+                                    JSObject data = new JSObject();
+                                    data.put("uploadId", upload.getId());
+                                    call.reject(ex instanceof CancellationException ? UPLOAD_CANCELLED_ERROR : UPLOAD_ERROR, ex, data);
+                                }
+                            }
+                    );
+                }
+        );
+    }
+
+    @PluginMethod
+    public void cancelUpload(PluginCall call) {
+        String uploadId = call.getString("uploadId");
+        VideoUpload upload = uploadId != null ? activeUploads.get(uploadId) : null;
+        if (upload == null) {
+            call.reject(UPLOAD_NOT_FOUND_ERROR);
+            return;
+        }
+        upload.cancel();
+        call.resolve();
+    }
+
+    /**
+     * Lists the uploads that were started but have not completed, so they can be resumed.
+     */
+    @PluginMethod
+    public void listUploads(PluginCall call) {
+        workerPool.execute(
+                () -> {
+                    JSArray uploads = new JSArray();
+                    File[] files = new File(getContext().getFilesDir(), UPLOAD_DIRECTORY).listFiles();
+                    if (files != null) {
+                        for (File file : files) {
+                            String name = file.getName();
+                            if (!name.endsWith(".properties")) {
+                                continue;
+                            }
+                            try {
+                                VideoUpload upload = VideoUpload.load(file.getParentFile(), name.substring(0, name.length() - ".properties".length()));
+                                if (upload != null) {
+                                    JSObject item = new JSObject();
+                                    item.put("uploadId", upload.getId());
+                                    item.put("path", upload.getPath());
+                                    item.put("bytes", upload.getUploadedBytes());
+                                    item.put("total", upload.getSize());
+                                    item.put("active", activeUploads.containsKey(upload.getId()));
+                                    uploads.put(item);
+                                }
+                            } catch (IOException ex) {
+                                Logger.error(getLogTag(), "Skipping unreadable upload state " + name, ex);
+                            }
+                        }
+                    }
+                    JSObject ret = new JSObject();
+                    ret.put("uploads", uploads);
+                    call.resolve(ret);
+                }
+        );
+    }
+
+    /**
+     * Lists the captured and imported videos managed by the plugin, newest first.
+     */
+    @PluginMethod
+    public void listRecordings(PluginCall call) {
+        JSArray recordings = new JSArray();
+        for (VideoStorageManager.Recording recording : storageManager.list()) {
+            if (recording.pending) {
+                continue;
+            }
+            Uri uri = Uri.fromFile(new File(recording.path));
+            JSObject item = new JSObject();
+            item.put("path", uri.toString());
+            item.put("webPath", getWebPath(uri));
+            item.put("size", recording.size);
+            item.put("created", recording.created);
+            item.put("lastAccessed", recording.lastAccessed);
+            recordings.put(item);
+        }
+        JSObject ret = new JSObject();
+        ret.put("recordings", recordings);
+        call.resolve(ret);
+    }
+
+    /**
+     * Deletes managed recordings. Paths the plugin did not create are left alone.
+     */
+    @PluginMethod
+    public void deleteRecordings(PluginCall call) {
+        List<String> paths = getPaths(call);
+        if (paths == null) {
+            return;
+        }
+        int deleted = 0;
+        for (String path : paths) {
+            File file = VideoRecorderUtils.toFile(VideoRecorderUtils.toUri(path));
+            if (file != null && storageManager.delete(file.getAbsolutePath())) {
+                deleted++;
+            }
+        }
+        JSObject ret = new JSObject();
+        ret.put("deleted", deleted);
+        call.resolve(ret);
+    }
+
+    @PluginMethod
+    public void getStorageUsage(PluginCall call) {
+        JSObject ret = new JSObject();
+        ret.put("bytes", storageManager.getUsedBytes());
+        ret.put("count", storageManager.list().size());
+        ret.put("maxBytes", storageManager.getMaxBytes());
+        call.resolve(ret);
+    }
+
+    /**
+     * Lists the device's videos page by page, newest first by default. Pages are cached until
+     * the gallery changes.
+     */
+    @PluginMethod
+    public void listVideos(PluginCall call) {
+        final int offset = call.getInt("offset", 0);
+        final int limit = call.getInt("limit", DEFAULT_LIST_LIMIT);
+        final String sortBy = call.getString("sortBy", VideoGalleryPager.SORT_DATE_ADDED);
+        final long since = call.getLong("since", 0L);
+        if (
+                offset < 0 ||
+                limit < 1 ||
+                limit > MAX_LIST_LIMIT ||
+                !(VideoGalleryPager.SORT_DATE_ADDED.equals(sortBy) ||
+                        VideoGalleryPager.SORT_DATE_MODIFIED.equals(sortBy) ||
+                        VideoGalleryPager.SORT_SIZE.equals(sortBy))
+        ) {
+            call.reject(INVALID_LIST_OPTIONS_ERROR);
+            return;
+        }
+        if (!checkVideosPermission(call)) {
+            return;
+        }
+
+        workerPool.execute(
+                () -> {
+                    try (VideoMetrics.Timer ignored = metrics.time(STAGE_LIST_VIDEOS)) {
+                        VideoGalleryPager.Result result = galleryPager.list(new VideoGalleryPager.Query(sortBy, since), offset, limit);
+                        JSArray videos = new JSArray();
+                        for (VideoGalleryPager.Item item : result.items) {
+                            Uri uri = ContentUris.withAppendedId(MediaStoreVideoSource.getCollectionUri(), item.id);
+                            JSObject video = new JSObject();
+                            video.put("path", uri.toString());
+                            video.put("webPath", getWebPath(uri));
+                            video.put("name", item.name);
+                            video.put("mimeType", item.mimeType);
+                            video.put("size", item.size);
+                            video.put("duration", item.duration);
+                            video.put("width", item.width);
+                            video.put("height", item.height);
+                            video.put("dateAdded", item.dateAdded);
+                            video.put("dateModified", item.dateModified);
+                            videos.put(video);
+                        }
+                        JSObject ret = new JSObject();
+                        ret.put("videos", videos);
+                        ret.put("hasMore", result.hasMore);
+                        call.resolve(ret);
+                    } catch (SecurityException ex) {
+                        call.reject(PERMISSION_DENIED_ERROR_VIDEOS, ex);
+                    } catch (Exception ex) {
+                        call.reject(UNABLE_TO_LIST_VIDEOS, ex);
+                    }
+                }
+        );
+    }
+
+    /**
+     * Cuts a video to a time range without re-encoding. The start moves back to the nearest
+     * keyframe, the result is a new file next to the plugin's captures.
+     */
+    @PluginMethod
+    public void trimVideo(PluginCall call) {
+        final String path = call.getString("path");
+        if (path == null) {
+            call.reject(MISSING_PATH_ERROR);
+            return;
+        }
+        final long startMs = call.getLong("startMs", 0L);
+        final long endMs = call.getLong("endMs", 0L);
+        if (startMs < 0 || endMs < 0 || (endMs > 0 && endMs <= startMs)) {
+            call.reject(INVALID_TRIM_RANGE_ERROR);
+            return;
+        }
+
+        jobScheduler.submit(
+                JOB_TYPE_TRIM,
+                call.getCallbackId(),
+                path,
+                VideoJob.PRIORITY_NORMAL,
+                job -> {
+                    if (job.isCancelled()) {
+                        call.reject(JOB_CANCELLED_ERROR);
+                        return;
+                    }
+                    File output = null;
+                    try (
+                            VideoMetrics.Timer ignored = metrics.time(STAGE_TRIM);
+                            FileChannel in = VideoRecorderUtils.openReadChannel(getContext(), path)
+                    ) {
+                        output = createOutputFile(".mp4");
+                        Mp4Trimmer.Result result;
+                        try (FileChannel out = new FileOutputStream(output).getChannel()) {
+                            result = Mp4Trimmer.trim(in, out, startMs, endMs);
+                            out.force(false);
+                        }
+                        storageManager.register(output, false);
+
+                        Uri uri = Uri.fromFile(output);
+                        JSObject ret = new JSObject();
+                        ret.put("path", uri.toString());
+                        ret.put("webPath", getWebPath(uri));
+                        ret.put("startMs", result.startMs);
+                        ret.put("endMs", result.endMs);
+                        call.resolve(ret);
+                    } catch (IOException | SecurityException ex) {
+                        if (output != null) {
+                            output.delete();
+                        }
+                        call.reject(UNABLE_TO_TRIM_VIDEO, ex);
+                        throw ex;
+                    }
+                }
+        );
+    }
+
+    /**
+     * Splits a video at keyframes into segments of about segmentSeconds without re-encoding,
+     * either standalone MP4 files or the init and media segments of a fragmented MP4, so they
+     * can be uploaded and processed in parallel. The original is left untouched.
+     */
+    @PluginMethod
+    public void segmentVideo(PluginCall call) {
+        final String path = call.getString("path");
+        if (path == null) {
+            call.reject(MISSING_PATH_ERROR);
+            return;
+        }
+        final double segmentSeconds = call.getDouble("segmentSeconds", DEFAULT_SEGMENT_SECONDS);
+        final String format = call.getString("format", Mp4Segmenter.FORMAT_MP4);
+        if (!(segmentSeconds > 0) || !(Mp4Segmenter.FORMAT_MP4.equals(format) || Mp4Segmenter.FORMAT_FMP4.equals(format))) {
+            call.reject(INVALID_SEGMENT_OPTIONS_ERROR);
+            return;
+        }
+        final boolean fragmented = Mp4Segmenter.FORMAT_FMP4.equals(format);
+
+        jobScheduler.submit(
+                JOB_TYPE_SEGMENT,
+                call.getCallbackId(),
+                path,
+                VideoJob.PRIORITY_NORMAL,
+                job -> {
+                    if (job.isCancelled()) {
+                        call.reject(JOB_CANCELLED_ERROR);
+                        return;
+                    }
+                    final List<File> outputs = new ArrayList<>();
+                    try (
+                            VideoMetrics.Timer ignored = metrics.time(STAGE_SEGMENT);
+                            FileChannel in = VideoRecorderUtils.openReadChannel(getContext(), path)
+                    ) {
+                        final long total = in.size();
+                        List<Mp4Trimmer.Result> results = Mp4Segmenter.split(
+                                in,
+                                Math.round(segmentSeconds * 1000),
+                                format,
+                                index -> {
+                                    job.throwIfCancelled();
+                                    long written = 0;
+                                    for (File output : outputs) {
+                                        written += output.length();
+                                    }
+                                    job.setProgress(written, total);
+                                    File output = createOutputFile(fragmented && index >= 0 ? ".m4s" : ".mp4");
+                                    outputs.add(output);
+                                    return new FileOutputStream(output).getChannel();
+                                }
+                        );
+                        job.setProgress(total, total);
+
+                        JSObject ret = new JSObject();
+                        ret.put("format", format);
+                        int first = 0;
+                        if (fragmented) {
+                            File init = outputs.get(0);
+                            storageManager.register(init, false);
+                            ret.put("initPath", Uri.fromFile(init).toString());
+                            first = 1;
+                        }
+                        JSArray segments = new JSArray();
+                        for (int i = 0; i < results.size(); i++) {
+                            File output = outputs.get(first + i);
+                            storageManager.register(output, false);
+                            Uri uri = Uri.fromFile(output);
+                            JSObject segment = new JSObject();
+                            segment.put("path", uri.toString());
+                            if (!fragmented) {
+                                segment.put("webPath", getWebPath(uri));
+                            }
+                            segment.put("startMs", results.get(i).startMs);
+                            segment.put("endMs", results.get(i).endMs);
+                            segment.put("size", output.length());
+                            segments.put(segment);
+                        }
+                        ret.put("segments", segments);
+                        call.resolve(ret);
+                    } catch (IOException | SecurityException | CancellationException ex) {
+                        for (File output : outputs) {
+                            output.delete();
+                        }
+                        call.reject(ex instanceof CancellationException ? JOB_CANCELLED_ERROR : UNABLE_TO_SEGMENT_VIDEO, ex);
+                        throw ex;
+                    }
+                }
+        );
+    }
+
+    /**
+     * Joins videos recorded with the same codec parameters into one, in the order given,
+     * without re-encoding. Clips that differ are refused before anything is written, with the
+     * reason in the error message.
+     */
+    @PluginMethod
+    public void concatVideos(PluginCall call) {
+        final List<String> paths = getPaths(call);
+        if (paths == null) {
+            return;
+        }
+        if (paths.isEmpty()) {
+            call.reject(MISSING_PATHS_ERROR);
+            return;
+        }
+
+        jobScheduler.submit(
+                JOB_TYPE_CONCAT,
+                call.getCallbackId(),
+                paths.get(0),
+                VideoJob.PRIORITY_NORMAL,
+                job -> {
+                    if (job.isCancelled()) {
+                        call.reject(JOB_CANCELLED_ERROR);
+                        return;
+                    }
+                    List<FileChannel> inputs = new ArrayList<>();
+                    File output = null;
+                    try (VideoMetrics.Timer ignored = metrics.time(STAGE_CONCAT)) {
+                        for (String path : paths) {
+                            inputs.add(VideoRecorderUtils.openReadChannel(getContext(), path));
+                        }
+                        Mp4Concatenator concatenator = Mp4Concatenator.read(inputs);
+                        job.throwIfCancelled();
+
+                        output = createOutputFile(".mp4");
+                        long durationMs;
+                        try (FileChannel out = new FileOutputStream(output).getChannel()) {
+                            durationMs = concatenator.write(out);
+                            out.force(false);
+                        }
+                        storageManager.register(output, false);
+
+                        Uri uri = Uri.fromFile(output);
+                        JSObject ret = new JSObject();
+                        ret.put("path", uri.toString());
+                        ret.put("webPath", getWebPath(uri));
+                        ret.put("durationMs", durationMs);
+                        ret.put("size", output.length());
+                        call.resolve(ret);
+                    } catch (Mp4Concatenator.IncompatibleException ex) {
+                        call.reject(INCOMPATIBLE_VIDEOS_ERROR + ": " + ex.getMessage(), ex);
+                        throw ex;
+                    } catch (IOException | SecurityException | CancellationException ex) {
+                        if (output != null) {
+                            output.delete();
+                        }
+                        call.reject(ex instanceof CancellationException ? JOB_CANCELLED_ERROR : UNABLE_TO_CONCAT_VIDEOS, ex);
+                        throw ex;
+                    } finally {
+                        for (FileChannel input : inputs) {
+                            try {
+                                input.close();
+                            } catch (IOException ex) {
+                                // Only read from
+                            }
+                        }
+                    }
+                }
+        );
+    }
+
+    /**
+     * Returns the keyframes of a video's first video track, read from the MP4 sample tables
+     * without decoding anything. Times and offsets come back as base64 encoded little-endian
+     * doubles, which decode straight into a Float64Array.
+     */
+    @PluginMethod
+    public void getSeekIndex(PluginCall call) {
+        final String path = call.getString("path");
+        if (path == null) {
+            call.reject(MISSING_PATH_ERROR);
+            return;
+        }
+
+        workerPool.execute(
+                () -> {
+                    try (VideoMetrics.Timer ignored = metrics.time(STAGE_SEEK_INDEX)) {
+                        Uri uri = VideoRecorderUtils.toUri(path);
+                        VideoRecorderUtils.FileStat stat = VideoRecorderUtils.stat(getContext(), uri);
+                        String key = VideoMetadataCache.key(uri.toString(), stat.size, stat.lastModified);
+                        Mp4SeekIndex index = key != null ? seekIndexCache.get(key) : null;
+                        if (index == null) {
+                            metrics.increment("seekIndex.cacheMisses");
+                            try (FileChannel in = VideoRecorderUtils.openReadChannel(getContext(), path)) {
+                                index = Mp4SeekIndex.read(in);
+                            }
+                            if (key != null) {
+                                seekIndexCache.put(key, index);
+                            }
+                        } else {
+                            metrics.increment("seekIndex.cacheHits");
+                        }
+                        JSObject ret = new JSObject();
+                        ret.put("count", index.getCount());
+                        ret.put("duration", index.getDuration());
+                        ret.put("times", Base64.encodeToString(index.getTimesBytes(), Base64.NO_WRAP));
+                        ret.put("offsets", Base64.encodeToString(index.getOffsetsBytes(), Base64.NO_WRAP));
+                        call.resolve(ret);
+                    } catch (IOException | SecurityException ex) {
+                        call.reject(UNABLE_TO_READ_SEEK_INDEX, ex);
+                    }
+                }
+        );
+    }
+
+    /**
+     * Cancels a queued or running job. The call that started it rejects, except for the
+     * post-processing of a capture, which skips its remaining steps and returns the recording.
+     */
+    @PluginMethod
+    public void cancelJob(PluginCall call) {
+        String jobId = call.getString("jobId");
+        if (jobId == null || !jobScheduler.cancel(jobId)) {
+            call.reject(JOB_NOT_FOUND_ERROR);
+            return;
+        }
+        call.resolve();
+    }
+
+    /**
+     * Lists the jobs that have not finished, in the order they run.
+     */
+    @PluginMethod
+    public void listJobs(PluginCall call) {
+        JSArray jobs = new JSArray();
+        for (VideoJob job : jobScheduler.list()) {
+            jobs.put(toJobObject(job));
+        }
+        JSObject ret = new JSObject();
+        ret.put("jobs", jobs);
+        call.resolve(ret);
+    }
+
+    private JSObject toJobObject(VideoJob job) {
+        JSObject item = new JSObject();
+        item.put("jobId", job.getId());
+        item.put("type", job.getType());
+        item.put("path", job.getLabel());
+        item.put("priority", job.getPriority());
+        item.put("state", job.getState().name().toLowerCase(Locale.ROOT));
+        item.put("bytes", job.getBytes());
+        item.put("total", job.getTotal());
+        item.put("createdAt", job.getCreatedAt());
+        if (job.getState() == VideoJob.State.FAILED && job.getError() != null) {
+            item.put("error", job.getError().getMessage());
+        }
+        return item;
+    }
+
+    /**
+     * Returns the counters and per stage latencies recorded since the plugin loaded or the last
+     * {@link #resetMetrics}.
+     */
+    @PluginMethod
+    public void getMetrics(PluginCall call) {
+        JSObject counters = new JSObject();
+        for (Map.Entry<String, Long> entry : metrics.getCounters().entrySet()) {
+            counters.put(entry.getKey(), entry.getValue());
+        }
+        JSObject stages = new JSObject();
+        for (Map.Entry<String, VideoMetrics.Histogram> entry : metrics.getHistograms().entrySet()) {
+            VideoMetrics.Histogram histogram = entry.getValue();
+            long count = histogram.getCount();
+            JSObject stage = new JSObject();
+            stage.put("count", count);
+            stage.put("totalMs", histogram.getTotalMs());
+            stage.put("meanMs", count > 0 ? histogram.getTotalMs() / count : 0);
+            stage.put("maxMs", histogram.getMaxMs());
+            stage.put("p50Ms", histogram.getPercentileMs(0.5));
+            stage.put("p90Ms", histogram.getPercentileMs(0.9));
+            stage.put("p99Ms", histogram.getPercentileMs(0.99));
+            stages.put(entry.getKey(), stage);
+        }
+        JSObject ret = new JSObject();
+        ret.put("since", metrics.getSince());
+        ret.put("counters", counters);
+        ret.put("stages", stages);
+        call.resolve(ret);
+    }
+
+    @PluginMethod
+    public void resetMetrics(PluginCall call) {
+        metrics.reset();
+        call.resolve();
+    }
+
+    private Map<String, String> getHeaders(PluginCall call) {
+        Map<String, String> headers = new LinkedHashMap<>();
+        JSObject object = call.getObject("headers");
+        if (object != null) {
+            Iterator<String> keys = object.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                headers.put(key, object.getString(key));
+            }
+        }
+        return headers;
+    }
+
+    /**
+     * Reads the "paths" option, rejecting the call if it is missing or malformed.
+     */
+    private List<String> getPaths(PluginCall call) {
+        JSArray paths = call.getArray("paths");
+        if (paths == null) {
+            call.reject(MISSING_PATHS_ERROR);
+            return null;
+        }
+        List<String> ret = new ArrayList<>();
+        try {
+            for (int i = 0; i < paths.length(); i++) {
+                ret.add(paths.getString(i));
+            }
+        } catch (JSONException ex) {
+            call.reject(MISSING_PATHS_ERROR, ex);
+            return null;
+        }
+        return ret;
+    }
+
     private boolean checkCameraPermissions(PluginCall call) {
         // if the manifest does not contain the camera permissions key, we don't need to ask the user
-        boolean needCameraPerms = isPermissionDeclared(CAMERA);
+        boolean needCameraPerms = capabilities.get().cameraPermissionDeclared;
         boolean hasCameraPerms = !needCameraPerms || getPermissionState(CAMERA) == PermissionState.GRANTED;
 
         if (!hasCameraPerms) {
@@ -160,111 +1283,432 @@ public class VideoRecorderPlugin extends Plugin {
     }
 
     private boolean checkVideosPermission(PluginCall call) {
+        String alias = getVideosPermissionAlias();
+        if (getPermissionState(alias) != PermissionState.GRANTED) {
+            requestPermissionForAlias(alias, call, "videoPermissionsCallback");
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * The permission alias that grants read access to the device's videos on this SDK version.
+     */
+    private String getVideosPermissionAlias() {
         if (Build.VERSION.SDK_INT < Build.VERSION_CODES.R) {
-            if (getPermissionState(VIDEOS) != PermissionState.GRANTED) {
-                requestPermissionForAlias(VIDEOS, call, "videoPermissionsCallback");
-                return false;
+            return VIDEOS;
+        } else if (Build.VERSION.SDK_INT < Build.VERSION_CODES.TIRAMISU) {
+            return READ_EXTERNAL_STORAGE;
+        }
+        return MEDIA;
+    }
+
+    /**
+     * Completes the plugin call after a camera permission request
+     *
+     * @see #getVideo(PluginCall)
+     * @param call the plugin call
+     */
+    @PermissionCallback
+    private void videoPermissionsCallback(PluginCall call) {
+        if (call.getMethodName().equals("pickVideos")) {
+            openVideos(call, true, true);
+        } else if (call.getMethodName().equals("listVideos")) {
+            if (getPermissionState(getVideosPermissionAlias()) != PermissionState.GRANTED) {
+                call.reject(PERMISSION_DENIED_ERROR_VIDEOS);
+                return;
+            }
+            listVideos(call);
+        } else {
+            VideoCaptureSession session = getSession(call);
+            if (session.getSettings().getSource() == VideoSource.CAMERA && getPermissionState(CAMERA) != PermissionState.GRANTED) {
+                Logger.debug(getLogTag(), "User denied camera permission: " + getPermissionState(CAMERA).toString());
+                sessions.remove(call.getCallbackId());
+                call.reject(PERMISSION_DENIED_ERROR_CAMERA);
+                return;
+            } else if (session.getSettings().getSource() == VideoSource.VIDEOS) {
+                PermissionState permissionState = getPermissionState(getVideosPermissionAlias());
+                if (permissionState != PermissionState.GRANTED) {
+                    Logger.debug(getLogTag(), "User denied v ideos permission: " + permissionState.toString());
+                    sessions.remove(call.getCallbackId());
+                    call.reject(PERMISSION_DENIED_ERROR_VIDEOS);
+                    return;
+                }
+            }
+            doShow(call, session);
+        }
+    }
+
+
+    @Override
+    protected void requestPermissionForAliases(@NonNull String[] aliases, @NonNull PluginCall call, @NonNull String callbackName) {
+        // If the SDK version is 33 or higher, use the MEDIA alias permissions instead.
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+            for (int i = 0; i < aliases.length; i++) {
+                if (aliases[i].equals(VIDEOS)) {
+                    aliases[i] = MEDIA;
+                }
+            }
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            for (int i = 0; i < aliases.length; i++) {
+                if (aliases[i].equals(VIDEOS)) {
+                    aliases[i] = READ_EXTERNAL_STORAGE;
+                }
+            }
+        }
+        super.requestPermissionForAliases(aliases, call, callbackName);
+    }
+
+    private VideoRecorderSettings getSettings(PluginCall call) {
+        VideoRecorderSettings settings = new VideoRecorderSettings();
+
+        try {
+            settings.setSource(VideoSource.valueOf(call.getString("source", VideoSource.PROMPT.getSource())));
+        } catch (IllegalArgumentException ex) {
+            settings.setSource(VideoSource.PROMPT);
+        }
+        settings.setMaxDurationSeconds(Math.max(0, call.getInt("maxDurationSeconds", 0)));
+        settings.setMaxSizeBytes(Math.max(0, call.getLong("maxSizeBytes", 0L)));
+        settings.setQuality(
+                "low".equals(call.getString("quality", "high")) ? VideoRecorderSettings.QUALITY_LOW : VideoRecorderSettings.QUALITY_HIGH
+        );
+        settings.setBackend(
+                "inProcess".equals(call.getString("backend", "intent")) ? VideoRecorderSettings.BACKEND_IN_PROCESS : VideoRecorderSettings.BACKEND_INTENT
+        );
+        settings.setFastStart(call.getBoolean("fastStart", false));
+        settings.setDetectDuplicates(call.getBoolean("detectDuplicates", false));
+        settings.setSaveToGallery(call.getBoolean("saveToGallery", false));
+
+        return settings;
+    }
+
+    /**
+     * The session of a call, started from the call's options if it has none yet.
+     */
+    private VideoCaptureSession getSession(PluginCall call) {
+        VideoCaptureSession session = sessions.get(call.getCallbackId());
+        if (session == null) {
+            session = sessions.start(call.getCallbackId(), getSettings(call));
+        }
+        return session;
+    }
+
+    public void openCamera(final PluginCall call) {
+        if (checkCameraPermissions(call)) {
+            // Only one recording at a time, a later one starts when the camera is free
+            captureQueue.submit(call);
+        }
+    }
+
+    /**
+     * Connects the capture queue to the plugin: creates each capture's output and ends the
+     * call with the recording's outcome.
+     */
+    private class CaptureDelegate implements VideoCaptureQueue.Delegate {
+
+        @Override
+        public VideoCaptureQueue.Capture prepare(PluginCall call) {
+            return prepareCapture(call, getSession(call));
+        }
+
+        @Override
+        public void onRecorded(PluginCall call, Uri output) {
+            finishCapture(call, getSession(call), output);
+        }
+
+        @Override
+        public void onCancelled(PluginCall call) {
+            metrics.endSpan(STAGE_CAPTURE, call.getCallbackId());
+            metrics.increment("capture.cancelled");
+            rejectCapture(call, getSession(call), "User cancelled videos app", null);
+        }
+
+        @Override
+        public void onError(PluginCall call, String message, Exception ex) {
+            metrics.endSpan(STAGE_CAPTURE, call.getCallbackId());
+            metrics.increment("capture.failed");
+            rejectCapture(call, getSession(call), message, ex);
+        }
+
+        @Override
+        public void resume(PluginCall call) {
+            getBridge().executeOnMainThread(() -> openCamera(call));
+        }
+    }
+
+    private VideoCaptureQueue.Capture prepareCapture(PluginCall call, VideoCaptureSession session) {
+        final VideoRecorderSettings settings = session.getSettings();
+        final RecorderBackend backend = getRecorderBackend(settings);
+        if (!backend.isAvailable()) {
+            rejectCapture(call, session, NO_CAMERA_ACTIVITY_ERROR, null);
+            return null;
+        }
+
+        final Uri output;
+        final String outputPath;
+        try {
+            File outputDir;
+            if (settings.isSaveToGallery() && VideoGallery.canRecordInto()) {
+                // Recorded straight into the gallery, other apps only see it once it is finished
+                try {
+                    output = gallery.createPending();
+                } catch (IOException | RuntimeException ex) {
+                    rejectCapture(call, session, VIDE_GALLERY_SAVE_ERROR, ex);
+                    return null;
+                }
+                outputPath = output.toString();
+                // Shared storage is on the same volume as the app's external files
+                outputDir = getContext().getExternalFilesDir(null);
+            } else {
+                File videoFile;
+                File storageDir = capabilities.get().storageDir;
+                if (storageDir != null && storageDir.isDirectory()) {
+                    videoFile = VideoFiles.createVideoFile(storageDir, ".mp4");
+                } else {
+                    videoFile = VideoRecorderUtils.createVideoFile(getActivity());
+                }
+                storageManager.register(videoFile, true);
+                output = Uri.fromFile(videoFile);
+                outputPath = videoFile.getAbsolutePath();
+                outputDir = videoFile.getParentFile();
+            }
+            session.setOutputPath(outputPath);
+
+            VideoCaptureAdmission.Decision decision = VideoCaptureAdmission.check(
+                    settings,
+                    VideoRecorderUtils.getAvailableBytes(outputDir),
+                    VideoRecorderUtils.getCaptureBitrate(VideoRecorderSettings.QUALITY_HIGH),
+                    VideoRecorderUtils.getCaptureBitrate(VideoRecorderSettings.QUALITY_LOW)
+            );
+            if (!decision.admitted) {
+                rejectCapture(call, session, INSUFFICIENT_STORAGE_ERROR, null);
+                return null;
             }
-        } else if (Build.VERSION.SDK_INT < Build.VERSION_CODES.TIRAMISU) {
-            if (getPermissionState(READ_EXTERNAL_STORAGE) != PermissionState.GRANTED) {
-                requestPermissionForAlias(READ_EXTERNAL_STORAGE, call, "videoPermissionsCallback");
-                return false;
+            if (decision.quality != settings.getQuality()) {
+                Logger.debug(getLogTag(), "Not enough free space for high quality, recording in low quality");
             }
-        } else if (getPermissionState(MEDIA) != PermissionState.GRANTED) {
-            requestPermissionForAlias(MEDIA, call, "videoPermissionsCallback");
-            return false;
+            settings.setQuality(decision.quality);
+            settings.setMaxSizeBytes(decision.sizeLimit);
+        } catch (Exception ex) {
+            rejectCapture(call, session, VIDEO_FILE_SAVE_ERROR, ex);
+            return null;
         }
 
-        return true;
+        // From here until the caller has the video, a restart picks the capture up again
+        journal.begin(outputPath, VideoWorkJournal.KIND_CAPTURE, toJournalData(settings));
+
+        metrics.beginSpan(STAGE_CAPTURE, call.getCallbackId());
+        return new VideoCaptureQueue.Capture(backend, output, settings);
+    }
+
+    private JSObject toJournalData(VideoRecorderSettings settings) {
+        JSObject data = new JSObject();
+        data.put("fastStart", settings.isFastStart());
+        data.put("detectDuplicates", settings.isDetectDuplicates());
+        data.put("saveToGallery", settings.isSaveToGallery());
+        return data;
     }
 
     /**
-     * Completes the plugin call after a camera permission request
-     *
-     * @see #getVideo(PluginCall)
-     * @param call the plugin call
+     * Resumes the work an earlier run journaled but never finished, delivering the results
+     * through {@link #EVENT_VIDEO_RECOVERED} events that are kept until a listener is added.
      */
-    @PermissionCallback
-    private void videoPermissionsCallback(PluginCall call) {
-        if (call.getMethodName().equals("pickVideos")) {
-            openVideos(call, true, true);
-        } else {
-            if (settings.getSource() == VideoSource.CAMERA && getPermissionState(CAMERA) != PermissionState.GRANTED) {
-                Logger.debug(getLogTag(), "User denied camera permission: " + getPermissionState(CAMERA).toString());
-                call.reject(PERMISSION_DENIED_ERROR_CAMERA);
-                return;
-            } else if (settings.getSource() == VideoSource.VIDEOS) {
-                String alias = MEDIA;
-                if (Build.VERSION.SDK_INT < Build.VERSION_CODES.R) {
-                    alias = VIDEOS;
-                } else if (Build.VERSION.SDK_INT < Build.VERSION_CODES.TIRAMISU) {
-                    alias = READ_EXTERNAL_STORAGE;
-                }
-                PermissionState permissionState = getPermissionState(alias);
-                if (permissionState != PermissionState.GRANTED) {
-                    Logger.debug(getLogTag(), "User denied v ideos permission: " + permissionState.toString());
-                    call.reject(PERMISSION_DENIED_ERROR_VIDEOS);
-                    return;
+    private void recoverWork() {
+        for (VideoWorkJournal.Entry entry : journal.getUnfinished()) {
+            if (VideoWorkJournal.KIND_CAPTURE.equals(entry.kind)) {
+                if (!sessions.hasOutputPath(entry.id)) {
+                    recoverCapture(entry);
                 }
+            } else if (VideoWorkJournal.KIND_PICK.equals(entry.kind)) {
+                recoverPick(entry);
+            } else {
+                journal.end(entry.id);
             }
-            doShow(call);
         }
     }
 
+    private void recoverCapture(final VideoWorkJournal.Entry entry) {
+        if (VideoRecorderUtils.getLength(getContext(), VideoRecorderUtils.toUri(entry.id)) == 0) {
+            // The camera app was closed without recording anything
+            deleteCaptureOutput(entry.id);
+            journal.end(entry.id);
+            return;
+        }
+        jobScheduler.submit(
+                JOB_TYPE_PROCESS_CAPTURE,
+                null,
+                entry.id,
+                VideoJob.PRIORITY_LOW,
+                job -> {
+                    JSObject event = new JSObject();
+                    event.put("source", VideoWorkJournal.KIND_CAPTURE);
+                    // Recording in process stopped with the process, before the file was finalized
+                    String error = RECORDING_INTERRUPTED_ERROR;
+                    if (isCompleteMp4(entry.id)) {
+                        try {
+                            event.put(
+                                    "video",
+                                    completeCapture(
+                                            job,
+                                            entry.id,
+                                            entry.data.optBoolean("fastStart"),
+                                            entry.data.optBoolean("detectDuplicates"),
+                                            entry.data.optBoolean("saveToGallery")
+                                    )
+                            );
+                            error = null;
+                        } catch (IOException ex) {
+                            Logger.error(getLogTag(), VIDE_GALLERY_SAVE_ERROR, ex);
+                            error = VIDE_GALLERY_SAVE_ERROR;
+                        }
+                    }
+                    if (error != null) {
+                        deleteCaptureOutput(entry.id);
+                        event.put("error", error);
+                    }
+                    notifyListeners(EVENT_VIDEO_RECOVERED, event, true);
+                    journal.end(entry.id);
+                }
+        );
+    }
 
-    @Override
-    protected void requestPermissionForAliases(@NonNull String[] aliases, @NonNull PluginCall call, @NonNull String callbackName) {
-        // If the SDK version is 33 or higher, use the MEDIA alias permissions instead.
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
-            for (int i = 0; i < aliases.length; i++) {
-                if (aliases[i].equals(VIDEOS)) {
-                    aliases[i] = MEDIA;
+    private void recoverPick(final VideoWorkJournal.Entry entry) {
+        final boolean importToAppStorage = entry.data.optBoolean("importToAppStorage");
+        final boolean detectDuplicates = entry.data.optBoolean("detectDuplicates");
+        JSONArray uris = entry.data.optJSONArray("uris");
+        List<Uri> remaining = new ArrayList<>();
+        if (uris != null) {
+            for (int i = 0; i < uris.length(); i++) {
+                String uri = uris.optString(i, null);
+                if (uri == null) {
+                    continue;
                 }
-            }
-        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
-            for (int i = 0; i < aliases.length; i++) {
-                if (aliases[i].equals(VIDEOS)) {
-                    aliases[i] = READ_EXTERNAL_STORAGE;
+                JSONObject result = entry.results.get(uri);
+                if (result != null) {
+                    // Finished before the restart, but the caller never got it
+                    notifyVideoRecovered(entry.id, uri, result, null);
+                } else {
+                    remaining.add(Uri.parse(uri));
                 }
             }
         }
-        super.requestPermissionForAliases(aliases, call, callbackName);
+        VideoBatchProcessor.processAsCompleted(
+                jobScheduler.executor(JOB_TYPE_IMPORT, entry.id, VideoJob.PRIORITY_LOW),
+                remaining,
+                videoUri -> processJournaledVideo(entry.id, videoUri, importToAppStorage, detectDuplicates),
+                new VideoBatchProcessor.ItemListener<JSObject>() {
+                    @Override
+                    public void onItem(int index, JSObject result, Exception error) {
+                        String message = null;
+                        if (error instanceof CancellationException) {
+                            message = JOB_CANCELLED_ERROR;
+                        } else if (error instanceof SecurityException) {
+                            // The read permission granted by the picker did not survive the restart
+                            message = "SecurityException";
+                        } else if (error != null) {
+                            message = importToAppStorage ? VIDEO_IMPORT_ERROR : UNABLE_TO_PROCESS_VIDEO;
+                        }
+                        notifyVideoRecovered(entry.id, remaining.get(index).toString(), result, message);
+                    }
+
+                    @Override
+                    public void onComplete(int count, int failed) {
+                        journal.end(entry.id);
+                    }
+                }
+        );
     }
 
-    private VideoRecorderSettings getSettings(PluginCall call) {
-        VideoRecorderSettings settings = new VideoRecorderSettings();
+    private void notifyVideoRecovered(String batchId, String path, JSONObject video, String error) {
+        JSObject event = new JSObject();
+        event.put("source", VideoWorkJournal.KIND_PICK);
+        event.put("batchId", batchId);
+        event.put("originalPath", path);
+        if (error != null) {
+            event.put("error", error);
+        } else {
+            event.put("video", video);
+        }
+        notifyListeners(EVENT_VIDEO_RECOVERED, event, true);
+    }
 
-        try {
-            settings.setSource(VideoSource.valueOf(call.getString("source", VideoSource.PROMPT.getSource())));
-        } catch (IllegalArgumentException ex) {
-            settings.setSource(VideoSource.PROMPT);
+    /**
+     * Whether the file is an MP4 whose metadata was written, which a recording cut short by
+     * the process dying is not.
+     */
+    private boolean isCompleteMp4(String path) {
+        try (FileChannel channel = VideoRecorderUtils.openReadChannel(getContext(), path)) {
+            return Mp4File.scan(channel).first("moov") != null;
+        } catch (IOException ex) {
+            return false;
         }
+    }
 
-        return settings;
+    /**
+     * Ends a capture that produced no video: deletes its file, frees the camera for the next
+     * queued capture and rejects the call.
+     */
+    private void rejectCapture(PluginCall call, VideoCaptureSession session, String message, Exception ex) {
+        deleteVideoFile(session);
+        if (session.getOutputPath() != null) {
+            journal.end(session.getOutputPath());
+        }
+        sessions.remove(call.getCallbackId());
+        onRecordingFinished(call);
+        call.reject(message, ex);
     }
 
-    public void openCamera(final PluginCall call) {
-        if (checkCameraPermissions(call)) {
-            Intent captureVideoIntent = new Intent(MediaStore.ACTION_VIDEO_CAPTURE);
-            if (captureVideoIntent.resolveActivity(getContext().getPackageManager()) != null) {
-                // If we will be saving the video, send the target file along
-                try {
-                    String appId = getAppId();
-                    File photoFile = VideoRecorderUtils.createVideoFile(getActivity());
-                    videoFileSavePath = photoFile.getAbsolutePath();
-                    // TODO: Verify provider config exists
-                    videoFileUri = FileProvider.getUriForFile(getActivity(), appId + ".fileprovider", photoFile);
-                    captureVideoIntent.putExtra(MediaStore.EXTRA_OUTPUT, videoFileUri);
-                } catch (Exception ex) {
-                    call.reject(VIDEO_FILE_SAVE_ERROR, ex);
-                    return;
-                }
+    /**
+     * Frees the camera once the call's recording has ended and starts the next queued capture.
+     */
+    private void onRecordingFinished(PluginCall call) {
+        captureQueue.finish(call);
+    }
 
-                startActivityForResult(call, captureVideoIntent, "processCameraVideo");
-            } else {
-                call.reject(NO_CAMERA_ACTIVITY_ERROR);
-            }
+    private RecorderBackend getRecorderBackend(VideoRecorderSettings settings) {
+        if (settings.getBackend() == VideoRecorderSettings.BACKEND_IN_PROCESS) {
+            return inProcessRecorderBackend;
         }
+        return intentRecorderBackend;
+    }
+
+    @VisibleForTesting
+    void setInProcessRecorderBackend(RecorderBackend backend) {
+        inProcessRecorderBackend = backend;
+    }
+
+    /**
+     * Gets the next capture ready ahead of time: makes sure the device capabilities are cached
+     * and, for the in-process backend, opens the camera if it may already be used.
+     */
+    @PluginMethod
+    public void prewarm(final PluginCall call) {
+        final boolean inProcess = "inProcess".equals(call.getString("backend", "intent"));
+        workerPool.execute(
+                () -> {
+                    capabilities.get();
+                    if (!inProcess || !(inProcessRecorderBackend instanceof MediaRecorderBackend)) {
+                        call.resolve();
+                        return;
+                    }
+                    // Opening the camera without the permission would fail, it is requested on getVideo
+                    boolean cameraAllowed = !capabilities.get().cameraPermissionDeclared || getPermissionState(CAMERA) == PermissionState.GRANTED;
+                    if (cameraAllowed && inProcessRecorderBackend.isAvailable()) {
+                        ((MediaRecorderBackend) inProcessRecorderBackend).warmUp();
+                    }
+                    call.resolve();
+                }
+        );
+    }
+
+    /**
+     * Finishes a recording started with the in-process backend.
+     */
+    @PluginMethod
+    public void stopRecording(PluginCall call) {
+        inProcessRecorderBackend.stop();
+        call.resolve();
     }
 
     public void openVideos(final PluginCall call) {
@@ -272,10 +1716,17 @@ public class VideoRecorderPlugin extends Plugin {
     }
 
     private void openVideos(final PluginCall call, boolean multiple, boolean skipPermission) {
+        if (!capabilities.get().canPick) {
+            sessions.remove(call.getCallbackId());
+            call.reject(NO_VIDEO_ACTIVITY_ERROR);
+            return;
+        }
         if (skipPermission || checkVideosPermission(call)) {
             Intent intent = new Intent(Intent.ACTION_PICK);
             intent.putExtra(Intent.EXTRA_ALLOW_MULTIPLE, multiple);
             intent.setType("video/*");
+            metrics.beginSpan(STAGE_PICKER, call.getCallbackId());
+            sessions.onActivityStarted(call.getCallbackId());
             try {
                 if (multiple) {
                     intent.putExtra("multi-pick", multiple);
@@ -285,6 +1736,8 @@ public class VideoRecorderPlugin extends Plugin {
                     startActivityForResult(call, intent, "processPickedVideo");
                 }
             } catch (ActivityNotFoundException ex) {
+                metrics.endSpan(STAGE_PICKER, call.getCallbackId());
+                sessions.remove(call.getCallbackId());
                 call.reject(NO_VIDEO_ACTIVITY_ERROR);
             }
         }
@@ -292,100 +1745,223 @@ public class VideoRecorderPlugin extends Plugin {
 
     @ActivityCallback
     public void processCameraVideo(PluginCall call, ActivityResult result) {
-        settings = getSettings(call);
-        if (videoFileSavePath == null) {
+        if (intentRecorderBackend.onActivityResult(call, result)) {
+            return;
+        }
+
+        // The process was recreated while the camera app was open, finish from the saved session
+        VideoCaptureSession session = sessions.getForActivityResult(call.getCallbackId());
+        if (session == null || session.getOutputPath() == null) {
+            sessions.remove(call.getCallbackId());
+            onRecordingFinished(call);
             call.reject(VIDEO_PROCESS_NO_FILE_ERROR);
             return;
         }
-        
-        File f = new File(videoFileSavePath);
-        Uri contentUri = Uri.fromFile(f);
 
-        if (!f.exists()) {
-            call.reject("User cancelled videos app");
+        Uri output = VideoRecorderUtils.toUri(session.getOutputPath());
+
+        // The output is created before the camera app opens, so a cancelled capture leaves it empty
+        if (VideoRecorderUtils.getLength(getContext(), output) == 0) {
+            metrics.endSpan(STAGE_CAPTURE, call.getCallbackId());
+            metrics.increment("capture.cancelled");
+            rejectCapture(call, session, "User cancelled videos app", null);
+            return;
+        }
+
+        finishCapture(call, session, output);
+        onRecordingFinished(call);
+    }
+
+    /**
+     * Runs the post-capture stages on a recording, then hands it to the caller.
+     */
+    private void finishCapture(final PluginCall call, final VideoCaptureSession session, final Uri output) {
+        metrics.endSpan(STAGE_CAPTURE, call.getCallbackId());
+        metrics.increment("capture.recorded");
+        metrics.add("capture.bytes", VideoRecorderUtils.getLength(getContext(), output));
+        final String outputPath = session.getOutputPath();
+        final boolean fastStart = session.getSettings().isFastStart();
+        final boolean detectDuplicates = session.getSettings().isDetectDuplicates();
+        final boolean saveToGallery = session.getSettings().isSaveToGallery();
+        File file = VideoRecorderUtils.toFile(output);
+        if (file != null && !fastStart && !detectDuplicates && !saveToGallery) {
+            storageManager.commit(file);
+            returnResult(call, output);
+            journal.end(outputPath);
             return;
         }
+        jobScheduler.submit(
+                JOB_TYPE_PROCESS_CAPTURE,
+                call.getCallbackId(),
+                outputPath,
+                VideoJob.PRIORITY_HIGH,
+                job -> {
+                    JSObject ret;
+                    try {
+                        ret = completeCapture(job, outputPath, fastStart, detectDuplicates, saveToGallery);
+                    } catch (IOException ex) {
+                        deleteCaptureOutput(outputPath);
+                        journal.end(outputPath);
+                        sessions.remove(call.getCallbackId());
+                        call.reject(VIDE_GALLERY_SAVE_ERROR, ex);
+                        return;
+                    }
+                    call.resolve(ret);
+                    sessions.remove(call.getCallbackId());
+                    journal.end(outputPath);
+                }
+        );
+    }
+
+    /**
+     * Runs the post-capture stages on a finished recording and returns its result, path and
+     * webPath included. A recording made into a pending gallery entry is published, which
+     * throws if MediaStore refuses; fastStart is skipped for it, as moving moov would write the
+     * whole video a second time. On versions that can't record into the gallery, saveToGallery
+     * copies the finished file there instead.
+     */
+    private JSObject completeCapture(VideoJob job, String outputPath, boolean fastStart, boolean detectDuplicates, boolean saveToGallery)
+            throws IOException {
+        Uri uri = VideoRecorderUtils.toUri(outputPath);
+        boolean inGallery = VideoGallery.isGalleryPath(outputPath);
+        JSObject ret;
+        if (inGallery) {
+            try (VideoMetrics.Timer ignored = metrics.time(STAGE_SAVE_TO_GALLERY)) {
+                gallery.publish(uri);
+            }
+            ret = new JSObject();
+            ret.put("saved", true);
+        } else {
+            File file = VideoRecorderUtils.toFile(uri);
+            ret = postProcessCapture(job, file, fastStart);
+            if (saveToGallery) {
+                uri = copyToGallery(file, ret);
+                inGallery = VideoRecorderUtils.toFile(uri) == null;
+            }
+        }
+        if (detectDuplicates && !job.isCancelled()) {
+            try {
+                putHash(ret, hashVideo(uri), uri, !inGallery);
+            } catch (IOException ex) {
+                Logger.error(getLogTag(), "Unable to hash " + uri, ex);
+            }
+        }
+        ret.put("path", uri.toString());
+        ret.put("webPath", getWebPath(uri));
+        return ret;
+    }
+
+    /**
+     * Copies a capture into the gallery on versions that can't record into it, then deletes the
+     * plugin's file. Without the storage permission the capture stays in app storage and saved
+     * is false.
+     */
+    private Uri copyToGallery(File file, JSObject ret) {
+        try (VideoMetrics.Timer ignored = metrics.time(STAGE_SAVE_TO_GALLERY)) {
+            Uri uri = gallery.copy(file);
+            if (!storageManager.delete(file.getAbsolutePath())) {
+                file.delete();
+                onVideoFileChanged(file);
+            }
+            ret.put("saved", true);
+            return uri;
+        } catch (IOException | RuntimeException ex) {
+            Logger.error(getLogTag(), VIDE_GALLERY_SAVE_ERROR, ex);
+            ret.put("saved", false);
+            return Uri.fromFile(file);
+        }
+    }
 
-        returnResult(call, contentUri);
+    /**
+     * Runs the optional fast start step and marks the recording as finished. Cancelling the
+     * job skips it, the recording itself is always kept.
+     */
+    private JSObject postProcessCapture(VideoJob job, File file, boolean fastStart) {
+        if (fastStart && !job.isCancelled()) {
+            try (VideoMetrics.Timer ignored = metrics.time(STAGE_FAST_START)) {
+                if (Mp4FastStart.process(file)) {
+                    onVideoFileChanged(file);
+                }
+            } catch (IOException ex) {
+                // The recording itself is fine, it just can't start streaming early
+                Logger.error(getLogTag(), "Unable to move moov box to the start of " + file, ex);
+            }
+        }
+        storageManager.commit(file);
+        return new JSObject();
     }
 
     @ActivityCallback
     public void processPickedVideo(PluginCall call, ActivityResult result) {
-        settings = getSettings(call);
+        metrics.endSpan(STAGE_PICKER, call.getCallbackId());
+        VideoCaptureSession session = sessions.getForActivityResult(call.getCallbackId());
+        if (session == null) {
+            session = sessions.start(call.getCallbackId(), getSettings(call));
+        }
         Intent data = result.getData();
         if (data == null) {
+            sessions.remove(call.getCallbackId());
             call.reject("No video picked");
             return;
         }
 
         Uri u = data.getData();
 
-        videoPickedContentUri = u;
+        session.setPickedUri(u == null ? null : u.toString());
 
         processPickedVideo(u, call);
     }
 
     @ActivityCallback
     public void processPickedVideos(PluginCall call, ActivityResult result) {
+        metrics.endSpan(STAGE_PICKER, call.getCallbackId());
+        // The call's options are all that's needed from here on
+        sessions.remove(call.getCallbackId());
         Intent data = result.getData();
         if (data != null) {
-            Executor executor = Executors.newSingleThreadExecutor();
-            executor.execute(
-                    () -> {
-                        JSObject ret = new JSObject();
-                        JSArray photos = new JSArray();
-                        if (data.getClipData() != null) {
-                            int count = data.getClipData().getItemCount();
-                            for (int i = 0; i < count; i++) {
-                                Uri videoUri = data.getClipData().getItemAt(i).getUri();
-                                JSObject processResult = processPickedVideos(videoUri);
+            List<Uri> videoUris = getPickedVideoUris(data);
+            final boolean importToAppStorage = call.getBoolean("importToAppStorage", false);
+            final boolean detectDuplicates = call.getBoolean("detectDuplicates", false);
+            final String batchId = call.getCallbackId();
+            beginPickJournal(batchId, videoUris, importToAppStorage, detectDuplicates);
+            if (call.getBoolean("stream", false)) {
+                streamPickedVideos(call, videoUris, importToAppStorage, detectDuplicates);
+                return;
+            }
+            VideoBatchProcessor.processInOrder(
+                    jobScheduler.executor(JOB_TYPE_IMPORT, batchId, VideoJob.PRIORITY_NORMAL),
+                    videoUris,
+                    videoUri -> processJournaledVideo(batchId, videoUri, importToAppStorage, detectDuplicates),
+                    new VideoBatchProcessor.Listener<JSObject>() {
+                        @Override
+                        public void onComplete(List<JSObject> results) {
+                            journal.end(batchId);
+                            JSObject ret = new JSObject();
+                            JSArray videos = new JSArray();
+                            for (JSObject processResult : results) {
                                 if (processResult.getString("error") != null && !processResult.getString("error").isEmpty()) {
                                     call.reject(processResult.getString("error"));
                                     return;
-                                } else {
-                                    photos.put(processResult);
                                 }
+                                videos.put(processResult);
                             }
-                        } else if (data.getData() != null) {
-                            Uri videoUri = data.getData();
-                            JSObject processResult = processPickedVideos(videoUri);
-                            if (processResult.getString("error") != null && !processResult.getString("error").isEmpty()) {
-                                call.reject(processResult.getString("error"));
-                                return;
+                            ret.put("videos", videos);
+                            call.resolve(ret);
+                        }
+
+                        @Override
+                        public void onError(Exception ex) {
+                            journal.end(batchId);
+                            if (ex instanceof CancellationException) {
+                                call.reject(JOB_CANCELLED_ERROR, ex);
+                            } else if (ex instanceof SecurityException) {
+                                call.reject("SecurityException");
+                            } else if (ex instanceof IOException && importToAppStorage) {
+                                call.reject(VIDEO_IMPORT_ERROR, ex);
                             } else {
-                                photos.put(processResult);
-                            }
-                        } else if (data.getExtras() != null) {
-                            Bundle bundle = data.getExtras();
-                            if (bundle.keySet().contains("selectedItems")) {
-                                ArrayList<Parcelable> fileUris;
-                                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
-                                    fileUris = bundle.getParcelableArrayList("selectedItems", Parcelable.class);
-                                } else {
-                                    fileUris = getLegacyParcelableArrayList(bundle, "selectedItems");
-                                }
-                                if (fileUris != null) {
-                                    for (Parcelable fileUri : fileUris) {
-                                        if (fileUri instanceof Uri) {
-                                            Uri videoUri = (Uri) fileUri;
-                                            try {
-                                                JSObject processResult = processPickedVideos(videoUri);
-                                                if (processResult.getString("error") != null && !processResult.getString("error").isEmpty()) {
-                                                    call.reject(processResult.getString("error"));
-                                                    return;
-                                                } else {
-                                                    photos.put(processResult);
-                                                }
-                                            } catch (SecurityException ex) {
-                                                call.reject("SecurityException");
-                                            }
-                                        }
-                                    }
-                                }
+                                call.reject(UNABLE_TO_PROCESS_VIDEO, ex);
                             }
                         }
-                        ret.put("videos", photos);
-                        call.resolve(ret);
                     }
             );
         } else {
@@ -393,48 +1969,342 @@ public class VideoRecorderPlugin extends Plugin {
         }
     }
 
+    /**
+     * Resolves the call with the number of picked videos straight away and then emits every video
+     * through a {@link #EVENT_VIDEO_PICKED} event as soon as it has been processed, followed by a
+     * single {@link #EVENT_VIDEO_PICK_FINISHED} summary event.
+     */
+    private void streamPickedVideos(PluginCall call, List<Uri> videoUris, final boolean importToAppStorage, final boolean detectDuplicates) {
+        final String batchId = call.getCallbackId();
+        JSObject ret = new JSObject();
+        ret.put("batchId", batchId);
+        ret.put("count", videoUris.size());
+        ret.put("videos", new JSArray());
+        call.resolve(ret);
+
+        VideoBatchProcessor.processAsCompleted(
+                jobScheduler.executor(JOB_TYPE_IMPORT, batchId, VideoJob.PRIORITY_NORMAL),
+                videoUris,
+                videoUri -> {
+                    JSObject processResult = processJournaledVideo(batchId, videoUri, importToAppStorage, detectDuplicates);
+                    if (processResult.getString("error") != null && !processResult.getString("error").isEmpty()) {
+                        throw new IllegalArgumentException(processResult.getString("error"));
+                    }
+                    return processResult;
+                },
+                new VideoBatchProcessor.ItemListener<JSObject>() {
+                    @Override
+                    public void onItem(int index, JSObject result, Exception error) {
+                        JSObject event = new JSObject();
+                        event.put("batchId", batchId);
+                        event.put("index", index);
+                        if (error instanceof CancellationException) {
+                            event.put("error", JOB_CANCELLED_ERROR);
+                        } else if (error instanceof SecurityException) {
+                            event.put("error", "SecurityException");
+                        } else if (error instanceof IOException) {
+                            event.put("error", importToAppStorage ? VIDEO_IMPORT_ERROR : UNABLE_TO_PROCESS_VIDEO);
+                        } else if (error != null) {
+                            event.put("error", error.getMessage() != null ? error.getMessage() : UNABLE_TO_PROCESS_VIDEO);
+                        } else {
+                            event.put("video", result);
+                        }
+                        notifyListeners(EVENT_VIDEO_PICKED, event);
+                    }
+
+                    @Override
+                    public void onComplete(int count, int failed) {
+                        journal.end(batchId);
+                        JSObject event = new JSObject();
+                        event.put("batchId", batchId);
+                        event.put("count", count);
+                        event.put("failed", failed);
+                        notifyListeners(EVENT_VIDEO_PICK_FINISHED, event);
+                    }
+                }
+        );
+    }
+
+    /**
+     * Collects the picked URIs in selection order, from whichever of ClipData, data or the
+     * "selectedItems" extra the picker used.
+     */
+    private List<Uri> getPickedVideoUris(Intent data) {
+        List<Uri> videoUris = new ArrayList<>();
+        if (data.getClipData() != null) {
+            int count = data.getClipData().getItemCount();
+            for (int i = 0; i < count; i++) {
+                videoUris.add(data.getClipData().getItemAt(i).getUri());
+            }
+        } else if (data.getData() != null) {
+            videoUris.add(data.getData());
+        } else if (data.getExtras() != null) {
+            Bundle bundle = data.getExtras();
+            if (bundle.keySet().contains("selectedItems")) {
+                ArrayList<Parcelable> fileUris;
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+                    fileUris = bundle.getParcelableArrayList("selectedItems", Parcelable.class);
+                } else {
+                    fileUris = getLegacyParcelableArrayList(bundle, "selectedItems");
+                }
+                if (fileUris != null) {
+                    for (Parcelable fileUri : fileUris) {
+                        if (fileUri instanceof Uri) {
+                            videoUris.add((Uri) fileUri);
+                        }
+                    }
+                }
+            }
+        }
+        return videoUris;
+    }
+
     @SuppressWarnings("deprecation")
     private ArrayList<Parcelable> getLegacyParcelableArrayList(Bundle bundle, String key) {
         return bundle.getParcelableArrayList(key);
     }
 
     private void processPickedVideo(Uri videoUri, PluginCall call) {
+        final boolean importToAppStorage = call.getBoolean("importToAppStorage", false);
+        final boolean detectDuplicates = call.getBoolean("detectDuplicates", false);
+        if (videoUri != null && (importToAppStorage || detectDuplicates)) {
+            final String id = call.getCallbackId();
+            beginPickJournal(id, Collections.singletonList(videoUri), importToAppStorage, detectDuplicates);
+            jobScheduler.submit(
+                    JOB_TYPE_IMPORT,
+                    id,
+                    videoUri.toString(),
+                    VideoJob.PRIORITY_HIGH,
+                    job -> {
+                        try {
+                            JSObject ret = processJournaledVideo(id, videoUri, importToAppStorage, detectDuplicates);
+                            returnResult(call, VideoRecorderUtils.toUri(ret.getString("path")), ret);
+                        } catch (CancellationException ex) {
+                            sessions.remove(id);
+                            call.reject(JOB_CANCELLED_ERROR, ex);
+                            throw ex;
+                        } catch (IOException | SecurityException ex) {
+                            sessions.remove(id);
+                            call.reject(importToAppStorage ? VIDEO_IMPORT_ERROR : UNABLE_TO_PROCESS_VIDEO, ex);
+                            throw ex;
+                        } finally {
+                            journal.end(id);
+                        }
+                    }
+            );
+            return;
+        }
         returnResult(call, videoUri);
     }
 
-    private JSObject processPickedVideos(Uri videoUri) {
+    /**
+     * Journals picked videos that still have to be imported or hashed, so a restart resumes them.
+     */
+    private void beginPickJournal(String id, List<Uri> videoUris, boolean importToAppStorage, boolean detectDuplicates) {
+        if (!importToAppStorage && !detectDuplicates) {
+            return;
+        }
+        JSONArray uris = new JSONArray();
+        for (Uri videoUri : videoUris) {
+            uris.put(videoUri != null ? videoUri.toString() : null);
+        }
+        JSObject data = new JSObject();
+        data.put("uris", uris);
+        data.put("importToAppStorage", importToAppStorage);
+        data.put("detectDuplicates", detectDuplicates);
+        journal.begin(id, VideoWorkJournal.KIND_PICK, data);
+    }
+
+    /**
+     * Processes one journaled picked video and records its result in the journal.
+     */
+    private JSObject processJournaledVideo(String id, Uri videoUri, boolean importToAppStorage, boolean detectDuplicates) throws IOException {
+        JSObject ret = processPickedVideos(videoUri, importToAppStorage, detectDuplicates);
+        if (videoUri != null) {
+            journal.result(id, videoUri.toString(), ret);
+        }
+        return ret;
+    }
+
+    private JSObject processPickedVideos(Uri videoUri, boolean importToAppStorage, boolean detectDuplicates) throws IOException {
         JSObject ret = new JSObject();
 
         if (videoUri != null) {
-            ret.put("path", videoUri.toString());
-            ret.put("webPath", FileUtils.getPortablePath(getContext(), bridge.getLocalUrl(), videoUri));
+            VideoJob job = VideoJob.current();
+            if (job != null) {
+                job.setLabel(videoUri.toString());
+                job.throwIfCancelled();
+            }
+            metrics.increment("picker.videos");
+            try (VideoMetrics.Timer ignored = metrics.time(STAGE_PROCESS_PICKED)) {
+                String hash = detectDuplicates ? hashVideo(videoUri) : null;
+                if (job != null) {
+                    job.throwIfCancelled();
+                }
+                if (importToAppStorage) {
+                    ret.put("originalPath", videoUri.toString());
+                    File existing = hash != null ? findImportedVideo(hash) : null;
+                    if (existing != null) {
+                        // Already imported, skip the copy and hand out the earlier file
+                        storageManager.touch(existing.getAbsolutePath());
+                        videoUri = Uri.fromFile(existing);
+                        ret.put("duplicateOf", videoUri.toString());
+                    } else {
+                        videoUri = Uri.fromFile(importToAppStorage(videoUri));
+                    }
+                }
+                if (hash != null) {
+                    putHash(ret, hash, videoUri, importToAppStorage);
+                }
+                ret.put("path", videoUri.toString());
+                ret.put("webPath", getWebPath(videoUri));
+            }
         } else {
             ret.put("error", UNABLE_TO_PROCESS_VIDEO);
         }
         return ret;
     }
 
+    /**
+     * Copies a picked video into the plugin's files directory, reporting progress through
+     * {@link #EVENT_IMPORT_PROGRESS} events.
+     */
+    private File importToAppStorage(final Uri videoUri) throws IOException {
+        final String path = videoUri.toString();
+        final VideoJob job = VideoJob.current();
+        File imported;
+        try (VideoMetrics.Timer ignored = metrics.time(STAGE_IMPORT)) {
+            imported = VideoImporter.importVideo(
+                    getContext(),
+                    videoUri,
+                    new File(getContext().getFilesDir(), IMPORT_DIRECTORY),
+                    (bytes, total) -> {
+                        JSObject event = new JSObject();
+                        event.put("path", path);
+                        event.put("bytes", bytes);
+                        event.put("total", total);
+                        notifyListeners(EVENT_IMPORT_PROGRESS, event);
+                        if (job != null) {
+                            job.setProgress(bytes, total);
+                            // Throwing from here aborts the copy and removes the partial file
+                            job.throwIfCancelled();
+                        }
+                    }
+            );
+        }
+        metrics.add("import.bytes", imported.length());
+        storageManager.register(imported, false);
+        return imported;
+    }
+
+    /**
+     * Content hash of a video, reused from the hash index while the file is unchanged.
+     */
+    private String hashVideo(Uri uri) throws IOException {
+        VideoRecorderUtils.FileStat stat = VideoRecorderUtils.stat(getContext(), uri);
+        String sourceKey = VideoHashIndex.sourceKey(uri.toString(), stat.size, stat.lastModified);
+        String hash = sourceKey != null ? hashIndex.getSourceHash(sourceKey) : null;
+        if (hash == null) {
+            metrics.increment("hash.cacheMisses");
+            try (
+                    VideoMetrics.Timer ignored = metrics.time(STAGE_HASH);
+                    FileChannel channel = VideoRecorderUtils.openReadChannel(getContext(), uri.toString())
+            ) {
+                hash = hasher.hash(channel);
+            }
+            metrics.add("hash.bytes", stat.size);
+            if (sourceKey != null) {
+                hashIndex.putSourceHash(sourceKey, hash);
+            }
+        } else {
+            metrics.increment("hash.cacheHits");
+        }
+        return hash;
+    }
+
+    /**
+     * A file the plugin imported earlier with the given content hash, if it still exists.
+     */
+    private File findImportedVideo(String hash) {
+        String path = hashIndex.getPath(hash);
+        File file = path != null ? VideoRecorderUtils.toFile(VideoRecorderUtils.toUri(path)) : null;
+        if (file == null || !file.exists() || !storageManager.isManaged(file.getAbsolutePath())) {
+            return null;
+        }
+        return file;
+    }
+
+    /**
+     * Adds the hash to a result and records the video in the hash index. If an earlier video
+     * with the same content still exists, its path is returned as duplicateOf.
+     */
+    private void putHash(JSObject ret, String hash, Uri videoUri, boolean imported) {
+        String path = videoUri.toString();
+        ret.put("hash", hash);
+        String existing = hashIndex.add(hash, path);
+        if (existing == null || existing.equals(path)) {
+            return;
+        }
+        boolean exists;
+        try {
+            VideoRecorderUtils.stat(getContext(), VideoRecorderUtils.toUri(existing));
+            exists = true;
+        } catch (FileNotFoundException | SecurityException ex) {
+            exists = false;
+        }
+        if (exists) {
+            ret.put("duplicateOf", existing);
+        }
+        if (!exists || imported) {
+            // Prefer pointing at a copy in app storage, so later imports can reuse it
+            hashIndex.replace(hash, path);
+        }
+    }
+
+
+
+    /**
+     * Creates a file next to the plugin's captures for a video derived from other videos.
+     */
+    private File createOutputFile(String extension) throws IOException {
+        File storageDir = capabilities.get().storageDir;
+        if (storageDir == null || !storageDir.isDirectory()) {
+            storageDir = getContext().getExternalFilesDir(Environment.DIRECTORY_PICTURES);
+        }
+        return VideoFiles.createVideoFile(storageDir, extension);
+    }
 
+    /**
+     * The URL a video is played from in the WebView. Files of the plugin are served by the local
+     * server when it is enabled, everything else goes through the bridge.
+     */
+    private String getWebPath(Uri uri) {
+        File file = localServer != null ? VideoRecorderUtils.toFile(uri) : null;
+        if (file != null) {
+            return localServer.getUrl(file);
+        }
+        return FileUtils.getPortablePath(getContext(), bridge.getLocalUrl(), uri);
+    }
 
     /**
      * After processing the image, return the final result back to the caller.
      * @param call
      * @param uri
      */
-    @SuppressWarnings("deprecation")
     private void returnResult(PluginCall call, Uri uri) {
+        returnResult(call, uri, new JSObject());
+    }
+
+    @SuppressWarnings("deprecation")
+    private void returnResult(PluginCall call, Uri uri, JSObject ret) {
 
         if (uri != null) {
-            JSObject ret = new JSObject();
             ret.put("path", uri.toString());
-            ret.put("webPath", FileUtils.getPortablePath(getContext(), bridge.getLocalUrl(), uri));
+            ret.put("webPath", getWebPath(uri));
             call.resolve(ret);
         }
 
-        videoFileSavePath = null;
-        videoFileUri = null;
-        videoPickedContentUri = null;
-        videoEditedFileSavePath = null;
+        sessions.remove(call.getCallbackId());
     }
 
 
@@ -445,7 +2315,7 @@ public class VideoRecorderPlugin extends Plugin {
         // If the camera permission is defined in the manifest, then we have to prompt the user
         // or else we will get a security exception when trying to present the camera. If, however,
         // it is not defined in the manifest then we don't need to prompt and it will just work.
-        if (isPermissionDeclared(CAMERA)) {
+        if (capabilities.get().cameraPermissionDeclared) {
             // just request normally
             super.requestPermissions(call);
         } else {
@@ -469,15 +2339,47 @@ public class VideoRecorderPlugin extends Plugin {
         }
     }
 
-    private void deleteVideoFIle() {
-        if (videoFileSavePath != null) {
-            File videoFile = new File(videoFileSavePath);
-            if (videoFile.exists()) {
+    private void deleteVideoFile(VideoCaptureSession session) {
+        String path = session.getOutputPath();
+        if (path != null) {
+            deleteCaptureOutput(path);
+        }
+    }
+
+    /**
+     * Deletes the file or gallery entry a capture was recorded into.
+     */
+    private void deleteCaptureOutput(String path) {
+        if (VideoGallery.isGalleryPath(path)) {
+            gallery.delete(Uri.parse(path));
+        } else {
+            File videoFile = new File(path);
+            if (!storageManager.delete(path) && videoFile.exists()) {
                 videoFile.delete();
+                onVideoFileChanged(videoFile);
             }
         }
     }
 
+    /**
+     * Drops what the plugin keeps open on a file it deleted or replaced, so later reads see the
+     * file as it is now instead of the old data. A deleted file is also forgotten by the hash
+     * index and the local server. Every deletion goes through here, including the storage
+     * manager's evictions on its sweeper thread.
+     */
+    private void onVideoFileChanged(File file) {
+        String uri = Uri.fromFile(file).toString();
+        chunkReader.close(uri);
+        if (file.exists()) {
+            return;
+        }
+        hashIndex.removePath(uri);
+        VideoHttpServer server = localServer;
+        if (server != null) {
+            server.remove(file);
+        }
+    }
+
     @SuppressWarnings("deprecation")
     private List<ResolveInfo> legacyQueryIntentActivities(Intent intent) {
         return getContext().getPackageManager().queryIntentActivities(intent, PackageManager.MATCH_DEFAULT_ONLY);
@@ -487,16 +2389,16 @@ public class VideoRecorderPlugin extends Plugin {
     protected Bundle saveInstanceState() {
         Bundle bundle = super.saveInstanceState();
         if (bundle != null) {
-            bundle.putString("cameraVideoFileSavePath", videoFileSavePath);
+            bundle.putBundle("videoSessions", sessions.save());
         }
         return bundle;
     }
 
     @Override
     protected void restoreState(Bundle state) {
-        String storedImageFileSavePath = state.getString("cameraVideoFileSavePath");
-        if (storedImageFileSavePath != null) {
-            videoFileSavePath = storedImageFileSavePath;
+        Bundle savedSessions = state.getBundle("videoSessions");
+        if (savedSessions != null) {
+            sessions.restore(savedSessions);
         }
     }
 }
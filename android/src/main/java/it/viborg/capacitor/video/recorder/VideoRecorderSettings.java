@@ -3,7 +3,19 @@ package it.viborg.capacitor.video.recorder;
 // Based on: com.capacitorjs.plugins.camera.CameraSettings
 
 public class VideoRecorderSettings {
+    public static final int QUALITY_LOW = 0;
+    public static final int QUALITY_HIGH = 1;
+    public static final int BACKEND_INTENT = 0;
+    public static final int BACKEND_IN_PROCESS = 1;
+
     private VideoSource source = VideoSource.PROMPT;
+    private int maxDurationSeconds = 0;
+    private long maxSizeBytes = 0;
+    private int quality = QUALITY_HIGH;
+    private int backend = BACKEND_INTENT;
+    private boolean fastStart = false;
+    private boolean detectDuplicates = false;
+    private boolean saveToGallery = false;
 
     public VideoSource getSource() {
         return this.source;
@@ -12,4 +24,60 @@ public class VideoRecorderSettings {
     public void setSource(VideoSource source) {
         this.source = source;
     }
+
+    public int getMaxDurationSeconds() {
+        return maxDurationSeconds;
+    }
+
+    public void setMaxDurationSeconds(int maxDurationSeconds) {
+        this.maxDurationSeconds = maxDurationSeconds;
+    }
+
+    public long getMaxSizeBytes() {
+        return maxSizeBytes;
+    }
+
+    public void setMaxSizeBytes(long maxSizeBytes) {
+        this.maxSizeBytes = maxSizeBytes;
+    }
+
+    public int getQuality() {
+        return quality;
+    }
+
+    public void setQuality(int quality) {
+        this.quality = quality;
+    }
+
+    public int getBackend() {
+        return backend;
+    }
+
+    public void setBackend(int backend) {
+        this.backend = backend;
+    }
+
+    public boolean isFastStart() {
+        return fastStart;
+    }
+
+    public void setFastStart(boolean fastStart) {
+        this.fastStart = fastStart;
+    }
+
+    public boolean isDetectDuplicates() {
+        return detectDuplicates;
+    }
+
+    public void setDetectDuplicates(boolean detectDuplicates) {
+        this.detectDuplicates = detectDuplicates;
+    }
+
+    public boolean isSaveToGallery() {
+        return saveToGallery;
+    }
+
+    public void setSaveToGallery(boolean saveToGallery) {
+        this.saveToGallery = saveToGallery;
+    }
 }
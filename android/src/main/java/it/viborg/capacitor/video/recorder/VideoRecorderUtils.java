@@ -3,22 +3,236 @@ package it.viborg.capacitor.video.recorder;
 // Based on: com.capacitorjs.plugins.camera.CameraUtils
 
 import android.app.Activity;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.media.CamcorderProfile;
+import android.media.MediaMetadataRetriever;
+import android.net.Uri;
+import android.os.Build;
 import android.os.Environment;
+import android.os.ParcelFileDescriptor;
+import android.os.StatFs;
+import android.provider.MediaStore;
+import android.provider.OpenableColumns;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 public class VideoRecorderUtils {
     public static File createVideoFile(Activity activity) throws IOException {
-        // Create an image file name
-        String timeStamp = new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date());
-        String videoFileName = "VIDEO_" + timeStamp + "_";
         File storageDir = activity.getExternalFilesDir(Environment.DIRECTORY_PICTURES);
+        return VideoFiles.createVideoFile(storageDir, ".mp4");
+    }
+
+    /**
+     * Bits per second, audio included, that the device's camcorder profile records at for
+     * the given {@link VideoRecorderSettings} quality. Falls back to typical values when the
+     * profile is not available.
+     */
+    @SuppressWarnings("deprecation")
+    public static long getCaptureBitrate(int quality) {
+        int profileQuality = quality == VideoRecorderSettings.QUALITY_HIGH ? CamcorderProfile.QUALITY_HIGH : CamcorderProfile.QUALITY_LOW;
+        try {
+            CamcorderProfile profile = CamcorderProfile.get(profileQuality);
+            if (profile != null) {
+                return (long) profile.videoBitRate + profile.audioBitRate;
+            }
+        } catch (RuntimeException ex) {
+            // No camera or no profile for this quality
+        }
+        return quality == VideoRecorderSettings.QUALITY_HIGH ? 20_000_000L : 1_000_000L;
+    }
+
+    public static long getAvailableBytes(File directory) {
+        return new StatFs(directory.getAbsolutePath()).getAvailableBytes();
+    }
+
+    /**
+     * Converts a path returned by the plugin (a content:// or file:// URI, or a plain absolute
+     * path) back into a {@link Uri}.
+     */
+    public static Uri toUri(String path) {
+        if (path.startsWith("/")) {
+            return Uri.fromFile(new File(path));
+        }
+        return Uri.parse(path);
+    }
+
+    /**
+     * Returns the file behind a file:// URI, or null for any other scheme.
+     */
+    public static File toFile(Uri uri) {
+        if (ContentResolver.SCHEME_FILE.equals(uri.getScheme()) && uri.getPath() != null) {
+            return new File(uri.getPath());
+        }
+        return null;
+    }
+
+    /**
+     * Opens a read-only channel on a path returned by the plugin. Closing the channel also
+     * closes the underlying file descriptor.
+     */
+    public static FileChannel openReadChannel(Context context, String path) throws IOException {
+        Uri uri = toUri(path);
+        File file = toFile(uri);
+        if (file != null) {
+            return new FileInputStream(file).getChannel();
+        }
+        ParcelFileDescriptor pfd = context.getContentResolver().openFileDescriptor(uri, "r");
+        if (pfd == null) {
+            throw new FileNotFoundException(path);
+        }
+        return new ParcelFileDescriptor.AutoCloseInputStream(pfd).getChannel();
+    }
+
+    /**
+     * Number of bytes behind a file:// or content:// URI, or 0 if there is nothing there. Unlike
+     * {@link #stat} this asks the data itself, MediaStore doesn't know the size of a pending
+     * entry that is still being written.
+     */
+    public static long getLength(Context context, Uri uri) {
+        File file = toFile(uri);
+        if (file != null) {
+            return file.length();
+        }
+        try (ParcelFileDescriptor pfd = context.getContentResolver().openFileDescriptor(uri, "r")) {
+            return pfd != null ? Math.max(0, pfd.getStatSize()) : 0;
+        } catch (IOException | SecurityException | IllegalArgumentException ex) {
+            return 0;
+        }
+    }
 
-        File video = File.createTempFile(videoFileName, /* prefix */".mp4", /* suffix */storageDir/* directory */);
+    /**
+     * Looks up the size and last-modified time of a file:// or content:// URI without opening it.
+     */
+    public static FileStat stat(Context context, Uri uri) throws FileNotFoundException {
+        File file = toFile(uri);
+        if (file != null) {
+            if (!file.exists()) {
+                throw new FileNotFoundException(file.getAbsolutePath());
+            }
+            return new FileStat(file.length(), file.lastModified());
+        }
+
+        long size = -1;
+        long lastModified = 0;
+        Cursor cursor = context.getContentResolver().query(uri, null, null, null, null);
+        if (cursor == null) {
+            throw new FileNotFoundException(uri.toString());
+        }
+        try {
+            if (!cursor.moveToFirst()) {
+                throw new FileNotFoundException(uri.toString());
+            }
+            int sizeIndex = cursor.getColumnIndex(OpenableColumns.SIZE);
+            if (sizeIndex != -1 && !cursor.isNull(sizeIndex)) {
+                size = cursor.getLong(sizeIndex);
+            }
+            int modifiedIndex = cursor.getColumnIndex(MediaStore.MediaColumns.DATE_MODIFIED);
+            if (modifiedIndex != -1 && !cursor.isNull(modifiedIndex)) {
+                // MediaStore stores seconds
+                lastModified = cursor.getLong(modifiedIndex) * 1000;
+            }
+        } finally {
+            cursor.close();
+        }
+        return new FileStat(size, lastModified);
+    }
+
+    public static class FileStat {
+        public final long size;
+        public final long lastModified;
+
+        FileStat(long size, long lastModified) {
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+
+    /**
+     * Grabs the sync frame closest to timeMs, scales it so its longest side is at most maxSize
+     * pixels and writes it to output. On API 27+ the frame is decoded at the target size.
+     */
+    @SuppressWarnings("deprecation")
+    public static void createThumbnail(Context context, Uri uri, long timeMs, int maxSize, Bitmap.CompressFormat format, int quality, File output)
+            throws IOException {
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        Bitmap frame = null;
+        try {
+            retriever.setDataSource(context, uri);
+            long timeUs = timeMs * 1000;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1) {
+                frame = retriever.getScaledFrameAtTime(timeUs, MediaMetadataRetriever.OPTION_CLOSEST_SYNC, maxSize, maxSize);
+            } else {
+                Bitmap fullFrame = retriever.getFrameAtTime(timeUs, MediaMetadataRetriever.OPTION_CLOSEST_SYNC);
+                if (fullFrame != null) {
+                    frame = scaleDown(fullFrame, maxSize);
+                    if (frame != fullFrame) {
+                        fullFrame.recycle();
+                    }
+                }
+            }
+            if (frame == null) {
+                throw new IOException("Unable to extract a frame from " + uri);
+            }
+
+            OutputStream out = new FileOutputStream(output);
+            try {
+                if (!frame.compress(format, quality, out)) {
+                    throw new IOException("Unable to encode thumbnail");
+                }
+            } finally {
+                out.close();
+            }
+        } catch (RuntimeException ex) {
+            throw new IOException("Unable to create thumbnail", ex);
+        } finally {
+            if (frame != null) {
+                frame.recycle();
+            }
+            retriever.release();
+        }
+    }
+
+    private static Bitmap scaleDown(Bitmap bitmap, int maxSize) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        if (width <= maxSize && height <= maxSize) {
+            return bitmap;
+        }
+        float scale = Math.min((float) maxSize / width, (float) maxSize / height);
+        return Bitmap.createScaledBitmap(bitmap, Math.max(1, Math.round(width * scale)), Math.max(1, Math.round(height * scale)), true);
+    }
+
+    /**
+     * Hex encoded SHA-1 of a string, used to derive cache file names.
+     */
+    public static String sha1Hex(String value) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            return toHex(digest.digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
 
-        return video;
+    public static String toHex(byte[] bytes) {
+        char[] digits = "0123456789abcdef".toCharArray();
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = digits[(bytes[i] >> 4) & 0xf];
+            chars[i * 2 + 1] = digits[bytes[i] & 0xf];
+        }
+        return new String(chars);
     }
 }
@@ -0,0 +1,385 @@
+package it.viborg.capacitor.video.recorder;
+
+import com.getcapacitor.Logger;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps an index of the video files the plugin created (captures and imports) and enforces a
+ * byte and age quota on them. A background sweeper evicts the least recently used recordings
+ * once the quota is exceeded and drops entries whose files are gone. Changes to the index are
+ * written out in batches on the sweeper thread.
+ */
+class VideoStorageManager {
+
+    interface Listener {
+        /**
+         * Called for every file that left the index because it was deleted or is gone, on the
+         * thread that removed it and without holding the index lock.
+         */
+        void onDeleted(File file);
+    }
+
+    private static final String LOG_TAG = "VideoStorageManager";
+    private static final long SWEEP_INTERVAL_MINUTES = 60;
+    // Delay before a triggered sweep, so a burst of new files only sweeps once
+    private static final long SWEEP_DELAY_SECONDS = 5;
+    // Delay before writing the index, so a burst of changes is written once
+    private static final long FLUSH_DELAY_SECONDS = 1;
+    // Nothing finishes a capture that is still pending after this long
+    private static final long ABANDONED_CAPTURE_MS = TimeUnit.DAYS.toMillis(1);
+
+    static class Recording {
+        final String path;
+        final long created;
+        long size;
+        long lastAccessed;
+        boolean pending;
+
+        Recording(String path, long size, long created, long lastAccessed, boolean pending) {
+            this.path = path;
+            this.size = size;
+            this.created = created;
+            this.lastAccessed = lastAccessed;
+            this.pending = pending;
+        }
+    }
+
+    private final File indexFile;
+    private final long maxBytes;
+    private final long maxAgeMs;
+    private final Map<String, Recording> recordings = new HashMap<>();
+    private final Listener listener;
+    private final ScheduledExecutorService sweeper;
+    // Taken before the index lock, keeps index writes in the order their snapshots were taken
+    private final Object flushLock = new Object();
+    private boolean sweepScheduled = false;
+    private boolean flushScheduled = false;
+    private boolean dirty = false;
+    private boolean loaded = false;
+
+    /**
+     * @param maxBytes total size the recordings may use, or 0 for no limit
+     * @param maxAgeMs age after which recordings are deleted, or 0 for no limit
+     */
+    VideoStorageManager(File indexFile, long maxBytes, long maxAgeMs, Listener listener) {
+        this.indexFile = indexFile;
+        this.maxBytes = maxBytes;
+        this.maxAgeMs = maxAgeMs;
+        this.listener = listener;
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(
+                1,
+                runnable -> {
+                    Thread thread = new Thread(runnable, "VideoRecorderSweeper");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+        );
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        this.sweeper = executor;
+    }
+
+    /**
+     * Schedules the periodic sweep; the first one runs right away.
+     */
+    void start() {
+        sweeper.scheduleWithFixedDelay(this::sweep, 0, SWEEP_INTERVAL_MINUTES, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Stops the sweeper and writes out changes that were still waiting for it.
+     */
+    void stop() {
+        sweeper.shutdownNow();
+        flush();
+    }
+
+    /**
+     * Adds a file to the index. Pending files belong to a capture that has not finished yet
+     * and are never evicted.
+     */
+    synchronized void register(File file, boolean pending) {
+        ensureLoaded();
+        long now = System.currentTimeMillis();
+        recordings.put(file.getAbsolutePath(), new Recording(file.getAbsolutePath(), file.length(), now, now, pending));
+        markDirty();
+        if (!pending) {
+            scheduleSweep();
+        }
+    }
+
+    /**
+     * Marks a pending capture as finished and records its final size.
+     */
+    synchronized void commit(File file) {
+        ensureLoaded();
+        Recording recording = recordings.get(file.getAbsolutePath());
+        if (recording == null) {
+            register(file, false);
+            return;
+        }
+        recording.pending = false;
+        recording.size = file.length();
+        recording.lastAccessed = System.currentTimeMillis();
+        markDirty();
+        scheduleSweep();
+    }
+
+    synchronized void touch(String path) {
+        ensureLoaded();
+        Recording recording = recordings.get(path);
+        if (recording != null) {
+            recording.lastAccessed = System.currentTimeMillis();
+            markDirty();
+        }
+    }
+
+    synchronized boolean isManaged(String path) {
+        ensureLoaded();
+        return recordings.containsKey(path);
+    }
+
+    /**
+     * Deletes a file and removes it from the index. Only files in the index are deleted.
+     */
+    boolean delete(String path) {
+        File file = new File(path);
+        boolean deleted;
+        synchronized (this) {
+            ensureLoaded();
+            if (recordings.remove(path) == null) {
+                return false;
+            }
+            deleted = !file.exists() || file.delete();
+            markDirty();
+        }
+        listener.onDeleted(file);
+        return deleted;
+    }
+
+    synchronized List<Recording> list() {
+        ensureLoaded();
+        List<Recording> ret = new ArrayList<>(recordings.values());
+        Collections.sort(
+                ret,
+                new Comparator<Recording>() {
+                    @Override
+                    public int compare(Recording a, Recording b) {
+                        return Long.compare(b.created, a.created);
+                    }
+                }
+        );
+        return ret;
+    }
+
+    synchronized long getUsedBytes() {
+        ensureLoaded();
+        long bytes = 0;
+        for (Recording recording : recordings.values()) {
+            bytes += recording.size;
+        }
+        return bytes;
+    }
+
+    long getMaxBytes() {
+        return maxBytes;
+    }
+
+    private synchronized void scheduleSweep() {
+        if (sweepScheduled || sweeper.isShutdown()) {
+            return;
+        }
+        sweepScheduled = true;
+        sweeper.schedule(this::sweep, SWEEP_DELAY_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private synchronized void markDirty() {
+        dirty = true;
+        if (flushScheduled || sweeper.isShutdown()) {
+            return;
+        }
+        flushScheduled = true;
+        sweeper.schedule(this::flush, FLUSH_DELAY_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Drops entries of missing files, deletes recordings older than the age limit and then
+     * evicts the least recently used recordings until the byte quota is met. Abandoned captures
+     * are deleted when empty and otherwise kept as finished recordings, so the quota covers
+     * them.
+     */
+    void sweep() {
+        List<File> removed = new ArrayList<>();
+        synchronized (this) {
+            evict(removed);
+        }
+        flush();
+        for (File file : removed) {
+            listener.onDeleted(file);
+        }
+    }
+
+    private void evict(List<File> removed) {
+        ensureLoaded();
+        sweepScheduled = false;
+        long now = System.currentTimeMillis();
+        boolean changed = false;
+
+        List<Recording> candidates = new ArrayList<>();
+        for (Recording recording : new ArrayList<>(recordings.values())) {
+            File file = new File(recording.path);
+            if (!file.exists()) {
+                recordings.remove(recording.path);
+                removed.add(file);
+                changed = true;
+                continue;
+            }
+            if (recording.pending) {
+                if (now - recording.created <= ABANDONED_CAPTURE_MS) {
+                    continue;
+                }
+                long size = file.length();
+                if (size == 0) {
+                    deleteFile(recording, removed);
+                    changed = true;
+                    continue;
+                }
+                Logger.debug(LOG_TAG, "Keeping abandoned capture " + recording.path);
+                recording.pending = false;
+                recording.size = size;
+                changed = true;
+            }
+            if (maxAgeMs > 0 && now - recording.created > maxAgeMs) {
+                deleteFile(recording, removed);
+                changed = true;
+            } else {
+                candidates.add(recording);
+            }
+        }
+
+        if (maxBytes > 0) {
+            long used = getUsedBytes();
+            if (used > maxBytes) {
+                Collections.sort(
+                        candidates,
+                        new Comparator<Recording>() {
+                            @Override
+                            public int compare(Recording a, Recording b) {
+                                return Long.compare(a.lastAccessed, b.lastAccessed);
+                            }
+                        }
+                );
+                for (Recording recording : candidates) {
+                    if (used <= maxBytes) {
+                        break;
+                    }
+                    used -= recording.size;
+                    deleteFile(recording, removed);
+                    changed = true;
+                }
+            }
+        }
+
+        if (changed) {
+            dirty = true;
+        }
+    }
+
+    private void deleteFile(Recording recording, List<File> removed) {
+        Logger.debug(LOG_TAG, "Evicting " + recording.path);
+        File file = new File(recording.path);
+        file.delete();
+        recordings.remove(recording.path);
+        removed.add(file);
+    }
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!indexFile.exists()) {
+            return;
+        }
+        Properties properties = new Properties();
+        try {
+            InputStream in = new FileInputStream(indexFile);
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException ex) {
+            Logger.error(LOG_TAG, "Unable to read recording index", ex);
+            return;
+        }
+        for (String path : properties.stringPropertyNames()) {
+            String[] fields = properties.getProperty(path).split(",");
+            try {
+                recordings.put(
+                        path,
+                        new Recording(path, Long.parseLong(fields[0]), Long.parseLong(fields[1]), Long.parseLong(fields[2]), "1".equals(fields[3]))
+                );
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException ex) {
+                Logger.debug(LOG_TAG, "Skipping corrupt index entry for " + path);
+            }
+        }
+    }
+
+    /**
+     * Writes the index if it changed since the last write. The file is written outside the
+     * index lock, so callers on the main thread never wait for the disk.
+     */
+    private void flush() {
+        synchronized (flushLock) {
+            Properties properties = new Properties();
+            synchronized (this) {
+                flushScheduled = false;
+                if (!dirty) {
+                    return;
+                }
+                dirty = false;
+                for (Recording recording : recordings.values()) {
+                    properties.setProperty(
+                            recording.path,
+                            recording.size + "," + recording.created + "," + recording.lastAccessed + "," + (recording.pending ? "1" : "0")
+                    );
+                }
+            }
+            save(properties);
+        }
+    }
+
+    private void save(Properties properties) {
+        File tmp = new File(indexFile.getPath() + ".tmp");
+        try {
+            OutputStream out = new FileOutputStream(tmp);
+            try {
+                properties.store(out, null);
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(indexFile)) {
+                throw new IOException("Unable to replace " + indexFile);
+            }
+        } catch (IOException ex) {
+            Logger.error(LOG_TAG, "Unable to write recording index", ex);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package it.viborg.capacitor.video.recorder;
+
+import android.os.Build;
+import android.os.Trace;
+
+/**
+ * Mirrors {@link VideoMetrics} stages as {@link Trace} sections, so they show up in system traces
+ * next to the framework's own. Spans that cross threads become async sections where the platform
+ * supports them.
+ */
+class VideoSystemTracer implements VideoMetrics.Tracer {
+
+    private static final String PREFIX = "VideoRecorder:";
+
+    @Override
+    public void begin(String name) {
+        // Sections must be balanced per thread, so always open one even when tracing is off
+        Trace.beginSection(PREFIX + name);
+    }
+
+    @Override
+    public void end() {
+        Trace.endSection();
+    }
+
+    @Override
+    public void beginAsync(String name, int cookie) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && Trace.isEnabled()) {
+            Trace.beginAsyncSection(PREFIX + name, cookie);
+        }
+    }
+
+    @Override
+    public void endAsync(String name, int cookie) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            Trace.endAsyncSection(PREFIX + name, cookie);
+        }
+    }
+}
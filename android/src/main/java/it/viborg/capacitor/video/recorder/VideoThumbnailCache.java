@@ -0,0 +1,161 @@
+package it.viborg.capacitor.video.recorder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Disk cache for generated thumbnails, capped at a total byte size with least recently used
+ * eviction. Concurrent requests for the same thumbnail share a single generation.
+ */
+class VideoThumbnailCache {
+
+    interface Generator {
+        void generate(File output) throws Exception;
+    }
+
+    private static class Entry {
+        final File file;
+        final long lastModified;
+
+        Entry(File file, long lastModified) {
+            this.file = file;
+            this.lastModified = lastModified;
+        }
+    }
+
+    private final File directory;
+    private final long maxBytes;
+    private final ConcurrentHashMap<String, Future<File>> inFlight = new ConcurrentHashMap<>();
+    private long totalBytes = -1;
+
+    VideoThumbnailCache(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the cached file for the given name, generating it first if needed. If another
+     * thread is already generating it, waits for that result instead of decoding again.
+     */
+    File get(final String name, final Generator generator) throws Exception {
+        final File file = new File(directory, name);
+        // Touched under the same lock as eviction, so a file is never evicted while it is touched
+        synchronized (this) {
+            if (file.exists()) {
+                // Last-modified doubles as the access time for eviction
+                file.setLastModified(System.currentTimeMillis());
+                return file;
+            }
+        }
+
+        FutureTask<File> task = new FutureTask<>(
+                new Callable<File>() {
+                    @Override
+                    public File call() throws Exception {
+                        return generate(file, generator);
+                    }
+                }
+        );
+        Future<File> existing = inFlight.putIfAbsent(name, task);
+        if (existing != null) {
+            return unwrap(existing);
+        }
+        try {
+            task.run();
+            return unwrap(task);
+        } finally {
+            inFlight.remove(name, task);
+        }
+    }
+
+    private File generate(File file, Generator generator) throws Exception {
+        if (!directory.exists() && !directory.mkdirs() && !directory.exists()) {
+            throw new IllegalStateException("Unable to create " + directory);
+        }
+        File tmp = new File(directory, file.getName() + ".tmp");
+        try {
+            generator.generate(tmp);
+            if (!tmp.renameTo(file)) {
+                throw new IllegalStateException("Unable to move thumbnail into cache");
+            }
+        } finally {
+            tmp.delete();
+        }
+        added(file);
+        return file;
+    }
+
+    private synchronized void added(File file) {
+        if (totalBytes < 0) {
+            totalBytes = 0;
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    totalBytes += f.length();
+                }
+            }
+        } else {
+            totalBytes += file.length();
+        }
+        if (totalBytes > maxBytes) {
+            evict(file);
+        }
+    }
+
+    /**
+     * Deletes the least recently used thumbnails until the cache is down to three quarters of
+     * its size, keeping the one that was just generated for its caller.
+     */
+    private void evict(File keep) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        // Sorted on a snapshot of the access times, which can't change while sorting
+        List<Entry> entries = new ArrayList<>(files.length);
+        for (File f : files) {
+            if (!f.getName().endsWith(".tmp") && !f.equals(keep)) {
+                entries.add(new Entry(f, f.lastModified()));
+            }
+        }
+        Collections.sort(
+                entries,
+                new Comparator<Entry>() {
+                    @Override
+                    public int compare(Entry a, Entry b) {
+                        return Long.compare(a.lastModified, b.lastModified);
+                    }
+                }
+        );
+        long target = maxBytes * 3 / 4;
+        for (Entry entry : entries) {
+            if (totalBytes <= target) {
+                break;
+            }
+            long length = entry.file.length();
+            if (entry.file.delete()) {
+                totalBytes -= length;
+            }
+        }
+    }
+
+    private static File unwrap(Future<File> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw ex;
+        }
+    }
+}
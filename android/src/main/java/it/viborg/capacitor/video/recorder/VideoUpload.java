@@ -0,0 +1,283 @@
+package it.viborg.capacitor.video.recorder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * State of a multipart upload. Every finished part is written to a properties file, so an
+ * interrupted upload can be resumed by id and only sends the parts that are still missing.
+ * Request headers often carry credentials and are never written to disk; a resumed upload
+ * gets them from its caller again.
+ */
+class VideoUpload {
+    private static final String PART_PREFIX = "part.";
+    // Headers were stored by earlier versions, a state file that still has them is rewritten
+    private static final String LEGACY_HEADER_PREFIX = "header.";
+
+    private final File stateFile;
+    private final String id;
+    private final String path;
+    private final String url;
+    private final String method;
+    private final String completeUrl;
+    private long size;
+    private long lastModified;
+    private final long partSize;
+    private final Map<String, String> headers = new LinkedHashMap<>();
+    private final TreeMap<Integer, String> completedParts = new TreeMap<>();
+    private volatile boolean cancelled = false;
+
+    VideoUpload(
+            File stateFile,
+            String id,
+            String path,
+            String url,
+            String method,
+            String completeUrl,
+            long size,
+            long lastModified,
+            long partSize
+    ) {
+        this.stateFile = stateFile;
+        this.id = id;
+        this.path = path;
+        this.url = url;
+        this.method = method;
+        this.completeUrl = completeUrl;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.partSize = partSize;
+    }
+
+    /**
+     * Starts a new upload of a source file with the given size and last-modified time.
+     */
+    static VideoUpload create(
+            File directory,
+            String path,
+            String url,
+            String method,
+            String completeUrl,
+            long size,
+            long lastModified,
+            long partSize,
+            Map<String, String> headers
+    ) throws IOException {
+        String id = UUID.randomUUID().toString();
+        VideoUpload upload = new VideoUpload(stateFile(directory, id), id, path, url, method, completeUrl, size, lastModified, partSize);
+        upload.headers.putAll(headers);
+        upload.save();
+        return upload;
+    }
+
+    static File stateFile(File directory, String id) {
+        return new File(directory, id + ".properties");
+    }
+
+    /**
+     * Whether the id is one {@link #create} hands out. Ids come from JavaScript and end up in
+     * a file name, so anything else is rejected.
+     */
+    static boolean isValidId(String id) {
+        try {
+            return id != null && UUID.fromString(id).toString().equals(id);
+        } catch (IllegalArgumentException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Loads a persisted upload, or returns null if there is none with that id. The upload has
+     * no headers until {@link #setHeaders} is called.
+     */
+    static VideoUpload load(File directory, String id) throws IOException {
+        if (!isValidId(id)) {
+            return null;
+        }
+        File file = stateFile(directory, id);
+        if (!file.exists()) {
+            return null;
+        }
+        Properties properties = new Properties();
+        InputStream in = new FileInputStream(file);
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+
+        VideoUpload upload;
+        try {
+            upload = new VideoUpload(
+                    file,
+                    properties.getProperty("id"),
+                    properties.getProperty("path"),
+                    properties.getProperty("url"),
+                    properties.getProperty("method"),
+                    properties.getProperty("completeUrl"),
+                    Long.parseLong(properties.getProperty("size")),
+                    Long.parseLong(properties.getProperty("lastModified", "0")),
+                    Long.parseLong(properties.getProperty("partSize"))
+            );
+            boolean legacyHeaders = false;
+            for (String name : properties.stringPropertyNames()) {
+                if (name.startsWith(PART_PREFIX)) {
+                    upload.completedParts.put(Integer.parseInt(name.substring(PART_PREFIX.length())), properties.getProperty(name));
+                } else if (name.startsWith(LEGACY_HEADER_PREFIX)) {
+                    legacyHeaders = true;
+                }
+            }
+            if (legacyHeaders) {
+                upload.save();
+            }
+        } catch (NumberFormatException | NullPointerException ex) {
+            throw new IOException("Corrupt upload state " + file, ex);
+        }
+        return upload;
+    }
+
+    String getId() {
+        return id;
+    }
+
+    String getPath() {
+        return path;
+    }
+
+    String getUrl() {
+        return url;
+    }
+
+    String getMethod() {
+        return method;
+    }
+
+    String getCompleteUrl() {
+        return completeUrl;
+    }
+
+    synchronized long getSize() {
+        return size;
+    }
+
+    synchronized long getLastModified() {
+        return lastModified;
+    }
+
+    synchronized Map<String, String> getHeaders() {
+        return new LinkedHashMap<>(headers);
+    }
+
+    /**
+     * Sets the request headers of a resumed upload, they are kept in memory only.
+     */
+    synchronized void setHeaders(Map<String, String> headers) {
+        this.headers.clear();
+        this.headers.putAll(headers);
+    }
+
+    /**
+     * Checks the source file against the one the finished parts were read from. If its size or
+     * last-modified time changed, the finished parts are dropped and the upload starts over.
+     * Returns whether it did.
+     */
+    synchronized boolean restartIfChanged(long size, long lastModified) throws IOException {
+        if (size == this.size && lastModified == this.lastModified) {
+            return false;
+        }
+        this.size = size;
+        this.lastModified = lastModified;
+        completedParts.clear();
+        save();
+        return true;
+    }
+
+    synchronized int getPartCount() {
+        return (int) Math.max(1, (size + partSize - 1) / partSize);
+    }
+
+    /**
+     * Part numbers start at 1, as in most multipart upload protocols.
+     */
+    long getPartOffset(int partNumber) {
+        return (partNumber - 1) * partSize;
+    }
+
+    synchronized long getPartLength(int partNumber) {
+        return Math.min(partSize, size - getPartOffset(partNumber));
+    }
+
+    synchronized boolean isPartCompleted(int partNumber) {
+        return completedParts.containsKey(partNumber);
+    }
+
+    synchronized Map<Integer, String> getCompletedParts() {
+        return new TreeMap<>(completedParts);
+    }
+
+    synchronized long getUploadedBytes() {
+        long bytes = 0;
+        for (Integer partNumber : completedParts.keySet()) {
+            bytes += getPartLength(partNumber);
+        }
+        return bytes;
+    }
+
+    synchronized void completePart(int partNumber, String etag) throws IOException {
+        completedParts.put(partNumber, etag != null ? etag : "");
+        save();
+    }
+
+    void cancel() {
+        cancelled = true;
+    }
+
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    void delete() {
+        stateFile.delete();
+    }
+
+    private synchronized void save() throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("id", id);
+        properties.setProperty("path", path);
+        properties.setProperty("url", url);
+        properties.setProperty("method", method);
+        if (completeUrl != null) {
+            properties.setProperty("completeUrl", completeUrl);
+        }
+        properties.setProperty("size", Long.toString(size));
+        properties.setProperty("lastModified", Long.toString(lastModified));
+        properties.setProperty("partSize", Long.toString(partSize));
+        for (Map.Entry<Integer, String> part : completedParts.entrySet()) {
+            properties.setProperty(PART_PREFIX + part.getKey(), part.getValue());
+        }
+
+        File directory = stateFile.getParentFile();
+        if (directory != null && !directory.exists() && !directory.mkdirs() && !directory.exists()) {
+            throw new IOException("Unable to create " + directory);
+        }
+        File tmp = new File(stateFile.getPath() + ".tmp");
+        OutputStream out = new FileOutputStream(tmp);
+        try {
+            properties.store(out, null);
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(stateFile)) {
+            throw new IOException("Unable to replace " + stateFile);
+        }
+    }
+}
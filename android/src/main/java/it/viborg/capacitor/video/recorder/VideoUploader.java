@@ -0,0 +1,289 @@
+package it.viborg.capacitor.video.recorder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Uploads a file in parts over HTTP. Parts are sent in parallel on the given executor, each
+ * streamed straight from the file channel, and retried with exponential backoff on network
+ * errors and retryable status codes.
+ * <p>
+ * Every part request goes to the upload URL, where "{uploadId}" and "{partNumber}" are
+ * substituted, and carries a Content-Range header. The ETag of each response is recorded and,
+ * if a complete URL is set, posted there as JSON once all parts are done.
+ */
+class VideoUploader {
+
+    interface Listener {
+        void onProgress(VideoUpload upload, long bytes, long total);
+
+        void onComplete(VideoUpload upload);
+
+        void onError(VideoUpload upload, Exception ex);
+    }
+
+    private static final int CONNECT_TIMEOUT_MS = 15000;
+    private static final int READ_TIMEOUT_MS = 60000;
+    private static final long MAX_BACKOFF_MS = 30000;
+
+    private final Executor executor;
+    private final int maxRetries;
+    private final long initialBackoffMs;
+    private final Random random = new Random();
+
+    VideoUploader(Executor executor, int maxRetries, long initialBackoffMs) {
+        this.executor = executor;
+        this.maxRetries = maxRetries;
+        this.initialBackoffMs = initialBackoffMs;
+    }
+
+    /**
+     * Sends all parts that are not completed yet. Returns immediately; the listener is called
+     * from the executor's threads. The channel is closed when the upload finishes.
+     */
+    void upload(final VideoUpload upload, final FileChannel channel, final Listener listener) {
+        List<Integer> pendingParts = new ArrayList<>();
+        for (int partNumber = 1; partNumber <= upload.getPartCount(); partNumber++) {
+            if (!upload.isPartCompleted(partNumber)) {
+                pendingParts.add(partNumber);
+            }
+        }
+        final AtomicLong uploaded = new AtomicLong(upload.getUploadedBytes());
+        final Exception[] firstError = new Exception[1];
+
+        VideoBatchProcessor.processAsCompleted(
+                executor,
+                pendingParts,
+                partNumber -> {
+                    uploadPart(upload, channel, partNumber);
+                    listener.onProgress(upload, uploaded.addAndGet(upload.getPartLength(partNumber)), upload.getSize());
+                    return partNumber;
+                },
+                new VideoBatchProcessor.ItemListener<Integer>() {
+                    @Override
+                    public void onItem(int index, Integer partNumber, Exception error) {
+                        if (error != null) {
+                            synchronized (firstError) {
+                                if (firstError[0] == null) {
+                                    firstError[0] = error;
+                                }
+                            }
+                        }
+                    }
+
+                    @Override
+                    public void onComplete(int count, int failed) {
+                        closeQuietly(channel);
+                        if (failed > 0) {
+                            synchronized (firstError) {
+                                listener.onError(upload, firstError[0]);
+                            }
+                            return;
+                        }
+                        try {
+                            if (upload.getCompleteUrl() != null) {
+                                complete(upload);
+                            }
+                            upload.delete();
+                            listener.onComplete(upload);
+                        } catch (Exception ex) {
+                            listener.onError(upload, ex);
+                        }
+                    }
+                }
+        );
+    }
+
+    private void uploadPart(VideoUpload upload, FileChannel channel, int partNumber) throws IOException, InterruptedException {
+        for (int attempt = 0; ; attempt++) {
+            if (upload.isCancelled()) {
+                throw new CancellationException("Upload cancelled");
+            }
+            try {
+                upload.completePart(partNumber, sendPart(upload, channel, partNumber));
+                return;
+            } catch (RetryableException ex) {
+                if (attempt >= maxRetries) {
+                    throw ex;
+                }
+                Thread.sleep(backoff(attempt));
+            }
+        }
+    }
+
+    private String sendPart(VideoUpload upload, FileChannel channel, int partNumber) throws IOException {
+        long offset = upload.getPartOffset(partNumber);
+        long length = upload.getPartLength(partNumber);
+        String url = upload.getUrl().replace("{uploadId}", upload.getId()).replace("{partNumber}", Integer.toString(partNumber));
+
+        HttpURLConnection connection = open(url, upload.getMethod(), upload.getHeaders());
+        try {
+            connection.setRequestProperty("Content-Type", "application/octet-stream");
+            connection.setRequestProperty("Content-Range", "bytes " + offset + "-" + (offset + length - 1) + "/" + upload.getSize());
+            connection.setFixedLengthStreamingMode(length);
+            OutputStream out = connection.getOutputStream();
+            try {
+                WritableByteChannel target = Channels.newChannel(out);
+                long position = offset;
+                long end = offset + length;
+                while (position < end) {
+                    long transferred = channel.transferTo(position, end - position, target);
+                    if (transferred <= 0) {
+                        throw new IOException("Unexpected end of file at " + position);
+                    }
+                    position += transferred;
+                }
+            } finally {
+                out.close();
+            }
+            checkResponse(connection);
+            return connection.getHeaderField("ETag");
+        } catch (IOException ex) {
+            throw ex instanceof RetryableException || ex instanceof HttpException ? ex : new RetryableException(ex);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private void complete(VideoUpload upload) throws IOException, InterruptedException {
+        StringBuilder body = new StringBuilder();
+        body.append("{\"uploadId\":\"").append(escape(upload.getId())).append("\",\"parts\":[");
+        boolean first = true;
+        for (Map.Entry<Integer, String> part : upload.getCompletedParts().entrySet()) {
+            if (!first) {
+                body.append(',');
+            }
+            first = false;
+            body.append("{\"partNumber\":").append(part.getKey()).append(",\"etag\":\"").append(escape(part.getValue())).append("\"}");
+        }
+        body.append("]}");
+        byte[] data = body.toString().getBytes(StandardCharsets.UTF_8);
+        String url = upload.getCompleteUrl().replace("{uploadId}", upload.getId());
+
+        for (int attempt = 0; ; attempt++) {
+            HttpURLConnection connection = open(url, "POST", upload.getHeaders());
+            try {
+                connection.setRequestProperty("Content-Type", "application/json");
+                connection.setFixedLengthStreamingMode(data.length);
+                OutputStream out = connection.getOutputStream();
+                try {
+                    out.write(data);
+                } finally {
+                    out.close();
+                }
+                checkResponse(connection);
+                return;
+            } catch (HttpException ex) {
+                throw ex;
+            } catch (IOException ex) {
+                if (attempt >= maxRetries) {
+                    throw ex;
+                }
+            } finally {
+                connection.disconnect();
+            }
+            Thread.sleep(backoff(attempt));
+        }
+    }
+
+    private static HttpURLConnection open(String url, String method, Map<String, String> headers) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(READ_TIMEOUT_MS);
+        connection.setRequestMethod(method);
+        connection.setDoOutput(true);
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            connection.setRequestProperty(header.getKey(), header.getValue());
+        }
+        return connection;
+    }
+
+    /**
+     * Throws for anything but a 2xx response. Timeouts, throttling and server errors are
+     * retryable, other client errors are not.
+     */
+    private static void checkResponse(HttpURLConnection connection) throws IOException {
+        int status = connection.getResponseCode();
+        InputStream body = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+        if (body != null) {
+            // Drain the body so the connection can be reused
+            byte[] buffer = new byte[1024];
+            try {
+                while (body.read(buffer) != -1) {}
+            } finally {
+                body.close();
+            }
+        }
+        if (status >= 200 && status < 300) {
+            return;
+        }
+        if (status == 408 || status == 429 || status >= 500) {
+            throw new RetryableException(new IOException("HTTP " + status));
+        }
+        throw new HttpException(status);
+    }
+
+    private long backoff(int attempt) {
+        long delay = Math.min(MAX_BACKOFF_MS, initialBackoffMs << Math.min(attempt, 16));
+        // Up to 50% jitter so parallel parts don't retry in lockstep
+        return delay + (long) (random.nextDouble() * delay / 2);
+    }
+
+    private static String escape(String value) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                builder.append('\\').append(c);
+            } else if (c < 0x20) {
+                builder.append(String.format("\\u%04x", (int) c));
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {}
+    }
+
+    static class HttpException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private final int status;
+
+        HttpException(int status) {
+            super("HTTP " + status);
+            this.status = status;
+        }
+
+        int getStatus() {
+            return status;
+        }
+    }
+
+    private static class RetryableException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        RetryableException(IOException cause) {
+            super(cause.getMessage(), cause);
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package it.viborg.capacitor.video.recorder;
+
+import com.getcapacitor.Logger;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Write-ahead journal of work that should still finish if the process dies halfway: captures
+ * from the moment the file is created until the caller has the result, and picked videos that
+ * are being imported or hashed. Every change is appended to the file as one JSON line before
+ * the work it describes goes ahead. Records are written straight through to the file, which is
+ * all that surviving process death takes, but are not synced to disk.
+ *
+ * <p>{@link #getUnfinished()} returns the entries that a previous run began and never ended, so
+ * the plugin can resume them. A torn last line left by a crash mid-write is skipped.
+ */
+class VideoWorkJournal {
+    private static final String LOG_TAG = "VideoWorkJournal";
+
+    static final String KIND_CAPTURE = "capture";
+    static final String KIND_PICK = "pick";
+
+    private static final String OP_BEGIN = "begin";
+    private static final String OP_RESULT = "result";
+    private static final String OP_END = "end";
+    // Records of ended entries the file may hold before it is rewritten
+    private static final int COMPACT_THRESHOLD = 100;
+
+    static class Entry {
+        final String id;
+        final String kind;
+        final JSONObject data;
+        // Results of finished items, keyed by item
+        final Map<String, JSONObject> results = new LinkedHashMap<>();
+        // Begun by an earlier run of the app
+        final boolean previousRun;
+
+        Entry(String id, String kind, JSONObject data, boolean previousRun) {
+            this.id = id;
+            this.kind = kind;
+            this.data = data;
+            this.previousRun = previousRun;
+        }
+    }
+
+    private final File file;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+    private boolean loaded = false;
+    private int endedRecords = 0;
+
+    VideoWorkJournal(File file) {
+        this.file = file;
+    }
+
+    /**
+     * The entries an earlier run of the app began and never ended.
+     */
+    synchronized List<Entry> getUnfinished() {
+        ensureLoaded();
+        List<Entry> unfinished = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            if (entry.previousRun) {
+                unfinished.add(entry);
+            }
+        }
+        return unfinished;
+    }
+
+    synchronized void begin(String id, String kind, JSONObject data) {
+        ensureLoaded();
+        entries.put(id, new Entry(id, kind, data, false));
+        try {
+            append(beginRecord(id, kind, data));
+        } catch (JSONException ex) {
+            Logger.error(LOG_TAG, "Unable to journal " + id, ex);
+        }
+    }
+
+    /**
+     * Records the result of one item of an entry, so it is not processed again on resume.
+     */
+    synchronized void result(String id, String item, JSONObject result) {
+        ensureLoaded();
+        Entry entry = entries.get(id);
+        if (entry == null) {
+            return;
+        }
+        entry.results.put(item, result);
+        try {
+            append(resultRecord(id, item, result));
+        } catch (JSONException ex) {
+            Logger.error(LOG_TAG, "Unable to journal result of " + id, ex);
+        }
+    }
+
+    synchronized void end(String id) {
+        ensureLoaded();
+        Entry entry = entries.remove(id);
+        if (entry == null) {
+            return;
+        }
+        if (entries.isEmpty()) {
+            // Nothing left to resume, start over with an empty file
+            file.delete();
+            endedRecords = 0;
+            return;
+        }
+        endedRecords += entry.results.size() + 2;
+        if (endedRecords < COMPACT_THRESHOLD) {
+            try {
+                append(new JSONObject().put("op", OP_END).put("id", id));
+            } catch (JSONException ex) {
+                Logger.error(LOG_TAG, "Unable to journal end of " + id, ex);
+            }
+            return;
+        }
+        compact();
+    }
+
+    private void append(JSONObject record) {
+        try (OutputStream out = new FileOutputStream(file, true)) {
+            out.write((record.toString() + "\n").getBytes(StandardCharsets.UTF_8));
+        } catch (IOException ex) {
+            Logger.error(LOG_TAG, "Unable to write work journal", ex);
+        }
+    }
+
+    /**
+     * Rewrites the file with only the entries that have not ended.
+     */
+    private void compact() {
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            try (OutputStream out = new FileOutputStream(tmp)) {
+                StringBuilder records = new StringBuilder();
+                for (Entry entry : entries.values()) {
+                    records.append(beginRecord(entry.id, entry.kind, entry.data)).append('\n');
+                    for (Map.Entry<String, JSONObject> result : entry.results.entrySet()) {
+                        records.append(resultRecord(entry.id, result.getKey(), result.getValue())).append('\n');
+                    }
+                }
+                out.write(records.toString().getBytes(StandardCharsets.UTF_8));
+            }
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Unable to replace " + file);
+            }
+            endedRecords = 0;
+        } catch (IOException | JSONException ex) {
+            Logger.error(LOG_TAG, "Unable to compact work journal", ex);
+        }
+    }
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!file.exists()) {
+            return;
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                try {
+                    replay(new JSONObject(line));
+                } catch (JSONException ex) {
+                    Logger.debug(LOG_TAG, "Skipping corrupt journal record");
+                }
+            }
+        } catch (IOException ex) {
+            Logger.error(LOG_TAG, "Unable to read work journal", ex);
+            return;
+        }
+        if (entries.isEmpty()) {
+            file.delete();
+        } else {
+            compact();
+        }
+    }
+
+    private void replay(JSONObject record) throws JSONException {
+        String id = record.getString("id");
+        switch (record.getString("op")) {
+            case OP_BEGIN:
+                entries.put(id, new Entry(id, record.getString("kind"), record.getJSONObject("data"), true));
+                break;
+            case OP_RESULT:
+                Entry entry = entries.get(id);
+                if (entry != null) {
+                    entry.results.put(record.getString("item"), record.getJSONObject("result"));
+                }
+                break;
+            case OP_END:
+                entries.remove(id);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static JSONObject beginRecord(String id, String kind, JSONObject data) throws JSONException {
+        return new JSONObject().put("op", OP_BEGIN).put("id", id).put("kind", kind).put("data", data);
+    }
+
+    private static JSONObject resultRecord(String id, String item, JSONObject result) throws JSONException {
+        return new JSONObject().put("op", OP_RESULT).put("id", id).put("item", item).put("result", result);
+    }
+}
@@ -0,0 +1,69 @@
+package it.viborg.capacitor.video.recorder;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Factory for the bounded thread pools owned by the plugin. Threads are created lazily and
+ * time out when idle, so an unused pool costs nothing.
+ */
+class VideoWorkerPool {
+
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private VideoWorkerPool() {}
+
+    static ExecutorService newPool(final String name, int size) {
+        final int threads = Math.max(1, size);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                threads,
+                threads,
+                KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                new NamedThreadFactory(name)
+        );
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * A pool without a queue for tasks that hold their thread for a long time, such as
+     * connections. Execution is rejected while all threads are busy.
+     */
+    static ExecutorService newHandoffPool(final String name, int size) {
+        return new ThreadPoolExecutor(
+                0,
+                Math.max(1, size),
+                KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS,
+                new SynchronousQueue<>(),
+                new NamedThreadFactory(name)
+        );
+    }
+
+    static int defaultSize() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    private static class NamedThreadFactory implements ThreadFactory {
+        private final String name;
+        private final AtomicInteger count = new AtomicInteger();
+
+        NamedThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package it.viborg.capacitor.video.recorder;
+
+import android.net.Uri;
+
+import com.getcapacitor.PluginCall;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Recorder backend for JVM tests. It writes a fixed number of bytes to the output when
+ * stopped, or reports whatever outcome the test asks for.
+ */
+public class FakeRecorderBackend implements RecorderBackend {
+    private final int recordedBytes;
+    private Uri output;
+    private Callback callback;
+    private boolean available = true;
+    private int started = 0;
+    private boolean released = false;
+
+    public FakeRecorderBackend(int recordedBytes) {
+        this.recordedBytes = recordedBytes;
+    }
+
+    public void setAvailable(boolean available) {
+        this.available = available;
+    }
+
+    public int getStartCount() {
+        return started;
+    }
+
+    public boolean isRecording() {
+        return callback != null;
+    }
+
+    public boolean isReleased() {
+        return released;
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return available;
+    }
+
+    @Override
+    public void start(PluginCall call, Uri output, VideoRecorderSettings settings, Callback callback) {
+        if (this.callback != null) {
+            callback.onError("A recording is already in progress", null);
+            return;
+        }
+        this.output = output;
+        this.callback = callback;
+        started++;
+    }
+
+    @Override
+    public void stop() {
+        Callback finished = callback;
+        if (finished == null) {
+            return;
+        }
+        callback = null;
+        try {
+            FileOutputStream out = new FileOutputStream(VideoRecorderUtils.toFile(output));
+            try {
+                out.write(new byte[recordedBytes]);
+            } finally {
+                out.close();
+            }
+        } catch (IOException ex) {
+            finished.onError("Unable to write recording", ex);
+            return;
+        }
+        if (recordedBytes > 0) {
+            finished.onRecorded(output);
+        } else {
+            finished.onCancelled();
+        }
+    }
+
+    public void cancel() {
+        Callback cancelled = callback;
+        callback = null;
+        if (cancelled != null) {
+            cancelled.onCancelled();
+        }
+    }
+
+    public void fail(String message) {
+        Callback failed = callback;
+        callback = null;
+        if (failed != null) {
+            failed.onError(message, null);
+        }
+    }
+
+    @Override
+    public void release() {
+        released = true;
+        cancel();
+    }
+}
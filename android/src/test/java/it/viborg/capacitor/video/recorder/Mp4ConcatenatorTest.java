@@ -0,0 +1,137 @@
+package it.viborg.capacitor.video.recorder;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Joins synthetic recordings of two and three seconds, with keyframes at every full second.
+ */
+public class Mp4ConcatenatorTest {
+
+    // Audio frames of the clips, the last one runs past the end of the video
+    private static final int FIRST_AUDIO_SAMPLES = 94;
+    private static final int SECOND_AUDIO_SAMPLES = 141;
+
+    private File directory;
+    private FileChannel first;
+    private FileChannel second;
+    private RandomAccessFile output;
+    private FileChannel out;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = TestFiles.createTempDirectory();
+        first = new FileInputStream(Mp4Fixtures.createMp4(directory, "first.mp4", 2)).getChannel();
+        second = new FileInputStream(Mp4Fixtures.createMp4(directory, "second.mp4", 3)).getChannel();
+        output = new RandomAccessFile(new File(directory, "output.mp4"), "rw");
+        out = output.getChannel();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        first.close();
+        second.close();
+        output.close();
+        TestFiles.deleteRecursively(directory);
+    }
+
+    @Test
+    public void appendsTheSampleTables() throws IOException {
+        long durationMs = Mp4Concatenator.read(Arrays.asList(first, second)).write(out);
+
+        // The audio of the second clip ends 8 ms after its video
+        assertEquals(5008, durationMs);
+        List<Mp4Track> tracks = Mp4Fixtures.readTracks(out);
+        Mp4Box video = tracks.get(0).getSampleTable();
+        assertArrayEquals(new int[] { 0, 1, 150, 1000 }, Mp4Fixtures.readInts(video.find("stts")));
+        assertArrayEquals(new int[] { 0, 5, 1, 31, 61, 91, 121 }, Mp4Fixtures.readInts(video.find("stss")));
+        assertArrayEquals(new int[] { 0, 1, 1, 15, 1 }, Mp4Fixtures.readInts(video.find("stsc")));
+        assertEquals(10, Mp4Fixtures.readInts(video.find("stco"))[1]);
+        assertEquals(FIRST_AUDIO_SAMPLES + SECOND_AUDIO_SAMPLES, tracks.get(1).getSampleCount());
+    }
+
+    @Test
+    public void shortensTheLastAudioFrameOfAClip() throws IOException {
+        Mp4Concatenator.read(Arrays.asList(first, second)).write(out);
+
+        // The second clip starts at 2 s, 96000 ticks, where the first clip's last frame would
+        // end at 96256
+        Mp4Box audio = Mp4Fixtures.readTracks(out).get(1).getSampleTable();
+        assertArrayEquals(
+                new int[] { 0, 3, FIRST_AUDIO_SAMPLES - 1, 1024, 1, 768, SECOND_AUDIO_SAMPLES, 1024 },
+                Mp4Fixtures.readInts(audio.find("stts"))
+        );
+        assertEquals(2 * Mp4Fixtures.AUDIO_TIMESCALE, Mp4Fixtures.readTracks(out).get(1).getDecodeTime(FIRST_AUDIO_SAMPLES));
+    }
+
+    @Test
+    public void writesDurationsAndEditLists() throws IOException {
+        Mp4Concatenator.read(Arrays.asList(first, second)).write(out);
+
+        Mp4Box moov = Mp4File.scan(out).readMoov(out);
+        assertEquals(5008, Mp4Track.readDuration(moov.find("mvhd")));
+        List<Mp4Box> traks = moov.findAll("trak");
+        assertArrayEquals(new int[] { 0, 1, 5000, 0, 0x00010000 }, Mp4Fixtures.readInts(traks.get(0).find("edts", "elst")));
+        assertArrayEquals(new int[] { 0, 1, 5008, 0, 0x00010000 }, Mp4Fixtures.readInts(traks.get(1).find("edts", "elst")));
+        assertEquals(150 * Mp4Fixtures.FRAME_DURATION, Mp4Track.readDuration(traks.get(0).find("mdia", "mdhd")));
+        assertEquals(96000 + SECOND_AUDIO_SAMPLES * 1024, Mp4Track.readDuration(traks.get(1).find("mdia", "mdhd")));
+    }
+
+    @Test
+    public void copiesTheClipsOneAfterTheOther() throws IOException {
+        Mp4Concatenator.read(Arrays.asList(first, second)).write(out);
+
+        List<Mp4Track> firstTracks = Mp4Fixtures.readTracks(first);
+        List<Mp4Track> secondTracks = Mp4Fixtures.readTracks(second);
+        List<Mp4Track> joined = Mp4Fixtures.readTracks(out);
+        int[] firstCounts = { 60, FIRST_AUDIO_SAMPLES };
+        int[] secondCounts = { 90, SECOND_AUDIO_SAMPLES };
+        for (int t = 0; t < 2; t++) {
+            assertArrayEquals(
+                    Mp4Fixtures.readSamples(first, firstTracks.get(t), 0, firstCounts[t]),
+                    Mp4Fixtures.readSamples(out, joined.get(t), 0, firstCounts[t])
+            );
+            assertArrayEquals(
+                    Mp4Fixtures.readSamples(second, secondTracks.get(t), 0, secondCounts[t]),
+                    Mp4Fixtures.readSamples(out, joined.get(t), firstCounts[t], firstCounts[t] + secondCounts[t])
+            );
+        }
+
+        // ftyp, moov, and an mdat holding the samples of both clips and nothing else
+        List<Mp4File.Entry> entries = Mp4File.scan(out).getEntries();
+        assertEquals(3, entries.size());
+        assertEquals("moov", entries.get(1).type);
+        long sampleBytes = 0;
+        for (Mp4Track track : joined) {
+            for (int sample = 0; sample < track.getSampleCount(); sample++) {
+                sampleBytes += track.getSampleSize(sample);
+            }
+        }
+        assertEquals(8 + sampleBytes, entries.get(2).size);
+        // The clips keep their order and their own interleaving
+        assertEquals(entries.get(2).offset + 8, joined.get(0).getSampleOffset(0));
+        assertTrue(joined.get(1).getSampleOffset(FIRST_AUDIO_SAMPLES - 1) < joined.get(0).getSampleOffset(60));
+    }
+
+    @Test
+    public void rejectsClipsWithOtherTracks() throws IOException {
+        try (FileChannel silent = new FileInputStream(Mp4Fixtures.createMp4(directory, "silent.mp4", 2, false)).getChannel()) {
+            Mp4Concatenator.read(Arrays.asList(first, silent));
+            fail("Joined clips with different tracks");
+        } catch (Mp4Concatenator.IncompatibleException ex) {
+            assertEquals("Clip 2 has 1 tracks, clip 1 has 2", ex.getMessage());
+        }
+        assertEquals(0, out.size());
+    }
+}
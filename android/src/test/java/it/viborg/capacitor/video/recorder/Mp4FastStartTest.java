@@ -0,0 +1,142 @@
+package it.viborg.capacitor.video.recorder;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Moves moov to the front of synthetic recordings and checks that every chunk offset follows
+ * its data.
+ */
+public class Mp4FastStartTest {
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = TestFiles.createTempDirectory();
+    }
+
+    @After
+    public void tearDown() {
+        TestFiles.deleteRecursively(directory);
+    }
+
+    @Test
+    public void movesMoovInFrontOfTheMediaData() throws IOException {
+        File original = Mp4Fixtures.createMp4(directory, "original.mp4", 2);
+        File file = Mp4Fixtures.createMp4(directory, "video.mp4", 2);
+
+        assertTrue(Mp4FastStart.process(file));
+
+        assertEquals(original.length(), file.length());
+        assertArrayEquals(new String[] { "original.mp4", "video.mp4" }, sortedNames());
+        try (
+                FileChannel before = new FileInputStream(original).getChannel();
+                FileChannel after = new FileInputStream(file).getChannel()
+        ) {
+            List<Mp4File.Entry> entries = Mp4File.scan(after).getEntries();
+            assertEquals("ftyp", entries.get(0).type);
+            assertEquals("moov", entries.get(1).type);
+            assertEquals("mdat", entries.get(2).type);
+            assertSamplesFollow(before, after, entries.get(1).size);
+        }
+    }
+
+    @Test
+    public void leavesFastStartFilesAlone() throws IOException {
+        File file = Mp4Fixtures.createMp4(directory, "video.mp4", 2);
+        assertTrue(Mp4FastStart.process(file));
+        byte[] processed = Files.readAllBytes(file.toPath());
+
+        assertFalse(Mp4FastStart.process(file));
+
+        assertArrayEquals(processed, Files.readAllBytes(file.toPath()));
+        assertArrayEquals(new String[] { "video.mp4" }, sortedNames());
+    }
+
+    @Test
+    public void switchesToCo64WhenTheMoovPushesOffsetsPast4Gb() throws IOException {
+        // Lay the file out once to learn the chunk offsets, then pad mdat so the last chunk
+        // starts 64 bytes below 4 GB; the larger mdat header moves it by another 8 bytes
+        SparseFileChannel probe = new SparseFileChannel();
+        Mp4Fixtures.write(probe, 2, true, 0);
+        long lastChunk = 0;
+        for (Mp4Track track : Mp4Fixtures.readTracks(probe)) {
+            lastChunk = Math.max(lastChunk, max(Mp4SampleTable.readChunkOffsets(track.getSampleTable())));
+        }
+        SparseFileChannel in = new SparseFileChannel();
+        Mp4Fixtures.write(in, 2, true, 0x100000000L - 64 - 8 - lastChunk);
+        long inputMax = 0;
+        for (Mp4Track track : Mp4Fixtures.readTracks(in)) {
+            assertNotNull(track.getSampleTable().find("stco"));
+            inputMax = Math.max(inputMax, max(Mp4SampleTable.readChunkOffsets(track.getSampleTable())));
+        }
+        assertEquals(0x100000000L - 64, inputMax);
+
+        SparseFileChannel out = new SparseFileChannel();
+        assertTrue(Mp4FastStart.process(in, out));
+
+        Mp4File.Entry moov = Mp4File.scan(out).getEntries().get(1);
+        assertEquals("moov", moov.type);
+        // Only moov grows, by 4 bytes for every chunk offset that was widened
+        long growth = moov.size - Mp4File.scan(in).first("moov").size;
+        assertTrue(growth > 0);
+        assertEquals(in.size() + growth, out.size());
+        assertSamplesFollow(in, out, moov.size);
+        for (Mp4Track track : Mp4Fixtures.readTracks(out)) {
+            Mp4Box stbl = track.getSampleTable();
+            boolean wide = max(Mp4SampleTable.readChunkOffsets(stbl)) > 0xffffffffL;
+            assertEquals(wide, stbl.find("co64") != null);
+            assertEquals(!wide, stbl.find("stco") != null);
+        }
+        // Audio holds the last chunk
+        assertNotNull(Mp4Fixtures.readTracks(out).get(1).getSampleTable().find("co64"));
+    }
+
+    /**
+     * Checks that every sample moved by exactly the size of the moov box and still points at
+     * its own data.
+     */
+    private static void assertSamplesFollow(FileChannel before, FileChannel after, long moovSize) throws IOException {
+        List<Mp4Track> beforeTracks = Mp4Fixtures.readTracks(before);
+        List<Mp4Track> afterTracks = Mp4Fixtures.readTracks(after);
+        assertEquals(beforeTracks.size(), afterTracks.size());
+        for (int t = 0; t < beforeTracks.size(); t++) {
+            Mp4Track expected = beforeTracks.get(t);
+            Mp4Track actual = afterTracks.get(t);
+            assertEquals(expected.getSampleCount(), actual.getSampleCount());
+            for (int sample = 0; sample < expected.getSampleCount(); sample++) {
+                assertEquals(expected.getSampleOffset(sample) + moovSize, actual.getSampleOffset(sample));
+            }
+            assertArrayEquals(
+                    Mp4Fixtures.readSamples(before, expected, 0, expected.getSampleCount()),
+                    Mp4Fixtures.readSamples(after, actual, 0, actual.getSampleCount())
+            );
+        }
+    }
+
+    private String[] sortedNames() {
+        String[] names = directory.list();
+        Arrays.sort(names);
+        return names;
+    }
+
+    private static long max(long[] values) {
+        long max = 0;
+        for (long value : values) {
+            max = Math.max(max, value);
+        }
+        return max;
+    }
+}
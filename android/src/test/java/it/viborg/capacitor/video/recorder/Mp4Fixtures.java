@@ -0,0 +1,284 @@
+package it.viborg.capacitor.video.recorder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Synthetic MP4 files laid out the way camera apps write them: a 30 fps video track with a
+ * keyframe every second and an AAC-sized audio track, interleaved in half second chunks with
+ * moov at the end. Every sample starts with the length of the video in seconds, its track ID
+ * and its index, so the data of a sample can be told apart from every other sample's.
+ */
+class Mp4Fixtures {
+
+    static final int VIDEO_TIMESCALE = 30000;
+    static final int FRAME_DURATION = 1000;
+    static final int FRAMES_PER_SECOND = 30;
+    static final int AUDIO_TIMESCALE = 48000;
+    static final int AUDIO_FRAME_DURATION = 1024;
+    static final int KEYFRAME_SIZE = 24 * 1024;
+    static final int FRAME_SIZE = 3 * 1024;
+    static final int AUDIO_FRAME_SIZE = 384;
+
+    private static final int VIDEO_TRACK_ID = 1;
+    private static final int AUDIO_TRACK_ID = 2;
+
+    private Mp4Fixtures() {}
+
+    static File createMp4(File directory, String name, int seconds) throws IOException {
+        return createMp4(directory, name, seconds, true);
+    }
+
+    static File createMp4(File directory, String name, int seconds, boolean withAudio) throws IOException {
+        File file = new File(directory, name);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(0);
+            write(raf.getChannel(), seconds, withAudio, 0);
+        }
+        return file;
+    }
+
+    /**
+     * Writes an MP4 to an empty channel. The media data starts with {@code gap} bytes that are
+     * skipped rather than written, which pushes the chunk offsets up without filling a sparse
+     * file.
+     */
+    static void write(FileChannel out, int seconds, boolean withAudio, long gap) throws IOException {
+        Mp4SampleTable.Builder video = new Mp4SampleTable.Builder();
+        Mp4SampleTable.Builder audio = new Mp4SampleTable.Builder();
+        // Chunks in mdat order: track ID, first sample, sample count and size
+        List<long[]> chunks = new ArrayList<>();
+
+        int frames = seconds * FRAMES_PER_SECOND;
+        int audioSamples = 0;
+        long audioTime = 0;
+        for (int first = 0; first < frames; first += FRAMES_PER_SECOND / 2) {
+            int last = Math.min(frames, first + FRAMES_PER_SECOND / 2);
+            video.startChunk(1);
+            long size = 0;
+            for (int frame = first; frame < last; frame++) {
+                video.addSample(sampleSize(VIDEO_TRACK_ID, frame), FRAME_DURATION, 0, frame % FRAMES_PER_SECOND == 0);
+                size += sampleSize(VIDEO_TRACK_ID, frame);
+            }
+            chunks.add(new long[] { VIDEO_TRACK_ID, first, last - first, size });
+
+            if (!withAudio) {
+                continue;
+            }
+            audio.startChunk(1);
+            int firstAudio = audioSamples;
+            long chunkEnd = (long) last * FRAME_DURATION * AUDIO_TIMESCALE / VIDEO_TIMESCALE;
+            while (audioTime < chunkEnd) {
+                audio.addSample(AUDIO_FRAME_SIZE, AUDIO_FRAME_DURATION, 0, true);
+                audioTime += AUDIO_FRAME_DURATION;
+                audioSamples++;
+            }
+            chunks.add(new long[] { AUDIO_TRACK_ID, firstAudio, audioSamples - firstAudio, (long) (audioSamples - firstAudio) * AUDIO_FRAME_SIZE });
+        }
+
+        Mp4Box ftyp = new Mp4Box(
+                "ftyp",
+                ByteBuffer.allocate(24).put(ascii("isom")).putInt(0x200).put(ascii("isomiso2avc1mp41")).array()
+        );
+        long dataSize = gap;
+        for (long[] chunk : chunks) {
+            dataSize += chunk[3];
+        }
+        int mdatHeaderSize = dataSize + 8 > 0xffffffffL ? 16 : 8;
+        long[] videoOffsets = new long[video.getChunkCount()];
+        long[] audioOffsets = new long[audio.getChunkCount()];
+        long position = ftyp.getSize() + mdatHeaderSize + gap;
+        int videoChunk = 0;
+        int audioChunk = 0;
+        for (long[] chunk : chunks) {
+            if (chunk[0] == VIDEO_TRACK_ID) {
+                videoOffsets[videoChunk++] = position;
+            } else {
+                audioOffsets[audioChunk++] = position;
+            }
+            position += chunk[3];
+        }
+
+        long durationMs = (long) frames * FRAME_DURATION * 1000 / VIDEO_TIMESCALE;
+        List<Mp4Box> moovChildren = new ArrayList<>();
+        moovChildren.add(new Mp4Box("mvhd", movieHeader(durationMs)));
+        moovChildren.add(track(VIDEO_TRACK_ID, "vide", VIDEO_TIMESCALE, video, videoOffsets, durationMs));
+        if (withAudio) {
+            moovChildren.add(track(AUDIO_TRACK_ID, "soun", AUDIO_TIMESCALE, audio, audioOffsets, durationMs));
+        }
+        Mp4Box moov = new Mp4Box("moov", moovChildren);
+
+        Random random = new Random(seconds);
+        byte[] filler = new byte[KEYFRAME_SIZE];
+        random.nextBytes(filler);
+        Mp4File.writeFully(out, ftyp.toBuffer());
+        ByteBuffer header = ByteBuffer.allocate(mdatHeaderSize);
+        if (mdatHeaderSize == 16) {
+            header.putInt(1).put(ascii("mdat")).putLong(dataSize + 16);
+        } else {
+            header.putInt((int) (dataSize + 8)).put(ascii("mdat"));
+        }
+        header.flip();
+        Mp4File.writeFully(out, header);
+        out.position(out.position() + gap);
+        for (long[] chunk : chunks) {
+            ByteBuffer data = ByteBuffer.allocate((int) chunk[3]);
+            for (int sample = (int) chunk[1]; sample < chunk[1] + chunk[2]; sample++) {
+                int size = sampleSize((int) chunk[0], sample);
+                data.putInt(seconds).putInt((int) chunk[0]).putInt(sample).put(filler, 0, size - 12);
+            }
+            data.flip();
+            Mp4File.writeFully(out, data);
+        }
+        Mp4File.writeFully(out, moov.toBuffer());
+    }
+
+    static List<Mp4Track> readTracks(FileChannel channel) throws IOException {
+        return Mp4Track.readAll(Mp4File.scan(channel).readMoov(channel));
+    }
+
+    /**
+     * The data of the samples from {@code from} up to {@code to}, one after the other.
+     */
+    static byte[] readSamples(FileChannel channel, Mp4Track track, int from, int to) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int sample = from; sample < to; sample++) {
+            ByteBuffer buffer = ByteBuffer.allocate(track.getSampleSize(sample));
+            Mp4File.readFully(channel, buffer, track.getSampleOffset(sample), buffer.capacity());
+            out.write(buffer.array(), 0, buffer.capacity());
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * The data of a table box as big-endian ints, starting with its version and flags.
+     */
+    static int[] readInts(Mp4Box box) {
+        ByteBuffer buffer = box.buffer();
+        int[] ints = new int[buffer.remaining() / 4];
+        for (int i = 0; i < ints.length; i++) {
+            ints[i] = buffer.getInt();
+        }
+        return ints;
+    }
+
+    private static int sampleSize(int trackId, int sample) {
+        if (trackId == AUDIO_TRACK_ID) {
+            return AUDIO_FRAME_SIZE;
+        }
+        return sample % FRAMES_PER_SECOND == 0 ? KEYFRAME_SIZE : FRAME_SIZE;
+    }
+
+    private static Mp4Box track(int id, String handler, int timescale, Mp4SampleTable.Builder samples, long[] chunkOffsets, long durationMs) {
+        boolean isVideo = "vide".equals(handler);
+        Mp4Box stbl = new Mp4Box(
+                "stbl",
+                new ArrayList<>(Arrays.asList(new Mp4Box("stsd", isVideo ? videoDescription() : audioDescription())))
+        );
+        long maxOffset = 0;
+        for (long offset : chunkOffsets) {
+            maxOffset = Math.max(maxOffset, offset);
+        }
+        samples.write(stbl, chunkOffsets, maxOffset > 0xffffffffL);
+
+        Mp4Box dref = new Mp4Box(
+                "dref",
+                ByteBuffer.allocate(20).putInt(0).putInt(1).putInt(12).put(ascii("url ")).putInt(1).array()
+        );
+        Mp4Box minf = new Mp4Box(
+                "minf",
+                new ArrayList<>(
+                        Arrays.asList(
+                                isVideo ? new Mp4Box("vmhd", ByteBuffer.allocate(12).putInt(1).array()) : new Mp4Box("smhd", new byte[8]),
+                                new Mp4Box("dinf", new ArrayList<>(Arrays.asList(dref))),
+                                stbl
+                        )
+                )
+        );
+        Mp4Box mdia = new Mp4Box(
+                "mdia",
+                new ArrayList<>(
+                        Arrays.asList(
+                                new Mp4Box("mdhd", mediaHeader(timescale, samples.getDuration())),
+                                new Mp4Box("hdlr", ByteBuffer.allocate(25).putInt(0).putInt(0).put(ascii(handler)).array()),
+                                minf
+                        )
+                )
+        );
+        return new Mp4Box("trak", new ArrayList<>(Arrays.asList(new Mp4Box("tkhd", trackHeader(id, isVideo, durationMs)), mdia)));
+    }
+
+    private static byte[] movieHeader(long durationMs) {
+        ByteBuffer buffer = ByteBuffer.allocate(100);
+        buffer.putInt(0).putInt(0).putInt(0).putInt(1000).putInt((int) durationMs);
+        buffer.putInt(0x00010000).putShort((short) 0x0100);
+        buffer.position(buffer.position() + 10);
+        putMatrix(buffer);
+        buffer.position(buffer.position() + 24);
+        buffer.putInt(3);
+        return buffer.array();
+    }
+
+    private static byte[] trackHeader(int id, boolean isVideo, long durationMs) {
+        ByteBuffer buffer = ByteBuffer.allocate(84);
+        buffer.putInt(3).putInt(0).putInt(0).putInt(id).putInt(0).putInt((int) durationMs);
+        buffer.position(buffer.position() + 12);
+        buffer.putShort(isVideo ? 0 : (short) 0x0100).putShort((short) 0);
+        putMatrix(buffer);
+        buffer.putInt(isVideo ? 1920 << 16 : 0).putInt(isVideo ? 1080 << 16 : 0);
+        return buffer.array();
+    }
+
+    private static byte[] mediaHeader(int timescale, long duration) {
+        // Language "und"
+        return ByteBuffer.allocate(24).putInt(0).putInt(0).putInt(0).putInt(timescale).putInt((int) duration).putShort((short) 0x55c4).array();
+    }
+
+    private static byte[] videoDescription() {
+        ByteBuffer entry = ByteBuffer.allocate(86);
+        entry.putInt(86).put(ascii("avc1"));
+        entry.position(entry.position() + 6);
+        entry.putShort((short) 1);
+        entry.position(entry.position() + 16);
+        entry.putShort((short) 1920).putShort((short) 1080).putInt(0x00480000).putInt(0x00480000).putInt(0).putShort((short) 1);
+        entry.position(entry.position() + 32);
+        entry.putShort((short) 0x18).putShort((short) -1);
+        return description(entry.array());
+    }
+
+    private static byte[] audioDescription() {
+        ByteBuffer entry = ByteBuffer.allocate(36);
+        entry.putInt(36).put(ascii("mp4a"));
+        entry.position(entry.position() + 6);
+        entry.putShort((short) 1);
+        entry.position(entry.position() + 8);
+        entry.putShort((short) 1).putShort((short) 16).putInt(0).putInt(AUDIO_TIMESCALE << 16);
+        return description(entry.array());
+    }
+
+    private static byte[] description(byte[] entry) {
+        return ByteBuffer.allocate(8 + entry.length).putInt(0).putInt(1).put(entry).array();
+    }
+
+    private static void putMatrix(ByteBuffer buffer) {
+        buffer.putInt(0x00010000).putInt(0).putInt(0);
+        buffer.putInt(0).putInt(0x00010000).putInt(0);
+        buffer.putInt(0).putInt(0).putInt(0x40000000);
+    }
+
+    static byte[] ascii(String value) {
+        byte[] bytes = new byte[value.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) value.charAt(i);
+        }
+        return bytes;
+    }
+}
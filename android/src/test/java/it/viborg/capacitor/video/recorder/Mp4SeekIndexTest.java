@@ -0,0 +1,115 @@
+package it.viborg.capacitor.video.recorder;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Reads the keyframe index of four second synthetic recordings, which have a keyframe at every
+ * full second.
+ */
+public class Mp4SeekIndexTest {
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = TestFiles.createTempDirectory();
+    }
+
+    @After
+    public void tearDown() {
+        TestFiles.deleteRecursively(directory);
+    }
+
+    @Test
+    public void listsEveryKeyframe() throws IOException {
+        File file = Mp4Fixtures.createMp4(directory, "video.mp4", 4);
+        try (FileChannel channel = new FileInputStream(file).getChannel()) {
+            Mp4SeekIndex index = Mp4SeekIndex.read(channel);
+
+            assertEquals(4, index.getCount());
+            assertEquals(4.0, index.getDuration(), 0);
+            for (int i = 0; i < 4; i++) {
+                assertEquals(i, index.getTime(i), 0);
+                assertSampleAt(channel, index.getOffset(i), i * Mp4Fixtures.FRAMES_PER_SECOND);
+            }
+        }
+    }
+
+    @Test
+    public void followsTheMoovToTheFront() throws IOException {
+        File file = Mp4Fixtures.createMp4(directory, "video.mp4", 4);
+        assertTrue(Mp4FastStart.process(file));
+        try (FileChannel channel = new FileInputStream(file).getChannel()) {
+            Mp4SeekIndex index = Mp4SeekIndex.read(channel);
+
+            assertEquals(4, index.getCount());
+            for (int i = 0; i < 4; i++) {
+                assertSampleAt(channel, index.getOffset(i), i * Mp4Fixtures.FRAMES_PER_SECOND);
+            }
+        }
+    }
+
+    @Test
+    public void startsAtTheBeginningOfATrimmedVideo() throws IOException {
+        File file = Mp4Fixtures.createMp4(directory, "video.mp4", 4);
+        File trimmed = new File(directory, "trimmed.mp4");
+        try (
+                FileChannel in = new FileInputStream(file).getChannel();
+                RandomAccessFile out = new RandomAccessFile(trimmed, "rw")
+        ) {
+            Mp4Trimmer.trim(in, out.getChannel(), 1500, 3500);
+        }
+        try (FileChannel channel = new FileInputStream(trimmed).getChannel()) {
+            Mp4SeekIndex index = Mp4SeekIndex.read(channel);
+
+            // The trim starts at the keyframe at 1 s and keeps those at 2 s and 3 s
+            assertEquals(3, index.getCount());
+            assertEquals(2.5, index.getDuration(), 0);
+            for (int i = 0; i < 3; i++) {
+                assertEquals(i, index.getTime(i), 0);
+                assertSampleAt(channel, index.getOffset(i), (i + 1) * Mp4Fixtures.FRAMES_PER_SECOND);
+            }
+        }
+    }
+
+    @Test
+    public void encodesTypedArraysInLittleEndian() throws IOException {
+        File file = Mp4Fixtures.createMp4(directory, "video.mp4", 4);
+        try (FileChannel channel = new FileInputStream(file).getChannel()) {
+            Mp4SeekIndex index = Mp4SeekIndex.read(channel);
+
+            ByteBuffer times = ByteBuffer.wrap(index.getTimesBytes()).order(ByteOrder.LITTLE_ENDIAN);
+            ByteBuffer offsets = ByteBuffer.wrap(index.getOffsetsBytes()).order(ByteOrder.LITTLE_ENDIAN);
+            assertEquals(4 * 8, times.remaining());
+            assertEquals(4 * 8, offsets.remaining());
+            for (int i = 0; i < 4; i++) {
+                assertEquals(index.getTime(i), times.getDouble(), 0);
+                assertEquals(index.getOffset(i), (long) offsets.getDouble());
+            }
+        }
+    }
+
+    /**
+     * Checks that a video sample of the original four second recording starts at an offset.
+     */
+    private static void assertSampleAt(FileChannel channel, long offset, int sample) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(12);
+        Mp4File.readFully(channel, header, offset, 12);
+        header.flip();
+        assertEquals(4, header.getInt());
+        assertEquals(1, header.getInt());
+        assertEquals(sample, header.getInt());
+    }
+}
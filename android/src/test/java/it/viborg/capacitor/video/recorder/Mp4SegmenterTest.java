@@ -0,0 +1,190 @@
+package it.viborg.capacitor.video.recorder;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Splits a four second synthetic recording, with keyframes at every full second, into
+ * standalone and fragmented MP4 segments.
+ */
+public class Mp4SegmenterTest {
+
+    private static final int AUDIO_SAMPLES = 188;
+
+    private File directory;
+    private FileChannel in;
+    private List<Mp4Track> original;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = TestFiles.createTempDirectory();
+        in = new FileInputStream(Mp4Fixtures.createMp4(directory, "input.mp4", 4)).getChannel();
+        original = Mp4Fixtures.readTracks(in);
+        assertEquals(AUDIO_SAMPLES, original.get(1).getSampleCount());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        in.close();
+        TestFiles.deleteRecursively(directory);
+    }
+
+    @Test
+    public void cutsStandaloneSegmentsAtKeyframes() throws IOException {
+        List<Mp4Trimmer.Result> results = Mp4Segmenter.split(in, 1000, Mp4Segmenter.FORMAT_MP4, this::open);
+
+        assertEquals(4, results.size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i * 1000, results.get(i).startMs);
+            // The last audio frame of the original ends 10 ms after the last video frame
+            assertEquals(i < 3 ? (i + 1) * 1000 : 4010, results.get(i).endMs);
+            try (FileChannel segment = new FileInputStream(segmentFile(i)).getChannel()) {
+                Mp4Track video = Mp4Fixtures.readTracks(segment).get(0);
+                assertEquals(30, video.getSampleCount());
+                assertArrayEquals(new int[] { 0 }, video.getSyncSamples());
+                assertArrayEquals(
+                        Mp4Fixtures.readSamples(in, original.get(0), i * 30, i * 30 + 30),
+                        Mp4Fixtures.readSamples(segment, video, 0, 30)
+                );
+            }
+        }
+    }
+
+    @Test
+    public void startsEachSegmentWithTheAudioPlayingAtTheCut() throws IOException {
+        Mp4Segmenter.split(in, 1000, Mp4Segmenter.FORMAT_MP4, this::open);
+
+        Mp4Track audio = original.get(1);
+        for (int i = 0; i < 4; i++) {
+            long cut = (long) i * Mp4Fixtures.AUDIO_TIMESCALE;
+            int first = audio.findSample(cut);
+            try (FileChannel segment = new FileInputStream(segmentFile(i)).getChannel()) {
+                Mp4Track segmentAudio = Mp4Fixtures.readTracks(segment).get(1);
+                assertEquals(cut - audio.getDecodeTime(first), segmentAudio.getEditMediaTime());
+                assertArrayEquals(
+                        Mp4Fixtures.readSamples(in, audio, first, first + 1),
+                        Mp4Fixtures.readSamples(segment, segmentAudio, 0, 1)
+                );
+            }
+        }
+    }
+
+    @Test
+    public void waitsForTheFirstKeyframeAfterTheSegmentLength() throws IOException {
+        List<Mp4Trimmer.Result> results = Mp4Segmenter.split(in, 1500, Mp4Segmenter.FORMAT_MP4, this::open);
+
+        // The keyframe at 1 s comes too early, the one at 3 s is too close to the cut at 2 s
+        assertEquals(2, results.size());
+        assertEquals(0, results.get(0).startMs);
+        assertEquals(2000, results.get(0).endMs);
+        assertEquals(2000, results.get(1).startMs);
+        try (FileChannel segment = new FileInputStream(segmentFile(1)).getChannel()) {
+            assertArrayEquals(new int[] { 0, 30 }, Mp4Fixtures.readTracks(segment).get(0).getSyncSamples());
+        }
+    }
+
+    @Test
+    public void writesAnInitSegmentWithoutSamples() throws IOException {
+        Mp4Segmenter.split(in, 1000, Mp4Segmenter.FORMAT_FMP4, this::open);
+
+        try (FileChannel init = new FileInputStream(new File(directory, "init.mp4")).getChannel()) {
+            List<Mp4File.Entry> entries = Mp4File.scan(init).getEntries();
+            assertEquals(2, entries.size());
+            Mp4Box moov = Mp4File.read(init, entries.get(1));
+            assertEquals(0, Mp4Track.readDuration(moov.find("mvhd")));
+            List<Mp4Box> trexes = moov.find("mvex").findAll("trex");
+            assertEquals(2, trexes.size());
+            for (int t = 0; t < 2; t++) {
+                // Track ID and the default sample description index
+                assertArrayEquals(new int[] { 0, t + 1, 1, 0, 0, 0 }, Mp4Fixtures.readInts(trexes.get(t)));
+                assertEquals(0, Mp4Track.readAll(moov).get(t).getSampleCount());
+            }
+        }
+    }
+
+    @Test
+    public void writesOneFragmentPerSegment() throws IOException {
+        List<Mp4Trimmer.Result> results = Mp4Segmenter.split(in, 1000, Mp4Segmenter.FORMAT_FMP4, this::open);
+
+        assertEquals(4, results.size());
+        assertEquals(4000, results.get(3).endMs);
+        int audioFrom = 0;
+        for (int i = 0; i < 4; i++) {
+            // A media segment is a moof followed by its mdat, with no ftyp in front
+            byte[] segment = Files.readAllBytes(segmentFile(i).toPath());
+            ByteBuffer boxes = ByteBuffer.wrap(segment);
+            Mp4Box moof = Mp4Box.parse(boxes);
+            assertEquals("moof", moof.getType());
+            assertEquals("mdat", Mp4Box.parse(boxes).getType());
+            assertFalse(boxes.hasRemaining());
+            assertArrayEquals(new int[] { 0, i + 1 }, Mp4Fixtures.readInts(moof.find("mfhd")));
+            List<Mp4Box> trafs = moof.findAll("traf");
+            assertEquals(2, trafs.size());
+
+            Mp4Box video = trafs.get(0);
+            assertEquals(1, Mp4Fixtures.readInts(video.find("tfhd"))[1]);
+            assertEquals((long) i * Mp4Fixtures.VIDEO_TIMESCALE, video.find("tfdt").buffer().getLong(4));
+            int[] trun = Mp4Fixtures.readInts(video.find("trun"));
+            assertEquals(30, trun[1]);
+            for (int sample = 0; sample < 30; sample++) {
+                assertEquals(Mp4Fixtures.FRAME_DURATION, trun[3 + sample * 3]);
+                assertEquals(original.get(0).getSampleSize(i * 30 + sample), trun[4 + sample * 3]);
+                assertEquals(sample == 0 ? 0x02000000 : 0x01010000, trun[5 + sample * 3]);
+            }
+            assertArrayEquals(
+                    Mp4Fixtures.readSamples(in, original.get(0), i * 30, i * 30 + 30),
+                    readFragmentData(segment, trun)
+            );
+
+            // Audio samples belong to the fragment they start in, without overlap
+            Mp4Box audio = trafs.get(1);
+            assertEquals(original.get(1).getDecodeTime(audioFrom), audio.find("tfdt").buffer().getLong(4));
+            int[] audioTrun = Mp4Fixtures.readInts(audio.find("trun"));
+            int audioTo = audioFrom + audioTrun[1];
+            assertTrue(original.get(1).getDecodeTime(audioTo - 1) < (long) (i + 1) * Mp4Fixtures.AUDIO_TIMESCALE);
+            if (i < 3) {
+                assertTrue(original.get(1).getDecodeTime(audioTo) >= (long) (i + 1) * Mp4Fixtures.AUDIO_TIMESCALE);
+            }
+            assertArrayEquals(
+                    Mp4Fixtures.readSamples(in, original.get(1), audioFrom, audioTo),
+                    readFragmentData(segment, audioTrun)
+            );
+            audioFrom = audioTo;
+        }
+        assertEquals(AUDIO_SAMPLES, audioFrom);
+    }
+
+    /**
+     * The samples a trun without composition offsets points at, relative to the moof at the
+     * start of the segment.
+     */
+    private static byte[] readFragmentData(byte[] segment, int[] trun) {
+        int size = 0;
+        for (int sample = 0; sample < trun[1]; sample++) {
+            size += trun[4 + sample * 3];
+        }
+        return Arrays.copyOfRange(segment, trun[2], trun[2] + size);
+    }
+
+    private FileChannel open(int index) throws IOException {
+        File file = index < 0 ? new File(directory, "init.mp4") : segmentFile(index);
+        return new RandomAccessFile(file, "rw").getChannel();
+    }
+
+    private File segmentFile(int index) {
+        return new File(directory, "segment-" + index + ".mp4");
+    }
+}
@@ -0,0 +1,167 @@
+package it.viborg.capacitor.video.recorder;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Trims a four second synthetic recording, with keyframes at every full second.
+ */
+public class Mp4TrimmerTest {
+
+    private File directory;
+    private FileChannel in;
+    private RandomAccessFile output;
+    private FileChannel out;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = TestFiles.createTempDirectory();
+        in = new FileInputStream(Mp4Fixtures.createMp4(directory, "input.mp4", 4)).getChannel();
+        output = new RandomAccessFile(new File(directory, "output.mp4"), "rw");
+        out = output.getChannel();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        in.close();
+        output.close();
+        TestFiles.deleteRecursively(directory);
+    }
+
+    @Test
+    public void startsAtThePreviousSyncSample() throws IOException {
+        Mp4Trimmer.Result result = Mp4Trimmer.trim(in, out, 1500, 2500);
+
+        assertEquals(1000, result.startMs);
+        assertEquals(2500, result.endMs);
+        Mp4Track video = Mp4Fixtures.readTracks(out).get(0);
+        assertEquals(45, video.getSampleCount());
+        assertEquals(0, video.getDecodeTime(0));
+        assertArrayEquals(new int[] { 0, 30 }, video.getSyncSamples());
+    }
+
+    @Test
+    public void keepsASyncSampleStart() throws IOException {
+        Mp4Trimmer.Result result = Mp4Trimmer.trim(in, out, 2000, 3000);
+
+        assertEquals(2000, result.startMs);
+        assertEquals(3000, result.endMs);
+        assertEquals(30, Mp4Fixtures.readTracks(out).get(0).getSampleCount());
+    }
+
+    @Test
+    public void rewritesTheVideoTables() throws IOException {
+        Mp4Trimmer.trim(in, out, 1500, 2500);
+
+        Mp4Box stbl = Mp4Fixtures.readTracks(out).get(0).getSampleTable();
+        // 45 frames of 1000 ticks
+        assertArrayEquals(new int[] { 0, 1, 45, 1000 }, Mp4Fixtures.readInts(stbl.find("stts")));
+        // Samples 30 and 60 of the original, 1-based
+        assertArrayEquals(new int[] { 0, 2, 1, 31 }, Mp4Fixtures.readInts(stbl.find("stss")));
+        // Three chunks of 15 frames with the first sample description
+        assertArrayEquals(new int[] { 0, 1, 1, 15, 1 }, Mp4Fixtures.readInts(stbl.find("stsc")));
+        int[] stsz = Mp4Fixtures.readInts(stbl.find("stsz"));
+        assertEquals(3 + 45, stsz.length);
+        assertEquals(0, stsz[1]);
+        assertEquals(45, stsz[2]);
+        for (int sample = 0; sample < 45; sample++) {
+            assertEquals(sample % 30 == 0 ? Mp4Fixtures.KEYFRAME_SIZE : Mp4Fixtures.FRAME_SIZE, stsz[3 + sample]);
+        }
+        int[] stco = Mp4Fixtures.readInts(stbl.find("stco"));
+        assertEquals(3, stco[1]);
+        assertNull(stbl.find("co64"));
+    }
+
+    @Test
+    public void cutsAudioAtTheSameTime() throws IOException {
+        Mp4Trimmer.trim(in, out, 1500, 2500);
+
+        Mp4Track audio = Mp4Fixtures.readTracks(out).get(1);
+        // 1.0 s is 48000 ticks, inside sample 46 which starts at 47104; 2.5 s ends before sample 118
+        assertEquals(118 - 46, audio.getSampleCount());
+        assertEquals(896, audio.getEditMediaTime());
+        // The partial original chunk 1, then chunks 2 to 4 in full
+        Mp4Box stbl = audio.getSampleTable();
+        assertArrayEquals(
+                new int[] { 0, 4, 1, 1, 1, 2, 24, 1, 3, 23, 1, 4, 24, 1 },
+                Mp4Fixtures.readInts(stbl.find("stsc"))
+        );
+        // Every audio sample is a sync sample and has the same size
+        assertNull(stbl.find("stss"));
+        assertArrayEquals(new int[] { 0, Mp4Fixtures.AUDIO_FRAME_SIZE, 72 }, Mp4Fixtures.readInts(stbl.find("stsz")));
+    }
+
+    @Test
+    public void writesEditListsAndDurations() throws IOException {
+        Mp4Trimmer.trim(in, out, 1500, 2500);
+
+        Mp4Box moov = Mp4File.scan(out).readMoov(out);
+        assertEquals(1500, Mp4Track.readDuration(moov.find("mvhd")));
+        List<Mp4Box> traks = moov.findAll("trak");
+        // Segment duration in the movie timescale, media time, rate 1.0
+        assertArrayEquals(new int[] { 0, 1, 1500, 0, 0x00010000 }, Mp4Fixtures.readInts(traks.get(0).find("edts", "elst")));
+        assertArrayEquals(new int[] { 0, 1, 1500, 896, 0x00010000 }, Mp4Fixtures.readInts(traks.get(1).find("edts", "elst")));
+        assertEquals(1500, Mp4Track.readDuration(traks.get(0).find("tkhd")));
+        assertEquals(45 * Mp4Fixtures.FRAME_DURATION, Mp4Track.readDuration(traks.get(0).find("mdia", "mdhd")));
+        assertEquals(72 * Mp4Fixtures.AUDIO_FRAME_DURATION, Mp4Track.readDuration(traks.get(1).find("mdia", "mdhd")));
+    }
+
+    @Test
+    public void copiesOnlyTheKeptSamples() throws IOException {
+        Mp4Trimmer.trim(in, out, 1500, 2500);
+
+        List<Mp4Track> original = Mp4Fixtures.readTracks(in);
+        List<Mp4Track> trimmed = Mp4Fixtures.readTracks(out);
+        assertArrayEquals(
+                Mp4Fixtures.readSamples(in, original.get(0), 30, 75),
+                Mp4Fixtures.readSamples(out, trimmed.get(0), 0, 45)
+        );
+        assertArrayEquals(
+                Mp4Fixtures.readSamples(in, original.get(1), 46, 118),
+                Mp4Fixtures.readSamples(out, trimmed.get(1), 0, 72)
+        );
+
+        // ftyp, moov, then an mdat holding nothing but the kept samples
+        List<Mp4File.Entry> entries = Mp4File.scan(out).getEntries();
+        assertEquals(3, entries.size());
+        assertEquals("moov", entries.get(1).type);
+        Mp4File.Entry mdat = entries.get(2);
+        assertEquals("mdat", mdat.type);
+        assertEquals(
+                8 + 2 * Mp4Fixtures.KEYFRAME_SIZE + 43 * Mp4Fixtures.FRAME_SIZE + 72 * Mp4Fixtures.AUDIO_FRAME_SIZE,
+                mdat.size
+        );
+        assertEquals(out.size(), mdat.getEnd());
+        // The chunks keep the interleaving of the original, starting with the audio sample 46
+        assertEquals(mdat.offset + 8, trimmed.get(1).getSampleOffset(0));
+        assertEquals(mdat.offset + 8 + Mp4Fixtures.AUDIO_FRAME_SIZE, trimmed.get(0).getSampleOffset(0));
+    }
+
+    @Test
+    public void keepsTheRestWithoutAnEnd() throws IOException {
+        Mp4Trimmer.Result result = Mp4Trimmer.trim(in, out, 2000, 0);
+
+        assertEquals(2000, result.startMs);
+        // The last audio frame of the original ends 10 ms after the last video frame
+        assertEquals(4010, result.endMs);
+        List<Mp4Track> original = Mp4Fixtures.readTracks(in);
+        Mp4Track video = Mp4Fixtures.readTracks(out).get(0);
+        assertEquals(60, video.getSampleCount());
+        assertArrayEquals(Mp4Fixtures.readSamples(in, original.get(0), 60, 120), Mp4Fixtures.readSamples(out, video, 0, 60));
+    }
+
+    @Test(expected = Mp4Exception.class)
+    public void rejectsAStartPastTheEnd() throws IOException {
+        Mp4Trimmer.trim(in, out, 4000, 0);
+    }
+}
@@ -0,0 +1,179 @@
+package it.viborg.capacitor.video.recorder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An in-memory file channel that only stores the bytes written to it; everything in between
+ * reads as zeros. Lets tests build files past 4 GB, where MP4 offsets need 64 bits, without
+ * writing gigabytes to disk. Transfers to another sparse channel copy only the written bytes.
+ */
+class SparseFileChannel extends FileChannel {
+
+    private final TreeMap<Long, byte[]> regions = new TreeMap<>();
+    private long position;
+    private long size;
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        int read = read(dst, position);
+        if (read > 0) {
+            position += read;
+        }
+        return read;
+    }
+
+    @Override
+    public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+        long total = 0;
+        for (int i = offset; i < offset + length; i++) {
+            int read = read(dsts[i]);
+            if (read < 0) {
+                return total > 0 ? total : -1;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    @Override
+    public int read(ByteBuffer dst, long position) throws IOException {
+        if (position >= size) {
+            return -1;
+        }
+        byte[] data = new byte[(int) Math.min(dst.remaining(), size - position)];
+        Long start = regions.floorKey(position);
+        for (Map.Entry<Long, byte[]> region : regions.tailMap(start != null ? start : position).entrySet()) {
+            long regionStart = region.getKey();
+            byte[] bytes = region.getValue();
+            if (regionStart >= position + data.length) {
+                break;
+            }
+            long from = Math.max(position, regionStart);
+            long to = Math.min(position + data.length, regionStart + bytes.length);
+            if (from < to) {
+                System.arraycopy(bytes, (int) (from - regionStart), data, (int) (from - position), (int) (to - from));
+            }
+        }
+        dst.put(data);
+        return data.length;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        int written = write(src, position);
+        position += written;
+        return written;
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        long total = 0;
+        for (int i = offset; i < offset + length; i++) {
+            total += write(srcs[i]);
+        }
+        return total;
+    }
+
+    @Override
+    public int write(ByteBuffer src, long position) throws IOException {
+        byte[] bytes = new byte[src.remaining()];
+        src.get(bytes);
+        if (bytes.length == 0) {
+            return 0;
+        }
+        Map.Entry<Long, byte[]> before = regions.floorEntry(position + bytes.length - 1);
+        if (before != null && before.getKey() + before.getValue().length > position) {
+            throw new IOException("Overwriting written bytes is not supported");
+        }
+        regions.put(position, bytes);
+        size = Math.max(size, position + bytes.length);
+        return bytes.length;
+    }
+
+    @Override
+    public long position() {
+        return position;
+    }
+
+    @Override
+    public FileChannel position(long newPosition) {
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public FileChannel truncate(long size) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void force(boolean metaData) {}
+
+    @Override
+    public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+        count = Math.min(count, size - position);
+        if (count <= 0) {
+            return 0;
+        }
+        if (!(target instanceof SparseFileChannel)) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(count, 64 * 1024));
+            read(buffer, position);
+            buffer.flip();
+            return target.write(buffer);
+        }
+        SparseFileChannel out = (SparseFileChannel) target;
+        long base = out.position;
+        Long start = regions.floorKey(position);
+        for (Map.Entry<Long, byte[]> region : regions.tailMap(start != null ? start : position).entrySet()) {
+            long regionStart = region.getKey();
+            byte[] bytes = region.getValue();
+            if (regionStart >= position + count) {
+                break;
+            }
+            long from = Math.max(position, regionStart);
+            long to = Math.min(position + count, regionStart + bytes.length);
+            if (from < to) {
+                out.write(ByteBuffer.wrap(bytes, (int) (from - regionStart), (int) (to - from)), base + from - position);
+            }
+        }
+        out.position = base + count;
+        out.size = Math.max(out.size, out.position);
+        return count;
+    }
+
+    @Override
+    public long transferFrom(ReadableByteChannel src, long position, long count) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public MappedByteBuffer map(MapMode mode, long position, long size) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public FileLock lock(long position, long size, boolean shared) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public FileLock tryLock(long position, long size, boolean shared) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    protected void implCloseChannel() {}
+}
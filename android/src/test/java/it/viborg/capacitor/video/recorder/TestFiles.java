@@ -0,0 +1,50 @@
+package it.viborg.capacitor.video.recorder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+/**
+ * Temporary directories and files for tests that work on real files.
+ */
+class TestFiles {
+
+    private TestFiles() {}
+
+    static File createTempDirectory() throws IOException {
+        File directory = File.createTempFile("video-recorder-test", "");
+        if (!directory.delete() || !directory.mkdir()) {
+            throw new IOException("Unable to create " + directory);
+        }
+        return directory;
+    }
+
+    static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Bytes of seeded random data, the same for the same size.
+     */
+    static byte[] randomBytes(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    static File write(File directory, String name, byte[] data) throws IOException {
+        File file = new File(directory, name);
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(data);
+        }
+        return file;
+    }
+}
@@ -0,0 +1,181 @@
+package it.viborg.capacitor.video.recorder;
+
+import static org.junit.Assert.*;
+
+import android.net.Uri;
+
+import com.getcapacitor.JSObject;
+import com.getcapacitor.PluginCall;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * Records through a fake backend into a temporary directory. Waiting captures are resumed
+ * right away, where the plugin posts them to the main thread.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class VideoCaptureQueueTest {
+
+    private static final int RECORDED_BYTES = 1024;
+
+    private File directory;
+    private FakeRecorderBackend backend;
+    private RecordingDelegate delegate;
+    private VideoCaptureQueue queue;
+
+    private class RecordingDelegate implements VideoCaptureQueue.Delegate {
+
+        final List<String> outcomes = new ArrayList<>();
+
+        @Override
+        public VideoCaptureQueue.Capture prepare(PluginCall call) {
+            if (!backend.isAvailable()) {
+                outcomes.add(call.getCallbackId() + " rejected: no camera");
+                return null;
+            }
+            Uri output = Uri.fromFile(new File(directory, call.getCallbackId() + ".mp4"));
+            return new VideoCaptureQueue.Capture(backend, output, new VideoRecorderSettings());
+        }
+
+        @Override
+        public void onRecorded(PluginCall call, Uri output) {
+            outcomes.add(call.getCallbackId() + " resolved: " + VideoRecorderUtils.toFile(output).length());
+        }
+
+        @Override
+        public void onCancelled(PluginCall call) {
+            outcomes.add(call.getCallbackId() + " cancelled");
+        }
+
+        @Override
+        public void onError(PluginCall call, String message, Exception ex) {
+            outcomes.add(call.getCallbackId() + " rejected: " + message);
+        }
+
+        @Override
+        public void resume(PluginCall call) {
+            queue.submit(call);
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        directory = TestFiles.createTempDirectory();
+        backend = new FakeRecorderBackend(RECORDED_BYTES);
+        delegate = new RecordingDelegate();
+        queue = new VideoCaptureQueue(delegate);
+    }
+
+    @After
+    public void tearDown() {
+        TestFiles.deleteRecursively(directory);
+    }
+
+    private static PluginCall newCall(String callbackId) {
+        return new PluginCall(null, "VideoRecorder", callbackId, "getVideo", new JSObject());
+    }
+
+    @Test
+    public void startsAWaitingCaptureOnceTheRecordingEnds() {
+        queue.submit(newCall("first"));
+        queue.submit(newCall("second"));
+
+        assertEquals(1, backend.getStartCount());
+        assertEquals(1, queue.getWaitingCount());
+
+        backend.stop();
+
+        assertEquals(2, backend.getStartCount());
+        assertEquals(0, queue.getWaitingCount());
+        assertTrue(backend.isRecording());
+        assertEquals(1, delegate.outcomes.size());
+
+        backend.stop();
+
+        assertFalse(queue.isRecording());
+        assertEquals("first resolved: " + RECORDED_BYTES, delegate.outcomes.get(0));
+        assertEquals("second resolved: " + RECORDED_BYTES, delegate.outcomes.get(1));
+    }
+
+    @Test
+    public void rejectsAFailedCaptureAndStartsTheNext() {
+        queue.submit(newCall("first"));
+        queue.submit(newCall("second"));
+
+        backend.fail("Camera disconnected");
+
+        assertEquals("first rejected: Camera disconnected", delegate.outcomes.get(0));
+        assertEquals(2, backend.getStartCount());
+        assertTrue(queue.isRecording());
+    }
+
+    @Test
+    public void cancelsWithoutHoldingTheCamera() {
+        queue.submit(newCall("first"));
+        backend.cancel();
+
+        assertEquals("first cancelled", delegate.outcomes.get(0));
+        assertFalse(queue.isRecording());
+
+        // An empty recording counts as cancelled too
+        FakeRecorderBackend empty = new FakeRecorderBackend(0);
+        backend = empty;
+        queue.submit(newCall("second"));
+        empty.stop();
+
+        assertEquals("second cancelled", delegate.outcomes.get(1));
+        assertFalse(queue.isRecording());
+    }
+
+    @Test
+    public void movesOnWhenACaptureCannotStart() {
+        backend.setAvailable(false);
+        queue.submit(newCall("first"));
+
+        assertEquals("first rejected: no camera", delegate.outcomes.get(0));
+        assertFalse(queue.isRecording());
+        assertEquals(0, backend.getStartCount());
+
+        backend.setAvailable(true);
+        queue.submit(newCall("second"));
+        assertEquals(1, backend.getStartCount());
+    }
+
+    @Test
+    public void ignoresTheEndOfACaptureThatIsNotRecording() {
+        PluginCall first = newCall("first");
+        queue.submit(first);
+        queue.submit(newCall("second"));
+        backend.stop();
+
+        // The first capture already ended, finishing it again must not free the second one's camera
+        queue.finish(first);
+
+        assertTrue(queue.isRecording());
+        assertEquals(2, backend.getStartCount());
+    }
+
+    @Test
+    public void forgetsWaitingCapturesWhenCleared() {
+        queue.submit(newCall("first"));
+        queue.submit(newCall("second"));
+
+        queue.clear();
+        backend.release();
+
+        assertTrue(backend.isReleased());
+        assertFalse(queue.isRecording());
+        assertEquals(1, backend.getStartCount());
+        assertEquals(1, delegate.outcomes.size());
+        assertEquals("first cancelled", delegate.outcomes.get(0));
+    }
+}
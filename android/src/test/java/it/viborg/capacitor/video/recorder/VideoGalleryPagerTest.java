@@ -0,0 +1,101 @@
+package it.viborg.capacitor.video.recorder;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Pages through an in-memory gallery sorted by id, newest first.
+ */
+public class VideoGalleryPagerTest {
+
+    private static final VideoGalleryPager.Query QUERY = new VideoGalleryPager.Query(VideoGalleryPager.SORT_DATE_ADDED, 0);
+
+    private static class ListSource implements VideoGalleryPager.Source {
+
+        final List<VideoGalleryPager.Item> items = new ArrayList<>();
+        final List<String> queries = new ArrayList<>();
+
+        ListSource(int count) {
+            for (int id = count; id > 0; id--) {
+                items.add(new VideoGalleryPager.Item(id, id, "video" + id + ".mp4", "video/mp4", 1000, 0, 0, 0, id, id));
+            }
+        }
+
+        @Override
+        public List<VideoGalleryPager.Item> query(VideoGalleryPager.Query query, VideoGalleryPager.Item after, int offset, int limit) {
+            int start = offset;
+            if (after != null) {
+                start = 0;
+                while (start < items.size() && items.get(start).sortValue >= after.sortValue) {
+                    start++;
+                }
+            }
+            queries.add((after != null ? "after " + after.id : "offset " + offset) + " limit " + limit);
+            return new ArrayList<>(items.subList(Math.min(start, items.size()), Math.min(start + limit, items.size())));
+        }
+    }
+
+    @Test
+    public void endsOnAFullLastPage() throws Exception {
+        ListSource source = new ListSource(2 * VideoGalleryPager.PAGE_SIZE);
+        VideoGalleryPager pager = new VideoGalleryPager(source);
+
+        VideoGalleryPager.Result first = pager.list(QUERY, 0, VideoGalleryPager.PAGE_SIZE);
+        VideoGalleryPager.Result second = pager.list(QUERY, VideoGalleryPager.PAGE_SIZE, VideoGalleryPager.PAGE_SIZE);
+
+        assertTrue(first.hasMore);
+        assertEquals(VideoGalleryPager.PAGE_SIZE, second.items.size());
+        assertFalse(second.hasMore);
+        assertEquals(1, second.items.get(VideoGalleryPager.PAGE_SIZE - 1).id);
+        // The second page continues after the first one, and nothing asks for a third
+        assertEquals(2, source.queries.size());
+        assertEquals("after " + (VideoGalleryPager.PAGE_SIZE + 1) + " limit " + (VideoGalleryPager.PAGE_SIZE + 1), source.queries.get(1));
+    }
+
+    @Test
+    public void reportsTheRowAfterAFullPage() throws Exception {
+        VideoGalleryPager pager = new VideoGalleryPager(new ListSource(VideoGalleryPager.PAGE_SIZE + 1));
+
+        VideoGalleryPager.Result first = pager.list(QUERY, 0, VideoGalleryPager.PAGE_SIZE);
+        VideoGalleryPager.Result rest = pager.list(QUERY, VideoGalleryPager.PAGE_SIZE, VideoGalleryPager.PAGE_SIZE);
+
+        assertTrue(first.hasMore);
+        assertEquals(1, rest.items.size());
+        assertEquals(1, rest.items.get(0).id);
+        assertFalse(rest.hasMore);
+    }
+
+    @Test
+    public void readsAcrossPagesAndStopsAtTheEnd() throws Exception {
+        VideoGalleryPager pager = new VideoGalleryPager(new ListSource(250));
+
+        VideoGalleryPager.Result middle = pager.list(QUERY, 90, 50);
+        VideoGalleryPager.Result tail = pager.list(QUERY, 200, 100);
+
+        assertEquals(50, middle.items.size());
+        assertEquals(160, middle.items.get(0).id);
+        assertEquals(111, middle.items.get(49).id);
+        assertTrue(middle.hasMore);
+        assertEquals(50, tail.items.size());
+        assertFalse(tail.hasMore);
+    }
+
+    @Test
+    public void reloadsPagesAfterAnInvalidation() throws Exception {
+        ListSource source = new ListSource(10);
+        VideoGalleryPager pager = new VideoGalleryPager(source);
+        assertEquals(10, pager.list(QUERY, 0, 50).items.size());
+
+        source.items.remove(0);
+        assertEquals(10, pager.list(QUERY, 0, 50).items.size());
+        pager.invalidate();
+
+        VideoGalleryPager.Result result = pager.list(QUERY, 0, 50);
+        assertEquals(9, result.items.size());
+        assertFalse(result.hasMore);
+    }
+}
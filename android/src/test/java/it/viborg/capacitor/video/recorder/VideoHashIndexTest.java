@@ -0,0 +1,77 @@
+package it.viborg.capacitor.video.recorder;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Keeps a hash index in a temporary directory and reloads it from disk where persistence matters.
+ */
+public class VideoHashIndexTest {
+
+    private File directory;
+    private File indexFile;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = TestFiles.createTempDirectory();
+        indexFile = new File(directory, "hashes.properties");
+    }
+
+    @After
+    public void tearDown() {
+        TestFiles.deleteRecursively(directory);
+    }
+
+    @Test
+    public void neverSharesAHashBetweenSourcesWithoutStat() throws IOException {
+        VideoHashIndex index = new VideoHashIndex(indexFile);
+        String first = VideoHashIndex.sourceKey("content://media/external/video/media/1", -1, 0);
+        String second = VideoHashIndex.sourceKey("content://media/external/video/media/2", -1, 0);
+
+        assertNull(first);
+        assertNull(second);
+        try {
+            index.putSourceHash(first, "aaaa");
+            fail("Cached a hash for a source without stat");
+        } catch (IllegalArgumentException expected) {
+            // The caller hashes such sources every time
+        }
+        index.putSourceHash(VideoHashIndex.sourceKey("content://media/external/video/media/3", 1000, 0), "cccc");
+
+        assertNull(index.getSourceHash(second));
+        String saved = new String(Files.readAllBytes(indexFile.toPath()), StandardCharsets.ISO_8859_1);
+        assertFalse(saved.contains("source.null"));
+        assertFalse(saved.contains("aaaa"));
+    }
+
+    @Test
+    public void reusesTheHashUntilTheSourceChanges() {
+        VideoHashIndex index = new VideoHashIndex(indexFile);
+        String uri = "content://media/external/video/media/1";
+        index.putSourceHash(VideoHashIndex.sourceKey(uri, 1000, 5000), "aaaa");
+
+        VideoHashIndex reloaded = new VideoHashIndex(indexFile);
+        assertEquals("aaaa", reloaded.getSourceHash(VideoHashIndex.sourceKey(uri, 1000, 5000)));
+        assertNull(reloaded.getSourceHash(VideoHashIndex.sourceKey(uri, 1000, 6000)));
+        assertNull(reloaded.getSourceHash(VideoHashIndex.sourceKey(uri, 2000, 5000)));
+    }
+
+    @Test
+    public void remembersTheFirstPathOfAHash() {
+        VideoHashIndex index = new VideoHashIndex(indexFile);
+
+        assertNull(index.add("aaaa", "file:///videos/first.mp4"));
+        assertEquals("file:///videos/first.mp4", index.add("aaaa", "file:///videos/second.mp4"));
+        index.removePath("file:///videos/first.mp4");
+
+        assertNull(new VideoHashIndex(indexFile).getPath("aaaa"));
+    }
+}
@@ -0,0 +1,106 @@
+package it.viborg.capacitor.video.recorder;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class VideoUploadTest {
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = TestFiles.createTempDirectory();
+    }
+
+    @After
+    public void tearDown() {
+        TestFiles.deleteRecursively(directory);
+    }
+
+    @Test
+    public void loadRejectsIdsThatAreNotUuids() throws IOException {
+        VideoUpload upload = create(4096, 1000);
+        File nested = new File(directory, "nested");
+        assertTrue(nested.mkdir());
+
+        assertNull(VideoUpload.load(nested, "../" + upload.getId()));
+        assertNull(VideoUpload.load(directory, upload.getId().toUpperCase()));
+        assertNull(VideoUpload.load(directory, ""));
+        assertNotNull(VideoUpload.load(directory, upload.getId()));
+    }
+
+    @Test
+    public void headersAreNotWrittenToDisk() throws IOException {
+        VideoUpload upload = create(4096, 1000);
+        upload.completePart(1, "etag-1");
+
+        String state = read(VideoUpload.stateFile(directory, upload.getId()));
+        assertFalse(state.contains("secret"));
+        assertTrue(VideoUpload.load(directory, upload.getId()).getHeaders().isEmpty());
+    }
+
+    @Test
+    public void dropsHeadersStoredByEarlierVersions() throws IOException {
+        VideoUpload upload = create(4096, 1000);
+        File state = VideoUpload.stateFile(directory, upload.getId());
+        Files.write(state.toPath(), (read(state) + "header.Authorization=secret\n").getBytes(StandardCharsets.ISO_8859_1));
+
+        assertNotNull(VideoUpload.load(directory, upload.getId()));
+        assertFalse(read(state).contains("secret"));
+    }
+
+    @Test
+    public void keepsPartsWhileTheSourceIsUnchanged() throws IOException {
+        VideoUpload upload = create(4096, 1000);
+        upload.completePart(1, "etag-1");
+
+        VideoUpload resumed = VideoUpload.load(directory, upload.getId());
+        assertFalse(resumed.restartIfChanged(4096, 1000));
+        assertTrue(resumed.isPartCompleted(1));
+    }
+
+    @Test
+    public void startsOverWhenTheSourceChanged() throws IOException {
+        VideoUpload upload = create(4096, 1000);
+        upload.completePart(1, "etag-1");
+        upload.completePart(2, "etag-2");
+
+        VideoUpload resized = VideoUpload.load(directory, upload.getId());
+        assertTrue(resized.restartIfChanged(5000, 1000));
+        assertTrue(resized.getCompletedParts().isEmpty());
+        assertEquals(5, resized.getPartCount());
+
+        VideoUpload reloaded = VideoUpload.load(directory, upload.getId());
+        assertEquals(5000, reloaded.getSize());
+        assertEquals(0, reloaded.getUploadedBytes());
+        assertTrue(reloaded.restartIfChanged(5000, 2000));
+        assertEquals(2000, VideoUpload.load(directory, upload.getId()).getLastModified());
+    }
+
+    private VideoUpload create(long size, long lastModified) throws IOException {
+        return VideoUpload.create(
+                directory,
+                "/videos/video.mp4",
+                "https://example.com/{uploadId}/{partNumber}",
+                "PUT",
+                null,
+                size,
+                lastModified,
+                1024,
+                Collections.singletonMap("Authorization", "Bearer secret")
+        );
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,273 @@
+package it.viborg.capacitor.video.recorder;
+
+import static org.junit.Assert.*;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs uploads against a mock multipart server on the loopback interface.
+ */
+public class VideoUploaderTest {
+
+    private static final int PART_SIZE = 1024;
+    // Four full parts and a short last one
+    private static final int FILE_SIZE = 4 * PART_SIZE + 512;
+    private static final Map<String, String> HEADERS = Collections.singletonMap("Authorization", "Bearer token");
+
+    private File directory;
+    private File source;
+    private byte[] content;
+    private HttpServer server;
+    private ExecutorService executor;
+    private String baseUrl;
+
+    // Status codes a part is answered with before it is accepted
+    private final Map<Integer, Deque<Integer>> failures = new ConcurrentHashMap<>();
+    private final Map<Integer, AtomicInteger> attempts = new ConcurrentHashMap<>();
+    private final Map<Integer, byte[]> receivedParts = new ConcurrentHashMap<>();
+    private final Map<Integer, String> contentRanges = new ConcurrentHashMap<>();
+    private final AtomicInteger activeParts = new AtomicInteger();
+    private final AtomicInteger maxActiveParts = new AtomicInteger();
+    private volatile String completeBody;
+    private volatile String completeAuthorization;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = TestFiles.createTempDirectory();
+        content = TestFiles.randomBytes(FILE_SIZE);
+        source = TestFiles.write(directory, "video.mp4", content);
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/parts/", this::handlePart);
+        server.createContext("/complete/", this::handleComplete);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+        executor = Executors.newFixedThreadPool(3);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        executor.shutdownNow();
+        TestFiles.deleteRecursively(directory);
+    }
+
+    @Test
+    public void sendsPartsInParallelAndCompletes() throws Exception {
+        VideoUpload upload = createUpload();
+        UploadResult result = run(new VideoUploader(executor, 3, 1), upload);
+
+        assertNull(result.error);
+        assertTrue(result.completed);
+        assertEquals(new HashSet<>(Arrays.asList(1, 2, 3, 4, 5)), receivedParts.keySet());
+        ByteArrayOutputStream joined = new ByteArrayOutputStream();
+        for (int partNumber = 1; partNumber <= 5; partNumber++) {
+            joined.write(receivedParts.get(partNumber));
+        }
+        assertArrayEquals(content, joined.toByteArray());
+        assertEquals("bytes 0-1023/4608", contentRanges.get(1));
+        assertEquals("bytes 4096-4607/4608", contentRanges.get(5));
+        assertTrue("parts should overlap", maxActiveParts.get() > 1);
+        assertEquals(FILE_SIZE, (long) Collections.max(result.progress));
+
+        assertEquals(expectedCompleteBody(upload.getId()), completeBody);
+        assertEquals("Bearer token", completeAuthorization);
+        assertFalse("finished uploads leave no state", VideoUpload.stateFile(directory, upload.getId()).exists());
+    }
+
+    @Test
+    public void retriesServerErrorsAndThrottling() throws Exception {
+        failures.put(2, new ArrayDeque<>(Arrays.asList(503, 500)));
+        failures.put(3, new ArrayDeque<>(Collections.singletonList(429)));
+
+        UploadResult result = run(new VideoUploader(executor, 3, 1), createUpload());
+
+        assertNull(result.error);
+        assertTrue(result.completed);
+        assertEquals(3, attempts.get(2).get());
+        assertEquals(2, attempts.get(3).get());
+        assertEquals(1, attempts.get(1).get());
+    }
+
+    @Test
+    public void givesUpAfterMaxRetries() throws Exception {
+        failures.put(1, new ArrayDeque<>(Arrays.asList(503, 503, 503, 503)));
+
+        VideoUpload upload = createUpload();
+        UploadResult result = run(new VideoUploader(executor, 2, 1), upload);
+
+        assertNotNull(result.error);
+        assertFalse(result.completed);
+        assertEquals(3, attempts.get(1).get());
+        assertNull(completeBody);
+        assertTrue("failed uploads can be resumed", VideoUpload.stateFile(directory, upload.getId()).exists());
+    }
+
+    @Test
+    public void doesNotRetryClientErrors() throws Exception {
+        failures.put(2, new ArrayDeque<>(Collections.singletonList(403)));
+
+        UploadResult result = run(new VideoUploader(executor, 3, 1), createUpload());
+
+        assertTrue(result.error instanceof VideoUploader.HttpException);
+        assertEquals(403, ((VideoUploader.HttpException) result.error).getStatus());
+        assertEquals(1, attempts.get(2).get());
+    }
+
+    @Test
+    public void resumesWithOnlyTheMissingParts() throws Exception {
+        failures.put(4, new ArrayDeque<>(Collections.singletonList(400)));
+        VideoUpload upload = createUpload();
+        UploadResult interrupted = run(new VideoUploader(executor, 3, 1), upload);
+        assertNotNull(interrupted.error);
+
+        attempts.clear();
+        receivedParts.clear();
+        VideoUpload resumed = VideoUpload.load(directory, upload.getId());
+        assertNotNull(resumed);
+        assertEquals(FILE_SIZE - PART_SIZE, resumed.getUploadedBytes());
+        resumed.setHeaders(HEADERS);
+        UploadResult result = run(new VideoUploader(executor, 3, 1), resumed);
+
+        assertNull(result.error);
+        assertTrue(result.completed);
+        assertEquals(Collections.singleton(4), attempts.keySet());
+        assertArrayEquals(Arrays.copyOfRange(content, 3 * PART_SIZE, 4 * PART_SIZE), receivedParts.get(4));
+        assertEquals(Collections.singletonList((long) FILE_SIZE), result.progress);
+        assertEquals(expectedCompleteBody(upload.getId()), completeBody);
+        assertEquals("Bearer token", completeAuthorization);
+    }
+
+    private VideoUpload createUpload() throws IOException {
+        return VideoUpload.create(
+                directory,
+                source.getAbsolutePath(),
+                baseUrl + "/parts/{uploadId}/{partNumber}",
+                "PUT",
+                baseUrl + "/complete/{uploadId}",
+                source.length(),
+                source.lastModified(),
+                PART_SIZE,
+                new LinkedHashMap<>(HEADERS)
+        );
+    }
+
+    private static String expectedCompleteBody(String uploadId) {
+        StringBuilder body = new StringBuilder("{\"uploadId\":\"" + uploadId + "\",\"parts\":[");
+        for (int partNumber = 1; partNumber <= 5; partNumber++) {
+            body.append(partNumber > 1 ? "," : "").append("{\"partNumber\":").append(partNumber).append(",\"etag\":\"etag-").append(partNumber).append("\"}");
+        }
+        return body.append("]}").toString();
+    }
+
+    private UploadResult run(VideoUploader uploader, VideoUpload upload) throws Exception {
+        UploadResult result = new UploadResult();
+        FileChannel channel = new FileInputStream(source).getChannel();
+        uploader.upload(upload, channel, result);
+        assertTrue("upload timed out", result.done.await(20, TimeUnit.SECONDS));
+        return result;
+    }
+
+    private void handlePart(HttpExchange exchange) throws IOException {
+        String[] segments = exchange.getRequestURI().getPath().split("/");
+        int partNumber = Integer.parseInt(segments[segments.length - 1]);
+        attempts.computeIfAbsent(partNumber, key -> new AtomicInteger()).incrementAndGet();
+        int active = activeParts.incrementAndGet();
+        maxActiveParts.accumulateAndGet(active, Math::max);
+        try {
+            byte[] body = readAll(exchange.getRequestBody());
+            // Long enough for the parallel parts to overlap
+            Thread.sleep(50);
+            Deque<Integer> queue = failures.get(partNumber);
+            Integer status = queue != null ? queue.poll() : null;
+            if (status != null) {
+                respond(exchange, status);
+                return;
+            }
+            receivedParts.put(partNumber, body);
+            contentRanges.put(partNumber, exchange.getRequestHeaders().getFirst("Content-Range"));
+            exchange.getResponseHeaders().set("ETag", "etag-" + partNumber);
+            respond(exchange, 200);
+        } catch (InterruptedException ex) {
+            respond(exchange, 500);
+        } finally {
+            activeParts.decrementAndGet();
+        }
+    }
+
+    private void handleComplete(HttpExchange exchange) throws IOException {
+        completeBody = new String(readAll(exchange.getRequestBody()), StandardCharsets.UTF_8);
+        completeAuthorization = exchange.getRequestHeaders().getFirst("Authorization");
+        respond(exchange, 200);
+    }
+
+    private static void respond(HttpExchange exchange, int status) throws IOException {
+        exchange.sendResponseHeaders(status, -1);
+        exchange.close();
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static class UploadResult implements VideoUploader.Listener {
+
+        final CountDownLatch done = new CountDownLatch(1);
+        final List<Long> progress = new CopyOnWriteArrayList<>();
+        volatile boolean completed;
+        volatile Exception error;
+
+        @Override
+        public void onProgress(VideoUpload upload, long bytes, long total) {
+            progress.add(bytes);
+        }
+
+        @Override
+        public void onComplete(VideoUpload upload) {
+            completed = true;
+            done.countDown();
+        }
+
+        @Override
+        public void onError(VideoUpload upload, Exception ex) {
+            error = ex;
+            done.countDown();
+        }
+    }
+}
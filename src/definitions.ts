@@ -1,4 +1,4 @@
-import type { PermissionState } from '@capacitor/core';
+import type { PermissionState, PluginListenerHandle } from '@capacitor/core';
 export declare type VideoPermissionState = PermissionState | 'limited';
 export declare type VideoPermissionType = 'camera' | 'videos';
 
@@ -25,6 +25,161 @@ export interface VideoRecorderPlugin {
      * @since 0.0.1
      */
     pickVideos(options: GalleryVideoOptions): Promise<Videos>;
+    /**
+     * Android only: Read duration, resolution, rotation, bitrate and size of videos
+     * natively. Results are cached across app launches until the file changes.
+     *
+     * @since 0.0.2
+     */
+    getVideoMetadata(options: VideoMetadataOptions): Promise<VideoMetadataResult>;
+    /**
+     * Android only: Create poster frames for videos. Thumbnails are written to a
+     * size-capped disk cache and reused while the video is unchanged.
+     *
+     * @since 0.0.2
+     */
+    getThumbnails(options: ThumbnailOptions): Promise<ThumbnailResult>;
+    /**
+     * Android only: Read a byte range of a video, so large files can be streamed
+     * in fixed-size chunks without loading them into the WebView.
+     *
+     * @since 0.0.2
+     */
+    readChunk(options: ReadChunkOptions): Promise<ReadChunkResult>;
+    /**
+     * Android only: Get the size in bytes of a video.
+     *
+     * @since 0.0.2
+     */
+    getFileSize(options: { path: string }): Promise<{ size: number }>;
+    /**
+     * Android only: Upload a video natively in parts, in parallel, with retries.
+     * Pass the `uploadId` of an interrupted upload to resume it. Resolves once
+     * every part has been accepted.
+     *
+     * @since 0.0.2
+     */
+    uploadVideo(options: UploadOptions): Promise<UploadResult>;
+    /**
+     * Android only: Stop a running upload. It can be resumed later with its `uploadId`.
+     *
+     * @since 0.0.2
+     */
+    cancelUpload(options: { uploadId: string }): Promise<void>;
+    /**
+     * Android only: List uploads that have not completed yet.
+     *
+     * @since 0.0.2
+     */
+    listUploads(): Promise<{ uploads: UploadState[] }>;
+    /**
+     * Android only: List the videos captured or imported by the plugin, newest first.
+     *
+     * @since 0.0.2
+     */
+    listRecordings(): Promise<{ recordings: Recording[] }>;
+    /**
+     * Android only: Delete videos captured or imported by the plugin. Other paths
+     * are ignored.
+     *
+     * @since 0.0.2
+     */
+    deleteRecordings(options: { paths: string[] }): Promise<{ deleted: number }>;
+    /**
+     * Android only: Get the disk space used by videos captured or imported by the plugin.
+     *
+     * @since 0.0.2
+     */
+    getStorageUsage(): Promise<StorageUsage>;
+    /**
+     * Android only: List the videos on the device page by page, without opening a picker.
+     * Pages are cached until the device's videos change, so scrolling through a large
+     * gallery only queries the media store once per page. Requests the videos permission
+     * if needed.
+     *
+     * @since 0.0.2
+     */
+    listVideos(options?: ListVideosOptions): Promise<ListVideosResult>;
+    /**
+     * Android only: Cut an MP4 video to a time range without re-encoding. The start moves
+     * back to the nearest keyframe at or before `startMs`. The trimmed video is written to
+     * a new file, the original is left untouched.
+     *
+     * @since 0.0.2
+     */
+    trimVideo(options: TrimOptions): Promise<TrimResult>;
+    /**
+     * Android only: Get the keyframes of an MP4 video, read from its sample tables without
+     * decoding. Seeking a video element to one of these times is fast because decoding can
+     * start right there. Results are cached per file until it changes.
+     *
+     * @since 0.0.2
+     */
+    getSeekIndex(options: { path: string }): Promise<SeekIndex>;
+    /**
+     * Android only: Split an MP4 video at keyframes into segments without re-encoding, so
+     * they can be uploaded and processed in parallel. Segments are standalone MP4 files, or
+     * with `format: 'fmp4'` an init segment followed by `moof`/`mdat` media segments. Runs
+     * as a cancellable `segment` job.
+     *
+     * @since 0.0.2
+     */
+    segmentVideo(options: SegmentOptions): Promise<SegmentResult>;
+    /**
+     * Android only: Join MP4 videos into one, in the order given, without re-encoding. The
+     * videos need the same tracks and codec parameters, as clips recorded on the same device
+     * with the same settings have. Otherwise the call rejects before writing anything, with
+     * the reason in the error message. Runs as a cancellable `concat` job.
+     *
+     * @since 0.0.2
+     */
+    concatVideos(options: { paths: string[] }): Promise<ConcatResult>;
+    /**
+     * Android only: Get counters and latency percentiles for the plugin's work stages, such
+     * as capture, import, hashing and metadata reads, since the plugin loaded or the last
+     * `resetMetrics`. The same stages show up as sections in system traces.
+     *
+     * @since 0.0.2
+     */
+    getMetrics(): Promise<Metrics>;
+    /**
+     * Android only: Clear all counters and latencies returned by `getMetrics`.
+     *
+     * @since 0.0.2
+     */
+    resetMetrics(): Promise<void>;
+    /**
+     * Android only: Finish a recording started with `backend: 'inProcess'`. The pending
+     * `getVideo` call then resolves with the video.
+     *
+     * @since 0.0.2
+     */
+    stopRecording(): Promise<void>;
+    /**
+     * Android only: Get the next `getVideo` call ready ahead of time, for example when the
+     * screen with the record button opens. Device capabilities are probed once and cached;
+     * with `backend: 'inProcess'` the camera is also opened if the permission was already
+     * granted.
+     *
+     * @since 0.0.2
+     */
+    prewarm(options?: PrewarmOptions): Promise<void>;
+    /**
+     * Android only: Cancel a queued or running job. The call that started it rejects with
+     * "Job cancelled", except for the post-processing of a recording, which skips its
+     * remaining steps and still returns the video.
+     *
+     * @since 0.0.2
+     */
+    cancelJob(options: { jobId: string }): Promise<void>;
+    /**
+     * Android only: List the background jobs that have not finished, in the order they
+     * run: post-processing of recordings, imports and hashing of picked videos, trims,
+     * segmentations and joins.
+     *
+     * @since 0.0.2
+     */
+    listJobs(): Promise<{ jobs: Job[] }>;
     /**
      * Check camera and video album permissions
      *
@@ -37,6 +192,80 @@ export interface VideoRecorderPlugin {
      * @since 0.0.1
      */
     requestPermissions(permissions?: VideoRecorderPluginPermissions): Promise<PermissionStatus>;
+    /**
+     * Android only: Listen for videos resolved by `pickVideos` when `stream` is enabled.
+     *
+     * @since 0.0.2
+     */
+    addListener(
+        eventName: 'videoPicked',
+        listenerFunc: (event: VideoPickedEvent) => void,
+    ): Promise<PluginListenerHandle>;
+    /**
+     * Android only: Listen for the end of a streamed `pickVideos` batch.
+     *
+     * @since 0.0.2
+     */
+    addListener(
+        eventName: 'videoPickFinished',
+        listenerFunc: (event: VideoPickFinishedEvent) => void,
+    ): Promise<PluginListenerHandle>;
+    /**
+     * Android only: Listen for copy progress of videos picked with `importToAppStorage`.
+     *
+     * @since 0.0.2
+     */
+    addListener(
+        eventName: 'importProgress',
+        listenerFunc: (event: ImportProgressEvent) => void,
+    ): Promise<PluginListenerHandle>;
+    /**
+     * Android only: Listen for progress of native uploads.
+     *
+     * @since 0.0.2
+     */
+    addListener(
+        eventName: 'uploadProgress',
+        listenerFunc: (event: UploadProgressEvent) => void,
+    ): Promise<PluginListenerHandle>;
+    /**
+     * Android only: Listen for progress of background jobs, at most a few times per second
+     * per job.
+     *
+     * @since 0.0.2
+     */
+    addListener(
+        eventName: 'jobProgress',
+        listenerFunc: (event: Job) => void,
+    ): Promise<PluginListenerHandle>;
+    /**
+     * Android only: Listen for background jobs that succeeded, failed or were cancelled.
+     *
+     * @since 0.0.2
+     */
+    addListener(
+        eventName: 'jobFinished',
+        listenerFunc: (event: Job) => void,
+    ): Promise<PluginListenerHandle>;
+    /**
+     * Android only: Listen for videos from work that was interrupted because Android stopped
+     * the app, for example while the camera app was open or picked videos were being
+     * imported. The work resumes when the app is opened again and its results arrive here
+     * instead of through the original call. Events fired before a listener is added are
+     * kept and delivered to the first listener.
+     *
+     * @since 0.0.2
+     */
+    addListener(
+        eventName: 'videoRecovered',
+        listenerFunc: (event: VideoRecoveredEvent) => void,
+    ): Promise<PluginListenerHandle>;
+    /**
+     * Remove all listeners for this plugin.
+     *
+     * @since 0.0.2
+     */
+    removeAllListeners(): Promise<void>;
     /**
      * Text value to use when displaying the prompt.
      * @default: 'Video'
@@ -83,6 +312,73 @@ export interface VideoOptions {
     * @since 0.0.1
     */
     source?: VideoSource;
+    /**
+    * Android only: Copy a video picked from the gallery into the app's files directory
+    * and return a stable file:// path instead of the content:// URI.
+    * @default false
+    *
+    * @since 0.0.2
+    */
+    importToAppStorage?: boolean;
+    /**
+    * Android only: Stop recording after this many seconds.
+    *
+    * @since 0.0.2
+    */
+    maxDurationSeconds?: number;
+    /**
+    * Android only: Stop recording once the file reaches this many bytes. The limit is
+    * further capped by the free space on the device.
+    *
+    * @since 0.0.2
+    */
+    maxSizeBytes?: number;
+    /**
+    * Android only: Recording quality. A high quality recording is moved down to low
+    * quality when there is not enough free space for it; if even that does not fit,
+    * `getVideo` rejects before opening the camera.
+    * @default 'high'
+    *
+    * @since 0.0.2
+    */
+    quality?: 'low' | 'high';
+    /**
+    * Android only: How the video is recorded. `intent` opens the device's camera app.
+    * `inProcess` records inside the app with the back camera and no preview, until
+    * `stopRecording` is called or a limit is reached; the camera stays open between
+    * recordings so repeat recordings start faster.
+    * @default 'intent'
+    *
+    * @since 0.0.2
+    */
+    backend?: 'intent' | 'inProcess';
+    /**
+    * Android only: Rewrites the recorded video so its metadata comes before the media
+    * data, letting players start playback before the whole file has been downloaded.
+    * @default false
+    *
+    * @since 0.0.2
+    */
+    fastStart?: boolean;
+    /**
+    * Android only: Hash the video's content and report an earlier video with the same
+    * content through `duplicateOf`. A gallery video that was imported before is not
+    * copied again.
+    * @default false
+    *
+    * @since 0.0.2
+    */
+    detectDuplicates?: boolean;
+    /**
+    * Android only: Put the recording in the device's Movies collection. From Android 10
+    * the video is recorded straight into the gallery and only shows up there once it is
+    * finished; `fastStart` is skipped for it. On older versions the finished video is
+    * copied there once, which needs the `videos` permission.
+    * @default false
+    *
+    * @since 0.0.2
+    */
+    saveToGallery?: boolean;
 }
 
 export interface Video {
@@ -95,37 +391,1013 @@ export interface Video {
     path?: string;
     /**
      * webPath returns a path that can be used to set the src attribute of an video for efficient
-     * loading and rendering.
+     * loading and rendering. On Android with the `localServer` option, videos stored by the
+     * plugin get an `http://127.0.0.1` URL of the plugin's own server instead.
      *
      * @since 0.0.1
      */
     webPath?: string;
+    /**
+     * Android only: The content:// URI the video was imported from when
+     * `importToAppStorage` is enabled.
+     *
+     * @since 0.0.2
+     */
+    originalPath?: string;
+    /**
+     * Android only: SHA-256 tree hash of the video's content, set when
+     * `detectDuplicates` is enabled.
+     *
+     * @since 0.0.2
+     */
+    hash?: string;
+    /**
+     * Android only: Path of an earlier picked, imported or recorded video with the
+     * same content, set when `detectDuplicates` is enabled.
+     *
+     * @since 0.0.2
+     */
+    duplicateOf?: string;
+    /**
+     * Android only: Whether the video was saved in the gallery, set when `saveToGallery`
+     * is enabled. `path` is then a content:// URI; when saving failed the video stays
+     * in app storage.
+     *
+     * @since 0.0.2
+     */
+    saved?: boolean;
 }
 
 export interface Videos {
     /**
-     * Array of all the picked videos.
+     * Array of all the picked videos, in the order they were selected.
      *
      * @since 0.0.1
      */
-    photos: Video[];
+    videos: Video[];
+    /**
+     * Android only: Identifier of a streamed batch, set when `stream` is enabled.
+     *
+     * @since 0.0.2
+     */
+    batchId?: string;
+    /**
+     * Android only: Number of videos that will be emitted for a streamed batch.
+     *
+     * @since 0.0.2
+     */
+    count?: number;
 }
 
-export interface GalleryVideoOptions {
+export interface VideoPickedEvent {
     /**
-     * iOS only: The presentation style of the Camera.
-     * @default: 'fullscreen'
+     * The `batchId` returned by `pickVideos`.
      *
-     * @since 0.0.1
+     * @since 0.0.2
      */
-    presentationStyle?: 'fullscreen' | 'popover';
+    batchId: string;
     /**
-     * iOS only: Maximum number of videos the user will be able to choose.
-     * @default 0 (unlimited)
+     * Position of the video in the user's selection.
      *
-     * @since 0.0.1
+     * @since 0.0.2
      */
-    limit?: number;
+    index: number;
+    /**
+     * The resolved video, unless it could not be processed.
+     *
+     * @since 0.0.2
+     */
+    video?: Video;
+    /**
+     * Reason the video could not be processed.
+     *
+     * @since 0.0.2
+     */
+    error?: string;
+}
+
+export interface VideoRecoveredEvent {
+    /**
+     * Whether the video was recorded with `getVideo` or picked.
+     *
+     * @since 0.0.2
+     */
+    source: 'capture' | 'pick';
+    /**
+     * Picked videos only: identifies the pick the video belongs to. Equal to the `batchId`
+     * returned by `pickVideos` when `stream` was enabled.
+     *
+     * @since 0.0.2
+     */
+    batchId?: string;
+    /**
+     * Picked videos only: the content:// URI that was picked.
+     *
+     * @since 0.0.2
+     */
+    originalPath?: string;
+    /**
+     * The video, unless it could not be recovered.
+     *
+     * @since 0.0.2
+     */
+    video?: Video;
+    /**
+     * Reason the video could not be recovered.
+     *
+     * @since 0.0.2
+     */
+    error?: string;
+}
+
+export interface VideoPickFinishedEvent {
+    /**
+     * The `batchId` returned by `pickVideos`.
+     *
+     * @since 0.0.2
+     */
+    batchId: string;
+    /**
+     * Number of videos in the batch.
+     *
+     * @since 0.0.2
+     */
+    count: number;
+    /**
+     * Number of videos that could not be processed.
+     *
+     * @since 0.0.2
+     */
+    failed: number;
+}
+
+export interface VideoMetadataOptions {
+    /**
+     * Paths returned by `getVideo` or `pickVideos`.
+     *
+     * @since 0.0.2
+     */
+    paths: string[];
+}
+
+export interface VideoMetadata {
+    /**
+     * The path this entry belongs to.
+     *
+     * @since 0.0.2
+     */
+    path: string;
+    /**
+     * Duration in milliseconds.
+     *
+     * @since 0.0.2
+     */
+    duration?: number;
+    /**
+     * Width of the encoded frames in pixels.
+     *
+     * @since 0.0.2
+     */
+    width?: number;
+    /**
+     * Height of the encoded frames in pixels.
+     *
+     * @since 0.0.2
+     */
+    height?: number;
+    /**
+     * Clockwise rotation in degrees to apply when displaying the video.
+     *
+     * @since 0.0.2
+     */
+    rotation?: number;
+    /**
+     * Average bitrate in bits per second.
+     *
+     * @since 0.0.2
+     */
+    bitrate?: number;
+    /**
+     * File size in bytes.
+     *
+     * @since 0.0.2
+     */
+    size?: number;
+    /**
+     * MIME type of the container.
+     *
+     * @since 0.0.2
+     */
+    mimeType?: string;
+    /**
+     * Set instead of the other fields when the video could not be read.
+     *
+     * @since 0.0.2
+     */
+    error?: string;
+}
+
+export interface VideoMetadataResult {
+    /**
+     * Metadata for each requested path, in the same order.
+     *
+     * @since 0.0.2
+     */
+    videos: VideoMetadata[];
+}
+
+export interface ThumbnailOptions {
+    /**
+     * Paths returned by `getVideo` or `pickVideos`.
+     *
+     * @since 0.0.2
+     */
+    paths: string[];
+    /**
+     * Maximum width and height of the thumbnail in pixels.
+     * @default 320
+     *
+     * @since 0.0.2
+     */
+    maxSize?: number;
+    /**
+     * Image format of the thumbnail.
+     * @default 'jpeg'
+     *
+     * @since 0.0.2
+     */
+    format?: 'jpeg' | 'webp';
+    /**
+     * Compression quality between 0 and 100.
+     * @default 80
+     *
+     * @since 0.0.2
+     */
+    quality?: number;
+    /**
+     * Position of the frame in milliseconds. The nearest keyframe is used.
+     * @default 0
+     *
+     * @since 0.0.2
+     */
+    timeMs?: number;
+}
+
+export interface Thumbnail {
+    /**
+     * The video path this thumbnail belongs to.
+     *
+     * @since 0.0.2
+     */
+    path: string;
+    /**
+     * file:// URL of the cached thumbnail.
+     *
+     * @since 0.0.2
+     */
+    thumbnailPath?: string;
+    /**
+     * Path that can be used as the src of an image.
+     *
+     * @since 0.0.2
+     */
+    webPath?: string;
+    /**
+     * Set instead of the paths when no thumbnail could be created.
+     *
+     * @since 0.0.2
+     */
+    error?: string;
+}
+
+export interface ThumbnailResult {
+    /**
+     * A thumbnail for each requested path, in the same order.
+     *
+     * @since 0.0.2
+     */
+    thumbnails: Thumbnail[];
+}
+
+export interface ReadChunkOptions {
+    /**
+     * Path returned by `getVideo` or `pickVideos`.
+     *
+     * @since 0.0.2
+     */
+    path: string;
+    /**
+     * Position of the first byte to read.
+     * @default 0
+     *
+     * @since 0.0.2
+     */
+    offset?: number;
+    /**
+     * Number of bytes to read, at most the `maxChunkSize` config value.
+     * @default maxChunkSize
+     *
+     * @since 0.0.2
+     */
+    length?: number;
+    /**
+     * Encoding of the returned data.
+     * @default 'base64'
+     *
+     * @since 0.0.2
+     */
+    encoding?: 'base64' | 'hex';
+}
+
+export interface ReadChunkResult {
+    /**
+     * The encoded bytes.
+     *
+     * @since 0.0.2
+     */
+    data: string;
+    /**
+     * Position of the first byte read.
+     *
+     * @since 0.0.2
+     */
+    offset: number;
+    /**
+     * Number of bytes read, less than requested at the end of the file.
+     *
+     * @since 0.0.2
+     */
+    length: number;
+    /**
+     * Whether the chunk reaches the end of the file.
+     *
+     * @since 0.0.2
+     */
+    eof: boolean;
+}
+
+export interface UploadOptions {
+    /**
+     * Path returned by `getVideo` or `pickVideos`. Required unless resuming.
+     *
+     * @since 0.0.2
+     */
+    path?: string;
+    /**
+     * URL every part is sent to. `{uploadId}` and `{partNumber}` are substituted,
+     * and each request carries a `Content-Range` header. Required unless resuming.
+     *
+     * @since 0.0.2
+     */
+    url?: string;
+    /**
+     * HTTP method used for the parts.
+     * @default 'PUT'
+     *
+     * @since 0.0.2
+     */
+    method?: string;
+    /**
+     * Headers sent with every request. They are never written to disk, so pass them
+     * again when resuming.
+     *
+     * @since 0.0.2
+     */
+    headers?: { [key: string]: string };
+    /**
+     * Size of each part in bytes, at least 256 KB.
+     * @default 8388608
+     *
+     * @since 0.0.2
+     */
+    partSize?: number;
+    /**
+     * URL that receives a JSON POST of `{ uploadId, parts: [{ partNumber, etag }] }`
+     * once all parts are uploaded.
+     *
+     * @since 0.0.2
+     */
+    completeUrl?: string;
+    /**
+     * Resume the persisted upload with this id instead of starting a new one. If the
+     * file changed size or modification time since, it is uploaded again from the start.
+     *
+     * @since 0.0.2
+     */
+    uploadId?: string;
+}
+
+export interface UploadResult {
+    /**
+     * Identifier of the upload.
+     *
+     * @since 0.0.2
+     */
+    uploadId: string;
+    /**
+     * Number of bytes uploaded.
+     *
+     * @since 0.0.2
+     */
+    size: number;
+    /**
+     * Number of parts.
+     *
+     * @since 0.0.2
+     */
+    parts: number;
+}
+
+export interface UploadState {
+    /**
+     * Identifier to pass to `uploadVideo` to resume.
+     *
+     * @since 0.0.2
+     */
+    uploadId: string;
+    /**
+     * The path being uploaded.
+     *
+     * @since 0.0.2
+     */
+    path: string;
+    /**
+     * Bytes in parts that have been accepted.
+     *
+     * @since 0.0.2
+     */
+    bytes: number;
+    /**
+     * Size of the file in bytes.
+     *
+     * @since 0.0.2
+     */
+    total: number;
+    /**
+     * Whether the upload is currently running.
+     *
+     * @since 0.0.2
+     */
+    active: boolean;
+}
+
+export interface Job {
+    /**
+     * Identifier to pass to `cancelJob`.
+     *
+     * @since 0.0.2
+     */
+    jobId: string;
+    /**
+     * What the job does. Each type has its own limit on how many run at once.
+     *
+     * @since 0.0.2
+     */
+    type: 'processCapture' | 'import' | 'trim' | 'segment' | 'concat';
+    /**
+     * The video the job works on.
+     *
+     * @since 0.0.2
+     */
+    path?: string;
+    /**
+     * Jobs with a higher priority start first.
+     *
+     * @since 0.0.2
+     */
+    priority: number;
+    /**
+     * @since 0.0.2
+     */
+    state: 'queued' | 'running' | 'succeeded' | 'failed' | 'cancelled';
+    /**
+     * Bytes processed so far.
+     *
+     * @since 0.0.2
+     */
+    bytes: number;
+    /**
+     * Bytes to process in total, -1 if unknown.
+     *
+     * @since 0.0.2
+     */
+    total: number;
+    /**
+     * When the job was queued, in milliseconds since the epoch.
+     *
+     * @since 0.0.2
+     */
+    createdAt: number;
+    /**
+     * Why a failed job failed.
+     *
+     * @since 0.0.2
+     */
+    error?: string;
+}
+
+export interface UploadProgressEvent {
+    /**
+     * Identifier of the upload.
+     *
+     * @since 0.0.2
+     */
+    uploadId: string;
+    /**
+     * Bytes in parts that have been accepted.
+     *
+     * @since 0.0.2
+     */
+    bytes: number;
+    /**
+     * Size of the file in bytes.
+     *
+     * @since 0.0.2
+     */
+    total: number;
+}
+
+export interface Recording {
+    /**
+     * file:// URL of the recording.
+     *
+     * @since 0.0.2
+     */
+    path: string;
+    /**
+     * Path that can be used as the src of a video element.
+     *
+     * @since 0.0.2
+     */
+    webPath: string;
+    /**
+     * Size in bytes.
+     *
+     * @since 0.0.2
+     */
+    size: number;
+    /**
+     * Creation time in milliseconds since the epoch.
+     *
+     * @since 0.0.2
+     */
+    created: number;
+    /**
+     * Last time the recording was used, in milliseconds since the epoch.
+     *
+     * @since 0.0.2
+     */
+    lastAccessed: number;
+}
+
+export interface StorageUsage {
+    /**
+     * Total size of the recordings in bytes.
+     *
+     * @since 0.0.2
+     */
+    bytes: number;
+    /**
+     * Number of recordings.
+     *
+     * @since 0.0.2
+     */
+    count: number;
+    /**
+     * Configured quota in bytes, or 0 if unlimited.
+     *
+     * @since 0.0.2
+     */
+    maxBytes: number;
+}
+
+export interface ListVideosOptions {
+    /**
+     * Number of videos to skip.
+     * @default 0
+     *
+     * @since 0.0.2
+     */
+    offset?: number;
+    /**
+     * Maximum number of videos to return, at most 500.
+     * @default 50
+     *
+     * @since 0.0.2
+     */
+    limit?: number;
+    /**
+     * Order of the videos, always descending: newest or largest first.
+     * @default 'dateAdded'
+     *
+     * @since 0.0.2
+     */
+    sortBy?: 'dateAdded' | 'dateModified' | 'size';
+    /**
+     * Only list videos added at or after this time, in milliseconds since the epoch.
+     *
+     * @since 0.0.2
+     */
+    since?: number;
+}
+
+export interface ListVideosResult {
+    /**
+     * The videos of the requested page.
+     *
+     * @since 0.0.2
+     */
+    videos: GalleryVideo[];
+    /**
+     * Whether there are videos after this page.
+     *
+     * @since 0.0.2
+     */
+    hasMore: boolean;
+}
+
+export interface GalleryVideo {
+    /**
+     * content:// URI of the video, usable as the path of the other methods.
+     *
+     * @since 0.0.2
+     */
+    path: string;
+    /**
+     * webPath of the video, usable as the src of a video element.
+     *
+     * @since 0.0.2
+     */
+    webPath: string;
+    /**
+     * @since 0.0.2
+     */
+    name: string;
+    /**
+     * @since 0.0.2
+     */
+    mimeType: string;
+    /**
+     * Size in bytes.
+     *
+     * @since 0.0.2
+     */
+    size: number;
+    /**
+     * Duration in milliseconds, 0 if the media store doesn't know it.
+     *
+     * @since 0.0.2
+     */
+    duration: number;
+    /**
+     * @since 0.0.2
+     */
+    width: number;
+    /**
+     * @since 0.0.2
+     */
+    height: number;
+    /**
+     * When the video was added, in milliseconds since the epoch.
+     *
+     * @since 0.0.2
+     */
+    dateAdded: number;
+    /**
+     * When the video was last modified, in milliseconds since the epoch.
+     *
+     * @since 0.0.2
+     */
+    dateModified: number;
+}
+
+export interface TrimOptions {
+    /**
+     * Path returned by `getVideo` or `pickVideos`.
+     *
+     * @since 0.0.2
+     */
+    path: string;
+    /**
+     * Start of the range to keep, in milliseconds.
+     * @default 0
+     *
+     * @since 0.0.2
+     */
+    startMs?: number;
+    /**
+     * End of the range to keep, in milliseconds.
+     * @default 0 (the end of the video)
+     *
+     * @since 0.0.2
+     */
+    endMs?: number;
+}
+
+export interface TrimResult {
+    /**
+     * Path of the trimmed video.
+     *
+     * @since 0.0.2
+     */
+    path: string;
+    /**
+     * webPath of the trimmed video, usable as the src of a video element.
+     *
+     * @since 0.0.2
+     */
+    webPath: string;
+    /**
+     * Where the trimmed video starts in the original, in milliseconds. This is the keyframe
+     * the cut moved back to.
+     *
+     * @since 0.0.2
+     */
+    startMs: number;
+    /**
+     * Where the trimmed video ends in the original, in milliseconds.
+     *
+     * @since 0.0.2
+     */
+    endMs: number;
+}
+
+export interface SegmentOptions {
+    /**
+     * Path returned by `getVideo` or `pickVideos`.
+     *
+     * @since 0.0.2
+     */
+    path: string;
+    /**
+     * Minimum length of a segment in seconds. Each segment ends at the first keyframe after
+     * this, so segments run longer by up to one keyframe interval.
+     * @default 6
+     *
+     * @since 0.0.2
+     */
+    segmentSeconds?: number;
+    /**
+     * `mp4` writes standalone MP4 files, `fmp4` a fragmented MP4 split into an init segment
+     * and media segments.
+     * @default 'mp4'
+     *
+     * @since 0.0.2
+     */
+    format?: 'mp4' | 'fmp4';
+}
+
+export interface SegmentResult {
+    /**
+     * Format of the segments.
+     *
+     * @since 0.0.2
+     */
+    format: 'mp4' | 'fmp4';
+    /**
+     * Path of the init segment holding `ftyp` and `moov`, for `fmp4` only. Media segments
+     * play once appended after it.
+     *
+     * @since 0.0.2
+     */
+    initPath?: string;
+    /**
+     * The segments in playback order.
+     *
+     * @since 0.0.2
+     */
+    segments: VideoSegment[];
+}
+
+export interface VideoSegment {
+    /**
+     * Path of the segment file.
+     *
+     * @since 0.0.2
+     */
+    path: string;
+    /**
+     * webPath of the segment, for `mp4` segments only.
+     *
+     * @since 0.0.2
+     */
+    webPath?: string;
+    /**
+     * Where the segment starts in the original, in milliseconds.
+     *
+     * @since 0.0.2
+     */
+    startMs: number;
+    /**
+     * Where the segment ends in the original, in milliseconds.
+     *
+     * @since 0.0.2
+     */
+    endMs: number;
+    /**
+     * Size of the segment file in bytes.
+     *
+     * @since 0.0.2
+     */
+    size: number;
+}
+
+export interface ConcatResult {
+    /**
+     * Path of the joined video.
+     *
+     * @since 0.0.2
+     */
+    path: string;
+    /**
+     * webPath of the joined video, usable as the src of a video element.
+     *
+     * @since 0.0.2
+     */
+    webPath: string;
+    /**
+     * Duration of the joined video, in milliseconds.
+     *
+     * @since 0.0.2
+     */
+    durationMs: number;
+    /**
+     * Size of the joined video in bytes.
+     *
+     * @since 0.0.2
+     */
+    size: number;
+}
+
+export interface SeekIndex {
+    /**
+     * Number of keyframes.
+     *
+     * @since 0.0.2
+     */
+    count: number;
+    /**
+     * Duration of the video track, in seconds.
+     *
+     * @since 0.0.2
+     */
+    duration: number;
+    /**
+     * Presentation times of the keyframes in seconds, in order. Base64 encoded little-endian
+     * doubles, decode with
+     * `new Float64Array(Uint8Array.from(atob(times), (c) => c.charCodeAt(0)).buffer)`.
+     *
+     * @since 0.0.2
+     */
+    times: string;
+    /**
+     * Byte offsets of the keyframes in the file, encoded like `times`.
+     *
+     * @since 0.0.2
+     */
+    offsets: string;
+}
+
+export interface Metrics {
+    /**
+     * When counting started, in milliseconds since the epoch.
+     *
+     * @since 0.0.2
+     */
+    since: number;
+    /**
+     * Event counts and byte totals by name, for example `metadata.cacheHits` or
+     * `import.bytes`.
+     *
+     * @since 0.0.2
+     */
+    counters: { [name: string]: number };
+    /**
+     * Latencies by stage name, for example `capture`, `import` or `hash`.
+     *
+     * @since 0.0.2
+     */
+    stages: { [name: string]: StageMetrics };
+}
+
+export interface StageMetrics {
+    /**
+     * How many times the stage ran.
+     *
+     * @since 0.0.2
+     */
+    count: number;
+    /**
+     * Total time spent in the stage, in milliseconds.
+     *
+     * @since 0.0.2
+     */
+    totalMs: number;
+    /**
+     * Average time per run, in milliseconds.
+     *
+     * @since 0.0.2
+     */
+    meanMs: number;
+    /**
+     * Longest run, in milliseconds.
+     *
+     * @since 0.0.2
+     */
+    maxMs: number;
+    /**
+     * Median time per run, in milliseconds. Percentiles are estimated from a histogram, so
+     * they are approximate.
+     *
+     * @since 0.0.2
+     */
+    p50Ms: number;
+    /**
+     * 90th percentile time per run, in milliseconds.
+     *
+     * @since 0.0.2
+     */
+    p90Ms: number;
+    /**
+     * 99th percentile time per run, in milliseconds.
+     *
+     * @since 0.0.2
+     */
+    p99Ms: number;
+}
+
+export interface PrewarmOptions {
+    /**
+     * The backend the next recording will use.
+     * @default 'intent'
+     *
+     * @since 0.0.2
+     */
+    backend?: 'intent' | 'inProcess';
+}
+
+export interface GalleryVideoOptions {
+    /**
+     * iOS only: The presentation style of the Camera.
+     * @default: 'fullscreen'
+     *
+     * @since 0.0.1
+     */
+    presentationStyle?: 'fullscreen' | 'popover';
+    /**
+     * iOS only: Maximum number of videos the user will be able to choose.
+     * @default 0 (unlimited)
+     *
+     * @since 0.0.1
+     */
+    limit?: number;
+    /**
+     * Android only: Resolve as soon as the picker closes and deliver each video through
+     * a `videoPicked` event as it becomes ready, followed by a `videoPickFinished` event.
+     * The returned `videos` array is empty in this mode.
+     * @default false
+     *
+     * @since 0.0.2
+     */
+    stream?: boolean;
+    /**
+     * Android only: Copy the picked videos into the app's files directory and return
+     * stable file:// paths instead of content:// URIs.
+     * @default false
+     *
+     * @since 0.0.2
+     */
+    importToAppStorage?: boolean;
+    /**
+     * Android only: Hash every picked video and report earlier videos with the same
+     * content through `duplicateOf`. Videos that were imported before are not copied
+     * again.
+     * @default false
+     *
+     * @since 0.0.2
+     */
+    detectDuplicates?: boolean;
+}
+
+export interface ImportProgressEvent {
+    /**
+     * The content:// URI being imported.
+     *
+     * @since 0.0.2
+     */
+    path: string;
+    /**
+     * Number of bytes copied so far.
+     *
+     * @since 0.0.2
+     */
+    bytes: number;
+    /**
+     * Total size in bytes, or -1 if the source does not report it.
+     *
+     * @since 0.0.2
+     */
+    total: number;
 }
 
 export declare enum VideoSource {